@@ -0,0 +1,119 @@
+package minimumFreeEnergyPath.core;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/** Converts a table of transition counts from dat/in into a free energy
+ * table, so benchmarks can run on the real datasets without R
+ *
+ * Each line of the input holds the x and y of the state left, the x and y of
+ * the state entered and the number of transitions. The population of a state
+ * is taken as the number of transitions into and out of it, which for
+ * reversible data is proportional to the stationary distribution
+ * FreeEnergyUtility.r finds by eigendecomposition, and free energy is
+ * -kT log(population / maximum population)
+ */
+final class CountSurfaceConverter {
+
+	/** Boltzmann constant in kcal/mol/K, as in FreeEnergyUtility.r */
+	private static final double K = 0.001987204118;
+	/** Temperature in K, as in dat/in/readfile.dat */
+	private static final double TEMPERATURE = 300;
+	/** Minimum separation of bins on the x axis, as in dat/in/readfile.dat */
+	private static final double X_SCALE = 1;
+	/** Minimum separation of bins on the y axis, as in dat/in/readfile.dat */
+	private static final double Y_SCALE = 0.1;
+
+	/** Utility class not to be instantiated */
+	private CountSurfaceConverter() {
+	}
+
+	/** Reads a table of transition counts and writes the free energy table
+	 * in the format of FreeEnergyUtility.r - O(n)
+	 * @param counts The table of transition counts
+	 * @param table The free energy table to be written
+	 * @throws IOException
+	 */
+	static void convert(File counts, File table) throws IOException {
+		// find the extent of the grid
+		int width = 0;
+		int height = 0;
+		try (BufferedReader in = open(counts)) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] words = line.trim().split("\\s+");
+				if (words.length < 5) {
+					continue;
+				}
+				width = Math.max(width, Math.max(xIndex(words[0]), xIndex(words[2])) + 1);
+				height = Math.max(height, Math.max(yIndex(words[1]), yIndex(words[3])) + 1);
+			}
+		}
+
+		// accumulate populations
+		double[] population = new double[width * height];
+		try (BufferedReader in = open(counts)) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] words = line.trim().split("\\s+");
+				if (words.length < 5) {
+					continue;
+				}
+				double count = Double.parseDouble(words[4]);
+				population[yIndex(words[1]) * width + xIndex(words[0])] += count;
+				population[yIndex(words[3]) * width + xIndex(words[2])] += count;
+			}
+		}
+		double max = 0;
+		for (double p : population) {
+			max = Math.max(max, p);
+		}
+
+		try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(table), StandardCharsets.US_ASCII))) {
+			out.write("\"\"");
+			for (int x = 0; x < width; x++) {
+				out.write("\t\"" + format(x * X_SCALE) + "\"");
+			}
+			out.write('\n');
+			for (int y = 0; y < height; y++) {
+				out.write("\"" + format(y * Y_SCALE) + "\"");
+				for (int x = 0; x < width; x++) {
+					double p = population[y * width + x];
+					out.write(p > 0 ? "\t\"" + String.format(Locale.ROOT, "%f", -K * TEMPERATURE * Math.log(p / max)) + "\"" : "\t\"\"");
+				}
+				out.write('\n');
+			}
+		}
+	}
+
+	private static BufferedReader open(File file) throws IOException {
+		return new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.US_ASCII));
+	}
+
+	private static int xIndex(String x) {
+		return (int) Math.round(Double.parseDouble(x) / X_SCALE);
+	}
+
+	private static int yIndex(String y) {
+		return (int) Math.round(Double.parseDouble(y) / Y_SCALE);
+	}
+
+	/** Formats an axis value as R would, without trailing zeros
+	 * @param value The axis value
+	 * @return The formatted value
+	 */
+	private static String format(double value) {
+		String s = String.format(Locale.ROOT, "%.6f", value);
+		s = s.replaceAll("0+$", "");
+		return s.endsWith(".") ? s.substring(0, s.length() - 1) : s;
+	}
+}
@@ -0,0 +1,50 @@
+package minimumFreeEnergyPath.core;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+import org.openjdk.jmh.annotations.Param;
+
+/** Benchmarks on the surfaces of the datasets in dat/in, found relative to
+ * the working directory or in the directory given by -Ddataset.dir
+ */
+public class DatasetSurfaceBenchmark extends SurfaceBenchmark {
+
+	/** Directories searched for datasets when none is given */
+	private static final String[] DATASET_DIRECTORIES = {"dat/in", "../dat/in"};
+
+	/** Name of the table of transition counts */
+	@Param({
+		"mod_select_above_delete_yes_5_not-normalized.dat",
+		"mod_select_above_delete_yes_10_not-normalized.dat",
+		"mod_select_above_delete_yes_20_not-normalized.dat"})
+	public String dataset;
+
+	@Override
+	protected File createTable() throws IOException {
+		File counts = findDataset();
+		File table = File.createTempFile("free_energy_", "_" + dataset);
+		table.deleteOnExit();
+		CountSurfaceConverter.convert(counts, table);
+		return table;
+	}
+
+	/** Finds the table of transition counts
+	 * @return The table
+	 * @throws FileNotFoundException if it is in none of the directories searched
+	 */
+	private File findDataset() throws FileNotFoundException {
+		String directory = System.getProperty("dataset.dir");
+		if (directory != null) {
+			return new File(directory, dataset);
+		}
+		for (String d : DATASET_DIRECTORIES) {
+			File counts = new File(d, dataset);
+			if (counts.isFile()) {
+				return counts;
+			}
+		}
+		throw new FileNotFoundException(dataset + " not found, set -Ddataset.dir");
+	}
+}
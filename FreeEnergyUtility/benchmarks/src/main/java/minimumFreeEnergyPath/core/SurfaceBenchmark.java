@@ -0,0 +1,151 @@
+package minimumFreeEnergyPath.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import minimumFreeEnergyPath.gridSurface.GridSurface;
+import minimumFreeEnergyPath.weightedVertexGraph.WeightedVertexGraph;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks of each stage of finding a path, run on the surface given by
+ * a subclass. Stages are measured separately so that each "O(n)" claim can
+ * be checked by varying the surface size, and with -prof gc their allocation
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public abstract class SurfaceBenchmark {
+
+	/** Largest surface for which the JGraphT graph is built, as it takes
+	 * several hundred bytes per cell */
+	private static final int MAX_GRAPH_CELLS = 1 << 20;
+
+	/** Free energy table, as written by FreeEnergyUtility.r */
+	private File table;
+	/** Binary copy of the table */
+	private File binary;
+	/** Destination of written paths */
+	private File output;
+	/** The surface read from the table */
+	private GridSurface surface;
+	/** The graph built from the surface, or null if the surface is too large */
+	private WeightedVertexGraph graph;
+	/** Start of the path, the accessible cell of highest energy */
+	private int startCell;
+	/** The path from the start cell */
+	private int[] path;
+	/** Pool in which descent forests are built */
+	private ForkJoinPool pool;
+
+	/** Finds or creates the free energy table to be benchmarked
+	 * @return The table
+	 * @throws IOException
+	 */
+	protected abstract File createTable() throws IOException;
+
+	@Setup
+	public void setUp() throws IOException {
+		table = createTable();
+		surface = SurfaceParser.parse(table.getPath());
+		binary = File.createTempFile("surface", BinarySurfaceFormat.EXTENSION);
+		BinarySurfaceFormat.write(binary.getPath(), surface, Double.NaN, 0, 0, false);
+		output = File.createTempFile("surface", "_path.dat");
+
+		startCell = -1;
+		for (int cell = 0; cell < surface.size(); cell++) {
+			if (surface.isAccessible(cell) && (startCell < 0 || surface.getEnergy(cell) > surface.getEnergy(startCell))) {
+				startCell = cell;
+			}
+		}
+		path = MostProbableFoldingPath.findPathBetween(surface, startCell, surface.getMinimumCell());
+		if (surface.size() <= MAX_GRAPH_CELLS) {
+			graph = FileUtility.toGraph(surface, surface.getX(startCell), surface.getY(startCell));
+		}
+		pool = new ForkJoinPool();
+	}
+
+	@TearDown
+	public void tearDown() {
+		pool.shutdown();
+		binary.delete();
+		output.delete();
+		new File(table.getPath() + BinarySurfaceFormat.EXTENSION).delete();
+	}
+
+	/** Parses the table, the work done by readToSurface without a binary copy */
+	@Benchmark
+	public GridSurface parseTable() throws IOException {
+		return SurfaceParser.parse(table.getPath());
+	}
+
+	/** Maps the binary copy and scans every cell for the minimum */
+	@Benchmark
+	public int readBinary() throws IOException {
+		return BinarySurfaceFormat.read(binary.getPath()).getMinimumCell();
+	}
+
+	/** Reads the table into a JGraphT graph, using the binary copy after the first call */
+	@Benchmark
+	public WeightedVertexGraph readToGraph() throws IOException {
+		checkGraph();
+		return FileUtility.readToGraph(table.getPath(), surface.getX(startCell), surface.getY(startCell));
+	}
+
+	/** Builds the JGraphT graph from a surface already read */
+	@Benchmark
+	public WeightedVertexGraph buildGraph() {
+		checkGraph();
+		return FileUtility.toGraph(surface, surface.getX(startCell), surface.getY(startCell));
+	}
+
+	/** Finds the path on the JGraphT graph */
+	@Benchmark
+	public List<DefaultWeightedEdge> findPathOnGraph() {
+		checkGraph();
+		return MostProbableFoldingPath.findPathBetween(graph, graph.getStartVertex(), graph.getEndVertex());
+	}
+
+	/** Finds the path on the grid */
+	@Benchmark
+	public int[] findPathBetween() {
+		return MostProbableFoldingPath.findPathBetween(surface, startCell, surface.getMinimumCell());
+	}
+
+	/** Finds the path from every cell at once */
+	@Benchmark
+	public DescentForest buildDescentForest() {
+		return new DescentForest(surface, pool);
+	}
+
+	/** Writes the path to file */
+	@Benchmark
+	public void writeFromPath() {
+		FileUtility.writeFromPath(output.getPath(), surface, path);
+	}
+
+	/** Fails a benchmark of the graph on a surface too large to build one */
+	private void checkGraph() {
+		if (graph == null) {
+			throw new UnsupportedOperationException("graph benchmarks are limited to "
+					+ MAX_GRAPH_CELLS + " cells, this surface has " + surface.size());
+		}
+	}
+}
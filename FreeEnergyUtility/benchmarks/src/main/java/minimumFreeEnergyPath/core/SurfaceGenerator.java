@@ -0,0 +1,180 @@
+package minimumFreeEnergyPath.core;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/** Writes synthetic free energy surfaces in the table format of FreeEnergyUtility.r
+ *
+ * Energy is a sum of Gaussian wells, one per basin, plus value noise on a
+ * coarse lattice scaled by the roughness, shifted so the minimum is zero.
+ * Each cell is independently inaccessible with the given probability. Every
+ * value is a hash of the seed and the cell, so surfaces of any size are
+ * written a row at a time and the same parameters always give the same file
+ */
+final class SurfaceGenerator {
+
+	/** Number of cells between lattice points of the noise */
+	private static final int NOISE_SPACING = 8;
+	/** Depth of the shallowest basin */
+	private static final double MIN_BASIN_DEPTH = 1;
+	/** Depth of the deepest basin */
+	private static final double MAX_BASIN_DEPTH = 4;
+
+	/** Number of columns */
+	private final int width;
+	/** Number of rows */
+	private final int height;
+	/** Height of the noise relative to the basin depths */
+	private final double roughness;
+	/** Probability of each cell being inaccessible */
+	private final double infDensity;
+	/** Seed from which every value is derived */
+	private final long seed;
+	/** Centre x index, centre y index, width and depth of each basin */
+	private final double[][] basins;
+	/** Noise value at each lattice point */
+	private final double[] noise;
+	/** Number of lattice points in each row of the noise */
+	private final int noiseWidth;
+
+	/** Constructor creates a new SurfaceGenerator object
+	 * @param width Number of columns
+	 * @param height Number of rows
+	 * @param roughness Height of the noise relative to the basin depths
+	 * @param basinCount Number of Gaussian wells
+	 * @param infDensity Probability of each cell being inaccessible
+	 * @param seed Seed from which every value is derived
+	 */
+	SurfaceGenerator(int width, int height, double roughness, int basinCount, double infDensity, long seed) {
+		if (width < 1 || height < 1 || basinCount < 0 || infDensity < 0 || infDensity >= 1) {
+			throw new IllegalArgumentException("invalid surface parameters");
+		}
+		this.width = width;
+		this.height = height;
+		this.roughness = roughness;
+		this.infDensity = infDensity;
+		this.seed = seed;
+
+		long key = 0;
+		basins = new double[basinCount][];
+		double spread = Math.max(width, height) / (2 * Math.sqrt(Math.max(basinCount, 1)));
+		for (int b = 0; b < basinCount; b++) {
+			basins[b] = new double[] {
+					uniform(key++) * width,
+					uniform(key++) * height,
+					spread * (0.5 + uniform(key++)),
+					MIN_BASIN_DEPTH + (MAX_BASIN_DEPTH - MIN_BASIN_DEPTH) * uniform(key++) };
+		}
+
+		noiseWidth = width / NOISE_SPACING + 2;
+		int noiseHeight = height / NOISE_SPACING + 2;
+		noise = new double[noiseWidth * noiseHeight];
+		for (int i = 0; i < noise.length; i++) {
+			noise[i] = uniform(key++) - 0.5;
+		}
+	}
+
+	/** Writes the surface to file, quoted and tab separated with column names
+	 * on the first row and a row name at the start of each row - O(n)
+	 * @param file The file to be written
+	 * @throws IOException
+	 */
+	void write(File file) throws IOException {
+		// find the minimum so the written surface starts at zero
+		double min = Double.POSITIVE_INFINITY;
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				if (isAccessible(x, y)) {
+					min = Math.min(min, energy(x, y));
+				}
+			}
+		}
+
+		StringBuilder line = new StringBuilder();
+		try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.US_ASCII), 1 << 16)) {
+			line.append("\"\"");
+			for (int x = 0; x < width; x++) {
+				line.append("\t\"").append(x).append('"');
+			}
+			out.append(line).append('\n');
+
+			for (int y = 0; y < height; y++) {
+				line.setLength(0);
+				// row names in steps of 0.1, as in dat/in/readfile.dat
+				line.append('"').append(y / 10).append('.').append(y % 10).append('"');
+				for (int x = 0; x < width; x++) {
+					line.append("\t\"");
+					if (isAccessible(x, y)) {
+						appendFixed(line, energy(x, y) - min);
+					}
+					line.append('"');
+				}
+				out.append(line).append('\n');
+			}
+		}
+	}
+
+	/** Finds the energy of a cell before shifting
+	 * @param x Column index
+	 * @param y Row index
+	 * @return The energy
+	 */
+	private double energy(int x, int y) {
+		double energy = 0;
+		for (double[] basin : basins) {
+			double dx = x - basin[0];
+			double dy = y - basin[1];
+			energy -= basin[3] * Math.exp(-(dx*dx + dy*dy) / (2 * basin[2] * basin[2]));
+		}
+
+		// bilinear interpolation of the lattice
+		int i = x / NOISE_SPACING;
+		int j = y / NOISE_SPACING;
+		double u = (x % NOISE_SPACING) / (double) NOISE_SPACING;
+		double v = (y % NOISE_SPACING) / (double) NOISE_SPACING;
+		int corner = j * noiseWidth + i;
+		double top = noise[corner] * (1 - u) + noise[corner + 1] * u;
+		double bottom = noise[corner + noiseWidth] * (1 - u) + noise[corner + noiseWidth + 1] * u;
+		return energy + roughness * MAX_BASIN_DEPTH * (top * (1 - v) + bottom * v);
+	}
+
+	/** Decides whether a cell is accessible
+	 * @param x Column index
+	 * @param y Row index
+	 * @return True unless the cell is to be written as inaccessible
+	 */
+	private boolean isAccessible(int x, int y) {
+		return uniform(~((long) y * width + x)) >= infDensity;
+	}
+
+	/** Hashes a key with the seed to a value uniform on [0, 1)
+	 * @param key The key to be hashed
+	 * @return The value
+	 */
+	private double uniform(long key) {
+		long z = seed + key * 0x9E3779B97F4A7C15L;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		z = z ^ (z >>> 31);
+		return (z >>> 11) * 0x1.0p-53;
+	}
+
+	/** Appends a non-negative value with six decimal places, as R's %f
+	 * @param line The line being built
+	 * @param value The value to be appended
+	 */
+	private static void appendFixed(StringBuilder line, double value) {
+		long micros = Math.round(value * 1e6);
+		line.append(micros / 1000000).append('.');
+		String fraction = Long.toString(micros % 1000000);
+		for (int i = fraction.length(); i < 6; i++) {
+			line.append('0');
+		}
+		line.append(fraction);
+	}
+}
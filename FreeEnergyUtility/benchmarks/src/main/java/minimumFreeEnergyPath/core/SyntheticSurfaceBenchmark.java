@@ -0,0 +1,46 @@
+package minimumFreeEnergyPath.core;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.openjdk.jmh.annotations.Param;
+
+/** Benchmarks on generated square surfaces. Tables are kept in the temporary
+ * directory between runs, as the largest take minutes to write
+ * eg. java -jar benchmarks.jar SyntheticSurfaceBenchmark -p size=100,1000,10000 -prof gc
+ */
+public class SyntheticSurfaceBenchmark extends SurfaceBenchmark {
+
+	/** Seed from which every surface is generated */
+	private static final long SEED = 20150107L;
+
+	/** Number of cells along each side */
+	@Param({"100", "1000"})
+	public int size;
+
+	/** Height of the noise relative to the basin depths */
+	@Param({"0.5"})
+	public double roughness;
+
+	/** Number of basins */
+	@Param({"16"})
+	public int basins;
+
+	/** Fraction of cells which are inaccessible */
+	@Param({"0.05"})
+	public double infDensity;
+
+	@Override
+	protected File createTable() throws IOException {
+		File table = new File(System.getProperty("java.io.tmpdir"),
+				"synthetic_" + size + "_" + roughness + "_" + basins + "_" + infDensity + ".dat");
+		if (!table.isFile()) {
+			File temp = new File(table.getPath() + ".tmp");
+			new SurfaceGenerator(size, size, roughness, basins, infDensity, SEED).write(temp);
+			if (!temp.renameTo(table)) {
+				throw new IOException("could not write " + table);
+			}
+		}
+		return table;
+	}
+}
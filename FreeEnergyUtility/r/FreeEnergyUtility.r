@@ -17,6 +17,8 @@ OUTPUT_REDUNDANT_PREFIX = "free_energy_redundant_" # to be prepended to input fi
 OUTPUT_PREFIX = "free_energy_"
 PATH_PREFIX = "path_"
 PATH_SUFFIX = "_path.dat" # to be appended to path file
+PATH_SERVER_PORTS = 49152:65535 # local ports from which MinimumFreeEnergyPath.jar may be given one to answer path requests
+PATH_SERVER_VERSION = 1 # protocol version the path server must report
 
 ## Define functions
 
@@ -69,9 +71,71 @@ SampleStandardDeviation = function(u,n=nrow(u),samples) {
   return(rowSds(qSample))
 }
 
+# Starts MinimumFreeEnergyPath.jar as a server so that the JVM is launched once per run
+# Listens on a random free local port unless one is given, and stops if the port is
+# already in use or whatever answers on it is not the server just started
+# Returns a list of the connection on which path requests can be made, the port and
+# the process id of the server, to be passed to StopPathServer
+StartPathServer = function(port=NULL) {
+  if (is.null(port)) {
+    # dynamic range, skipping ports on which something already answers
+    for (i in 1:20) {
+      port = sample(PATH_SERVER_PORTS,1)
+      if (!PortInUse(port)) break
+    }
+  }
+  if (PortInUse(port)) stop(sprintf("Port %d is already in use", port))
+  pid_file = tempfile()
+  # exec keeps the process id of the shell, so it can be recorded before java starts
+  system(sprintf("sh -c 'echo $$ > %s; exec java -jar ../MinimumFreeEnergyPath.jar --server %d'",pid_file,port), wait=FALSE)
+  for (i in 1:50) {
+    Sys.sleep(0.2)
+    con = suppressWarnings(tryCatch(socketConnection(port=port,blocking=TRUE,open="r+"), error=function(e) NULL))
+    if (!is.null(con)) break
+  }
+  pid = if (file.exists(pid_file)) as.integer(readLines(pid_file,n=1)) else NA
+  unlink(pid_file)
+  if (is.null(con)) {
+    if (!is.na(pid)) tools::pskill(pid)
+    stop(sprintf("Could not connect to path server on port %d", port))
+  }
+  server = list(con=con, port=port, pid=pid)
+  status = tryCatch(PathServerRequest(con,"status"), error=function(e) NULL)
+  if (is.null(status) || as.integer(status[1]) != PATH_SERVER_VERSION || as.integer(status[2]) != pid) {
+    StopPathServer(server)
+    stop(sprintf("Port %d is answered by something other than the path server just started", port))
+  }
+  return(server)
+}
+
+# Checks whether something already accepts connections on a local port
+PortInUse = function(port) {
+  con = suppressWarnings(tryCatch(socketConnection(port=port,blocking=TRUE,open="r+",timeout=1), error=function(e) NULL))
+  if (is.null(con)) return(FALSE)
+  close(con)
+  return(TRUE)
+}
+
+# Stops a server from StartPathServer, killing it if it does not answer
+StopPathServer = function(server) {
+  stopped = tryCatch({ PathServerRequest(server$con,"shutdown"); TRUE }, error=function(e) FALSE)
+  if (!stopped && !is.na(server$pid)) tools::pskill(server$pid)
+  try(close(server$con), silent=TRUE)
+}
+
+# Sends a single request to the path server
+# Returns the words of the reply following OK, stops if the server replies with an error
+PathServerRequest = function(con,request) {
+  writeLines(request,con)
+  reply = strsplit(readLines(con,n=1)," ")[[1]]
+  if (length(reply) == 0 || reply[1] != "OK") stop(paste(reply,collapse=" "))
+  return(reply[-1])
+}
+
 # Reads transition data from a file
 # Prints free energy and error values in text and plot form
-ComputeFreeEnergy = function(filename,t,x_scale,y_scale,x_coord,y_coord,x_lab, y_lab,samples,sample=TRUE) {
+# server is from StartPathServer, or NULL to run a new JVM for the path
+ComputeFreeEnergy = function(filename,t,x_scale,y_scale,x_coord,y_coord,x_lab, y_lab,samples,sample=TRUE,server=NULL) {
   A = read.table(paste0(DAT_IN_PREFIX,filename))  
   
   ## For especially large data sets, better to remove all zero data first
@@ -158,7 +222,11 @@ ComputeFreeEnergy = function(filename,t,x_scale,y_scale,x_coord,y_coord,x_lab, y
   ## Run Java code to find shortest path
   if (x_coord < 0) x_coord = length(x) + x_coord + 1 else x_coord = match(x_coord,x)
   if (y_coord < 0) y_coord = length(y) + y_coord + 1 else y_coord = match(y_coord,y)
-  system(sprintf("java -jar ../MinimumFreeEnergyPath.jar %s%s%s %f %f",DAT_OUT_PREFIX,OUTPUT_PREFIX,filename,x[x_coord],y[y_coord]))
+  if (is.null(server)) {
+    system(sprintf("java -jar ../MinimumFreeEnergyPath.jar %s%s%s %f %f",DAT_OUT_PREFIX,OUTPUT_PREFIX,filename,x[x_coord],y[y_coord]))
+  } else {
+    PathServerRequest(server$con,sprintf("path %s%s%s %f %f",DAT_OUT_PREFIX,OUTPUT_PREFIX,filename,x[x_coord],y[y_coord]))
+  }
   # Plot the shortest path line graph
   path = read.table(paste0(DAT_OUT_PREFIX,OUTPUT_PREFIX,filename,PATH_SUFFIX))
   path_x = c(0:(nrow(path)-1))
@@ -221,9 +289,19 @@ message(sprintf("Path start = (%s, %s)",args[4],args[5]))
 message(sprintf("X axis label = %s",x_lab))
 message(sprintf("Y axis label = %s",y_lab))
 message(sprintf("Number of samples = %d",samples))
-for (i in 9:(length(args))) {
-  message(paste0(args[i],": Calculating free energies"))
-  message(sprintf("%s: Complete in %f s", args[i], system.time(ComputeFreeEnergy(args[i], t, x_scale, y_scale, x_coord, y_coord,x_lab,y_lab, samples))[1]))
-  #message(paste0(args[i],": Calculating free energies without sampling"))
-  #message(sprintf("%s: Complete in %f s", args[i], system.time(ComputeFreeEnergy(args[i],FALSE))[1]))
+RunAll = function(filenames) {
+  # without a server, as from an older MinimumFreeEnergyPath.jar, each path starts its own JVM
+  path_server = tryCatch(StartPathServer(), error=function(e) {
+    message(paste0("Path server not started, starting java for each file: ",conditionMessage(e)))
+    NULL
+  })
+  # stop the server however the run ends, including errors and interrupts
+  if (!is.null(path_server)) on.exit(StopPathServer(path_server), add=TRUE)
+  for (filename in filenames) {
+    message(paste0(filename,": Calculating free energies"))
+    message(sprintf("%s: Complete in %f s", filename, system.time(ComputeFreeEnergy(filename, t, x_scale, y_scale, x_coord, y_coord,x_lab,y_lab, samples, server=path_server))[1]))
+    #message(paste0(filename,": Calculating free energies without sampling"))
+    #message(sprintf("%s: Complete in %f s", filename, system.time(ComputeFreeEnergy(filename,FALSE))[1]))
+  }
 }
+RunAll(args[9:length(args)])
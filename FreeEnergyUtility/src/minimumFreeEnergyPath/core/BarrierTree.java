@@ -0,0 +1,350 @@
+package minimumFreeEnergyPath.core;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import minimumFreeEnergyPath.gridSurface.GridSurface;
+
+/** The merge tree (disconnectivity graph) of a GridSurface, answering the
+ * lowest barrier between any two cells without a search
+ *
+ * Cells are added in order of ascending energy, as in MinimumBarrierPath.
+ * A cell with no neighbour yet added starts a new basin, a leaf of the tree,
+ * and a cell joining two or more basins becomes the saddle of a new node
+ * whose children are the nodes of the basins it joins. Each cell belongs to
+ * the node of its basin at the time it is added. The highest point of the
+ * lowest path between two cells is then the higher of the two cells and the
+ * saddle of the lowest common ancestor of their nodes, found by binary
+ * lifting. Built in O(n log n), queried in O(log m) for m nodes
+ */
+public final class BarrierTree {
+
+	/** The surface on which the tree is built */
+	private final GridSurface surface;
+	/** Node each cell belongs to, or -1 for inaccessible cells */
+	private final int[] cellNode;
+	/** Number of nodes */
+	private int nodeCount;
+	/** The local minimum of each leaf or the saddle of each internal node */
+	private int[] nodeCell;
+	/** Parent of each node, or -1 for the root of a connected region */
+	private int[] nodeParent;
+	/** Number of cells in the basin of each node before it joins another */
+	private int[] nodeSize;
+	/** Set for each internal node, clear for each leaf */
+	private final BitSet saddles;
+	/** Depth of each node below its root */
+	private int[] nodeDepth;
+	/** Ancestor 2^k steps above each node, or -1, indexed by k then node */
+	private int[][] ancestors;
+
+	/** Constructor builds the tree in a single sweep over the cells in order of energy
+	 * @param surface The surface to be indexed
+	 */
+	public BarrierTree(GridSurface surface) {
+		this.surface = surface;
+		this.cellNode = new int[surface.size()];
+		this.saddles = new BitSet();
+		Arrays.fill(cellNode, -1);
+
+		int accessible = 0;
+		for (int cell = 0; cell < surface.size(); cell++) {
+			if (surface.isAccessible(cell)) {
+				accessible++;
+			}
+		}
+		int[] order = new int[accessible];
+		for (int cell = 0, i = 0; cell < surface.size(); cell++) {
+			if (surface.isAccessible(cell)) {
+				order[i++] = cell;
+			}
+		}
+		surface.sortByEnergy(order); // O(n log n)
+		sweep(order);
+		order = null;
+		index();
+	}
+
+	/** Adds cells in order of energy, creating a leaf at each local minimum
+	 * and a node at each saddle - O(n log n) amortised
+	 * @param order The accessible cells sorted by energy
+	 */
+	private void sweep(int[] order) {
+		allocateNodes(64);
+		// parent of each added cell plus one, a root being its own parent
+		int[] parent = new int[surface.size()];
+		byte[] rank = new byte[surface.size()];
+		// node of the basin of which each root is the root
+		int[] rootNode = new int[surface.size()];
+		int[] neighbours = new int[surface.getMaxNeighbours()];
+		int[] roots = new int[surface.getMaxNeighbours()];
+
+		for (int cell : order) {
+			parent[cell] = cell + 1;
+
+			// find the distinct basins among the neighbours already added
+			int rootCount = 0;
+			int count = surface.getNeighbours(cell, neighbours);
+			for (int j = 0; j < count; j++) {
+				if (parent[neighbours[j]] == 0) {
+					continue;
+				}
+				int root = find(parent, neighbours[j]);
+				boolean seen = false;
+				for (int k = 0; k < rootCount && !seen; k++) {
+					seen = roots[k] == root;
+				}
+				if (!seen) {
+					roots[rootCount++] = root;
+				}
+			}
+
+			int node;
+			if (rootCount == 0) {
+				// local minimum, a new basin
+				node = newNode(cell, 1);
+			} else {
+				node = rootNode[roots[0]];
+				int size = nodeSize[node];
+				for (int k = 1; k < rootCount; k++) {
+					// each further basin joins at this saddle
+					int other = rootNode[roots[k]];
+					size += nodeSize[other];
+					int joined = newNode(cell, size);
+					saddles.set(joined);
+					nodeParent[node] = joined;
+					nodeParent[other] = joined;
+					node = joined;
+				}
+				for (int k = 0; k < rootCount; k++) {
+					union(parent, rank, cell, roots[k]);
+				}
+				nodeSize[node]++;
+			}
+			cellNode[cell] = node;
+			rootNode[find(parent, cell)] = node;
+		}
+	}
+
+	/** Computes the depth and ancestors of every node for lowest common ancestor queries - O(m log m) */
+	private void index() {
+		nodeDepth = new int[nodeCount];
+		// parents are always created after their children
+		for (int node = nodeCount - 1; node >= 0; node--) {
+			nodeDepth[node] = nodeParent[node] < 0 ? 0 : nodeDepth[nodeParent[node]] + 1;
+		}
+		int maxDepth = 0;
+		for (int node = 0; node < nodeCount; node++) {
+			maxDepth = Math.max(maxDepth, nodeDepth[node]);
+		}
+		int levels = 1;
+		while ((1 << levels) <= maxDepth) {
+			levels++;
+		}
+		ancestors = new int[levels][];
+		ancestors[0] = Arrays.copyOf(nodeParent, nodeCount);
+		for (int k = 1; k < levels; k++) {
+			ancestors[k] = new int[nodeCount];
+			for (int node = 0; node < nodeCount; node++) {
+				int half = ancestors[k - 1][node];
+				ancestors[k][node] = half < 0 ? -1 : ancestors[k - 1][half];
+			}
+		}
+	}
+
+	// Getters and setters
+	public GridSurface getSurface() {
+		return surface;
+	}
+
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	/** Finds the node a cell belongs to - O(1)
+	 * @param cell The cell to be checked
+	 * @return The node, or -1 if the cell is inaccessible
+	 */
+	public int getNode(int cell) {
+		return cellNode[cell];
+	}
+
+	/** Finds the local minimum of a leaf or the saddle of an internal node - O(1)
+	 * @param node The node to be checked
+	 * @return The cell
+	 */
+	public int getNodeCell(int node) {
+		return nodeCell[node];
+	}
+
+	/** Finds the parent of a node - O(1)
+	 * @param node The node to be checked
+	 * @return The parent, or -1 for the root of a connected region
+	 */
+	public int getParent(int node) {
+		return nodeParent[node];
+	}
+
+	/** Counts the cells in the basin of a node before it joins another - O(1)
+	 * @param node The node to be checked
+	 * @return The number of cells in the basin below the saddle of its parent
+	 */
+	public int getSize(int node) {
+		return nodeSize[node];
+	}
+
+	/** Checks if a node is a local minimum rather than a saddle - O(1)
+	 * @param node The node to be checked
+	 * @return True if the node is a leaf
+	 */
+	public boolean isMinimum(int node) {
+		return !saddles.get(node);
+	}
+
+	/** Estimates the memory held by the tree from its arrays, the node of
+	 * each cell and the parent, size, depth and ancestors of each node - O(log m)
+	 * @return The approximate number of bytes
+	 */
+	public long getBytes() {
+		long ints = (long) cellNode.length + nodeCell.length + nodeParent.length + nodeSize.length + nodeDepth.length;
+		for (int[] level : ancestors) {
+			ints += level.length;
+		}
+		return 4 * ints + saddles.size() / 8;
+	}
+
+	/** Finds the highest point of the lowest path between two cells - O(log m)
+	 * @param c1 The first cell
+	 * @param c2 The second cell
+	 * @return The saddle cell, which may be c1 or c2 itself, or -1 if either
+	 * cell is inaccessible or no path joins them
+	 */
+	public int getSaddle(int c1, int c2) {
+		if (c1 < 0 || c2 < 0 || cellNode[c1] < 0 || cellNode[c2] < 0) {
+			return -1;
+		}
+		int ancestor = lowestCommonAncestor(cellNode[c1], cellNode[c2]);
+		if (ancestor < 0) {
+			return -1;
+		}
+		int saddle = higher(c1, c2);
+		return higher(saddle, nodeCell[ancestor]);
+	}
+
+	/** Finds the height of the lowest barrier crossed from one cell to another - O(log m)
+	 * @param from The cell at which the path starts
+	 * @param to The cell at which the path ends
+	 * @return The energy of the saddle less the energy of the start, or
+	 * infinity if no path joins them
+	 */
+	public double getBarrier(int from, int to) {
+		int saddle = getSaddle(from, to);
+		return saddle < 0 ? Double.POSITIVE_INFINITY : surface.getEnergy(saddle) - surface.getEnergy(from);
+	}
+
+	/** Finds the lowest common ancestor of two nodes by binary lifting - O(log m)
+	 * @param a The first node
+	 * @param b The second node
+	 * @return The ancestor, or -1 if the nodes lie in different trees
+	 */
+	private int lowestCommonAncestor(int a, int b) {
+		if (nodeDepth[a] < nodeDepth[b]) {
+			int swap = a;
+			a = b;
+			b = swap;
+		}
+		// lift a to the depth of b
+		int difference = nodeDepth[a] - nodeDepth[b];
+		for (int k = 0; difference > 0; k++, difference >>>= 1) {
+			if ((difference & 1) != 0) {
+				a = ancestors[k][a];
+			}
+		}
+		if (a == b) {
+			return a;
+		}
+		for (int k = ancestors.length - 1; k >= 0; k--) {
+			if (ancestors[k][a] != ancestors[k][b]) {
+				a = ancestors[k][a];
+				b = ancestors[k][b];
+			}
+		}
+		return ancestors[0][a];
+	}
+
+	/** Chooses the higher of two cells, the first if they are level
+	 * @param c1 The first cell
+	 * @param c2 The second cell
+	 * @return The higher cell
+	 */
+	private int higher(int c1, int c2) {
+		return surface.getEnergy(c2) > surface.getEnergy(c1) ? c2 : c1;
+	}
+
+	/** Creates a node with no parent
+	 * @param cell The local minimum or saddle of the node
+	 * @param size The number of cells in its basin
+	 * @return The new node
+	 */
+	private int newNode(int cell, int size) {
+		if (nodeCount == nodeCell.length) {
+			allocateNodes(nodeCount * 2);
+		}
+		int node = nodeCount++;
+		nodeCell[node] = cell;
+		nodeParent[node] = -1;
+		nodeSize[node] = size;
+		return node;
+	}
+
+	/** Grows the node arrays
+	 * @param capacity The number of nodes to allocate space for
+	 */
+	private void allocateNodes(int capacity) {
+		if (nodeCell == null) {
+			nodeCell = new int[capacity];
+			nodeParent = new int[capacity];
+			nodeSize = new int[capacity];
+		} else {
+			nodeCell = Arrays.copyOf(nodeCell, capacity);
+			nodeParent = Arrays.copyOf(nodeParent, capacity);
+			nodeSize = Arrays.copyOf(nodeSize, capacity);
+		}
+	}
+
+	/** Joins the sets of two cells, by rank - O(log n) amortised
+	 * @param parent The parent of each cell plus one
+	 * @param rank Upper bound on the height of each root's tree
+	 * @param c1 The first cell
+	 * @param c2 The second cell
+	 */
+	private static void union(int[] parent, byte[] rank, int c1, int c2) {
+		int r1 = find(parent, c1);
+		int r2 = find(parent, c2);
+		if (r1 == r2) {
+			return;
+		}
+		if (rank[r1] < rank[r2]) {
+			parent[r1] = r2 + 1;
+		} else {
+			if (rank[r1] == rank[r2]) {
+				rank[r1]++;
+			}
+			parent[r2] = r1 + 1;
+		}
+	}
+
+	/** Finds the root of the set containing a cell, halving the path to it
+	 * @param parent The parent of each cell plus one
+	 * @param cell The cell to be found
+	 * @return The root of its set
+	 */
+	private static int find(int[] parent, int cell) {
+		while (parent[cell] != cell + 1) {
+			int grandparent = parent[parent[cell] - 1];
+			parent[cell] = grandparent;
+			cell = grandparent - 1;
+		}
+		return cell;
+	}
+}
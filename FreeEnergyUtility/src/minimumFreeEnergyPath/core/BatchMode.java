@@ -0,0 +1,69 @@
+package minimumFreeEnergyPath.core;
+
+import java.io.IOException;
+import java.util.List;
+
+import minimumFreeEnergyPath.gridSurface.GridSurface;
+
+/** The --batch mode of MinimumFreeEnergyPath, finding the paths of the
+ * surfaces of a job file with a BatchRunner
+ */
+final class BatchMode {
+	
+	/** Option selecting batch mode over the data files of a job file such as readfile.dat */
+	static final String OPTION = "--batch";
+	/** Option choosing the number of threads */
+	private static final String THREADS_OPTION = "--threads";
+	/** Fraction of the maximum heap which batch mode may fill with surfaces at once */
+	private static final double BATCH_MEMORY_FRACTION = 0.75;
+	
+	/** Arguments of the mode for the usage message, after the name of the program */
+	static final String USAGE = OPTION + " <readfile> [<surface prefix>] [" + THREADS_OPTION + " <threads>]";
+	
+	/** Utility class not to be instantiated */
+	private BatchMode() {
+	}
+	
+	/** Finds the path of every surface listed in a job file, several at once,
+	 * and writes the time spent on each alongside the job file
+	 * @param args Command line arguments
+	 * @param neighbourhood Which cells count as adjacent
+	 * @throws CommandLine.UsageException if the arguments do not match the usage
+	 */
+	static void run(String[] args, GridSurface.Neighbourhood neighbourhood) throws CommandLine.UsageException {
+		CommandLine line = new CommandLine().option(THREADS_OPTION, 1).parse(args, 1);
+		List<String> positional = line.getPositional();
+		int threads = line.getInt(THREADS_OPTION, Runtime.getRuntime().availableProcessors());
+		if (positional.isEmpty() || positional.size() > 2 || threads < 1) {
+			throw new CommandLine.UsageException(null);
+		}
+		String fileName = positional.get(0);
+		String surfacePrefix = positional.size() > 1 ? positional.get(1) : null;
+		
+		try {
+			BatchRunner batch = new BatchRunner(fileName, surfacePrefix, neighbourhood);
+			List<BatchRunner.Result> results = batch.run(threads,
+					(long) (Runtime.getRuntime().maxMemory() * BATCH_MEMORY_FRACTION));
+			double total = 0;
+			int failed = 0;
+			for (BatchRunner.Result result : results) {
+				if (result.isSuccessful()) {
+					System.out.println(result.getSurfaceFile() + ": Complete in " + result.getSeconds() + " s");
+				} else {
+					System.out.println(result.getSurfaceFile() + ": " + result.getError());
+					failed++;
+				}
+				total += result.getSeconds();
+			}
+			System.out.println(results.size() + " files in " + total + " s");
+			BatchRunner.writeTimings(BatchRunner.getTimingFileName(fileName), results);
+			if (failed > 0) {
+				Modes.fail(failed + " of " + results.size() + " files failed.");
+			}
+		} catch (IOException e) {
+			Modes.fail("File " + fileName, e);
+		} catch (InterruptedException e) {
+			Modes.fail("Batch interrupted.");
+		}
+	}
+}
@@ -0,0 +1,268 @@
+package minimumFreeEnergyPath.core;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import minimumFreeEnergyPath.gridSurface.GridSurface;
+
+/** Finds the most probable folding path of every surface listed in a
+ * JobFile, in a single JVM with the surfaces processed concurrently
+ *
+ * The path from each surface R writes for a data file is written alongside
+ * it, as a single run would, and the time spent on each file is written to
+ * a summary
+ *
+ * Jobs run on a fixed pool of threads, and before reading its surface each
+ * job reserves an estimate of the memory it will hold, so that no more
+ * surfaces are resident at once than fit in the budget
+ */
+public class BatchRunner {
+
+	/** Suffix to be appended to output filename */
+	private static final String OUTPUT_SUFFIX = "_path.dat";
+	/** Suffix to be appended to the job file name for the timing summary */
+	private static final String TIMING_SUFFIX = "_timing.dat";
+	/** Approximate bytes held per cell while a path is found, the surface and search state together */
+	private static final long JOB_BYTES_PER_CELL = 64;
+	/** Fewest bytes a table spends on each cell, used when no binary copy gives the shape */
+	private static final long MIN_TABLE_BYTES_PER_CELL = 8;
+	/** Bytes represented by each permit of the memory budget */
+	private static final long PERMIT_BYTES = 1 << 20;
+
+	/** Settings of the job */
+	private final JobFile job;
+	/** Surface files, in the order listed */
+	private final List<String> surfaceFiles;
+	/** Which cells count as adjacent */
+	private final GridSurface.Neighbourhood neighbourhood;
+
+	/** Constructor reads a job file
+	 * @param filename Name of the job file
+	 * @param surfacePrefix Prefix added to each data file to give its surface
+	 * file, or null for the free_energy_ files R writes to ../out/ from the job file
+	 * @param neighbourhood Which cells count as adjacent
+	 * @throws FileNotFoundException
+	 * @throws SurfaceFormatException if a setting is missing or not numeric
+	 * @throws IOException
+	 */
+	public BatchRunner(String filename, String surfacePrefix, GridSurface.Neighbourhood neighbourhood) throws IOException {
+		this.job = new JobFile(filename);
+		this.neighbourhood = neighbourhood;
+		this.surfaceFiles = new ArrayList<String>();
+		for (String dataFile : job.getDataFiles()) {
+			surfaceFiles.add(job.getSurfacePath(dataFile, surfacePrefix));
+		}
+	}
+
+	// Getters and setters
+	public JobFile getJob() {
+		return job;
+	}
+
+	public List<String> getSurfaceFiles() {
+		return surfaceFiles;
+	}
+
+	/** Finds the path of every surface, at most threads at once and holding
+	 * at most a given number of bytes of surfaces at once
+	 * A surface larger than the whole budget is processed on its own
+	 * @param threads The number of surfaces processed concurrently
+	 * @param memoryBudget The approximate number of bytes which may be held
+	 * @return The result of each file, in the order listed
+	 * @throws InterruptedException if interrupted while waiting for a job
+	 */
+	public List<Result> run(int threads, long memoryBudget) throws InterruptedException {
+		final int totalPermits = (int) Math.max(1, Math.min(Integer.MAX_VALUE, memoryBudget / PERMIT_BYTES));
+		final Semaphore memory = new Semaphore(totalPermits, true);
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, surfaceFiles.size())));
+		List<Future<Result>> futures = new ArrayList<Future<Result>>();
+		for (final String surfaceFile : surfaceFiles) {
+			futures.add(executor.submit(new Callable<Result>() {
+				@Override
+				public Result call() throws InterruptedException {
+					int permits = (int) Math.min(totalPermits, Math.max(1, estimateBytes(surfaceFile) / PERMIT_BYTES));
+					memory.acquire(permits);
+					try {
+						return findPath(surfaceFile);
+					} finally {
+						memory.release(permits);
+					}
+				}
+			}));
+		}
+		executor.shutdown();
+
+		List<Result> results = new ArrayList<Result>();
+		try {
+			for (Future<Result> future : futures) {
+				results.add(future.get());
+			}
+		} catch (ExecutionException e) {
+			// findPath reports failures in its result
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+		return results;
+	}
+
+	/** Reads a surface and writes the path from the start to its minimum
+	 * @param surfaceFile Name of the surface file
+	 * @return The timings of the file, or the reason it failed
+	 */
+	private Result findPath(String surfaceFile) {
+		Result result = new Result(surfaceFile);
+		long time = System.nanoTime();
+		try {
+			GridSurface surface = FileUtility.readToSurface(surfaceFile).withNeighbourhood(neighbourhood); // O(n)
+			result.cells = surface.size();
+			result.readNanos = System.nanoTime() - time;
+
+			time = System.nanoTime();
+			int startCell = job.findStartCell(surface);
+			if (startCell < 0) {
+				result.error = "no accessible state at the start";
+				return result;
+			}
+			int[] path = MostProbableFoldingPath.findPathBetween(surface, startCell, surface.getMinimumCell()); // O(n)
+			result.searchNanos = System.nanoTime() - time;
+			if (path == null) {
+				result.error = "minimum free energy state is unreachable";
+				return result;
+			}
+			result.pathLength = path.length;
+
+			time = System.nanoTime();
+			FileUtility.writeFromPath(surfaceFile + OUTPUT_SUFFIX, surface, path); // O(n)
+			result.writeNanos = System.nanoTime() - time;
+		} catch (FileNotFoundException e) {
+			result.error = "not found";
+		} catch (SurfaceFormatException e) {
+			result.error = "malformed at " + e.getMessage();
+		} catch (IOException e) {
+			result.error = "could not be read: " + e.getMessage();
+		} catch (IllegalArgumentException e) {
+			result.error = e.getMessage();
+		}
+		return result;
+	}
+
+	/** Estimates the memory held while finding the path of a surface, from
+	 * the shape in its binary copy if there is one, or else from the length
+	 * of the table
+	 * @param surfaceFile Name of the surface file
+	 * @return The approximate number of bytes
+	 */
+	private static long estimateBytes(String surfaceFile) {
+		String binaryFile = surfaceFile.endsWith(BinarySurfaceFormat.EXTENSION) ? surfaceFile
+				: surfaceFile + BinarySurfaceFormat.EXTENSION;
+		long cells;
+		try {
+			cells = 1;
+			for (int length : BinarySurfaceFormat.readHeader(binaryFile).getShape()) {
+				cells *= length;
+			}
+		} catch (IOException e) {
+			// no binary copy yet
+			cells = new File(surfaceFile).length() / MIN_TABLE_BYTES_PER_CELL;
+		}
+		return cells * JOB_BYTES_PER_CELL;
+	}
+
+	/** Writes the timing summary, one line per file: the file, the number of
+	 * cells, the number of cells on the path and the seconds spent reading,
+	 * searching, writing and in total, or NA and the reason if it failed
+	 * @param filename The file to be written to
+	 * @param results The result of each file
+	 */
+	public static void writeTimings(String filename, List<Result> results) {
+		PrintWriter writer;
+		try {
+			// open file
+			writer = new PrintWriter(filename, "UTF-8");
+
+			// print each file in order
+			for (Result result : results) {
+				writer.println(result.toString());
+			}
+
+			// clean up
+			writer.close();
+		} catch (FileNotFoundException | UnsupportedEncodingException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/** Finds the name of the timing summary of a job file
+	 * @param filename Name of the job file
+	 * @return The name of the summary
+	 */
+	public static String getTimingFileName(String filename) {
+		return filename + TIMING_SUFFIX;
+	}
+
+	/** Outcome and timings of a single file of a batch */
+	public static final class Result {
+		/** Name of the surface file */
+		private final String surfaceFile;
+		/** Number of cells of the surface */
+		private int cells;
+		/** Number of cells on the path */
+		private int pathLength;
+		/** Time spent reading the surface */
+		private long readNanos;
+		/** Time spent finding the path */
+		private long searchNanos;
+		/** Time spent writing the path */
+		private long writeNanos;
+		/** Reason the file failed, or null if its path was written */
+		private String error;
+
+		private Result(String surfaceFile) {
+			this.surfaceFile = surfaceFile;
+		}
+
+		// Getters and setters
+		public String getSurfaceFile() {
+			return surfaceFile;
+		}
+
+		public String getError() {
+			return error;
+		}
+
+		public boolean isSuccessful() {
+			return error == null;
+		}
+
+		public double getSeconds() {
+			return (readNanos + searchNanos + writeNanos) / 1e9;
+		}
+
+		/** Formats the result as a line of the timing summary
+		 * @return The fields of the result separated by tabs
+		 */
+		@Override
+		public String toString() {
+			StringBuilder s = new StringBuilder(surfaceFile).append('\t').append(cells).append('\t');
+			s.append(isSuccessful() ? Integer.toString(pathLength) : "NA");
+			s.append('\t').append(readNanos / 1e9).append('\t').append(searchNanos / 1e9);
+			s.append('\t').append(writeNanos / 1e9).append('\t').append(getSeconds());
+			if (!isSuccessful()) {
+				s.append('\t').append(error);
+			}
+			return s.toString();
+		}
+	}
+}
@@ -0,0 +1,594 @@
+package minimumFreeEnergyPath.core;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.CRC32;
+
+import minimumFreeEnergyPath.gridSurface.EnergyStore;
+import minimumFreeEnergyPath.gridSurface.GridSurface;
+import minimumFreeEnergyPath.gridSurface.MappedEnergyStore;
+import minimumFreeEnergyPath.gridSurface.TiledEnergyStore;
+
+/** Utility class for reading and writing GridSurface objects in a compact
+ * binary format, so that repeated analyses can skip parsing text
+ *
+ * All values are little-endian. The file holds a fixed header (magic "FESB",
+ * version, flags, number of dimensions, temperature or NaN if unknown, length
+ * and CRC32 of the table it was converted from), the size of each dimension
+ * padded to 8 bytes, the axis values as doubles, then a block of one double
+ * or float energy per cell in row-major order and optionally a block of errors
+ * of the same precision. The blocks are memory mapped on reading, so opening
+ * even a very large surface costs almost nothing
+ *
+ * Version 2 adds tiled blocks for sparse surfaces: after the axes comes the
+ * tile section (log2 of the tile side, number of stored tiles, cell of lowest
+ * energy, padding) and the position of each tile among the stored tiles or -1,
+ * then each block holds only the tiles with an accessible cell. Tiles are
+ * copied onto the heap as they are reached, see TiledEnergyStore
+ */
+public final class BinarySurfaceFormat {
+
+	/** Extension appended to a table's filename for its binary copy */
+	public static final String EXTENSION = ".fesb";
+
+	/** "FESB" read as a little-endian int */
+	private static final int MAGIC = 0x42534546;
+	/** Latest version read by this class */
+	private static final int VERSION = 2;
+	/** Version written for files without tiled blocks, readable by older versions */
+	private static final int DENSE_VERSION = 1;
+	/** Flag set if values are stored as floats rather than doubles */
+	private static final int FLAG_SINGLE_PRECISION = 1;
+	/** Flag set if an error block follows the energy block */
+	private static final int FLAG_ERRORS = 2;
+	/** Flag set if blocks hold only the tiles with an accessible cell */
+	private static final int FLAG_TILED = 4;
+	/** Flag set on copies of tables whose axes were read as regular grids,
+	 * copies without it having been read with any gaps closed up */
+	private static final int FLAG_GRID_AXES = 8;
+	/** Bytes in the header before the dimension sizes */
+	private static final int FIXED_HEADER_BYTES = 40;
+	/** Bytes in the tile section before the tile positions */
+	private static final int TILE_HEADER_BYTES = 16;
+	/** Heap given to the tiles of each block which are currently loaded */
+	private static final long TILE_CACHE_BYTES = 1L << 27;
+	/** Size of the buffer used in writing */
+	private static final int WRITE_BUFFER_BYTES = 1 << 20;
+
+	/** Utility class not to be instantiated */
+	private BinarySurfaceFormat() {
+	}
+
+	/** Header of a binary surface file */
+	public static final class Header {
+		/** Format version of the file */
+		private final int version;
+		/** Combination of FLAG values */
+		private final int flags;
+		/** Temperature at which the surface was computed, or NaN if unknown */
+		private final double temperature;
+		/** Length in bytes of the table the surface was converted from */
+		private final long sourceLength;
+		/** CRC32 of the table the surface was converted from */
+		private final long sourceChecksum;
+		/** Number of cells along each axis */
+		private final int[] shape;
+
+		private Header(int version, int flags, double temperature, long sourceLength, long sourceChecksum, int[] shape) {
+			this.version = version;
+			this.flags = flags;
+			this.temperature = temperature;
+			this.sourceLength = sourceLength;
+			this.sourceChecksum = sourceChecksum;
+			this.shape = shape;
+		}
+
+		// Getters and setters
+		public int getVersion() {
+			return version;
+		}
+
+		public boolean isSinglePrecision() {
+			return (flags & FLAG_SINGLE_PRECISION) != 0;
+		}
+
+		public boolean hasErrors() {
+			return (flags & FLAG_ERRORS) != 0;
+		}
+
+		public boolean isTiled() {
+			return (flags & FLAG_TILED) != 0;
+		}
+
+		public boolean hasGridAxes() {
+			return (flags & FLAG_GRID_AXES) != 0;
+		}
+
+		public double getTemperature() {
+			return temperature;
+		}
+
+		public long getSourceLength() {
+			return sourceLength;
+		}
+
+		public long getSourceChecksum() {
+			return sourceChecksum;
+		}
+
+		public int[] getShape() {
+			return shape.clone();
+		}
+
+		/** Finds the offset in the file of the first axis value
+		 * @return The number of bytes before the axes
+		 */
+		private long getAxesOffset() {
+			return FIXED_HEADER_BYTES + align(4L * shape.length);
+		}
+	}
+
+	/** Reads the header of a binary surface file
+	 * @param filename Name of the binary file
+	 * @return The header
+	 * @throws IOException if the file cannot be read or is not a binary surface
+	 */
+	public static Header readHeader(String filename) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(filename, "r");
+				FileChannel channel = file.getChannel()) {
+			return readHeader(channel, filename);
+		}
+	}
+
+	/** Reads a surface from a binary file, mapping rather than copying its
+	 * energies and errors - O(number of axis values)
+	 * @param filename Name of the binary file
+	 * @return The GridSurface
+	 * @throws IOException if the file cannot be read or is not a binary surface
+	 */
+	public static GridSurface read(String filename) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(filename, "r");
+				FileChannel channel = file.getChannel()) {
+			Header header = readHeader(channel, filename);
+			int[] shape = header.shape;
+
+			// read axes
+			long axisValues = 0;
+			long cells = 1;
+			for (int length : shape) {
+				axisValues += length;
+				cells *= length;
+			}
+			if (cells > Integer.MAX_VALUE) {
+				throw new IOException(filename + " holds more than 2^31 cells");
+			}
+			ByteBuffer buffer = ByteBuffer.allocate((int) (8 * axisValues)).order(ByteOrder.LITTLE_ENDIAN);
+			readFully(channel, buffer, header.getAxesOffset(), filename);
+			double[][] axes = new double[shape.length][];
+			for (int axis = 0; axis < shape.length; axis++) {
+				axes[axis] = new double[shape[axis]];
+				for (int i = 0; i < shape[axis]; i++) {
+					axes[axis][i] = buffer.getDouble();
+				}
+			}
+
+			// map blocks
+			int bytesPerCell = header.isSinglePrecision() ? 4 : 8;
+			long energyOffset = header.getAxesOffset() + align(8 * axisValues);
+			if (header.isTiled()) {
+				return readTiles(channel, filename, header, axes, energyOffset);
+			}
+			long expectedLength = energyOffset + cells * bytesPerCell * (header.hasErrors() ? 2 : 1);
+			if (channel.size() < expectedLength) {
+				throw new IOException(filename + " is truncated");
+			}
+			EnergyStore energies = new MappedEnergyStore(channel, energyOffset, (int) cells, header.isSinglePrecision());
+			EnergyStore errors = header.hasErrors()
+					? new MappedEnergyStore(channel, energyOffset + cells * bytesPerCell, (int) cells, header.isSinglePrecision())
+					: null;
+			return new GridSurface(axes, energies, errors, GridSurface.widestNeighbourhood(axes.length));
+		}
+	}
+
+	/** Reads the tile section and maps the tiled blocks of a binary file
+	 * @param channel The file to be read
+	 * @param filename Name of the file, for error messages
+	 * @param header The header of the file
+	 * @param axes The axis values of the surface
+	 * @param offset Offset in the file of the tile section
+	 * @return The GridSurface
+	 * @throws IOException if the file is truncated or the tiles do not match its shape
+	 */
+	private static GridSurface readTiles(FileChannel channel, String filename, Header header,
+			double[][] axes, long offset) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(TILE_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(channel, buffer, offset, filename);
+		int tileShift = buffer.getInt();
+		int stored = buffer.getInt();
+		int minimumCell = buffer.getInt();
+		if (tileShift != TiledEnergyStore.getTileShift(axes.length)) {
+			throw new IOException(filename + " has tiles of an unsupported size");
+		}
+
+		long tiles = 1;
+		for (int length : header.shape) {
+			tiles *= TiledEnergyStore.getTileCount(length, tileShift);
+		}
+		buffer = ByteBuffer.allocate((int) (4 * tiles)).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(channel, buffer, offset + TILE_HEADER_BYTES, filename);
+		int[] tileSlots = new int[(int) tiles];
+		for (int tile = 0; tile < tileSlots.length; tile++) {
+			tileSlots[tile] = buffer.getInt();
+			if (tileSlots[tile] >= stored) {
+				throw new IOException(filename + " has a tile beyond the end of its block");
+			}
+		}
+
+		long tileBytes = (header.isSinglePrecision() ? 4L : 8L) << (tileShift * axes.length);
+		long energyOffset = offset + TILE_HEADER_BYTES + align(4 * tiles);
+		long blockBytes = stored * tileBytes;
+		if (channel.size() < energyOffset + blockBytes * (header.hasErrors() ? 2 : 1)) {
+			throw new IOException(filename + " is truncated");
+		}
+		// tiles are loaded as doubles whatever their precision in the file
+		int maxLoadedTiles = (int) Math.max(1, TILE_CACHE_BYTES / (8L << (tileShift * axes.length)));
+		EnergyStore energies = new TiledEnergyStore(channel, energyOffset, header.shape, tileSlots,
+				header.isSinglePrecision(), maxLoadedTiles, minimumCell);
+		EnergyStore errors = header.hasErrors()
+				? new TiledEnergyStore(channel, energyOffset + blockBytes, header.shape, tileSlots,
+						header.isSinglePrecision(), maxLoadedTiles, -1)
+				: null;
+		return new GridSurface(axes, energies, errors, GridSurface.widestNeighbourhood(axes.length));
+	}
+
+	/** Writes a surface, including its errors if it has them, to a binary file
+	 * with dense blocks
+	 * @param filename Name of the binary file to be written
+	 * @param surface The surface to be written
+	 * @param temperature Temperature at which the surface was computed, or NaN if unknown
+	 * @param sourceLength Length of the table the surface was read from, or 0
+	 * @param sourceChecksum CRC32 of the table the surface was read from, or 0
+	 * @param singlePrecision True to store values as floats, false for doubles
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void write(String filename, GridSurface surface, double temperature,
+			long sourceLength, long sourceChecksum, boolean singlePrecision) throws IOException {
+		write(filename, surface, temperature, sourceLength, sourceChecksum, singlePrecision, false);
+	}
+
+	/** Writes a surface, including its errors if it has them, to a binary file
+	 * @param filename Name of the binary file to be written
+	 * @param surface The surface to be written
+	 * @param temperature Temperature at which the surface was computed, or NaN if unknown
+	 * @param sourceLength Length of the table the surface was read from, or 0
+	 * @param sourceChecksum CRC32 of the table the surface was read from, or 0
+	 * @param singlePrecision True to store values as floats, false for doubles
+	 * @param tiled True to store only the tiles with an accessible cell, false for dense blocks
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void write(String filename, GridSurface surface, double temperature,
+			long sourceLength, long sourceChecksum, boolean singlePrecision, boolean tiled) throws IOException {
+		write(filename, surface, temperature, sourceLength, sourceChecksum,
+				(singlePrecision ? FLAG_SINGLE_PRECISION : 0) | (tiled ? FLAG_TILED : 0));
+	}
+
+	/** Writes a surface, including its errors if it has them, to a binary file
+	 * @param filename Name of the binary file to be written
+	 * @param surface The surface to be written
+	 * @param temperature Temperature at which the surface was computed, or NaN if unknown
+	 * @param sourceLength Length of the table the surface was read from, or 0
+	 * @param sourceChecksum CRC32 of the table the surface was read from, or 0
+	 * @param flags Combination of FLAG values, FLAG_ERRORS being added if the surface has errors
+	 * @throws IOException if the file cannot be written
+	 */
+	private static void write(String filename, GridSurface surface, double temperature,
+			long sourceLength, long sourceChecksum, int flags) throws IOException {
+		boolean tiled = (flags & FLAG_TILED) != 0;
+		boolean singlePrecision = (flags & FLAG_SINGLE_PRECISION) != 0;
+		if (surface.hasErrors()) {
+			flags |= FLAG_ERRORS;
+		}
+		try (RandomAccessFile file = new RandomAccessFile(filename, "rw");
+				FileChannel channel = file.getChannel()) {
+			channel.truncate(0);
+			ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+			// header
+			buffer.putInt(MAGIC);
+			buffer.putInt(tiled ? VERSION : DENSE_VERSION);
+			buffer.putInt(flags);
+			buffer.putInt(surface.getDimensions());
+			buffer.putDouble(temperature);
+			buffer.putLong(sourceLength);
+			buffer.putLong(sourceChecksum);
+			for (int axis = 0; axis < surface.getDimensions(); axis++) {
+				buffer.putInt(surface.getShape(axis));
+			}
+			pad(buffer);
+
+			// axes
+			for (int axis = 0; axis < surface.getDimensions(); axis++) {
+				for (int i = 0; i < surface.getShape(axis); i++) {
+					buffer = put(channel, buffer, 8);
+					buffer.putDouble(surface.getAxisValue(axis, i));
+				}
+			}
+
+			// blocks
+			if (tiled) {
+				writeTiles(channel, buffer, surface, singlePrecision);
+				flush(channel, buffer);
+				return;
+			}
+			writeBlock(channel, buffer, surface.getEnergies(), singlePrecision);
+			if (surface.hasErrors()) {
+				writeBlock(channel, buffer, surface.getErrors(), singlePrecision);
+			}
+			flush(channel, buffer);
+		}
+	}
+
+	/** Reads the binary copy of a table if it is at least as new as the table,
+	 * was converted from a table of the same length and has grid axes
+	 * @param cache The binary copy
+	 * @param source The table
+	 * @return The GridSurface, or null if the copy is missing, stale or unreadable
+	 */
+	static GridSurface readCache(File cache, File source) {
+		if (!cache.isFile() || !source.isFile() || cache.lastModified() < source.lastModified()) {
+			return null;
+		}
+		try {
+			Header header = readHeader(cache.getPath());
+			if (header.getSourceLength() != source.length() || !header.hasGridAxes()) {
+				return null;
+			}
+			return read(cache.getPath());
+		} catch (IOException e) {
+			// corrupt or from a newer version, it will be rewritten
+			return null;
+		}
+	}
+
+	/** Writes the binary copy of a table, replacing any old copy atomically so
+	 * a copy being read elsewhere is never seen half written. Failure to write
+	 * the copy, eg. in a read-only directory, is not an error
+	 * @param cache The binary copy
+	 * @param source The table
+	 * @param surface The surface read from the table
+	 */
+	static void writeCache(File cache, File source, GridSurface surface) {
+		File temp = new File(cache.getPath() + ".tmp");
+		try {
+			write(temp.getPath(), surface, Double.NaN, source.length(), checksum(source), FLAG_GRID_AXES);
+			Files.move(temp.toPath(), cache.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			// no cache this time, the table will be parsed again next time
+			temp.delete();
+		}
+	}
+
+	/** Computes the CRC32 of a file - O(n)
+	 * @param file The file to be checked
+	 * @return The checksum
+	 * @throws IOException if the file cannot be read
+	 */
+	public static long checksum(File file) throws IOException {
+		CRC32 crc = new CRC32();
+		byte[] bytes = new byte[1 << 16];
+		try (InputStream in = new FileInputStream(file)) {
+			int read;
+			while ((read = in.read(bytes)) > 0) {
+				crc.update(bytes, 0, read);
+			}
+		}
+		return crc.getValue();
+	}
+
+	/** Reads and checks the header at the start of a file
+	 * @param channel The file to be read
+	 * @param filename Name of the file, for error messages
+	 * @return The header
+	 * @throws IOException if the file is not a binary surface of a known version
+	 */
+	private static Header readHeader(FileChannel channel, String filename) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(FIXED_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(channel, buffer, 0, filename);
+		if (buffer.getInt() != MAGIC) {
+			throw new IOException(filename + " is not a binary surface file");
+		}
+		int version = buffer.getInt();
+		if (version > VERSION) {
+			throw new IOException(filename + " has unsupported version " + version);
+		}
+		int flags = buffer.getInt();
+		int dimensions = buffer.getInt();
+		double temperature = buffer.getDouble();
+		long sourceLength = buffer.getLong();
+		long sourceChecksum = buffer.getLong();
+		if (dimensions < 1 || dimensions > GridSurface.MAX_DIMENSIONS) {
+			throw new IOException(filename + " has " + dimensions + " dimensions");
+		}
+
+		ByteBuffer shapeBuffer = ByteBuffer.allocate(4 * dimensions).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(channel, shapeBuffer, FIXED_HEADER_BYTES, filename);
+		int[] shape = new int[dimensions];
+		for (int i = 0; i < dimensions; i++) {
+			shape[i] = shapeBuffer.getInt();
+			if (shape[i] < 0) {
+				throw new IOException(filename + " has a negative dimension");
+			}
+		}
+		return new Header(version, flags, temperature, sourceLength, sourceChecksum, shape);
+	}
+
+	/** Fills a buffer from a file and flips it ready for reading
+	 * @param channel The file to be read
+	 * @param buffer The buffer to be filled
+	 * @param offset Offset in the file at which to start
+	 * @param filename Name of the file, for error messages
+	 * @throws IOException if the file ends before the buffer is full
+	 */
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long offset, String filename) throws IOException {
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, offset + buffer.position());
+			if (read < 0) {
+				throw new IOException(filename + " is truncated");
+			}
+		}
+		buffer.flip();
+	}
+
+	/** Writes a block of values, padding the previous contents to 8 bytes first
+	 * @param channel The file being written
+	 * @param buffer The write buffer
+	 * @param values The values to be written
+	 * @param singlePrecision True to write floats, false for doubles
+	 * @throws IOException
+	 */
+	private static void writeBlock(FileChannel channel, ByteBuffer buffer, EnergyStore values, boolean singlePrecision) throws IOException {
+		pad(buffer);
+		for (int cell = 0; cell < values.size(); cell++) {
+			buffer = put(channel, buffer, 8);
+			if (singlePrecision) {
+				buffer.putFloat((float) values.get(cell));
+			} else {
+				buffer.putDouble(values.get(cell));
+			}
+		}
+	}
+
+	/** Writes the tile section and tiled blocks of a surface - O(n)
+	 * @param channel The file being written
+	 * @param buffer The write buffer
+	 * @param surface The surface to be written
+	 * @param singlePrecision True to write floats, false for doubles
+	 * @throws IOException
+	 */
+	private static void writeTiles(FileChannel channel, ByteBuffer buffer, GridSurface surface,
+			boolean singlePrecision) throws IOException {
+		int[] shape = new int[surface.getDimensions()];
+		int tiles = 1;
+		int tileShift = TiledEnergyStore.getTileShift(shape.length);
+		for (int axis = 0; axis < shape.length; axis++) {
+			shape[axis] = surface.getShape(axis);
+			tiles *= TiledEnergyStore.getTileCount(shape[axis], tileShift);
+		}
+
+		// number the tiles holding an accessible cell
+		int[] cells = new int[1 << (tileShift * shape.length)];
+		int[] tileSlots = new int[tiles];
+		int stored = 0;
+		for (int tile = 0; tile < tiles; tile++) {
+			TiledEnergyStore.getTileCells(shape, tileShift, tile, cells);
+			tileSlots[tile] = -1;
+			for (int cell : cells) {
+				if (cell >= 0 && surface.isAccessible(cell)) {
+					tileSlots[tile] = stored++;
+					break;
+				}
+			}
+		}
+
+		pad(buffer);
+		buffer = put(channel, buffer, TILE_HEADER_BYTES);
+		buffer.putInt(tileShift);
+		buffer.putInt(stored);
+		buffer.putInt(surface.getMinimumCell());
+		buffer.putInt(0);
+		for (int slot : tileSlots) {
+			buffer = put(channel, buffer, 4);
+			buffer.putInt(slot);
+		}
+
+		writeTileBlock(channel, buffer, surface.getEnergies(), shape, tileShift, tileSlots, cells, singlePrecision);
+		if (surface.hasErrors()) {
+			writeTileBlock(channel, buffer, surface.getErrors(), shape, tileShift, tileSlots, cells, singlePrecision);
+		}
+	}
+
+	/** Writes the stored tiles of a block of values, padding the previous
+	 * contents to 8 bytes first. Positions beyond the edge of the grid are Inf
+	 * @param channel The file being written
+	 * @param buffer The write buffer
+	 * @param values The values to be written
+	 * @param shape The number of cells along each axis
+	 * @param tileShift log2 of the number of cells along each axis of a tile
+	 * @param tileSlots Position of each tile among the stored tiles, or -1
+	 * @param cells Scratch space for the cells of a tile
+	 * @param singlePrecision True to write floats, false for doubles
+	 * @throws IOException
+	 */
+	private static void writeTileBlock(FileChannel channel, ByteBuffer buffer, EnergyStore values, int[] shape,
+			int tileShift, int[] tileSlots, int[] cells, boolean singlePrecision) throws IOException {
+		pad(buffer);
+		for (int tile = 0; tile < tileSlots.length; tile++) {
+			if (tileSlots[tile] < 0) {
+				continue;
+			}
+			TiledEnergyStore.getTileCells(shape, tileShift, tile, cells);
+			for (int cell : cells) {
+				double value = cell < 0 ? Double.POSITIVE_INFINITY : values.get(cell);
+				buffer = put(channel, buffer, 8);
+				if (singlePrecision) {
+					buffer.putFloat((float) value);
+				} else {
+					buffer.putDouble(value);
+				}
+			}
+		}
+	}
+
+	/** Pads the write buffer with zeros to a multiple of 8 bytes
+	 * Every flush is of a multiple of 8 bytes, so this aligns the file too
+	 * @param buffer The write buffer
+	 */
+	private static void pad(ByteBuffer buffer) {
+		while (buffer.position() % 8 != 0) {
+			buffer.put((byte) 0);
+		}
+	}
+
+	/** Makes room in the write buffer, flushing it to file if necessary
+	 * @param channel The file being written
+	 * @param buffer The write buffer
+	 * @param bytes The number of bytes about to be written
+	 * @return The buffer, ready for writing
+	 * @throws IOException
+	 */
+	private static ByteBuffer put(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+		if (buffer.remaining() < bytes) {
+			flush(channel, buffer);
+		}
+		return buffer;
+	}
+
+	/** Writes the contents of the buffer to file and empties it
+	 * @param channel The file being written
+	 * @param buffer The write buffer
+	 * @throws IOException
+	 */
+	private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/** Rounds a length up to a multiple of 8 bytes
+	 * @param bytes The length
+	 * @return The padded length
+	 */
+	private static long align(long bytes) {
+		return (bytes + 7) & ~7L;
+	}
+}
@@ -0,0 +1,250 @@
+package minimumFreeEnergyPath.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** The arguments of one mode of MinimumFreeEnergyPath, split into options,
+ * each followed by a fixed number of values and given any number of times,
+ * and the positional arguments between them
+ *
+ * Options are declared before parsing, so an option missing its values or a
+ * value of the wrong type is reported as a UsageException naming the option
+ * rather than being taken as a positional argument
+ */
+final class CommandLine {
+
+	/** Number of values following each option */
+	private final Map<String, Integer> arities = new HashMap<String, Integer>();
+	/** Option of each occurrence, in the order given */
+	private final List<String> names = new ArrayList<String>();
+	/** Values of each occurrence, in the order given */
+	private final List<String[]> values = new ArrayList<String[]>();
+	/** Arguments which are neither options nor their values, in the order given */
+	private final List<String> positional = new ArrayList<String>();
+
+	/** Declares an option followed by a number of values
+	 * @param name The option, eg. --threads
+	 * @param arity The number of values following it
+	 * @return This CommandLine
+	 */
+	CommandLine option(String name, int arity) {
+		arities.put(name, arity);
+		return this;
+	}
+
+	/** Declares an option followed by no values
+	 * @param name The option
+	 * @return This CommandLine
+	 */
+	CommandLine flag(String name) {
+		return option(name, 0);
+	}
+
+	/** Splits the arguments into options and positional arguments - O(args)
+	 * @param args The command line arguments
+	 * @param from The first argument to read, after the mode
+	 * @return This CommandLine
+	 * @throws UsageException if an option is missing a value
+	 */
+	CommandLine parse(String[] args, int from) throws UsageException {
+		for (int i = from; i < args.length; i++) {
+			Integer arity = arities.get(args[i]);
+			if (arity == null) {
+				positional.add(args[i]);
+				continue;
+			}
+			if (i + arity >= args.length) {
+				throw new UsageException(args[i] + " needs " + arity + (arity == 1 ? " value." : " values."));
+			}
+			names.add(args[i]);
+			values.add(Arrays.copyOfRange(args, i + 1, i + 1 + arity));
+			i += arity;
+		}
+		return this;
+	}
+
+	// Getters and setters
+	public List<String> getPositional() {
+		return Collections.unmodifiableList(positional);
+	}
+
+	/** Finds whether an option was given
+	 * @param name The option
+	 * @return True if it was given at least once
+	 */
+	boolean has(String name) {
+		return names.contains(name);
+	}
+
+	/** Finds the values of every occurrence of any of several options, so
+	 * options adding to the same list keep their order - O(occurrences)
+	 * @param options The options
+	 * @return The values of each occurrence in the order given, empty if none
+	 */
+	List<String[]> getAll(String... options) {
+		List<String[]> occurrences = new ArrayList<String[]>();
+		List<String> wanted = Arrays.asList(options);
+		for (int i = 0; i < names.size(); i++) {
+			if (wanted.contains(names.get(i))) {
+				occurrences.add(values.get(i));
+			}
+		}
+		return occurrences;
+	}
+
+	/** Finds the values of the last occurrence of an option
+	 * @param name The option
+	 * @return The values, or null if the option was not given
+	 */
+	private String[] getLast(String name) {
+		int i = names.lastIndexOf(name);
+		return i < 0 ? null : values.get(i);
+	}
+
+	/** Finds the first value of the last occurrence of an option
+	 * @param name The option
+	 * @param defaultValue The value if the option was not given
+	 * @return The value
+	 */
+	String getString(String name, String defaultValue) {
+		String[] last = getLast(name);
+		return last == null ? defaultValue : last[0];
+	}
+
+	/** Finds the value of an option taking an integer
+	 * @param name The option
+	 * @param defaultValue The value if the option was not given
+	 * @return The value
+	 * @throws UsageException if the value is not an integer
+	 */
+	int getInt(String name, int defaultValue) throws UsageException {
+		String value = getString(name, null);
+		try {
+			return value == null ? defaultValue : Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw new UsageException(name + " must be an integer, found " + value + ".");
+		}
+	}
+
+	/** Finds the value of an option taking a long integer
+	 * @param name The option
+	 * @param defaultValue The value if the option was not given
+	 * @return The value
+	 * @throws UsageException if the value is not an integer
+	 */
+	long getLong(String name, long defaultValue) throws UsageException {
+		String value = getString(name, null);
+		try {
+			return value == null ? defaultValue : Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			throw new UsageException(name + " must be an integer, found " + value + ".");
+		}
+	}
+
+	/** Finds the value of an option taking a number
+	 * @param name The option
+	 * @param defaultValue The value if the option was not given
+	 * @return The value
+	 * @throws UsageException if the value is not numeric
+	 */
+	double getDouble(String name, double defaultValue) throws UsageException {
+		String value = getString(name, null);
+		return value == null ? defaultValue : toNumbers(name, new String[] {value})[0];
+	}
+
+	/** Finds the values of an option taking several integers
+	 * @param name The option
+	 * @param defaultValue The values if the option was not given
+	 * @return The values
+	 * @throws UsageException if a value is not an integer
+	 */
+	int[] getInts(String name, int[] defaultValue) throws UsageException {
+		String[] last = getLast(name);
+		if (last == null) {
+			return defaultValue;
+		}
+		int[] parsed = new int[last.length];
+		for (int i = 0; i < last.length; i++) {
+			try {
+				parsed[i] = Integer.parseInt(last[i]);
+			} catch (NumberFormatException e) {
+				throw new UsageException(name + " must be followed by integers, found " + last[i] + ".");
+			}
+		}
+		return parsed;
+	}
+
+	/** Finds the value of an option taking a comma separated list of integers
+	 * @param name The option
+	 * @param defaultValue The values if the option was not given
+	 * @return The values
+	 * @throws UsageException if a value is not an integer
+	 */
+	int[] getIntList(String name, int[] defaultValue) throws UsageException {
+		String value = getString(name, null);
+		if (value == null) {
+			return defaultValue;
+		}
+		String[] items = value.split(",");
+		int[] parsed = new int[items.length];
+		try {
+			for (int i = 0; i < items.length; i++) {
+				parsed[i] = Integer.parseInt(items[i].trim());
+			}
+		} catch (NumberFormatException e) {
+			throw new UsageException(name + " must be a list of integers, found " + value + ".");
+		}
+		return parsed;
+	}
+
+	/** Finds the values of every occurrence of any of several options
+	 * taking numbers, such as a pair of coordinates
+	 * @param options The options
+	 * @return The values of each occurrence in the order given, empty if none
+	 * @throws UsageException if a value is not numeric
+	 */
+	List<double[]> getAllNumbers(String... options) throws UsageException {
+		List<double[]> numbers = new ArrayList<double[]>();
+		List<String> wanted = Arrays.asList(options);
+		for (int i = 0; i < names.size(); i++) {
+			if (wanted.contains(names.get(i))) {
+				numbers.add(toNumbers(names.get(i), values.get(i)));
+			}
+		}
+		return numbers;
+	}
+
+	/** Parses values given on the command line as numbers
+	 * @param name The option or argument the values were given as, for the message
+	 * @param given The values
+	 * @return The numbers
+	 * @throws UsageException if a value is not numeric
+	 */
+	static double[] toNumbers(String name, String[] given) throws UsageException {
+		double[] numbers = new double[given.length];
+		for (int i = 0; i < given.length; i++) {
+			try {
+				numbers[i] = Double.parseDouble(given[i]);
+			} catch (NumberFormatException e) {
+				throw new UsageException(name + " must be numeric, found " + given[i] + ".");
+			}
+		}
+		return numbers;
+	}
+
+	/** Thrown when the command line does not match the usage of its mode */
+	static final class UsageException extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		/** Constructor creates a new UsageException object
+		 * @param message What was wrong, or null if the usage says enough
+		 */
+		UsageException(String message) {
+			super(message);
+		}
+	}
+}
@@ -0,0 +1,71 @@
+package minimumFreeEnergyPath.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import minimumFreeEnergyPath.gridSurface.GridSurface;
+
+/** The --convert mode of MinimumFreeEnergyPath, writing a table in the
+ * binary surface format
+ */
+final class ConvertMode {
+	
+	/** Option selecting conversion of a table to the binary surface format */
+	static final String OPTION = "--convert";
+	/** Option storing converted values as floats */
+	private static final String FLOAT_OPTION = "--float";
+	/** Option storing only the tiles of a converted surface with an accessible cell */
+	private static final String TILED_OPTION = "--tiled";
+	/** Option recording the temperature of a converted surface */
+	static final String TEMPERATURE_OPTION = "--temperature";
+	/** Option adding a table of errors to a converted surface */
+	private static final String ERRORS_OPTION = "--errors";
+	
+	/** Arguments of the mode for the usage message, after the name of the program */
+	static final String USAGE = OPTION + " <filename> [<output>] [" + FLOAT_OPTION + "] [" + TILED_OPTION
+			+ "] [" + TEMPERATURE_OPTION + " <temperature>] [" + ERRORS_OPTION + " <filename>]";
+	
+	/** Utility class not to be instantiated */
+	private ConvertMode() {
+	}
+	
+	/** Converts a table to the binary surface format, by default alongside
+	 * the table where it will be picked up in place of the table
+	 * @param args Command line arguments
+	 * @throws CommandLine.UsageException if the arguments do not match the usage
+	 */
+	static void run(String[] args) throws CommandLine.UsageException {
+		CommandLine line = new CommandLine().flag(FLOAT_OPTION).flag(TILED_OPTION).option(TEMPERATURE_OPTION, 1)
+				.option(ERRORS_OPTION, 1).parse(args, 1);
+		List<String> positional = line.getPositional();
+		boolean singlePrecision = line.has(FLOAT_OPTION);
+		boolean tiled = line.has(TILED_OPTION);
+		double temperature = line.getDouble(TEMPERATURE_OPTION, Double.NaN);
+		String errorFileName = line.getString(ERRORS_OPTION, null);
+		if (positional.isEmpty() || positional.size() > 2) {
+			throw new CommandLine.UsageException(null);
+		}
+		String fileName = positional.get(0);
+		String output = positional.size() > 1 ? positional.get(1) : fileName + BinarySurfaceFormat.EXTENSION;
+		
+		String current = fileName;
+		try {
+			GridSurface surface = SurfaceParser.parse(fileName); // O(n)
+			if (errorFileName != null) {
+				current = errorFileName;
+				GridSurface errors = SurfaceParser.parse(errorFileName); // O(n)
+				if (!errors.hasSameShape(surface)) {
+					Modes.fail("File " + errorFileName + " does not match the size of " + fileName + ".");
+				}
+				surface = new GridSurface(surface, errors.getEnergies());
+			}
+			File source = new File(fileName);
+			current = output;
+			BinarySurfaceFormat.write(output, surface, temperature, source.length(),
+					BinarySurfaceFormat.checksum(source), singlePrecision, tiled); // O(n)
+		} catch (IOException e) {
+			Modes.fail("File " + current, e);
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package minimumFreeEnergyPath.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import minimumFreeEnergyPath.markovModel.TransitionCounts;
+
+/** The --counts mode of MinimumFreeEnergyPath, counting the transitions of
+ * raw trajectories with a TrajectoryCounter, and the options --timescales
+ * shares with it
+ */
+final class CountMode {
+	
+	/** Command line option to count the transitions of raw trajectories */
+	static final String OPTION = "--counts";
+	/** Command line option giving the lag times at which transitions are counted */
+	static final String LAG_OPTION = "--lag";
+	/** Command line option giving the columns of a trajectory holding x and y */
+	static final String COLUMNS_OPTION = "--columns";
+	/** Option choosing the number of threads */
+	private static final String THREADS_OPTION = "--threads";
+	
+	/** Arguments of the mode for the usage message, after the name of the program */
+	static final String USAGE = OPTION + " <readfile> <output> <trajectory>... [" + LAG_OPTION
+			+ " <frames>[,<frames>...]] [" + COLUMNS_OPTION + " <x column> <y column>] [" + THREADS_OPTION + " <threads>]";
+	
+	/** Utility class not to be instantiated */
+	private CountMode() {
+	}
+	
+	/** Counts the transitions of raw trajectories at one or more lags and
+	 * writes them as a count file for dat/in, one for each lag, with the lag
+	 * added to the name when there are several
+	 * @param args Command line arguments
+	 * @throws CommandLine.UsageException if the arguments do not match the usage
+	 */
+	static void run(String[] args) throws CommandLine.UsageException {
+		CommandLine line = parseTrajectoryOptions(args, new CommandLine());
+		List<String> positional = line.getPositional();
+		int[] lags = line.getIntList(LAG_OPTION, new int[] {1});
+		int[] columns = line.getInts(COLUMNS_OPTION, new int[] {1, 2});
+		int threads = line.getInt(THREADS_OPTION, Runtime.getRuntime().availableProcessors());
+		String fileName = positional.get(0);
+		String outputName = positional.get(1);
+		List<String> trajectories = positional.subList(2, positional.size());
+		
+		String current = "File " + fileName;
+		try {
+			JobFile job = new JobFile(fileName);
+			current = "Trajectory";
+			long begin = System.nanoTime();
+			// columns are counted from 1 on the command line
+			TrajectoryCounter counter = new TrajectoryCounter(lags, job.getXScale(), job.getYScale(), columns[0] - 1,
+					columns[1] - 1);
+			TransitionCounts[] counts = counter.count(trajectories, threads); // O(frames * lags)
+			for (int i = 0; i < lags.length; i++) {
+				String name = outputName;
+				if (lags.length > 1) {
+					int dot = outputName.lastIndexOf('.');
+					name = dot > outputName.lastIndexOf(File.separatorChar) ? outputName.substring(0, dot) + "_lag" + lags[i]
+							+ outputName.substring(dot) : outputName + "_lag" + lags[i];
+				}
+				current = "File " + name;
+				FileUtility.writeFromCounts(name, counts[i], job.getXScale(), job.getYScale()); // O(m log m)
+				System.out.println(name + ": " + (long) counts[i].getTotal() + " transitions at lag " + lags[i]
+						+ " between " + counts[i].getStateCount() + " states");
+			}
+			System.out.println(trajectories.size() + " trajectories counted in " + (System.nanoTime() - begin) / 1e9 + " s");
+		} catch (IOException e) {
+			Modes.fail(current, e);
+		} catch (InterruptedException e) {
+			Modes.fail("Counting interrupted.");
+		}
+	}
+	
+	/** Parses the options shared by the modes reading raw trajectories
+	 * @param args Command line arguments
+	 * @param line The options of the mode, to which the shared ones are added
+	 * @return The options and arguments, with the job file, the output and at least one trajectory
+	 * @throws CommandLine.UsageException if the arguments do not match the usage
+	 */
+	static CommandLine parseTrajectoryOptions(String[] args, CommandLine line) throws CommandLine.UsageException {
+		line.option(LAG_OPTION, 1).option(COLUMNS_OPTION, 2).option(THREADS_OPTION, 1).parse(args, 1);
+		if (line.getPositional().size() < 3) {
+			throw new CommandLine.UsageException(null);
+		}
+		for (int column : line.getInts(COLUMNS_OPTION, new int[] {1, 2})) {
+			if (column < 1) {
+				throw new CommandLine.UsageException("Columns are counted from 1.");
+			}
+		}
+		for (int lag : line.getIntList(LAG_OPTION, new int[] {1})) {
+			if (lag < 1) {
+				throw new CommandLine.UsageException("Lags must be positive.");
+			}
+		}
+		if (line.getInt(THREADS_OPTION, 1) < 1) {
+			throw new CommandLine.UsageException(null);
+		}
+		return line;
+	}
+}
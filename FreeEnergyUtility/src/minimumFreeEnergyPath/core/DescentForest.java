@@ -0,0 +1,322 @@
+package minimumFreeEnergyPath.core;
+
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import minimumFreeEnergyPath.gridSurface.GridCycles;
+import minimumFreeEnergyPath.gridSurface.GridSurface;
+import minimumFreeEnergyPath.gridSurface.IntList;
+
+/** Computes the folding path from every accessible cell of a GridSurface at once
+ * Each cell points to its successor, giving a forest rooted at the global
+ * minimum. Cells follow steepest descent into a local minimum, and each local
+ * minimum follows the Most Probable Folding Path out of its basin until it
+ * reaches a cell already known to lead to the global minimum. The path from
+ * any cell can then be read off in O(path length)
+ */
+public final class DescentForest {
+
+	/** Number of cells below which a task is not split further */
+	private static final int SEQUENTIAL_THRESHOLD = 1 << 14;
+
+	/** The surface on which the forest lies */
+	private final GridSurface surface;
+	/** The global minimum at which every path ends */
+	private final int root;
+	/** Next cell on the path from each cell, or -1 for the root, local minima
+	 * which cannot reach the root and inaccessible cells */
+	private final int[] successor;
+	/** Local minimum reached from each cell by steepest descent, or -1 if inaccessible */
+	private final int[] basin;
+	/** Number of steps from each cell to the root, computed on demand */
+	private int[] pathLength;
+
+	/** Constructor builds the forest using a new fork-join pool
+	 * @param surface The surface to be searched
+	 */
+	public DescentForest(GridSurface surface) {
+		this(surface, null);
+	}
+
+	/** Constructor builds the forest, partitioning cells across a fork-join pool
+	 * @param surface The surface to be searched
+	 * @param pool The pool in which to run, or null to create one for this forest
+	 */
+	public DescentForest(GridSurface surface, ForkJoinPool pool) {
+		this.surface = surface;
+		this.root = surface.getMinimumCell();
+		if (root < 0) {
+			throw new IllegalArgumentException(
+				"surface must contain an accessible cell");
+		}
+		successor = new int[surface.size()];
+		basin = new int[surface.size()];
+
+		ForkJoinPool forkJoinPool = pool == null ? new ForkJoinPool() : pool;
+		try {
+			// point every cell at its lowest neighbour - O(kn) for k neighbours per cell, in parallel
+			forkJoinPool.invoke(new DescentTask(0, surface.size(), false));
+			// label every cell with the local minimum it drains into - O(n) in parallel
+			forkJoinPool.invoke(new DescentTask(0, surface.size(), true));
+		} finally {
+			if (pool == null) {
+				forkJoinPool.shutdown();
+			}
+		}
+
+		escapeLocalMinima();
+	}
+
+	// Getters and setters
+	public GridSurface getSurface() {
+		return surface;
+	}
+
+	public int getRoot() {
+		return root;
+	}
+
+	/** Finds the next cell on the path from a cell - O(1)
+	 * @param cell The cell to be checked
+	 * @return The successor of the cell, or -1 for the root or a cell with no path
+	 */
+	public int getSuccessor(int cell) {
+		return successor[cell];
+	}
+
+	/** Finds the local minimum a cell drains into by steepest descent - O(1)
+	 * @param cell The cell to be checked
+	 * @return The local minimum, or -1 if the cell is inaccessible
+	 */
+	public int getBasin(int cell) {
+		return basin[cell];
+	}
+
+	/** Reads off the path from a cell to the global minimum - O(path length)
+	 * @param cell The cell at which the path should start
+	 * @return The cells from start to end inclusive, or null if no path exists
+	 */
+	public int[] pathFrom(int cell) {
+		if (cell < 0 || !surface.isAccessible(cell)) {
+			return null;
+		}
+		int length = 1;
+		int last = cell;
+		while (successor[last] >= 0) {
+			last = successor[last];
+			length++;
+		}
+		if (last != root) {
+			return null;
+		}
+		int[] path = new int[length];
+		for (int i = 0; i < length; i++) {
+			path[i] = cell;
+			cell = successor[cell];
+		}
+		return path;
+	}
+
+	/** Finds the number of steps from a cell to the global minimum
+	 * All lengths are computed on the first call - O(n)
+	 * @param cell The cell to be checked
+	 * @return The number of edges on the path, or -1 if no path exists
+	 */
+	public int getPathLength(int cell) {
+		if (pathLength == null) {
+			computePathLengths();
+		}
+		return pathLength[cell];
+	}
+
+	/** Computes the number of steps from every cell to the root, following
+	 * each chain only as far as the first cell already computed - O(n)
+	 */
+	private void computePathLengths() {
+		// 0 means unknown, otherwise steps plus one, or -1 for no path
+		int[] lengths = new int[surface.size()];
+		lengths[root] = 1;
+		IntList chain = new IntList();
+		for (int cell = 0; cell < lengths.length; cell++) {
+			if (!surface.isAccessible(cell)) {
+				lengths[cell] = -1;
+				continue;
+			}
+			int c = cell;
+			while (lengths[c] == 0 && successor[c] >= 0) {
+				chain.add(c);
+				c = successor[c];
+			}
+			if (lengths[c] == 0) {
+				// chain ends at a local minimum which cannot reach the root
+				lengths[c] = -1;
+			}
+			int length = lengths[c];
+			while (!chain.isEmpty()) {
+				length = length < 0 ? -1 : length + 1;
+				lengths[chain.removeLast()] = length;
+			}
+		}
+		for (int cell = 0; cell < lengths.length; cell++) {
+			if (lengths[cell] > 0) {
+				lengths[cell]--;
+			}
+		}
+		pathLength = lengths;
+	}
+
+	/** Joins each local minimum to the forest in order of increasing energy by
+	 * following the Most Probable Folding Path until it reaches a cell whose
+	 * path is already known. Search state is reused between minima, so the work
+	 * is proportional to the cells visited rather than to the surface size
+	 */
+	private void escapeLocalMinima() {
+		// collect and sort local minima
+		IntList minima = new IntList();
+		for (int cell = 0; cell < surface.size(); cell++) {
+			if (surface.isAccessible(cell) && successor[cell] < 0 && cell != root) {
+				minima.add(cell);
+			}
+		}
+		int[] sortedMinima = minima.toArray();
+		surface.sortByEnergy(sortedMinima);
+
+		// a cell is resolved if it is on an escape path or it drains into a resolved minimum
+		BitSet resolved = new BitSet(surface.size());
+		resolved.set(root);
+
+		BitSet visited = new BitSet(surface.size());
+		IntList visitedCells = new IntList();
+		IntList edgeList = new IntList();
+		GridCycles cycles = new GridCycles(surface);
+		for (int minimum : sortedMinima) {
+			// iterate through surface until we reach a resolved cell
+			int currentCell = minimum;
+			boolean escaped = true;
+			while (!resolved.get(currentCell) && !resolved.get(basin[currentCell])) {
+				visited.set(currentCell);
+				visitedCells.add(currentCell);
+
+				long minCycleEdge = cycles.getMinEdgeInCycle(currentCell);
+				while (minCycleEdge != GridCycles.NO_EDGE
+						&& visited.get(GridCycles.getEdgeTarget(minCycleEdge))) {
+					// we've found a cycle!
+					cycles.merge(currentCell, GridCycles.getEdgeTarget(minCycleEdge));
+					minCycleEdge = cycles.getMinEdgeInCycle(currentCell);
+				}
+
+				if (minCycleEdge == GridCycles.NO_EDGE) {
+					// enclosed basin, the root is unreachable
+					escaped = false;
+					break;
+				}
+
+				// proceed to the next cell
+				edgeList.add(GridCycles.getEdgeSource(minCycleEdge));
+				edgeList.add(GridCycles.getEdgeTarget(minCycleEdge));
+				currentCell = GridCycles.getEdgeTarget(minCycleEdge);
+			}
+
+			if (escaped) {
+				// later edges overwrite earlier ones, so each cell points forward along the path
+				MostProbableFoldingPath.removeDeadEnds(edgeList);
+				for (int i = 0; i < edgeList.size(); i += 2) {
+					successor[edgeList.get(i)] = edgeList.get(i + 1);
+					resolved.set(edgeList.get(i));
+				}
+				resolved.set(minimum);
+			}
+
+			// clean up for the next minimum
+			for (int i = 0; i < visitedCells.size(); i++) {
+				visited.clear(visitedCells.get(i));
+			}
+			visitedCells.clear();
+			edgeList.clear();
+			cycles.clear();
+		}
+	}
+
+	/** Fork-join task covering a range of cells, either pointing each cell
+	 * at its lowest neighbour or labelling each cell with its local minimum
+	 */
+	private final class DescentTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		/** First cell of the range */
+		private final int from;
+		/** Cell after the last of the range */
+		private final int to;
+		/** True to label basins, false to find lowest neighbours */
+		private final boolean labelBasins;
+
+		/** Constructor creates a new DescentTask object
+		 * @param from First cell of the range
+		 * @param to Cell after the last of the range
+		 * @param labelBasins True to label basins, false to find lowest neighbours
+		 */
+		private DescentTask(int from, int to, boolean labelBasins) {
+			this.from = from;
+			this.to = to;
+			this.labelBasins = labelBasins;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > SEQUENTIAL_THRESHOLD) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new DescentTask(from, mid, labelBasins),
+						new DescentTask(mid, to, labelBasins));
+			} else if (labelBasins) {
+				labelBasins();
+			} else {
+				findLowestNeighbours();
+			}
+		}
+
+		/** Points each cell at its lowest neighbour if that neighbour is lower,
+		 * which is the first step the Most Probable Folding Path would take
+		 */
+		private void findLowestNeighbours() {
+			int[] neighbours = new int[surface.getMaxNeighbours()];
+			for (int cell = from; cell < to; cell++) {
+				successor[cell] = -1;
+				basin[cell] = -1;
+				if (!surface.isAccessible(cell) || cell == root) {
+					continue;
+				}
+				double minEnergy = surface.getEnergy(cell);
+				int count = surface.getNeighbours(cell, neighbours);
+				for (int i = 0; i < count; i++) {
+					double energy = surface.getEnergy(neighbours[i]);
+					if (energy < minEnergy) {
+						minEnergy = energy;
+						successor[cell] = neighbours[i];
+					}
+				}
+			}
+		}
+
+		/** Labels each cell with the local minimum at the end of its descent
+		 * Labels written by other tasks are always correct when seen, so they
+		 * are used to cut chains short without synchronisation
+		 */
+		private void labelBasins() {
+			for (int cell = from; cell < to; cell++) {
+				if (!surface.isAccessible(cell)) {
+					continue;
+				}
+				int c = cell;
+				while (successor[c] >= 0 && basin[c] < 0) {
+					c = successor[c];
+				}
+				int minimum = basin[c] >= 0 ? basin[c] : c;
+				for (c = cell; c != minimum && basin[c] < 0; c = successor[c]) {
+					basin[c] = minimum;
+				}
+				basin[minimum] = minimum;
+			}
+		}
+	}
+}
@@ -0,0 +1,155 @@
+package minimumFreeEnergyPath.core;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+
+import minimumFreeEnergyPath.markovModel.DirichletBootstrap;
+import minimumFreeEnergyPath.markovModel.ReversibleEstimate;
+import minimumFreeEnergyPath.markovModel.SparseMatrix;
+import minimumFreeEnergyPath.markovModel.StationaryDistribution;
+import minimumFreeEnergyPath.markovModel.TransitionCounts;
+
+/** The --energies mode of MinimumFreeEnergyPath, finding the free energy
+ * surfaces of count files and their errors in place of FreeEnergyUtility.r
+ */
+final class EnergiesMode {
+	
+	/** Command line option to find free energy surfaces from transition counts */
+	static final String OPTION = "--energies";
+	/** Command line option estimating a transition matrix which obeys detailed balance */
+	private static final String REVERSIBLE_OPTION = "--reversible";
+	/** Command line option giving the number of samples of the transition matrix */
+	private static final String SAMPLES_OPTION = "--samples";
+	/** Command line option giving the seed of the samples */
+	private static final String SEED_OPTION = "--seed";
+	/** Option choosing the number of threads */
+	private static final String THREADS_OPTION = "--threads";
+	/** Boltzmann constant in kcal/mol/K */
+	private static final double BOLTZMANN_CONSTANT = 0.001987204118;
+	/** Distance of the leading eigenvalue from 1 worth a note, as in FreeEnergyUtility.r */
+	private static final double EIGENVALUE_TOLERANCE = 0.01;
+	
+	/** Arguments of the mode for the usage message, after the name of the program */
+	static final String USAGE = OPTION + " <readfile> [<datafile>...] [" + REVERSIBLE_OPTION + "] ["
+			+ SAMPLES_OPTION + " <samples>] [" + THREADS_OPTION + " <threads>] [" + SEED_OPTION + " <seed>]";
+	
+	/** Utility class not to be instantiated */
+	private EnergiesMode() {
+	}
+	
+	/** Finds the free energy surface of count files listed in a job file,
+	 * all of them if none are given, in place of FreeEnergyUtility.r, and
+	 * writes each where R would for its path to be found, along with its
+	 * error from as many Dirichlet samples as the job file asks for. With
+	 * --reversible the surface is that of the reversible maximum likelihood
+	 * estimate rather than of R's row normalised one
+	 * @param args Command line arguments
+	 * @throws CommandLine.UsageException if the arguments do not match the usage
+	 */
+	static void run(String[] args) throws CommandLine.UsageException {
+		CommandLine line = new CommandLine().flag(REVERSIBLE_OPTION).option(SAMPLES_OPTION, 1)
+				.option(THREADS_OPTION, 1).option(SEED_OPTION, 1).parse(args, 1);
+		List<String> positional = line.getPositional();
+		boolean reversible = line.has(REVERSIBLE_OPTION);
+		int samples = line.getInt(SAMPLES_OPTION, -1);
+		int threads = line.getInt(THREADS_OPTION, Runtime.getRuntime().availableProcessors());
+		long seed = line.getLong(SEED_OPTION, DirichletBootstrap.DEFAULT_SEED);
+		if (positional.isEmpty() || threads < 1) {
+			throw new CommandLine.UsageException(null);
+		}
+		String fileName = positional.get(0);
+		List<String> dataFiles = positional.subList(1, positional.size());
+		
+		ForkJoinPool pool = reversible ? new ForkJoinPool(threads) : null;
+		try {
+			JobFile job = new JobFile(fileName);
+			double kT = BOLTZMANN_CONSTANT * job.getTemperature();
+			if (samples < 0) {
+				samples = job.getSamples();
+			}
+			if (dataFiles.isEmpty()) {
+				dataFiles = job.getDataFiles();
+			}
+			for (String dataFile : dataFiles) {
+				long begin = System.nanoTime();
+				fileName = job.getDataPath(dataFile);
+				TransitionCounts counts = FileUtility.readToCounts(fileName, job.getXScale(), job.getYScale()); // O(lines)
+				SparseMatrix matrix = SparseMatrix.fromCounts(counts); // O(nnz + n)
+				
+				PathMetrics metrics = PathMetrics.active();
+				long start = System.nanoTime();
+				double[] probabilities;
+				double[] energies;
+				int iterations;
+				if (reversible) {
+					// the stationary distribution comes with the estimate
+					ReversibleEstimate estimate = new ReversibleEstimate(matrix, pool); // O(nnz + n) per sweep
+					if (!estimate.isConverged()) {
+						System.out.println(String.format(Locale.ROOT,
+								"Note: reversible estimate did not converge in %d sweeps, last change %g",
+								estimate.getIterations(), estimate.getChange()));
+					}
+					System.out.println(String.format(Locale.ROOT, "%s: reversible estimate log likelihood %g",
+							dataFile, estimate.getLogLikelihood()));
+					probabilities = estimate.getProbabilities();
+					energies = estimate.getFreeEnergies(kT);
+					iterations = estimate.getIterations();
+				} else {
+					StationaryDistribution distribution = new StationaryDistribution(matrix, null,
+							StationaryDistribution.DEFAULT_TOLERANCE, StationaryDistribution.DEFAULT_MAX_ITERATIONS); // O(nnz) per sweep
+					if (Math.abs(distribution.getEigenvalue() - 1) > EIGENVALUE_TOLERANCE) {
+						System.out.println(String.format(Locale.ROOT, "Note: eigenvalue of q == %f != 1",
+								distribution.getEigenvalue()));
+					}
+					if (!distribution.isConverged()) {
+						System.out.println("Note: stationary distribution did not converge in "
+								+ distribution.getIterations() + " sweeps");
+					}
+					probabilities = distribution.getProbabilities();
+					energies = distribution.getFreeEnergies(kT);
+					iterations = distribution.getIterations();
+				}
+				if (metrics != null) {
+					metrics.endPhase(PathMetrics.Phase.STATIONARY_DISTRIBUTION, start);
+				}
+				FileUtility.writeFromStates(job.getSurfacePath(dataFile, null), counts.getStates(), energies,
+						job.getXScale(), job.getYScale()); // O(n + cells)
+				
+				if (samples > 0) {
+					start = System.nanoTime();
+					DirichletBootstrap bootstrap = new DirichletBootstrap(matrix, probabilities,
+							samples, seed, threads); // O(n^2) per sweep of each sample
+					if (metrics != null) {
+						metrics.endPhase(PathMetrics.Phase.BOOTSTRAP, start);
+					}
+					System.out.println(dataFile + ": " + samples + " samples in " + bootstrap.getIterations() + " sweeps");
+					if (bootstrap.getUnconverged() > 0) {
+						System.out.println("Note: " + bootstrap.getUnconverged() + " of " + samples
+								+ " samples did not converge");
+					}
+					double[] errors = bootstrap.getFreeEnergyErrors(probabilities, kT);
+					for (int state = 0; state < errors.length; state++) {
+						if (energies[state] == Double.POSITIVE_INFINITY) {
+							// left out as its free energy is
+							errors[state] = Double.POSITIVE_INFINITY;
+						}
+					}
+					FileUtility.writeFromStates(job.getErrorPath(dataFile), counts.getStates(), errors,
+							job.getXScale(), job.getYScale()); // O(n + cells)
+				}
+				System.out.println(dataFile + ": " + counts.getStateCount() + " states in "
+						+ iterations + " sweeps, complete in " + (System.nanoTime() - begin) / 1e9 + " s");
+			}
+		} catch (IOException e) {
+			Modes.fail("File " + fileName, e);
+		} catch (InterruptedException e) {
+			Modes.fail("Sampling interrupted.");
+		} finally {
+			if (pool != null) {
+				pool.shutdown();
+			}
+		}
+	}
+}
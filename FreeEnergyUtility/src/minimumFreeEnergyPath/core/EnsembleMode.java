@@ -0,0 +1,92 @@
+package minimumFreeEnergyPath.core;
+
+import java.io.IOException;
+import java.util.List;
+
+import minimumFreeEnergyPath.gridSurface.GridSurface;
+
+/** The --ensemble mode of MinimumFreeEnergyPath, finding the path on
+ * replicas of a surface perturbed by its error with a PathEnsemble
+ */
+final class EnsembleMode {
+	
+	/** Command line option to find the path on replicas of a surface perturbed by its error */
+	static final String OPTION = "--ensemble";
+	/** Option adding a table of errors to a converted surface */
+	private static final String ERRORS_OPTION = "--errors";
+	/** Command line option giving the number of replicas of a surface */
+	private static final String REPLICAS_OPTION = "--replicas";
+	/** Option choosing the number of threads */
+	private static final String THREADS_OPTION = "--threads";
+	/** Command line option giving the seed of the samples */
+	private static final String SEED_OPTION = "--seed";
+	/** Number of replicas of a surface drawn by default */
+	private static final int DEFAULT_REPLICAS = 1000;
+	/** Suffix to be appended to output filename of visit frequencies */
+	private static final String ENSEMBLE_SUFFIX = "_ensemble.dat";
+	/** Suffix to be appended to output filename of consensus path */
+	private static final String CONSENSUS_SUFFIX = "_consensus.dat";
+	
+	/** Arguments of the mode for the usage message, after the name of the program */
+	static final String USAGE = OPTION + " <filename> <xcoord> <ycoord> [<coord>...] [" + ERRORS_OPTION
+			+ " <filename>] [" + REPLICAS_OPTION + " <replicas>] [" + THREADS_OPTION + " <threads>] [" + SEED_OPTION + " <seed>]";
+	
+	/** Utility class not to be instantiated */
+	private EnsembleMode() {
+	}
+	
+	/** Finds the path on many replicas of a surface perturbed by its error
+	 * and writes how often each cell is visited and the consensus path
+	 * @param args Command line arguments
+	 * @throws CommandLine.UsageException if the arguments do not match the usage
+	 */
+	static void run(String[] args) throws CommandLine.UsageException {
+		CommandLine line = new CommandLine().option(ERRORS_OPTION, 1).option(REPLICAS_OPTION, 1)
+				.option(THREADS_OPTION, 1).option(SEED_OPTION, 1).parse(args, 1);
+		List<String> positional = line.getPositional();
+		String errorFileName = line.getString(ERRORS_OPTION, null);
+		int replicas = line.getInt(REPLICAS_OPTION, DEFAULT_REPLICAS);
+		int threads = line.getInt(THREADS_OPTION, Runtime.getRuntime().availableProcessors());
+		long seed = line.getLong(SEED_OPTION, PathEnsemble.DEFAULT_SEED);
+		if (positional.isEmpty() || replicas < 1 || threads < 1) {
+			throw new CommandLine.UsageException(null);
+		}
+		String fileName = positional.get(0);
+		String[] start = positional.subList(1, positional.size()).toArray(new String[positional.size() - 1]);
+		
+		String current = fileName;
+		try {
+			GridSurface surface = FileUtility.readToSurface(fileName); // O(n)
+			if (errorFileName != null) {
+				current = errorFileName;
+				GridSurface errors = SurfaceParser.parse(errorFileName); // O(n)
+				if (!errors.hasSameShape(surface)) {
+					Modes.fail("File " + errorFileName + " does not match the size of " + fileName + ".");
+				}
+				surface = new GridSurface(surface, errors.getEnergies());
+			} else if (!surface.hasErrors()) {
+				throw new CommandLine.UsageException("File " + fileName + " has no errors; give them with " + ERRORS_OPTION + ".");
+			}
+			
+			PathEnsemble ensemble = new PathEnsemble(surface, Modes.findStartCell(surface, start), replicas, seed,
+					threads); // O(n) per replica
+			FileUtility.writeFromEnsemble(fileName + ENSEMBLE_SUFFIX, ensemble); // O(n)
+			int found = replicas - ensemble.getUnreachable();
+			System.out.println(found + " of " + replicas + " replicas reach the minimum by "
+					+ ensemble.getDistinctPaths() + " distinct paths, the most common taken by "
+					+ ensemble.getModalCount());
+			if (found > 0) {
+				double[] interval = ensemble.getSaddleEnergyInterval();
+				System.out.println("Saddle energy: " + ensemble.getMeanSaddleEnergy() + ", 95% between "
+						+ interval[0] + " and " + interval[1]);
+			}
+			if (ensemble.getConsensus() != null) {
+				FileUtility.writeFromPath(fileName + CONSENSUS_SUFFIX, surface, ensemble.getConsensus()); // O(path length)
+			}
+		} catch (IOException e) {
+			Modes.fail("File " + current, e);
+		} catch (InterruptedException e) {
+			Modes.fail("Ensemble interrupted.");
+		}
+	}
+}
@@ -1,20 +1,34 @@
 package minimumFreeEnergyPath.core;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Scanner;
 
+import minimumFreeEnergyPath.gridSurface.GridSurface;
+import minimumFreeEnergyPath.markovModel.FirstPassageTimes;
+import minimumFreeEnergyPath.markovModel.ImpliedTimescales;
+import minimumFreeEnergyPath.markovModel.LongDoubleHashMap;
+import minimumFreeEnergyPath.markovModel.MetastableStates;
+import minimumFreeEnergyPath.markovModel.SparseMatrix;
+import minimumFreeEnergyPath.markovModel.StateIndex;
+import minimumFreeEnergyPath.markovModel.TransitionCounts;
+import minimumFreeEnergyPath.markovModel.TransitionPathTheory;
 import minimumFreeEnergyPath.weightedVertexGraph.WeightedVertex;
 import minimumFreeEnergyPath.weightedVertexGraph.WeightedVertexGraph;
 
 import org.jgrapht.graph.DefaultWeightedEdge;
 
-/** Utility class for reading and writing WeightedVertexGraph and GraphPath objects to file
+/** Utility class for reading and writing WeightedVertexGraph, GridSurface and path objects to file
  * 
  * @author Scott Gigante
  *
@@ -25,47 +39,53 @@ public final class FileUtility {
 	private FileUtility() {
 	}
 	
-	/** Parses double surrounded by non-numeric text 
-	 * @param s The string to be parsed 
-	 */
-	private static Double parseDouble(String s) {
-		return Double.parseDouble(s.replaceAll("[^\\d.]", ""));
-	}
-	
 	/** Reads output file from FreeEnergyError.r to a WeightedVertexGraph
 	 * @param filename Name of R output file
 	 * @param xStart Starting node of graph x coord
 	 * @param yStart Starting node of graph y coord
 	 * @return The WeightedVertexGraph
 	 * @throws FileNotFoundException
+	 * @throws IOException if the file cannot be read or parsed
+	 * @throws IllegalArgumentException if the surface is not 2D
 	 */
-	protected static WeightedVertexGraph readToGraph(String filename, double xStart, double yStart) throws FileNotFoundException {
+	protected static WeightedVertexGraph readToGraph(String filename, double xStart, double yStart) throws IOException {
 		
 		// read in input file
-		Scanner scanner = new Scanner(new FileReader(filename));
+		GridSurface surface = readToSurface(filename);
+		
+		return toGraph(surface, xStart, yStart);
+	}
+	
+	/** Builds a WeightedVertexGraph from a GridSurface - O(n)
+	 * @param surface The surface to be converted
+	 * @param xStart Starting node of graph x coord
+	 * @param yStart Starting node of graph y coord
+	 * @return The WeightedVertexGraph
+	 * @throws IllegalArgumentException if the surface is not 2D
+	 */
+	protected static WeightedVertexGraph toGraph(GridSurface surface, double xStart, double yStart) {
+		if (surface.getDimensions() != 2) {
+			throw new IllegalArgumentException("WeightedVertexGraph requires a 2D surface");
+		}
+		
+		PathMetrics metrics = PathMetrics.active();
+		long start = System.nanoTime();
 		
-		// create header array
-		List<String> xStringHeader = new ArrayList<String>(Arrays.asList(scanner.nextLine().split("\\t")));
-		xStringHeader.remove(0);
+		// create header arrays
 		ArrayList<Double> xHeader = new ArrayList<Double>();
 		ArrayList<Double> yHeader = new ArrayList<Double>();
-		for (String s : xStringHeader) {
-			xHeader.add(parseDouble(s));
+		for (int i=0;i<surface.getWidth();i++) {
+			xHeader.add(surface.getX(surface.getCell(i, 0)));
+		}
+		for (int j=0;j<surface.getHeight();j++) {
+			yHeader.add(surface.getY(surface.getCell(0, j)));
 		}
 		
-		// read all values from table into vertex array - O(n)
+		// create a vertex for each accessible cell - O(n)
 		VertexArray vertexArray = new VertexArray();
-		while (scanner.hasNextLine()) {
-			String[] line = scanner.nextLine().split("\\t");
-			double y = parseDouble(line[0]);
-			yHeader.add(y);
-			
-			for (int i=1;i<line.length;i++) {
-				try {
-					vertexArray.add(new WeightedVertex(xHeader.get(i-1),y,parseDouble(line[i])));
-				} catch (NumberFormatException e) {
-					// Inf found, ignore it
-				}
+		for (int cell=0;cell<surface.size();cell++) {
+			if (surface.isAccessible(cell)) {
+				vertexArray.add(new WeightedVertex(surface.getX(cell),surface.getY(cell),surface.getEnergy(cell)));
 			}
 		}
 		
@@ -76,6 +96,10 @@ public final class FileUtility {
 		for (WeightedVertex v : vertexArray) {
 			g.addVertex(v);
 		}
+		if (metrics != null) {
+			metrics.endPhase(PathMetrics.Phase.VERTEX_INDEXING, start);
+			start = System.nanoTime();
+		}
 		
 		// add edges to graph - O(8n)
 		for (WeightedVertex v1 : vertexArray) {
@@ -83,7 +107,9 @@ public final class FileUtility {
 				if (v1 != v2 && vertexArray.isAdjacent(v1, v2)) {
 					g.addEdge(v1, v2);
 				} else {
-					System.out.println("fuck");
+					// getAdjacentVertices returns only distinct neighbouring cells
+					throw new IllegalStateException("vertex at " + v1.getX() + ", " + v1.getY()
+							+ " listed as adjacent to " + v2.getX() + ", " + v2.getY());
 				}
 			}
 		}
@@ -91,18 +117,617 @@ public final class FileUtility {
 		// set starting and ending points of graph
 		g.setStartVertex(vertexArray.getAtCoords(xStart, yStart));
 		g.setEndVertex(vertexArray.getAtWeight(0));
-				
-		// clean up
-		scanner.close();
+		
+		if (metrics != null) {
+			metrics.endPhase(PathMetrics.Phase.EDGE_CREATION, start);
+			metrics.add(PathMetrics.Counter.EDGES_CREATED, g.edgeSet().size());
+		}
 		return g;
 	}
 	
+	/** Reads output file from FreeEnergyError.r to a GridSurface
+	 * Inaccessible cells (Inf, NA or empty) are stored with infinite energy - O(n)
+	 * A binary copy is kept alongside the file and read instead whenever it is
+	 * up to date, and a file which is itself binary is read directly
+	 * @param filename Name of R output file
+	 * @return The GridSurface
+	 * @throws FileNotFoundException
+	 * @throws SurfaceFormatException if a cell is malformed
+	 * @throws IOException
+	 */
+	protected static GridSurface readToSurface(String filename) throws IOException {
+		PathMetrics metrics = PathMetrics.active();
+		long start = System.nanoTime();
+		
+		GridSurface surface;
+		if (filename.endsWith(BinarySurfaceFormat.EXTENSION)) {
+			surface = BinarySurfaceFormat.read(filename);
+		} else {
+			File source = new File(filename);
+			File cache = new File(filename + BinarySurfaceFormat.EXTENSION);
+			surface = BinarySurfaceFormat.readCache(cache, source);
+			if (surface == null) {
+				surface = SurfaceParser.parse(filename);
+				BinarySurfaceFormat.writeCache(cache, source, surface);
+			}
+		}
+		
+		if (metrics != null) {
+			metrics.endPhase(PathMetrics.Phase.PARSE, start);
+			int inaccessible = 0;
+			for (int cell=0;cell<surface.size();cell++) {
+				if (!surface.isAccessible(cell)) {
+					inaccessible++;
+				}
+			}
+			metrics.add(PathMetrics.Counter.CELLS_PARSED, surface.size());
+			metrics.add(PathMetrics.Counter.INF_CELLS_SKIPPED, inaccessible);
+		}
+		return surface;
+	}
+	
+	/** Reads a 5 column file of transition counts (x1, y1, x2, y2, count)
+	 * from dat/in, as read by FreeEnergyUtility.r - O(lines)
+	 * Counts given more than once for the same transition are summed
+	 * @param filename Name of the count file
+	 * @param xScale The width of the bins along x
+	 * @param yScale The width of the bins along y
+	 * @return The counts
+	 * @throws FileNotFoundException
+	 * @throws SurfaceFormatException if a line is malformed
+	 * @throws IOException
+	 */
+	protected static TransitionCounts readToCounts(String filename, double xScale, double yScale) throws IOException {
+		PathMetrics metrics = PathMetrics.active();
+		long start = System.nanoTime();
+		
+		TransitionCounts counts = new TransitionCounts();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(filename),
+				StandardCharsets.ISO_8859_1))) {
+			String line;
+			for (int lineNumber = 1; (line = reader.readLine()) != null; lineNumber++) {
+				try {
+					counts.addLine(line, xScale, yScale);
+				} catch (IllegalArgumentException e) {
+					// NumberFormatException included
+					throw new SurfaceFormatException(lineNumber, 1, e.getMessage());
+				}
+			}
+		}
+		
+		if (metrics != null) {
+			metrics.endPhase(PathMetrics.Phase.PARSE, start);
+		}
+		return counts;
+	}
+	
+	/** Writes transition counts to file in the 5 column form of the count
+	 * files in dat/in, x1 y1 x2 y2 count, in order of the first state and
+	 * then the second, each by x and then y - O(m log m)
+	 * @param filename The file to be written to
+	 * @param counts The counts to be written
+	 * @param xScale The width of the bins along x
+	 * @param yScale The width of the bins along y
+	 */
+	protected static void writeFromCounts(String filename, TransitionCounts counts, double xScale, double yScale) {
+		PathMetrics metrics = PathMetrics.active();
+		long start = System.nanoTime();
+		
+		// rank the states, then sort the transitions by the ranks of their ends
+		StateIndex states = counts.getStates();
+		int[] order = sortStates(states, new double[states.size()]);
+		int[] rank = new int[order.length];
+		for (int i = 0; i < order.length; i++) {
+			rank[order[i]] = i;
+		}
+		LongDoubleHashMap entries = counts.getCounts();
+		long[] keys = new long[entries.size()];
+		int m = 0;
+		for (int slot = 0; slot < entries.getCapacity(); slot++) {
+			if (entries.isUsed(slot)) {
+				long key = entries.getKey(slot);
+				keys[m++] = TransitionCounts.pack(rank[TransitionCounts.getFrom(key)], rank[TransitionCounts.getTo(key)]);
+			}
+		}
+		Arrays.sort(keys);
+		
+		PrintWriter writer;
+		try {
+			// open file
+			writer = new PrintWriter(filename, "UTF-8");
+			
+			// print each transition in order
+			for (long key : keys) {
+				int from = order[TransitionCounts.getFrom(key)];
+				int to = order[TransitionCounts.getTo(key)];
+				double count = counts.getCount(from, to);
+				writer.println(formatCoordinate(states.getXBin(from), xScale) + "\t" + formatCoordinate(states.getYBin(from), yScale)
+						+ "\t" + formatCoordinate(states.getXBin(to), xScale) + "\t" + formatCoordinate(states.getYBin(to), yScale)
+						+ "\t" + (count == Math.rint(count) ? Long.toString((long) count) : Double.toString(count)));
+			}
+			
+			// clean up
+			writer.close();
+		} catch (FileNotFoundException | UnsupportedEncodingException e) {
+			e.printStackTrace();
+		}
+		
+		if (metrics != null) {
+			metrics.endPhase(PathMetrics.Phase.OUTPUT, start);
+		}
+	}
+	
+	/** Writes the free energy of each state to file, one line of x, y and
+	 * free energy for every bin from 0, or the least bin if it is negative,
+	 * to the greatest bin of a state of finite free energy along each axis,
+	 * in order of x and then y. Bins without such a state are written as Inf,
+	 * as in the redundant matrix FreeEnergyUtility.r writes, so the grid is
+	 * read back by readToSurface with its gaps in place - O(n + cells)
+	 * @param filename The file to be written to
+	 * @param states The bins of the states
+	 * @param energies The free energy of each state
+	 * @param xScale The width of the bins along x
+	 * @param yScale The width of the bins along y
+	 */
+	protected static void writeFromStates(String filename, StateIndex states, double[] energies, double xScale,
+			double yScale) {
+		PathMetrics metrics = PathMetrics.active();
+		long start = System.nanoTime();
+		
+		// find the extent of the grid
+		int xFirst = 0;
+		int xLast = 0;
+		int yFirst = 0;
+		int yLast = 0;
+		for (int state = 0; state < energies.length; state++) {
+			if (energies[state] != Double.POSITIVE_INFINITY) {
+				xFirst = Math.min(xFirst, states.getXBin(state));
+				xLast = Math.max(xLast, states.getXBin(state));
+				yFirst = Math.min(yFirst, states.getYBin(state));
+				yLast = Math.max(yLast, states.getYBin(state));
+			}
+		}
+		int height = yLast - yFirst + 1;
+		long cells = (long) (xLast - xFirst + 1) * height;
+		if (cells > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("grid of states has more than 2^31 cells");
+		}
+		
+		// state of each cell, or -1 if it has none of finite free energy
+		int[] cellStates = new int[(int) cells];
+		Arrays.fill(cellStates, -1);
+		for (int state = 0; state < energies.length; state++) {
+			if (energies[state] != Double.POSITIVE_INFINITY) {
+				cellStates[(states.getXBin(state) - xFirst) * height + states.getYBin(state) - yFirst] = state;
+			}
+		}
+		
+		PrintWriter writer;
+		try {
+			// open file
+			writer = new PrintWriter(filename, "UTF-8");
+			
+			// print every cell in order
+			int cell = 0;
+			for (int x = xFirst; x <= xLast; x++) {
+				String xCoordinate = StateIndex.toCoordinate(x, xScale) + "\t";
+				for (int y = yFirst; y <= yLast; y++, cell++) {
+					int state = cellStates[cell];
+					writer.println(xCoordinate + StateIndex.toCoordinate(y, yScale) + "\t"
+							+ (state < 0 ? "Inf" : Double.toString(energies[state])));
+				}
+			}
+			
+			// clean up
+			writer.close();
+		} catch (FileNotFoundException | UnsupportedEncodingException e) {
+			e.printStackTrace();
+		}
+		
+		if (metrics != null) {
+			metrics.endPhase(PathMetrics.Phase.OUTPUT, start);
+		}
+	}
+	
+	/** Writes a path of grid cells to file - O(n)
+	 * @param filename The file to be written to
+	 * @param surface The surface on which the path lies
+	 * @param path The cells of the path, in order
+	 */
+	protected static void writeFromPath(String filename, GridSurface surface, int[] path) {
+		PathMetrics metrics = PathMetrics.active();
+		long start = System.nanoTime();
+		
+		PrintWriter writer;
+		try {
+			// open file
+			writer = new PrintWriter(filename, "UTF-8");
+			
+			// print each cell in order
+			for (int cell : path) {
+				writer.println(surface.toString(cell));
+			}
+			
+			// clean up
+			writer.close();
+		} catch (FileNotFoundException | UnsupportedEncodingException e) {
+			e.printStackTrace();
+		}
+		
+		if (metrics != null) {
+			metrics.endPhase(PathMetrics.Phase.OUTPUT, start);
+			metrics.add(PathMetrics.Counter.PATH_LENGTH, path.length);
+		}
+	}
+	
+	/** Writes the basin and arrival map of a DescentForest to file - O(n)
+	 * Each accessible cell is written as its coordinates and energy, the
+	 * coordinates of the local minimum it descends into and the number of
+	 * steps on its path to the global minimum, NA if there is no path
+	 * @param filename The file to be written to
+	 * @param forest The forest to be written
+	 */
+	protected static void writeFromForest(String filename, DescentForest forest) {
+		PrintWriter writer;
+		try {
+			// open file
+			writer = new PrintWriter(filename, "UTF-8");
+			
+			// print each accessible cell in order
+			GridSurface surface = forest.getSurface();
+			for (int cell=0;cell<surface.size();cell++) {
+				if (!surface.isAccessible(cell)) {
+					continue;
+				}
+				int basin = forest.getBasin(cell);
+				int length = forest.getPathLength(cell);
+				writer.println(surface.toString(cell) + "\t" + surface.coordinatesToString(basin) + "\t" + (length < 0 ? "NA" : Integer.toString(length)));
+			}
+			
+			// clean up
+			writer.close();
+		} catch (FileNotFoundException | UnsupportedEncodingException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/** Writes the visit frequencies of a PathEnsemble to file - O(n)
+	 * Each cell on any path is written as its coordinates and energy, the
+	 * fraction of paths through it and the fraction of paths whose highest
+	 * point it is
+	 * @param filename The file to be written to
+	 * @param ensemble The ensemble to be written
+	 */
+	protected static void writeFromEnsemble(String filename, PathEnsemble ensemble) {
+		PrintWriter writer;
+		try {
+			// open file
+			writer = new PrintWriter(filename, "UTF-8");
+			
+			// print each visited cell in order
+			GridSurface surface = ensemble.getSurface();
+			for (int cell=0;cell<surface.size();cell++) {
+				double frequency = ensemble.getVisitFrequency(cell);
+				if (frequency > 0) {
+					writer.println(surface.toString(cell) + "\t" + frequency + "\t" + ensemble.getSaddleFrequency(cell));
+				}
+			}
+			
+			// clean up
+			writer.close();
+		} catch (FileNotFoundException | UnsupportedEncodingException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/** Writes the committors of a TransitionPathTheory to file - O(n log n)
+	 * Each state is written as its coordinates, forward and backward
+	 * committors and stationary probability, in order of x and then y
+	 * @param filename The file to be written to
+	 * @param states The bins of the states
+	 * @param tpt The committors to be written
+	 * @param probabilities The stationary probability of each state
+	 * @param xScale The width of the bins along x
+	 * @param yScale The width of the bins along y
+	 */
+	protected static void writeFromCommittors(String filename, StateIndex states, TransitionPathTheory tpt,
+			double[] probabilities, double xScale, double yScale) {
+		double[] forward = tpt.getForwardCommittors();
+		double[] backward = tpt.getBackwardCommittors();
+		PrintWriter writer;
+		try {
+			// open file
+			writer = new PrintWriter(filename, "UTF-8");
+			
+			// print each state in order
+			for (int state : sortStates(states, forward)) {
+				writer.println(stateToString(states, state, xScale, yScale) + "\t" + forward[state] + "\t"
+						+ backward[state] + "\t" + probabilities[state]);
+			}
+			
+			// clean up
+			writer.close();
+		} catch (FileNotFoundException | UnsupportedEncodingException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/** Writes a net reactive flux network to file in the 5 column form of
+	 * the count files, x1, y1, x2, y2 and the flux from the first state to
+	 * the second - O(m)
+	 * @param filename The file to be written to
+	 * @param states The bins of the states
+	 * @param flux The net flux from each state to each other
+	 * @param xScale The width of the bins along x
+	 * @param yScale The width of the bins along y
+	 */
+	protected static void writeFromFlux(String filename, StateIndex states, SparseMatrix flux, double xScale,
+			double yScale) {
+		PrintWriter writer;
+		try {
+			// open file
+			writer = new PrintWriter(filename, "UTF-8");
+			
+			// print each edge in order of the state it leaves
+			for (int from = 0; from < flux.getSize(); from++) {
+				for (int k = flux.getRowStart(from); k < flux.getRowEnd(from); k++) {
+					writer.println(stateToString(states, from, xScale, yScale) + "\t"
+							+ stateToString(states, flux.getColumn(k), xScale, yScale) + "\t" + flux.getValue(k));
+				}
+			}
+			
+			// clean up
+			writer.close();
+		} catch (FileNotFoundException | UnsupportedEncodingException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/** Writes the pathways of a TransitionPathTheory to file - O(total length)
+	 * Each state of each pathway is written as the number of the pathway,
+	 * counting from 1, the flux it carries and the coordinates of the state,
+	 * in order from source to sink
+	 * @param filename The file to be written to
+	 * @param states The bins of the states
+	 * @param pathways The pathways, in order of decreasing flux
+	 * @param xScale The width of the bins along x
+	 * @param yScale The width of the bins along y
+	 */
+	protected static void writeFromPathways(String filename, StateIndex states,
+			List<TransitionPathTheory.Pathway> pathways, double xScale, double yScale) {
+		PrintWriter writer;
+		try {
+			// open file
+			writer = new PrintWriter(filename, "UTF-8");
+			
+			// print each state of each pathway in order
+			for (int i = 0; i < pathways.size(); i++) {
+				TransitionPathTheory.Pathway pathway = pathways.get(i);
+				for (int state : pathway.getStates()) {
+					writer.println((i + 1) + "\t" + pathway.getFlux() + "\t" + stateToString(states, state, xScale, yScale));
+				}
+			}
+			
+			// clean up
+			writer.close();
+		} catch (FileNotFoundException | UnsupportedEncodingException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/** Writes the mean first passage times of every state to file - O(n log n)
+	 * Each state is written as its coordinates and its time to each target
+	 * set in turn, in order of x and then y
+	 * @param filename The file to be written to
+	 * @param states The bins of the states
+	 * @param times The times to be written
+	 * @param xScale The width of the bins along x
+	 * @param yScale The width of the bins along y
+	 */
+	protected static void writeFromTimes(String filename, StateIndex states, FirstPassageTimes times, double xScale,
+			double yScale) {
+		PathMetrics metrics = PathMetrics.active();
+		long start = System.nanoTime();
+		
+		PrintWriter writer;
+		try {
+			// open file
+			writer = new PrintWriter(filename, "UTF-8");
+			
+			// print each state in order
+			for (int state : sortStates(states, new double[states.size()])) {
+				StringBuilder line = new StringBuilder(stateToString(states, state, xScale, yScale));
+				for (int target = 0; target < times.getTargetCount(); target++) {
+					line.append('\t').append(times.getTimes(target)[state]);
+				}
+				writer.println(line);
+			}
+			
+			// clean up
+			writer.close();
+		} catch (FileNotFoundException | UnsupportedEncodingException e) {
+			e.printStackTrace();
+		}
+		
+		if (metrics != null) {
+			metrics.endPhase(PathMetrics.Phase.OUTPUT, start);
+		}
+	}
+	
+	/** Writes the macrostate memberships of every state to file - O(n log n)
+	 * Each state is written as its coordinates, the macrostate in which its
+	 * membership is highest, counted from 1, and its membership in each
+	 * macrostate in turn, in order of x and then y
+	 * @param filename The file to be written to
+	 * @param states The bins of the states
+	 * @param macrostates The memberships to be written
+	 * @param xScale The width of the bins along x
+	 * @param yScale The width of the bins along y
+	 */
+	protected static void writeFromMemberships(String filename, StateIndex states, MetastableStates macrostates,
+			double xScale, double yScale) {
+		double[][] memberships = macrostates.getMemberships();
+		PrintWriter writer;
+		try {
+			// open file
+			writer = new PrintWriter(filename, "UTF-8");
+			
+			// print each state in order
+			for (int state : sortStates(states, new double[states.size()])) {
+				StringBuilder line = new StringBuilder(stateToString(states, state, xScale, yScale)).append('\t')
+						.append(macrostates.getAssignments()[state] + 1);
+				for (double[] membership : memberships) {
+					line.append('\t').append(membership[state]);
+				}
+				writer.println(line);
+			}
+			
+			// clean up
+			writer.close();
+		} catch (FileNotFoundException | UnsupportedEncodingException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/** Writes the macrostates to file - O(k^2)
+	 * Each macrostate is written as its number, counted from 1, its
+	 * stationary probability, the coordinates of its most probable state, NA
+	 * if no state is mostly within it, and its row of the coarse grained
+	 * transition matrix
+	 * @param filename The file to be written to
+	 * @param states The bins of the states
+	 * @param macrostates The macrostates to be written
+	 * @param xScale The width of the bins along x
+	 * @param yScale The width of the bins along y
+	 */
+	protected static void writeFromMacrostates(String filename, StateIndex states, MetastableStates macrostates,
+			double xScale, double yScale) {
+		double[][] coarse = macrostates.getCoarseMatrix();
+		PrintWriter writer;
+		try {
+			// open file
+			writer = new PrintWriter(filename, "UTF-8");
+			
+			// print each macrostate in order
+			for (int macrostate = 0; macrostate < macrostates.getCount(); macrostate++) {
+				int core = macrostates.getCore(macrostate);
+				StringBuilder line = new StringBuilder().append(macrostate + 1).append('\t')
+						.append(macrostates.getProbabilities()[macrostate]).append('\t')
+						.append(core < 0 ? "NA\tNA" : stateToString(states, core, xScale, yScale));
+				for (double p : coarse[macrostate]) {
+					line.append('\t').append(p);
+				}
+				writer.println(line);
+			}
+			
+			// clean up
+			writer.close();
+		} catch (FileNotFoundException | UnsupportedEncodingException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/** Writes the implied timescales of a lag sweep to file - O(lags k)
+	 * Each lag is written as the lag followed by each timescale and the
+	 * bottom and top of its band in turn, in steps of the trajectory
+	 * @param filename The file to be written to
+	 * @param sweep The timescales of each lag
+	 */
+	protected static void writeFromTimescales(String filename, List<ImpliedTimescales> sweep) {
+		PathMetrics metrics = PathMetrics.active();
+		long start = System.nanoTime();
+		
+		PrintWriter writer;
+		try {
+			// open file
+			writer = new PrintWriter(filename, "UTF-8");
+		
+			// print each lag in order
+			for (ImpliedTimescales timescales : sweep) {
+				StringBuilder line = new StringBuilder().append(timescales.getLag());
+				for (int i = 0; i < timescales.getTimescales().length; i++) {
+					line.append('\t').append(timescales.getTimescales()[i]).append('\t')
+							.append(timescales.getLower()[i]).append('\t').append(timescales.getUpper()[i]);
+				}
+				writer.println(line);
+			}
+	
+			// clean up
+			writer.close();
+		} catch (FileNotFoundException | UnsupportedEncodingException e) {
+			e.printStackTrace();
+		}
+	
+		if (metrics != null) {
+			metrics.endPhase(PathMetrics.Phase.OUTPUT, start);
+		}
+	}
+	
+	/** Writes the nodes of a BarrierTree to file as a disconnectivity graph - O(m)
+	 * Each node is written as its number, the number of its parent (NA for
+	 * the root of a connected region), minimum or saddle, the coordinates and
+	 * energy of its cell and the number of cells in its basin
+	 * @param filename The file to be written to
+	 * @param tree The tree to be written
+	 */
+	protected static void writeFromTree(String filename, BarrierTree tree) {
+		PrintWriter writer;
+		try {
+			// open file
+			writer = new PrintWriter(filename, "UTF-8");
+			
+			// print each node, children before parents
+			GridSurface surface = tree.getSurface();
+			for (int node=0;node<tree.getNodeCount();node++) {
+				int parent = tree.getParent(node);
+				writer.println(node + "\t" + (parent < 0 ? "NA" : Integer.toString(parent)) + "\t"
+						+ (tree.isMinimum(node) ? "minimum" : "saddle") + "\t"
+						+ surface.toString(tree.getNodeCell(node)) + "\t" + tree.getSize(node));
+			}
+			
+			// clean up
+			writer.close();
+		} catch (FileNotFoundException | UnsupportedEncodingException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/** Writes the basin label of every cell of a BarrierTree to file - O(n)
+	 * Each accessible cell is written as its coordinates and energy and the
+	 * number of the node of the tree it belongs to
+	 * @param filename The file to be written to
+	 * @param tree The tree to be written
+	 */
+	protected static void writeBasins(String filename, BarrierTree tree) {
+		PrintWriter writer;
+		try {
+			// open file
+			writer = new PrintWriter(filename, "UTF-8");
+			
+			// print each accessible cell in order
+			GridSurface surface = tree.getSurface();
+			for (int cell=0;cell<surface.size();cell++) {
+				if (tree.getNode(cell) >= 0) {
+					writer.println(surface.toString(cell) + "\t" + tree.getNode(cell));
+				}
+			}
+			
+			// clean up
+			writer.close();
+		} catch (FileNotFoundException | UnsupportedEncodingException e) {
+			e.printStackTrace();
+		}
+	}
+	
 	/** Writes a path to file - O(n)
 	 * @param filename The file to be written to
 	 * @param g The graph on which the path lies
 	 * @param path The path to be parsed and written in List form
 	 */
 	protected static void writeFromPath(String filename, WeightedVertexGraph g, List<DefaultWeightedEdge> path) {
+		PathMetrics metrics = PathMetrics.active();
+		long start = System.nanoTime();
+		
 		PrintWriter writer;
 		try {
 			// open file
@@ -121,5 +746,55 @@ public final class FileUtility {
 		} catch (FileNotFoundException | UnsupportedEncodingException e) {
 			e.printStackTrace();
 		}
+		
+		if (metrics != null) {
+			metrics.endPhase(PathMetrics.Phase.OUTPUT, start);
+			metrics.add(PathMetrics.Counter.PATH_LENGTH, path.size() + 1);
+		}
+	}
+	
+	/** Lists the states of finite value in order of x and then y - O(n log n)
+	 * @param states The bins of the states
+	 * @param values The value of each state, infinite to leave it out
+	 * @return The states in order
+	 */
+	private static int[] sortStates(StateIndex states, double[] values) {
+		// sort the bins, offsetting y so that negative bins sort first
+		long[] bins = new long[values.length];
+		int finite = 0;
+		for (int state = 0; state < values.length; state++) {
+			if (values[state] != Double.POSITIVE_INFINITY) {
+				bins[finite++] = ((long) states.getXBin(state) << 32) + ((long) states.getYBin(state) - Integer.MIN_VALUE);
+			}
+		}
+		Arrays.sort(bins, 0, finite);
+		int[] order = new int[finite];
+		for (int i = 0; i < finite; i++) {
+			order[i] = states.get((int) (bins[i] >> 32), (int) ((bins[i] & 0xffffffffL) + Integer.MIN_VALUE));
+		}
+		return order;
+	}
+	
+	/** Formats the coordinate of a bin as the count files in dat/in hold
+	 * them, without trailing zeros, so that bin 3 of 1 is written 3 - O(1)
+	 * @param bin The bin index
+	 * @param scale The width of a bin
+	 * @return The coordinate
+	 */
+	private static String formatCoordinate(int bin, double scale) {
+		BigDecimal coordinate = BigDecimal.valueOf(scale).multiply(BigDecimal.valueOf(bin));
+		return coordinate.signum() == 0 ? "0" : coordinate.stripTrailingZeros().toPlainString();
+	}
+	
+	/** Formats the coordinates of a state as FreeEnergyUtility.r writes them - O(1)
+	 * @param states The bins of the states
+	 * @param state The state
+	 * @param xScale The width of the bins along x
+	 * @param yScale The width of the bins along y
+	 * @return The x and y coordinates, separated by a tab
+	 */
+	private static String stateToString(StateIndex states, int state, double xScale, double yScale) {
+		return StateIndex.toCoordinate(states.getXBin(state), xScale) + "\t"
+				+ StateIndex.toCoordinate(states.getYBin(state), yScale);
 	}
 }
@@ -0,0 +1,79 @@
+package minimumFreeEnergyPath.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import minimumFreeEnergyPath.gridSurface.GridSurface;
+
+/** The --follow mode of MinimumFreeEnergyPath, keeping the path of a count
+ * file up to date with an IncrementalPath while counts are appended
+ */
+final class FollowMode {
+	
+	/** Command line option to update a path as counts are appended */
+	static final String OPTION = "--follow";
+	/** Command line option giving the time between reads of the count file */
+	private static final String INTERVAL_OPTION = "--interval";
+	/** Command line option giving the number of updates after which to stop */
+	private static final String UPDATES_OPTION = "--updates";
+	/** Command line option giving the change in free energy worth updating */
+	private static final String TOLERANCE_OPTION = "--tolerance";
+	/** Milliseconds between reads of a followed count file by default */
+	private static final long DEFAULT_INTERVAL = 1000;
+	
+	/** Arguments of the mode for the usage message, after the name of the program */
+	static final String USAGE = OPTION + " <readfile> <datafile> [" + INTERVAL_OPTION + " <ms>] [" + UPDATES_OPTION
+			+ " <updates>] [" + TOLERANCE_OPTION + " <kcal/mol>]";
+	
+	/** Utility class not to be instantiated */
+	private FollowMode() {
+	}
+	
+	/** Keeps the path of a count file up to date while counts are appended
+	 * to it, reading it every interval and finding the path again only when
+	 * the new counts change the free energy near the last search
+	 * @param args Command line arguments
+	 * @param neighbourhood Which cells count as adjacent
+	 * @throws CommandLine.UsageException if the arguments do not match the usage
+	 */
+	static void run(String[] args, GridSurface.Neighbourhood neighbourhood) throws CommandLine.UsageException {
+		CommandLine line = new CommandLine().option(INTERVAL_OPTION, 1).option(UPDATES_OPTION, 1)
+				.option(TOLERANCE_OPTION, 1).parse(args, 1);
+		List<String> positional = line.getPositional();
+		long interval = line.getLong(INTERVAL_OPTION, DEFAULT_INTERVAL);
+		int updates = line.getInt(UPDATES_OPTION, Integer.MAX_VALUE);
+		double tolerance = line.getDouble(TOLERANCE_OPTION, IncrementalPath.DEFAULT_TOLERANCE);
+		if (positional.size() != 2 || interval < 0 || updates < 1 || !(tolerance >= 0)) {
+			throw new CommandLine.UsageException(null);
+		}
+		String fileName = positional.get(0);
+		String dataFile = positional.get(1);
+		
+		String current = fileName;
+		try {
+			JobFile job = new JobFile(fileName);
+			File counts = new File(job.getDataPath(dataFile));
+			current = counts.getPath();
+			IncrementalPath incremental = new IncrementalPath(job, IncrementalPath.getOutputFile(job, dataFile),
+					neighbourhood, tolerance);
+			System.out.println("Following " + counts.getPath() + ", writing " + incremental.getOutputFile());
+			for (int done = 0; done < updates; ) {
+				if (counts.exists()) {
+					incremental.readAppended(counts); // O(lines appended)
+					IncrementalPath.Update update = incremental.update();
+					if (update != null) {
+						System.out.println(update);
+						done++;
+						continue;
+					}
+				}
+				Thread.sleep(interval);
+			}
+		} catch (IOException e) {
+			Modes.fail("File " + current, e);
+		} catch (InterruptedException e) {
+			System.out.println("Stopped following.");
+		}
+	}
+}
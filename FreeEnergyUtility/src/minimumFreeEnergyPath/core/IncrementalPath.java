@@ -0,0 +1,421 @@
+package minimumFreeEnergyPath.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import minimumFreeEnergyPath.gridSurface.ArrayEnergyStore;
+import minimumFreeEnergyPath.gridSurface.GridSurface;
+import minimumFreeEnergyPath.markovModel.StateIndex;
+import minimumFreeEnergyPath.markovModel.StationaryDistribution;
+import minimumFreeEnergyPath.markovModel.TransitionCounts;
+
+/** Keeps the free energy surface and most probable folding path of a count
+ * file up to date as transition counts are appended to it, while the
+ * simulation producing them is still running
+ *
+ * Counts are read from where the last read stopped and added to running
+ * totals. Each update rebuilds the transition matrix from the totals in full,
+ * O(nnz + n), and refines the stationary distribution from the last one, so
+ * it takes few sweeps; only the reading of counts is incremental. Only cells
+ * whose free energy moves by more than a tolerance are written to the
+ * surface, which spans every bin from 0 to the largest seen along each axis,
+ * as R lays it out, and is rebuilt only when a new bin widens it. The path is
+ * found again only if one of those cells was visited by the last search or
+ * lies next to a visited cell, since otherwise the search would make the same
+ * choices, or if the start or minimum has moved
+ */
+public class IncrementalPath {
+
+	/** Suffix to be appended to output filename */
+	private static final String OUTPUT_SUFFIX = "_path.dat";
+	/** Change in free energy in kcal/mol below which a cell is not rewritten */
+	public static final double DEFAULT_TOLERANCE = 1e-6;
+	/** Boltzmann constant in kcal/mol/K */
+	private static final double BOLTZMANN_CONSTANT = 0.001987204118;
+
+	/** Settings of the job */
+	private final JobFile job;
+	/** Boltzmann constant times the temperature */
+	private final double kT;
+	/** Change in free energy below which a cell is not rewritten */
+	private final double tolerance;
+	/** Which cells count as adjacent */
+	private final GridSurface.Neighbourhood neighbourhood;
+	/** File to which the path is written */
+	private final String outputFile;
+	/** Running totals of the counts read */
+	private final TransitionCounts counts;
+	/** Number of transitions added since the last update */
+	private int pendingLines;
+	/** Offset in the count file up to which complete lines have been read */
+	private long offset;
+	/** Number of lines read from the count file */
+	private int lineNumber;
+
+	/** Stationary distribution found by the last update, or null */
+	private double[] probabilities;
+	/** Bin index along x of the first column of the surface */
+	private int xFirst;
+	/** Number of columns of the surface */
+	private int width;
+	/** Bin index along y of the first row of the surface */
+	private int yFirst;
+	/** Number of rows of the surface */
+	private int height;
+	/** Cell of each state, or -1 if it is not on the surface */
+	private int[] stateCells;
+	/** Free energy of each cell, shared with the surface */
+	private double[] energies;
+	/** The surface, or null before the first update */
+	private GridSurface surface;
+	/** Cells of the last path, or null if there is none */
+	private int[] path;
+	/** Cells visited by the last search and their neighbours */
+	private BitSet watched;
+	/** Start of the last path */
+	private int startCell;
+	/** End of the last path */
+	private int endCell;
+
+	/** Constructor creates a new IncrementalPath object with no counts
+	 * @param job Settings of the job, giving temperature, scales and start
+	 * @param outputFile File to which the path is written on each update
+	 * @param neighbourhood Which cells count as adjacent
+	 * @param tolerance Change in free energy in kcal/mol below which a cell is not rewritten
+	 */
+	public IncrementalPath(JobFile job, String outputFile, GridSurface.Neighbourhood neighbourhood, double tolerance) {
+		this.job = job;
+		this.kT = BOLTZMANN_CONSTANT * job.getTemperature();
+		this.outputFile = outputFile;
+		this.neighbourhood = neighbourhood;
+		this.tolerance = tolerance;
+		this.counts = new TransitionCounts();
+	}
+
+	/** Finds the file to which the path of a data file is written, alongside
+	 * the surface R writes for it
+	 * @param job Settings of the job
+	 * @param dataFile The name of the data file as listed
+	 * @return The name of the path file
+	 */
+	public static String getOutputFile(JobFile job, String dataFile) {
+		return job.getSurfacePath(dataFile, null) + OUTPUT_SUFFIX;
+	}
+
+	// Getters and setters
+	public TransitionCounts getCounts() {
+		return counts;
+	}
+
+	public GridSurface getSurface() {
+		return surface;
+	}
+
+	public int[] getPath() {
+		return path;
+	}
+
+	public String getOutputFile() {
+		return outputFile;
+	}
+
+	/** Adds a count of transitions between two positions - O(1) amortised
+	 * @param x1 The x coordinate the transitions leave
+	 * @param y1 The y coordinate the transitions leave
+	 * @param x2 The x coordinate the transitions enter
+	 * @param y2 The y coordinate the transitions enter
+	 * @param count The number of transitions
+	 */
+	public void addTransitions(double x1, double y1, double x2, double y2, double count) {
+		counts.add(StateIndex.toBin(x1, job.getXScale()), StateIndex.toBin(y1, job.getYScale()),
+				StateIndex.toBin(x2, job.getXScale()), StateIndex.toBin(y2, job.getYScale()), count);
+		pendingLines++;
+	}
+
+	/** Reads the complete lines appended to a count file since it was last
+	 * read, starting again from scratch if the file has been truncated
+	 * - O(bytes appended)
+	 * @param file The count file
+	 * @return The number of lines read
+	 * @throws SurfaceFormatException if a line is malformed
+	 * @throws IOException if the file cannot be read
+	 */
+	public int readAppended(File file) throws IOException {
+		try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+			long length = in.length();
+			if (length < offset) {
+				// rewritten rather than appended to
+				reset();
+			}
+			if (length == offset) {
+				return 0;
+			}
+			byte[] bytes = new byte[(int) Math.min(length - offset, Integer.MAX_VALUE - 8)];
+			in.seek(offset);
+			in.readFully(bytes);
+
+			// leave a partly written last line for next time
+			int end = bytes.length;
+			while (end > 0 && bytes[end - 1] != '\n') {
+				end--;
+			}
+			if (end == 0) {
+				return 0;
+			}
+			// the last line break leaves an empty string after it
+			String[] lines = new String(bytes, 0, end - 1, StandardCharsets.ISO_8859_1).split("\n", -1);
+			int read = 0;
+			for (String line : lines) {
+				// ISO-8859-1 has one byte per character
+				offset += line.length() + 1;
+				lineNumber++;
+				try {
+					if (counts.addLine(line, job.getXScale(), job.getYScale())) {
+						read++;
+					}
+				} catch (IllegalArgumentException e) {
+					// NumberFormatException included, the line is skipped on the next read
+					pendingLines += read;
+					throw new SurfaceFormatException(lineNumber, 1, e.getMessage());
+				}
+			}
+			pendingLines += read;
+			return read;
+		}
+	}
+
+	/** Discards every count and the surface, as if newly constructed */
+	public void reset() {
+		counts.clear();
+		pendingLines = 0;
+		offset = 0;
+		lineNumber = 0;
+		probabilities = null;
+		surface = null;
+		path = null;
+		watched = null;
+	}
+
+	/** Brings the surface and path up to date with the counts added since
+	 * the last update, writing the path if it was found again
+	 * @return Summary of the work done, or null if no counts have been added
+	 */
+	public Update update() {
+		if (pendingLines == 0 && surface != null || counts.getStateCount() == 0) {
+			return null;
+		}
+		long begin = System.nanoTime();
+		Update update = new Update(pendingLines);
+		pendingLines = 0;
+
+		// the matrix is rebuilt from the totals, O(nnz + n), then swept from the last distribution
+		StationaryDistribution distribution = new StationaryDistribution(counts, probabilities,
+				StationaryDistribution.DEFAULT_TOLERANCE, StationaryDistribution.DEFAULT_MAX_ITERATIONS); // O(nnz) per sweep
+		probabilities = distribution.getProbabilities();
+		update.states = counts.getStateCount();
+		update.iterations = distribution.getIterations();
+		update.converged = distribution.isConverged();
+		double[] stateEnergies = distribution.getFreeEnergies(kT);
+
+		BitSet changed = new BitSet();
+		update.rebuilt = surface == null || !coversStates(stateEnergies);
+		if (update.rebuilt) {
+			buildSurface(stateEnergies); // O(n + cells)
+		} else {
+			for (int state = 0; state < stateEnergies.length; state++) {
+				int cell = stateCells[state];
+				if (cell >= 0 && Math.abs(stateEnergies[state] - energies[cell]) > tolerance) {
+					energies[cell] = stateEnergies[state];
+					changed.set(cell);
+				}
+			}
+		}
+		update.changedCells = update.rebuilt ? surface.size() : changed.cardinality();
+
+		int start = job.findStartCell(surface);
+		int end = surface.getMinimumCell(); // O(n)
+		update.searched = update.rebuilt || path == null || start != startCell || end != endCell
+				|| changed.intersects(watched);
+		if (update.searched) {
+			startCell = start;
+			endCell = end;
+			search(update);
+		}
+		update.pathLength = path == null ? 0 : path.length;
+		update.nanos = System.nanoTime() - begin;
+		return update;
+	}
+
+	/** Finds the path from the start to the minimum and writes it, watching
+	 * the cells the search depended on
+	 * @param update Summary of the update, to which any failure is recorded
+	 */
+	private void search(Update update) {
+		path = null;
+		watched = new BitSet(surface.size());
+		if (endCell < 0) {
+			update.error = "no state has a finite free energy";
+			return;
+		}
+		if (startCell < 0 || !surface.isAccessible(startCell)) {
+			update.error = "no accessible state at the start";
+			return;
+		}
+		MostProbableFoldingPath search = new MostProbableFoldingPath(surface, startCell, endCell); // O(n)
+		BitSet visited = search.getVisitedCells();
+		int[] neighbours = new int[surface.getMaxNeighbours()];
+		for (int cell = visited.nextSetBit(0); cell >= 0; cell = visited.nextSetBit(cell + 1)) {
+			watched.set(cell);
+			int count = surface.getNeighbours(cell, neighbours);
+			for (int j = 0; j < count; j++) {
+				watched.set(neighbours[j]);
+			}
+		}
+		path = search.getCellPath();
+		if (path == null) {
+			update.error = "minimum free energy state is unreachable";
+			return;
+		}
+		FileUtility.writeFromPath(outputFile, surface, path); // O(path length)
+	}
+
+	/** Finds the cell of every state of finite free energy, as long as its
+	 * bins are already on the surface - O(n)
+	 * @param stateEnergies The free energy of each state
+	 * @return False if the surface must be widened
+	 */
+	private boolean coversStates(double[] stateEnergies) {
+		StateIndex states = counts.getStates();
+		if (stateCells.length < stateEnergies.length) {
+			int previous = stateCells.length;
+			stateCells = Arrays.copyOf(stateCells, stateEnergies.length);
+			Arrays.fill(stateCells, previous, stateCells.length, -1);
+		}
+		for (int state = 0; state < stateEnergies.length; state++) {
+			if (stateCells[state] < 0 && stateEnergies[state] != Double.POSITIVE_INFINITY) {
+				stateCells[state] = cellOf(states.getXBin(state), states.getYBin(state));
+				if (stateCells[state] < 0) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/** Builds the surface over every bin from 0, or the least bin if it is
+	 * negative, to the greatest bin of a state of finite free energy along
+	 * each axis, leaving bins without such a state inaccessible, as R writes
+	 * the surface and SurfaceParser reads it back - O(n + cells)
+	 * @param stateEnergies The free energy of each state
+	 */
+	private void buildSurface(double[] stateEnergies) {
+		StateIndex states = counts.getStates();
+		int n = stateEnergies.length;
+		int xLast = 0;
+		int yLast = 0;
+		xFirst = 0;
+		yFirst = 0;
+		for (int state = 0; state < n; state++) {
+			if (stateEnergies[state] != Double.POSITIVE_INFINITY) {
+				xFirst = Math.min(xFirst, states.getXBin(state));
+				xLast = Math.max(xLast, states.getXBin(state));
+				yFirst = Math.min(yFirst, states.getYBin(state));
+				yLast = Math.max(yLast, states.getYBin(state));
+			}
+		}
+		width = xLast - xFirst + 1;
+		height = yLast - yFirst + 1;
+
+		double[][] axes = new double[][] {new double[width], new double[height]};
+		for (int i = 0; i < width; i++) {
+			axes[0][i] = StateIndex.toCoordinate(xFirst + i, job.getXScale());
+		}
+		for (int i = 0; i < height; i++) {
+			axes[1][i] = StateIndex.toCoordinate(yFirst + i, job.getYScale());
+		}
+		energies = new double[width * height];
+		Arrays.fill(energies, Double.POSITIVE_INFINITY);
+		stateCells = new int[n];
+		for (int state = 0; state < n; state++) {
+			stateCells[state] = -1;
+			if (stateEnergies[state] != Double.POSITIVE_INFINITY) {
+				stateCells[state] = cellOf(states.getXBin(state), states.getYBin(state));
+				energies[stateCells[state]] = stateEnergies[state];
+			}
+		}
+		surface = new GridSurface(axes, new ArrayEnergyStore(energies), null, neighbourhood);
+	}
+
+	/** Finds the cell of a bin on the surface - O(1)
+	 * @param xBin The bin index along x
+	 * @param yBin The bin index along y
+	 * @return The cell, or -1 if the bin is not on the surface
+	 */
+	private int cellOf(int xBin, int yBin) {
+		int x = xBin - xFirst;
+		int y = yBin - yFirst;
+		return x < 0 || x >= width || y < 0 || y >= height ? -1 : x + y * width;
+	}
+
+	/** Summary of the work done by a single update */
+	public static final class Update {
+		/** Number of lines of counts added */
+		private final int lines;
+		/** Number of states */
+		private int states;
+		/** Number of sweeps made by the stationary distribution */
+		private int iterations;
+		/** True if the stationary distribution converged */
+		private boolean converged;
+		/** True if the surface was rebuilt */
+		private boolean rebuilt;
+		/** Number of cells whose free energy was rewritten */
+		private int changedCells;
+		/** True if the path was found again */
+		private boolean searched;
+		/** Number of cells on the path, 0 if there is none */
+		private int pathLength;
+		/** Reason no path was written, or null */
+		private String error;
+		/** Time taken */
+		private long nanos;
+
+		private Update(int lines) {
+			this.lines = lines;
+		}
+
+		// Getters and setters
+		public boolean isSearched() {
+			return searched;
+		}
+
+		public int getPathLength() {
+			return pathLength;
+		}
+
+		public String getError() {
+			return error;
+		}
+
+		/** Formats the summary for the console
+		 * @return A single line describing the update
+		 */
+		@Override
+		public String toString() {
+			StringBuilder s = new StringBuilder();
+			s.append(lines).append(" lines, ").append(states).append(" states, ");
+			s.append(iterations).append(converged ? " sweeps, " : " sweeps without converging, ");
+			s.append(rebuilt ? "surface rebuilt, " : changedCells + " cells changed, ");
+			if (error != null) {
+				s.append(error);
+			} else {
+				s.append(searched ? "path found again, " : "path unchanged, ").append(pathLength).append(" cells");
+			}
+			return s.append(" in ").append(nanos / 1e6).append(" ms").toString();
+		}
+	}
+}
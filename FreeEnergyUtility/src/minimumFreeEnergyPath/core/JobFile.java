@@ -0,0 +1,218 @@
+package minimumFreeEnergyPath.core;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import minimumFreeEnergyPath.gridSurface.GridSurface;
+import minimumFreeEnergyPath.markovModel.StateIndex;
+
+/** Settings read from a job file of the form read by FreeEnergyUtility.r,
+ * dat/in/readfile.dat
+ *
+ * Each line holds a value, followed by a tab and a comment: temperature,
+ * x scale, y scale, x and y coordinates of the start, x and y axis labels
+ * and number of samples, then one data file per line. Data files are found
+ * alongside the job file and R writes the surface of each to ../out/
+ */
+public final class JobFile {
+
+	/** Prefix R gives each surface, relative to the directory of the job file */
+	private static final String SURFACE_PREFIX = "../out/free_energy_";
+	/** Prefix R gives the error of each surface, relative to the directory of the job file */
+	private static final String ERROR_PREFIX = "../out/free_energy_error_";
+	/** Number of lines of settings before the first data file */
+	private static final int SETTINGS_LINES = 8;
+
+	/** Directory holding the job file and its data files */
+	private final File directory;
+	/** Temperature in K */
+	private final double temperature;
+	/** Width of the bins along the x axis */
+	private final double xScale;
+	/** Width of the bins along the y axis */
+	private final double yScale;
+	/** Coordinate of the start along each axis, negative to count back from the last value */
+	private final double[] start;
+	/** Label of the x axis */
+	private final String xLabel;
+	/** Label of the y axis */
+	private final String yLabel;
+	/** Number of times to sample the transition matrix */
+	private final int samples;
+	/** Names of the data files, in the order listed */
+	private final List<String> dataFiles;
+
+	/** Constructor reads a job file
+	 * @param filename Name of the job file
+	 * @throws java.io.FileNotFoundException
+	 * @throws SurfaceFormatException if a setting is missing or not numeric
+	 * @throws IOException
+	 */
+	public JobFile(String filename) throws IOException {
+		this.directory = new File(filename).getAbsoluteFile().getParentFile();
+
+		List<String> values = new ArrayList<String>();
+		List<Integer> lineNumbers = new ArrayList<Integer>();
+		// labels are not necessarily UTF-8, and only their first field is needed
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(filename),
+				StandardCharsets.ISO_8859_1))) {
+			String line;
+			for (int lineNumber = 1; (line = reader.readLine()) != null; lineNumber++) {
+				String value = line.split("\t", 2)[0].trim();
+				if (!value.isEmpty()) {
+					values.add(value);
+					lineNumbers.add(lineNumber);
+				}
+			}
+		}
+		if (values.size() <= SETTINGS_LINES) {
+			throw new SurfaceFormatException(lineNumbers.size() + 1, 1, "no data files listed");
+		}
+		this.temperature = parseSetting(values, lineNumbers, 0);
+		this.xScale = parseSetting(values, lineNumbers, 1);
+		this.yScale = parseSetting(values, lineNumbers, 2);
+		this.start = new double[] {parseSetting(values, lineNumbers, 3), parseSetting(values, lineNumbers, 4)};
+		this.xLabel = values.get(5);
+		this.yLabel = values.get(6);
+		this.samples = (int) Math.round(parseSetting(values, lineNumbers, 7));
+		this.dataFiles = new ArrayList<String>(values.subList(SETTINGS_LINES, values.size()));
+	}
+
+	// Getters and setters
+	public double getTemperature() {
+		return temperature;
+	}
+
+	public double getXScale() {
+		return xScale;
+	}
+
+	public double getYScale() {
+		return yScale;
+	}
+
+	public double[] getStart() {
+		return start.clone();
+	}
+
+	public String getXLabel() {
+		return xLabel;
+	}
+
+	public String getYLabel() {
+		return yLabel;
+	}
+
+	public int getSamples() {
+		return samples;
+	}
+
+	public List<String> getDataFiles() {
+		return dataFiles;
+	}
+
+	/** Finds the path of a data file, which lies alongside the job file
+	 * @param dataFile The name of the data file as listed
+	 * @return The path
+	 */
+	public String getDataPath(String dataFile) {
+		return new File(directory, dataFile).getPath();
+	}
+
+	/** Finds the path of the surface R writes for a data file
+	 * @param dataFile The name of the data file as listed
+	 * @param surfacePrefix Prefix added to the data file, or null for the
+	 * free_energy_ files R writes to ../out/ from the job file
+	 * @return The path
+	 */
+	public String getSurfacePath(String dataFile, String surfacePrefix) {
+		if (surfacePrefix == null) {
+			surfacePrefix = new File(directory, SURFACE_PREFIX).getPath();
+		}
+		return surfacePrefix + dataFile;
+	}
+
+	/** Finds the path of the error R writes for the surface of a data file
+	 * @param dataFile The name of the data file as listed
+	 * @return The path
+	 */
+	public String getErrorPath(String dataFile) {
+		return new File(directory, ERROR_PREFIX).getPath() + dataFile;
+	}
+
+	/** Finds the starting cell, counting negative coordinates back from the
+	 * last value along their axis as R does, so that -1 is the last. Axes are
+	 * regular grids, so counting back steps over gaps in the data too - O(sqrt(n))
+	 * @param surface The surface to be searched
+	 * @return The starting cell, or -1 if there is no accessible cell there
+	 * @throws IllegalArgumentException if the surface is not two dimensional
+	 */
+	public int findStartCell(GridSurface surface) {
+		if (surface.getDimensions() != start.length) {
+			throw new IllegalArgumentException("surface has " + surface.getDimensions() + " dimensions, expected "
+					+ start.length);
+		}
+		double[] coordinates = new double[start.length];
+		for (int axis = 0; axis < start.length; axis++) {
+			int fromEnd = (int) -start[axis];
+			if (start[axis] < 0 && fromEnd == -start[axis] && fromEnd <= surface.getShape(axis)) {
+				coordinates[axis] = surface.getAxisValue(axis, surface.getShape(axis) - fromEnd);
+			} else {
+				coordinates[axis] = start[axis];
+			}
+		}
+		return surface.getCellAt(coordinates);
+	}
+
+	/** Finds the starting state of a Markov model, counting negative
+	 * coordinates back from the last bin seen along their axis, empty bins
+	 * included, as findStartCell does - O(n)
+	 * @param states The bins of the states
+	 * @return The starting state, or -1 if no transition leaves or enters its bin
+	 */
+	public int findStartState(StateIndex states) {
+		double[] scales = {xScale, yScale};
+		int[] bins = new int[start.length];
+		for (int axis = 0; axis < start.length; axis++) {
+			int fromEnd = (int) -start[axis];
+			if (start[axis] < 0 && fromEnd == -start[axis]) {
+				int first = Integer.MAX_VALUE;
+				int last = Integer.MIN_VALUE;
+				for (int state = 0; state < states.size(); state++) {
+					int bin = axis == 0 ? states.getXBin(state) : states.getYBin(state);
+					first = Math.min(first, bin);
+					last = Math.max(last, bin);
+				}
+				if (states.size() == 0 || fromEnd > last - first + 1) {
+					return -1;
+				}
+				bins[axis] = last - fromEnd + 1;
+			} else {
+				bins[axis] = StateIndex.toBin(start[axis], scales[axis]);
+			}
+		}
+		return states.get(bins[0], bins[1]);
+	}
+
+	/** Parses a numeric setting of the job file
+	 * @param values The first field of each non-empty line
+	 * @param lineNumbers The line of the file on which each value was found
+	 * @param index The position of the setting among the values
+	 * @return The value
+	 * @throws SurfaceFormatException if it is not numeric
+	 */
+	private static double parseSetting(List<String> values, List<Integer> lineNumbers, int index)
+			throws SurfaceFormatException {
+		try {
+			return Double.parseDouble(values.get(index));
+		} catch (NumberFormatException e) {
+			throw new SurfaceFormatException(lineNumbers.get(index), 1, "expected a number, found " + values.get(index));
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package minimumFreeEnergyPath.core;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+
+import minimumFreeEnergyPath.markovModel.MetastableStates;
+import minimumFreeEnergyPath.markovModel.ReversibleEstimate;
+import minimumFreeEnergyPath.markovModel.SparseMatrix;
+import minimumFreeEnergyPath.markovModel.StateIndex;
+import minimumFreeEnergyPath.markovModel.TransitionCounts;
+
+/** The --pcca mode of MinimumFreeEnergyPath, finding the metastable
+ * macrostates of a count file as MetastableStates, which --tpt and --mfpt
+ * also use in place of single states
+ */
+final class MacrostateMode {
+	
+	/** Command line option to find metastable macrostates from transition counts */
+	static final String OPTION = "--pcca";
+	/** Command line option giving the number of metastable macrostates */
+	private static final String MACROSTATES_OPTION = "--macrostates";
+	/** Option choosing the number of threads */
+	private static final String THREADS_OPTION = "--threads";
+	/** Number of metastable macrostates found by default, as folded, unfolded and intermediate */
+	private static final int DEFAULT_MACROSTATES = 3;
+	/** Suffix to be appended to output filename of macrostate memberships */
+	private static final String MEMBERSHIPS_SUFFIX = "_pcca.dat";
+	/** Suffix to be appended to output filename of macrostates and their coarse grained transition matrix */
+	private static final String MACROSTATES_SUFFIX = "_macrostates.dat";
+	
+	/** Arguments of the mode for the usage message, after the name of the program */
+	static final String USAGE = OPTION + " <readfile> <datafile> [" + MACROSTATES_OPTION + " <macrostates>] ["
+			+ THREADS_OPTION + " <threads>]";
+	
+	/** Utility class not to be instantiated */
+	private MacrostateMode() {
+	}
+	
+	/** Finds the metastable macrostates of a count file by PCCA+ on its
+	 * reversible maximum likelihood estimate, writing the membership of each
+	 * state and the coarse grained transition matrix, and naming the most
+	 * probable state of each macrostate as a start or target for a path
+	 * @param args Command line arguments
+	 * @throws CommandLine.UsageException if the arguments do not match the usage
+	 */
+	static void run(String[] args) throws CommandLine.UsageException {
+		CommandLine line = new CommandLine().option(MACROSTATES_OPTION, 1).option(THREADS_OPTION, 1).parse(args, 1);
+		List<String> positional = line.getPositional();
+		int count = line.getInt(MACROSTATES_OPTION, DEFAULT_MACROSTATES);
+		int threads = line.getInt(THREADS_OPTION, Runtime.getRuntime().availableProcessors());
+		if (positional.size() != 2 || count < 2 || threads < 1) {
+			throw new CommandLine.UsageException(null);
+		}
+		String fileName = positional.get(0);
+		String dataFile = positional.get(1);
+		
+		String current = fileName;
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			JobFile job = new JobFile(fileName);
+			current = job.getDataPath(dataFile);
+			TransitionCounts counts = FileUtility.readToCounts(current, job.getXScale(), job.getYScale()); // O(lines)
+			StateIndex states = counts.getStates();
+			SparseMatrix matrix = SparseMatrix.fromCounts(counts); // O(nnz + n)
+			
+			MetastableStates macrostates = findMacrostates(matrix, count, pool);
+			FileUtility.writeFromMemberships(current + MEMBERSHIPS_SUFFIX, states, macrostates, job.getXScale(),
+					job.getYScale()); // O(n log n)
+			FileUtility.writeFromMacrostates(current + MACROSTATES_SUFFIX, states, macrostates, job.getXScale(),
+					job.getYScale()); // O(k^2)
+			
+			int startState = job.findStartState(states);
+			for (int macrostate = 0; macrostate < count; macrostate++) {
+				int core = macrostates.getCore(macrostate);
+				StringBuilder summary = new StringBuilder(String.format(Locale.ROOT, "Macrostate %d: probability %g, %d states",
+						macrostate + 1, macrostates.getProbabilities()[macrostate], macrostates.getStates(macrostate).cardinality()));
+				if (core >= 0) {
+					summary.append(", most probable at (").append(StateIndex.toCoordinate(states.getXBin(core), job.getXScale()))
+							.append(", ").append(StateIndex.toCoordinate(states.getYBin(core), job.getYScale())).append(")");
+				}
+				if (startState >= 0 && macrostates.getAssignments()[startState] == macrostate) {
+					summary.append(", holding the start");
+				}
+				System.out.println(summary);
+			}
+			System.out.println(String.format(Locale.ROOT, "Crispness %.3f, eigenvalues %s",
+					macrostates.getCrispness(), Arrays.toString(macrostates.getEigenvalues())));
+		} catch (IOException e) {
+			Modes.fail("File " + current, e);
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	/** Finds the metastable macrostates of a count matrix from its reversible
+	 * maximum likelihood estimate, stopping if there are too few states
+	 * @param matrix The count matrix
+	 * @param count The number of macrostates
+	 * @param pool The pool whose threads share each sweep and product
+	 * @return The macrostates
+	 */
+	static MetastableStates findMacrostates(SparseMatrix matrix, int count, ForkJoinPool pool) {
+		if (count > matrix.getSize()) {
+			Modes.fail("Cannot find " + count + " macrostates among " + matrix.getSize() + " states.");
+		}
+		PathMetrics metrics = PathMetrics.active();
+		long start = System.nanoTime();
+		ReversibleEstimate estimate = new ReversibleEstimate(matrix, pool); // O(nnz + n) per sweep
+		if (!estimate.isConverged()) {
+			System.out.println("Note: reversible estimate did not converge in " + estimate.getIterations() + " sweeps");
+		}
+		if (metrics != null) {
+			metrics.endPhase(PathMetrics.Phase.STATIONARY_DISTRIBUTION, start);
+			start = System.nanoTime();
+		}
+		MetastableStates macrostates = new MetastableStates(estimate.getTransitionMatrix(), estimate.getProbabilities(),
+				count, pool); // O(nnz + n m) per product
+		if (metrics != null) {
+			metrics.endPhase(PathMetrics.Phase.MACROSTATES, start);
+		}
+		if (!macrostates.isConverged()) {
+			System.out.println("Note: eigenvectors did not converge in " + macrostates.getSteps() + " products");
+		}
+		return macrostates;
+	}
+}
@@ -0,0 +1,222 @@
+package minimumFreeEnergyPath.core;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import minimumFreeEnergyPath.gridSurface.GridSurface;
+import minimumFreeEnergyPath.gridSurface.IntList;
+import minimumFreeEnergyPath.gridSurface.RadixQueue;
+
+/** Finds the path between two cells of a GridSurface of least total cost,
+ * where each step costs a non-negative amount depending on the change in
+ * free energy, so that unlike the Most Probable Folding Path the whole path
+ * is weighed rather than each step greedily
+ *
+ * The path is found by Dijkstra's algorithm over the flat grid with a
+ * RadixQueue, or by A* when a heuristic is requested. The heuristic is a
+ * lower bound on the cost of reaching the end from any cell which never
+ * falls by more than the cost of a step, so the path found is the same
+ * either way and no cell is settled twice - O(n), each cell costing O(64)
+ * amortised in the queue
+ */
+public final class MinimumActionPath {
+
+	/** Cost of a step from one cell to a neighbour */
+	public enum CostModel {
+		/** exp(dG/kT), the inverse of the Boltzmann factor of the step */
+		BOLTZMANN,
+		/** max(dG, 0) plus a penalty per cell of length, the free energy climbed */
+		UPHILL;
+
+		/** Finds the cost of a step
+		 * @param change The free energy of the destination less that of the origin
+		 * @param length The length of the step in cells
+		 * @param kT The Boltzmann constant times the temperature, in units of free energy
+		 * @param penalty The cost per cell of length, used by UPHILL only
+		 * @return The non-negative cost
+		 */
+		public double getCost(double change, double length, double kT, double penalty) {
+			if (this == BOLTZMANN) {
+				return Math.exp(change / kT);
+			}
+			return Math.max(change, 0) + penalty * length;
+		}
+	}
+
+	/** The surface on which the path lies */
+	private final GridSurface surface;
+	/** Cost of each step */
+	private final CostModel costModel;
+	/** Boltzmann constant times the temperature */
+	private final double kT;
+	/** Cost per cell of length */
+	private final double penalty;
+	/** Cells from start to end inclusive, or null if no path exists */
+	private final int[] path;
+	/** Total cost of the path, or infinity if no path exists */
+	private final double cost;
+
+	/** Constructor finds the path
+	 * @param surface The surface to be searched
+	 * @param startCell The cell at which the path should start
+	 * @param endCell The cell at which the path should end
+	 * @param costModel The cost of each step
+	 * @param kT The Boltzmann constant times the temperature, in units of free energy
+	 * @param penalty The cost per cell of length, used by UPHILL only
+	 * @param heuristic True to direct the search towards the end by A*
+	 */
+	public MinimumActionPath(GridSurface surface, int startCell, int endCell, CostModel costModel,
+			double kT, double penalty, boolean heuristic) {
+		if (!(kT > 0) || !(penalty >= 0)) {
+			throw new IllegalArgumentException("kT must be positive and penalty non-negative");
+		}
+		this.surface = surface;
+		this.costModel = costModel;
+		this.kT = kT;
+		this.penalty = penalty;
+		if (startCell < 0 || endCell < 0 || !surface.isAccessible(startCell) || !surface.isAccessible(endCell)) {
+			path = null;
+			cost = Double.POSITIVE_INFINITY;
+			return;
+		}
+
+		PathMetrics metrics = PathMetrics.active();
+		long start = metrics == null ? 0 : System.nanoTime();
+		double[] distance = new double[surface.size()];
+		int[] previous = new int[surface.size()];
+		int settled = search(distance, previous, startCell, endCell, heuristic);
+		cost = distance[endCell];
+		path = previous[endCell] < 0 ? null : tracePath(previous, startCell, endCell);
+		if (metrics != null) {
+			metrics.endPhase(PathMetrics.Phase.SEARCH, start);
+			metrics.add(PathMetrics.Counter.CELLS_VISITED, settled);
+		}
+	}
+
+	/** Convenience method to find the path via a single static method call
+	 * @param surface The surface to be searched
+	 * @param startCell The cell at which the path should start
+	 * @param endCell The cell at which the path should end
+	 * @param costModel The cost of each step
+	 * @param kT The Boltzmann constant times the temperature, in units of free energy
+	 * @param penalty The cost per cell of length, used by UPHILL only
+	 * @return Array of cells from start to end, or null if no path exists
+	 */
+	public static int[] findPathBetween(GridSurface surface, int startCell, int endCell, CostModel costModel,
+			double kT, double penalty) {
+		return new MinimumActionPath(surface, startCell, endCell, costModel, kT, penalty, true).getPath();
+	}
+
+	// Getters and setters
+	public int[] getPath() {
+		return path;
+	}
+
+	public double getCost() {
+		return cost;
+	}
+
+	public CostModel getCostModel() {
+		return costModel;
+	}
+
+	/** Settles cells in order of their cost from the start, plus the
+	 * heuristic if requested, until the end is settled - O(n)
+	 * @param distance Array of one entry per cell, to be filled with the cost
+	 * of reaching each cell reached, infinity elsewhere
+	 * @param previous Array of one entry per cell, to be filled with the cell
+	 * preceding each cell reached, the start preceding itself, -1 elsewhere
+	 * @param startCell The cell at which the search starts
+	 * @param endCell The cell at which the search stops
+	 * @param heuristic True to order cells by A*
+	 * @return The number of cells settled
+	 */
+	private int search(double[] distance, int[] previous, int startCell, int endCell, boolean heuristic) {
+		Arrays.fill(distance, Double.POSITIVE_INFINITY);
+		Arrays.fill(previous, -1);
+		BitSet settled = new BitSet(surface.size());
+		int[] neighbours = new int[surface.getMaxNeighbours()];
+		int[] directions = new int[surface.getMaxNeighbours()];
+		RadixQueue queue = new RadixQueue();
+		double endEnergy = surface.getEnergy(endCell);
+
+		distance[startCell] = 0;
+		previous[startCell] = startCell;
+		queue.push(heuristic ? estimate(startCell, endCell, endEnergy) : 0, startCell);
+		int count = 0;
+		while (!queue.isEmpty()) {
+			int cell = queue.pop();
+			if (settled.get(cell)) {
+				// stale entry left by a cheaper route found later
+				continue;
+			}
+			settled.set(cell);
+			count++;
+			if (cell == endCell) {
+				break;
+			}
+
+			double energy = surface.getEnergy(cell);
+			int neighbourCount = surface.getNeighbours(cell, neighbours, directions);
+			for (int j = 0; j < neighbourCount; j++) {
+				int adj = neighbours[j];
+				if (settled.get(adj)) {
+					continue;
+				}
+				double adjDistance = distance[cell] + costModel.getCost(surface.getEnergy(adj) - energy,
+						surface.getStepLength(directions[j]), kT, penalty);
+				if (adjDistance < distance[adj]) {
+					distance[adj] = adjDistance;
+					previous[adj] = cell;
+					queue.push(heuristic ? adjDistance + estimate(adj, endCell, endEnergy) : adjDistance, adj);
+				}
+			}
+		}
+		return count;
+	}
+
+	/** Finds a lower bound on the cost of reaching the end from a cell,
+	 * falling by no more than the cost of any step - O(d log d)
+	 *
+	 * Any path climbs the difference in free energy D over at least L steps.
+	 * UPHILL costs at least max(D, 0) plus the penalty times the shortest
+	 * length. BOLTZMANN costs at least n exp(D/nkT) over n steps, by
+	 * convexity, which over n at least L is least at n = L unless D/kT is
+	 * greater, where it is least at n = D/kT and costs e D/kT
+	 * @param cell The cell from which the end is to be reached
+	 * @param endCell The cell at which the path ends
+	 * @param endEnergy The free energy of the end
+	 * @return The lower bound, 0 at the end
+	 */
+	private double estimate(int cell, int endCell, double endEnergy) {
+		double climb = endEnergy - surface.getEnergy(cell);
+		if (costModel == CostModel.UPHILL) {
+			return Math.max(climb, 0) + (penalty > 0 ? penalty * surface.getMinimumLength(cell, endCell) : 0);
+		}
+		int steps = surface.getMinimumSteps(cell, endCell);
+		if (steps == 0) {
+			return 0;
+		}
+		double ratio = climb / kT;
+		return ratio <= steps ? steps * Math.exp(ratio / steps) : Math.E * ratio;
+	}
+
+	/** Follows the cells preceding each cell back from the end - O(n)
+	 * @param previous The cell preceding each cell reached
+	 * @param startCell The cell at which the path starts
+	 * @param endCell The cell at which the path ends
+	 * @return Array of cells from start to end
+	 */
+	private static int[] tracePath(int[] previous, int startCell, int endCell) {
+		IntList reversed = new IntList();
+		for (int cell = endCell; cell != startCell; cell = previous[cell]) {
+			reversed.add(cell);
+		}
+		reversed.add(startCell);
+		int[] path = new int[reversed.size()];
+		for (int i = 0; i < path.length; i++) {
+			path[i] = reversed.get(path.length - 1 - i);
+		}
+		return path;
+	}
+}
@@ -0,0 +1,208 @@
+package minimumFreeEnergyPath.core;
+
+import minimumFreeEnergyPath.gridSurface.GridSurface;
+import minimumFreeEnergyPath.gridSurface.IntList;
+
+/** Finds the path between two cells of a GridSurface whose highest point is
+ * as low as possible, so that the highest point is the lowest saddle joining
+ * them and gives an estimate of the transition state
+ *
+ * Cells are added to a disjoint-set forest in order of ascending energy,
+ * each joined to its neighbours already added, until the start and end fall
+ * in the same set. That set is the sublevel set bounded by the saddle, and
+ * the path is the shortest within it, found by breadth-first search. Unlike
+ * the Most Probable Folding Path the result does not depend on the order in
+ * which ties are met - O(n log n)
+ */
+public final class MinimumBarrierPath {
+
+	/** The surface on which the path lies */
+	private final GridSurface surface;
+	/** Cells from start to end inclusive, or null if no path exists */
+	private final int[] path;
+	/** Highest cell on the path, or -1 if no path exists */
+	private final int saddle;
+
+	/** Constructor finds the path
+	 * @param surface The surface to be searched
+	 * @param startCell The cell at which the path should start
+	 * @param endCell The cell at which the path should end
+	 */
+	public MinimumBarrierPath(GridSurface surface, int startCell, int endCell) {
+		this.surface = surface;
+		if (startCell < 0 || endCell < 0 || !surface.isAccessible(startCell) || !surface.isAccessible(endCell)) {
+			path = null;
+			saddle = -1;
+			return;
+		}
+
+		PathMetrics metrics = PathMetrics.active();
+		long start = metrics == null ? 0 : System.nanoTime();
+		int[] parent = new int[surface.size()];
+		int added = joinSublevelSets(parent, startCell, endCell);
+		if (added < 0) {
+			path = null;
+			saddle = -1;
+		} else {
+			path = shortestPathWithin(parent, startCell, endCell);
+			saddle = highestCell(path);
+		}
+		if (metrics != null) {
+			metrics.endPhase(PathMetrics.Phase.SEARCH, start);
+			metrics.add(PathMetrics.Counter.CELLS_VISITED, Math.max(added, 0));
+		}
+	}
+
+	/** Convenience method to find the path via a single static method call
+	 * @param surface The surface to be searched
+	 * @param startCell The cell at which the path should start
+	 * @param endCell The cell at which the path should end
+	 * @return Array of cells from start to end, or null if no path exists
+	 */
+	public static int[] findPathBetween(GridSurface surface, int startCell, int endCell) {
+		return new MinimumBarrierPath(surface, startCell, endCell).getPath();
+	}
+
+	// Getters and setters
+	public int[] getPath() {
+		return path;
+	}
+
+	public int getSaddle() {
+		return saddle;
+	}
+
+	/** Finds the height of the barrier crossed from the start - O(1)
+	 * @return The energy of the saddle less the energy of the start, or NaN if no path exists
+	 */
+	public double getBarrier() {
+		return path == null ? Double.NaN : surface.getEnergy(saddle) - surface.getEnergy(path[0]);
+	}
+
+	/** Adds cells in order of ascending energy, joining each to its neighbours
+	 * already added, until two cells are joined - O(n log n)
+	 * @param parent Array of one entry per cell, all 0, to be filled with the
+	 * parent of each cell added plus one, a root being its own parent
+	 * @param startCell The first cell to be joined
+	 * @param endCell The second cell to be joined
+	 * @return The number of cells added, or -1 if the cells are never joined
+	 */
+	private int joinSublevelSets(int[] parent, int startCell, int endCell) {
+		int accessible = 0;
+		for (int cell = 0; cell < surface.size(); cell++) {
+			if (surface.isAccessible(cell)) {
+				accessible++;
+			}
+		}
+		int[] order = new int[accessible];
+		for (int cell = 0, i = 0; cell < surface.size(); cell++) {
+			if (surface.isAccessible(cell)) {
+				order[i++] = cell;
+			}
+		}
+		surface.sortByEnergy(order); // O(n log n)
+
+		byte[] rank = new byte[surface.size()];
+		int[] neighbours = new int[surface.getMaxNeighbours()];
+		for (int i = 0; i < order.length; i++) {
+			int cell = order[i];
+			parent[cell] = cell + 1;
+			int count = surface.getNeighbours(cell, neighbours);
+			for (int j = 0; j < count; j++) {
+				if (parent[neighbours[j]] != 0) {
+					union(parent, rank, cell, neighbours[j]);
+				}
+			}
+			if (parent[startCell] != 0 && parent[endCell] != 0 && find(parent, startCell) == find(parent, endCell)) {
+				return i + 1;
+			}
+		}
+		return -1;
+	}
+
+	/** Finds the shortest path between two cells passing only through cells
+	 * which have been added - O(n)
+	 * @param parent The parent of each cell plus one, 0 for a cell not added
+	 * @param startCell The cell at which the path should start
+	 * @param endCell The cell at which the path should end
+	 * @return Array of cells from start to end
+	 */
+	private int[] shortestPathWithin(int[] parent, int startCell, int endCell) {
+		// search back from the end so the path reads forwards from the start
+		int[] next = new int[surface.size()];
+		int[] neighbours = new int[surface.getMaxNeighbours()];
+		IntList queue = new IntList();
+		queue.add(endCell);
+		next[endCell] = endCell + 1;
+		for (int head = 0; next[startCell] == 0; head++) {
+			int cell = queue.get(head);
+			int count = surface.getNeighbours(cell, neighbours);
+			for (int j = 0; j < count; j++) {
+				int adj = neighbours[j];
+				if (parent[adj] != 0 && next[adj] == 0) {
+					next[adj] = cell + 1;
+					queue.add(adj);
+				}
+			}
+		}
+
+		IntList path = new IntList();
+		int cell = startCell;
+		path.add(cell);
+		while (cell != endCell) {
+			cell = next[cell] - 1;
+			path.add(cell);
+		}
+		return path.toArray();
+	}
+
+	/** Finds the highest cell on a path, the first if there are several
+	 * @param path The cells of the path
+	 * @return The highest cell
+	 */
+	private int highestCell(int[] path) {
+		int highest = path[0];
+		for (int cell : path) {
+			if (surface.getEnergy(cell) > surface.getEnergy(highest)) {
+				highest = cell;
+			}
+		}
+		return highest;
+	}
+
+	/** Joins the sets of two cells, by rank - O(log n) amortised
+	 * @param parent The parent of each cell plus one
+	 * @param rank Upper bound on the height of each root's tree
+	 * @param c1 The first cell
+	 * @param c2 The second cell
+	 */
+	private static void union(int[] parent, byte[] rank, int c1, int c2) {
+		int r1 = find(parent, c1);
+		int r2 = find(parent, c2);
+		if (r1 == r2) {
+			return;
+		}
+		if (rank[r1] < rank[r2]) {
+			parent[r1] = r2 + 1;
+		} else {
+			if (rank[r1] == rank[r2]) {
+				rank[r1]++;
+			}
+			parent[r2] = r1 + 1;
+		}
+	}
+
+	/** Finds the root of the set containing a cell, halving the path to it
+	 * @param parent The parent of each cell plus one
+	 * @param cell The cell to be found
+	 * @return The root of its set
+	 */
+	private static int find(int[] parent, int cell) {
+		while (parent[cell] != cell + 1) {
+			int grandparent = parent[parent[cell] - 1];
+			parent[cell] = grandparent;
+			cell = grandparent - 1;
+		}
+		return cell;
+	}
+}
@@ -1,16 +1,15 @@
 package minimumFreeEnergyPath.core;
 
-import java.io.FileNotFoundException;
-import java.util.List;
-
-import minimumFreeEnergyPath.weightedVertexGraph.WeightedVertexGraph;
-
-import org.jgrapht.graph.DefaultWeightedEdge;
+import java.util.Arrays;
 
+import minimumFreeEnergyPath.gridSurface.GridSurface;
 
 /** Finds the most likely folding path between a point on the free energy 
  * surface and the point of minimum free energy
  * 
+ * Reads the options which come before the mode and hands the rest of the
+ * command line to the class of the mode, PathMode unless another is named
+ * 
  * ==========================================
  * This project uses JGraphT : a free Java graph-theory library
  *
@@ -36,46 +35,184 @@ import org.jgrapht.graph.DefaultWeightedEdge;
  */
 public class MinimumFreeEnergyPath {
 	
-	/** Suffix to be appended to output filename */
-	private static final String OUTPUT_SUFFIX = "_path.dat";
-
+	/** Option recording the time spent in each phase */
+	private static final String METRICS_OPTION = "--metrics";
+	/** Option choosing which cells count as adjacent */
+	private static final String NEIGHBOURS_OPTION = "--neighbours";
+	/** Option choosing the Most Probable Folding Path, the minimum barrier path or the minimum action path */
+	private static final String PATH_OPTION = "--path";
+	/** Option choosing the cost of each step of the minimum action path */
+	private static final String COST_OPTION = "--cost";
+	/** Option choosing the width of the corridor searched about each coarser path of the multiresolution path */
+	private static final String CORRIDOR_OPTION = "--corridor";
+	/** Option choosing the cost per cell of length of the minimum action path */
+	private static final String PENALTY_OPTION = "--penalty";
+	/** Option giving the temperature of the minimum action path, named apart from the --temperature of --convert */
+	private static final String ACTION_TEMPERATURE_OPTION = "--action-temperature";
+	/** Boltzmann constant in kcal/mol/K */
+	private static final double BOLTZMANN_CONSTANT = 0.001987204118;
+	/** Temperature in K of the minimum action path unless chosen otherwise */
+	private static final double DEFAULT_TEMPERATURE = 300;
+	/** Exit status of a run whose arguments do not match the usage */
+	private static final int EXIT_USAGE = 2;
+	
 	/** Main method run from command line. Requires tabulated free energy 
-	 * surface and x and y coordinates of the starting position
+	 * surface and the coordinates of the starting position, one per axis
 	 * @param args Command line arguments. 
-	 * Usage: java MinimumFreeEnergyPath filename xcoord ycoord
+	 * Usage: java MinimumFreeEnergyPath filename xcoord ycoord [...]
+	 * or: java MinimumFreeEnergyPath --all filename [xcoord ycoord [...]]...
+	 * or: java MinimumFreeEnergyPath --tree filename [x1 y1 [...] x2 y2 [...]]...
+	 * or: java MinimumFreeEnergyPath --batch readfile [surfacePrefix] [--threads n]
+	 * or: java MinimumFreeEnergyPath --energies readfile [datafile]... [--reversible] [--samples n] [--threads n] [--seed s]
+	 * or: java MinimumFreeEnergyPath --ensemble filename xcoord ycoord [...] [--errors filename] [--replicas n] [--threads n] [--seed s]
+	 * or: java MinimumFreeEnergyPath --tpt readfile datafile [--source xcoord ycoord]... [--sink xcoord ycoord]... [--macrostates k] [--pathways n] [--threads n]
+	 * or: java MinimumFreeEnergyPath --mfpt readfile datafile [--target xcoord ycoord]... [--region xmin ymin xmax ymax]... [--macrostates k] [--threads n]
+	 * or: java MinimumFreeEnergyPath --pcca readfile datafile [--macrostates k] [--threads n]
+	 * or: java MinimumFreeEnergyPath --counts readfile output trajectory... [--lag n[,n...]] [--columns x y] [--threads n]
+	 * or: java MinimumFreeEnergyPath --timescales readfile output trajectory... [--lag n[,n...]] [--eigenvalues k] [--samples n] [--columns x y] [--threads n] [--seed s]
+	 * or: java MinimumFreeEnergyPath --follow readfile datafile [--interval ms] [--updates n] [--tolerance dG]
+	 * or: java MinimumFreeEnergyPath --server [port]
+	 * or: java MinimumFreeEnergyPath --convert filename [output] [--float] [--tiled] [--temperature t] [--errors filename]
+	 * Any of which may be preceded by --metrics output to write a JSON summary
+	 * of the time spent in each phase, by --neighbours axis to allow steps
+	 * along a single axis only, and by --path barrier to find the path whose
+	 * highest point is lowest rather than the Most Probable Folding Path, or
+	 * --path action or astar to find the path of least total cost, each step
+	 * costing exp(dG/kT) or, with --cost uphill, the free energy climbed plus
+	 * --penalty per cell of length, kT by default, at --action-temperature 300 K, or
+	 * --path multires to find the Most Probable Folding Path from coarse to
+	 * fine, within --corridor cells of each coarser path, 2 by default.
+	 * Exits with status 1 if the run fails and 2 if the arguments are wrong
 	 */
 	public static void main(String[] args) {
-		if (args.length != 3) {
-			//printUsageMessage();
-			args = new String[3];
-			args[0] = "dat/free_energy_select_above_delete_yes_5_not-normalized.dat";
-			args[1] = "33";
-			args[2] = "0";
-		}
+		String metricsFileName = null;
+		GridSurface.Neighbourhood neighbourhood = GridSurface.Neighbourhood.FULL;
+		PathMode.PathType pathType = PathMode.PathType.MPFP;
+		MinimumActionPath.CostModel costModel = MinimumActionPath.CostModel.BOLTZMANN;
+		double temperature = DEFAULT_TEMPERATURE;
+		double penalty = Double.NaN;
+		int corridor = MultiresolutionPath.DEFAULT_CORRIDOR;
 		try {
-			String fileName = args[0];
-			double xStart = Double.parseDouble(args[1]);
-			double yStart = Double.parseDouble(args[2]);
-			WeightedVertexGraph g = FileUtility.readToGraph(fileName, xStart, yStart); // O(n)
-			
-			List<DefaultWeightedEdge> path = MostProbableFoldingPath.findPathBetween(g, g.getStartVertex(), g.getEndVertex()); // O(n)
+			while (args.length > 1 && (args[0].equals(METRICS_OPTION) || args[0].equals(NEIGHBOURS_OPTION)
+					|| args[0].equals(PATH_OPTION) || args[0].equals(COST_OPTION)
+					|| args[0].equals(ACTION_TEMPERATURE_OPTION) || args[0].equals(PENALTY_OPTION)
+					|| args[0].equals(CORRIDOR_OPTION))) {
+				CommandLine line = new CommandLine().option(args[0], 1).parse(Arrays.copyOfRange(args, 0, 2), 0);
+				if (args[0].equals(METRICS_OPTION)) {
+					metricsFileName = args[1];
+					PathMetrics.enable();
+				} else if (args[0].equals(PATH_OPTION)) {
+					pathType = PathMode.PathType.valueOf(toConstant(args[0], args[1], PathMode.PathType.values()));
+				} else if (args[0].equals(COST_OPTION)) {
+					costModel = MinimumActionPath.CostModel.valueOf(toConstant(args[0], args[1],
+							MinimumActionPath.CostModel.values()));
+				} else if (args[0].equals(CORRIDOR_OPTION)) {
+					corridor = line.getInt(CORRIDOR_OPTION, corridor);
+				} else if (args[0].equals(ACTION_TEMPERATURE_OPTION)) {
+					temperature = line.getDouble(ACTION_TEMPERATURE_OPTION, temperature);
+				} else if (args[0].equals(PENALTY_OPTION)) {
+					penalty = line.getDouble(PENALTY_OPTION, penalty);
+				} else {
+					neighbourhood = GridSurface.Neighbourhood.valueOf(toConstant(args[0], args[1],
+							GridSurface.Neighbourhood.values()));
+				}
+				args = Arrays.copyOfRange(args, 2, args.length);
+			}
+			if (args.length > 0 && args[0].equals(ConvertMode.TEMPERATURE_OPTION)) {
+				// would otherwise be taken as the name of a surface
+				throw new CommandLine.UsageException(ConvertMode.TEMPERATURE_OPTION + " is an option of "
+						+ ConvertMode.OPTION + "; the minimum action path takes " + ACTION_TEMPERATURE_OPTION + ".");
+			}
 			
-			FileUtility.writeFromPath(fileName + OUTPUT_SUFFIX, g, path); // O(n)
-		} catch (NumberFormatException e) {
-			System.out.println("Coordinates must be numeric.");
-			e.printStackTrace(System.out);
-			printUsageMessage();
-		} catch (FileNotFoundException e) {
-			System.out.println("File " + args[0] + " not found.");
-			System.exit(0);
+			double kT = BOLTZMANN_CONSTANT * temperature;
+			if (!(kT > 0) || penalty < 0 || corridor < 0) {
+				throw new CommandLine.UsageException("Temperature must be positive and penalty and corridor non-negative.");
+			}
+			run(args, neighbourhood, pathType, costModel, kT, Double.isNaN(penalty) ? kT : penalty, corridor);
+		} catch (CommandLine.UsageException e) {
+			printUsageMessage(e.getMessage());
+		}
+		
+		if (metricsFileName != null) {
+			PathMetrics.active().writeJson(metricsFileName);
+		}
+	}
+	
+	/** Finds the constant of an enum named on the command line
+	 * @param option The option the name was given with, for the message
+	 * @param name The name, in any case
+	 * @param constants The constants of the enum
+	 * @return The name of the constant
+	 * @throws CommandLine.UsageException if no constant has the name
+	 */
+	private static String toConstant(String option, String name, Enum<?>[] constants)
+			throws CommandLine.UsageException {
+		for (Enum<?> constant : constants) {
+			if (constant.name().equalsIgnoreCase(name)) {
+				return constant.name();
+			}
+		}
+		throw new CommandLine.UsageException(option + " cannot be " + name + ".");
+	}
+	
+	/** Runs the mode selected on the command line
+	 * @param args Command line arguments, without any leading options
+	 * @param neighbourhood Which cells count as adjacent
+	 * @param pathType The kind of path to find from a single start
+	 * @param costModel The cost of each step of a minimum action path
+	 * @param kT The Boltzmann constant times the temperature, in kcal/mol
+	 * @param penalty The cost per cell of length of an uphill minimum action path
+	 * @param corridor The width of the corridor of a multiresolution path, in coarse cells
+	 * @throws CommandLine.UsageException if the arguments do not match the usage of the mode
+	 */
+	private static void run(String[] args, GridSurface.Neighbourhood neighbourhood, PathMode.PathType pathType,
+			MinimumActionPath.CostModel costModel, double kT, double penalty, int corridor)
+			throws CommandLine.UsageException {
+		String mode = args.length > 0 ? args[0] : "";
+		if (mode.equals(ServerMode.OPTION)) {
+			ServerMode.run(args);
+		} else if (mode.equals(ConvertMode.OPTION)) {
+			ConvertMode.run(args);
+		} else if (mode.equals(BatchMode.OPTION)) {
+			BatchMode.run(args, neighbourhood);
+		} else if (mode.equals(EnergiesMode.OPTION)) {
+			EnergiesMode.run(args);
+		} else if (mode.equals(EnsembleMode.OPTION)) {
+			EnsembleMode.run(args);
+		} else if (mode.equals(TransitionPathMode.OPTION)) {
+			TransitionPathMode.run(args);
+		} else if (mode.equals(PassageTimeMode.OPTION)) {
+			PassageTimeMode.run(args);
+		} else if (mode.equals(MacrostateMode.OPTION)) {
+			MacrostateMode.run(args);
+		} else if (mode.equals(CountMode.OPTION)) {
+			CountMode.run(args);
+		} else if (mode.equals(TimescaleMode.OPTION)) {
+			TimescaleMode.run(args);
+		} else if (mode.equals(FollowMode.OPTION)) {
+			FollowMode.run(args, neighbourhood);
+		} else {
+			PathMode.run(args, neighbourhood, pathType, costModel, kT, penalty, corridor);
 		}
 	}
 	
-	/** Prints a message indicating the program was run incorrectly and quits */
-	private static void printUsageMessage() {
-		System.out.println("Usage: java MinimumFreeEnergyPath <filename> <xcoord> <ycoord>");
-		System.exit(0);
+	/** Prints a message indicating the program was run incorrectly and quits
+	 * @param message What was wrong, or null if the usage says enough
+	 */
+	private static void printUsageMessage(String message) {
+		if (message != null) {
+			System.out.println(message);
+		}
+		System.out.println("Usage: java MinimumFreeEnergyPath [" + METRICS_OPTION + " <output>] [" + NEIGHBOURS_OPTION
+				+ " axis|full] [" + PATH_OPTION + " mpfp|barrier|action|astar|multires] [" + COST_OPTION + " boltzmann|uphill] ["
+				+ ACTION_TEMPERATURE_OPTION + " <temperature>] [" + PENALTY_OPTION + " <penalty>] [" + CORRIDOR_OPTION + " <cells>] "
+				+ PathMode.USAGE);
+		String[] modes = {PathMode.FOREST_USAGE, PathMode.TREE_USAGE, BatchMode.USAGE, EnergiesMode.USAGE,
+				EnsembleMode.USAGE, TransitionPathMode.USAGE, PassageTimeMode.USAGE, MacrostateMode.USAGE,
+				CountMode.USAGE, TimescaleMode.USAGE, FollowMode.USAGE, ServerMode.USAGE, ConvertMode.USAGE};
+		for (String mode : modes) {
+			System.out.println("   or: java MinimumFreeEnergyPath " + mode);
+		}
+		System.exit(EXIT_USAGE);
 	}
 }
-
-//End MinimumFreeEnergyPath.java
\ No newline at end of file
@@ -0,0 +1,74 @@
+package minimumFreeEnergyPath.core;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+import minimumFreeEnergyPath.gridSurface.GridSurface;
+
+/** What the modes of MinimumFreeEnergyPath share: reading a position from
+ * the command line and failing with a message and exit status
+ */
+final class Modes {
+	
+	/** Exit status of a run which failed */
+	static final int EXIT_FAILURE = 1;
+	
+	/** Utility class not to be instantiated */
+	private Modes() {
+	}
+	
+	/** Finds the cell at a starting position given on the command line
+	 * @param surface The surface to be searched
+	 * @param coordinates The coordinate of the starting position along each axis
+	 * @return The starting cell
+	 * @throws CommandLine.UsageException if the coordinates are not numeric, do not
+	 * match the surface or there is no accessible cell there
+	 */
+	static int findStartCell(GridSurface surface, String[] coordinates) throws CommandLine.UsageException {
+		if (coordinates.length != surface.getDimensions()) {
+			throw new CommandLine.UsageException("Surface has " + surface.getDimensions()
+					+ " dimensions, one coordinate is needed for each.");
+		}
+		int startCell = surface.getCellAt(CommandLine.toNumbers("Coordinates", coordinates));
+		if (startCell < 0) {
+			throw new CommandLine.UsageException("No accessible state at " + formatPosition(coordinates) + ".");
+		}
+		return startCell;
+	}
+	
+	/** Formats a position given on the command line for messages
+	 * @param coordinates The coordinate along each axis
+	 * @return The coordinates in parentheses, eg. (x, y)
+	 */
+	static String formatPosition(String[] coordinates) {
+		StringBuilder s = new StringBuilder("(");
+		for (int i = 0; i < coordinates.length; i++) {
+			s.append(i > 0 ? ", " : "").append(coordinates[i]);
+		}
+		return s.append(")").toString();
+	}
+	
+	/** Prints why a run failed and quits with a failing status
+	 * @param message What went wrong
+	 */
+	static void fail(String message) {
+		System.out.println(message);
+		System.exit(EXIT_FAILURE);
+	}
+	
+	/** Prints why a file could not be read or written and quits with a
+	 * failing status
+	 * @param name What was being read or written, eg. File dat/in/readfile.dat
+	 * @param e The exception thrown
+	 */
+	static void fail(String name, IOException e) {
+		if (e instanceof SurfaceFormatException) {
+			fail(name + " is malformed at " + e.getMessage());
+		} else if (e instanceof FileNotFoundException) {
+			// names the file and why it could not be opened
+			fail("File " + e.getMessage());
+		} else {
+			fail(name + " could not be read or written: " + e.getMessage());
+		}
+	}
+}
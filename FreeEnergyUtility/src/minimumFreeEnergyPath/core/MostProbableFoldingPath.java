@@ -41,10 +41,14 @@
 package minimumFreeEnergyPath.core;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
+import minimumFreeEnergyPath.gridSurface.GridCycles;
+import minimumFreeEnergyPath.gridSurface.GridSurface;
+import minimumFreeEnergyPath.gridSurface.IntList;
 import minimumFreeEnergyPath.weightedVertexGraph.WeightedVertex;
 import minimumFreeEnergyPath.weightedVertexGraph.WeightedVertexCycle;
 import minimumFreeEnergyPath.weightedVertexGraph.WeightedVertexGraph;
@@ -68,6 +72,12 @@ public final class MostProbableFoldingPath
 
     private GraphPath<WeightedVertex, DefaultWeightedEdge> path;
 
+    /** The cells making up the path found on a GridSurface */
+    private int[] cellPath;
+
+    /** The cells visited in searching a GridSurface */
+    private BitSet visitedCells;
+
 
     /**
      * Creates and executes a new MostProbableFoldingPath algorithm instance. An
@@ -89,9 +99,21 @@ public final class MostProbableFoldingPath
                 "graph must contain the end vertex");
         }
 
+        PathMetrics metrics = PathMetrics.active();
+        long start = System.nanoTime();
+
         List<DefaultWeightedEdge> edgeList = createEdgeList(graph, startVertex, endVertex);
-        
+
+        if (metrics != null) {
+            metrics.endPhase(PathMetrics.Phase.SEARCH, start);
+            start = System.nanoTime();
+        }
+
         removeDeadEnds(graph, edgeList);
+
+        if (metrics != null) {
+            metrics.endPhase(PathMetrics.Phase.DEAD_END_REMOVAL, start);
+        }
         
         path =
                 new GraphPathImpl<WeightedVertex, DefaultWeightedEdge>(
@@ -102,7 +124,49 @@ public final class MostProbableFoldingPath
                     0);
     }
 
-    
+
+    /**
+     * Creates and executes a new MostProbableFoldingPath algorithm instance on
+     * a GridSurface. Edges are implicit between adjacent accessible cells and
+     * have the same weights as in a WeightedVertexGraph.
+     *
+     * @param surface the surface to be searched
+     * @param startCell the cell at which the path should start
+     * @param endCell the cell at which the path should end
+     */
+    public MostProbableFoldingPath(
+        GridSurface surface,
+        int startCell,
+        int endCell)
+    {
+        if (endCell < 0 || !surface.isAccessible(endCell)) {
+            throw new IllegalArgumentException(
+                "surface must contain the end cell");
+        }
+        if (startCell < 0 || !surface.isAccessible(startCell)) {
+            throw new IllegalArgumentException(
+                "surface must contain the start cell");
+        }
+
+        PathMetrics metrics = PathMetrics.active();
+        long start = System.nanoTime();
+
+        IntList edgeList = createEdgeList(surface, startCell, endCell);
+
+        if (metrics != null) {
+            metrics.endPhase(PathMetrics.Phase.SEARCH, start);
+            start = System.nanoTime();
+        }
+
+        if (edgeList != null) {
+            removeDeadEnds(edgeList);
+            cellPath = toCellPath(edgeList, endCell);
+        }
+
+        if (metrics != null) {
+            metrics.endPhase(PathMetrics.Phase.DEAD_END_REMOVAL, start);
+        }
+    }
 
     /**
      * Return the edges making up the path found.
@@ -128,6 +192,28 @@ public final class MostProbableFoldingPath
         return path;
     }
 
+    /**
+     * Return the cells making up the path found on a GridSurface, from start
+     * to end inclusive.
+     *
+     * @return array of cells, or null if no path exists
+     */
+    public int[] getCellPath()
+    {
+        return cellPath;
+    }
+
+    /**
+     * Return the cells visited in searching a GridSurface. The path depends
+     * only on the energies of these cells and their neighbours.
+     *
+     * @return set of cells, or null if a graph was searched
+     */
+    public BitSet getVisitedCells()
+    {
+        return visitedCells;
+    }
+
     /**
      * Convenience method to find the shortest path via a single static method
      * call. If you need a more advanced search (e.g. limited by radius, or
@@ -153,6 +239,30 @@ public final class MostProbableFoldingPath
         return alg.getPathEdgeList();
     }
 
+    /**
+     * Convenience method to find the path on a GridSurface via a single static
+     * method call.
+     *
+     * @param surface the surface to be searched
+     * @param startCell the cell at which the path should start
+     * @param endCell the cell at which the path should end
+     *
+     * @return array of cells from start to end, or null if no path exists
+     */
+    public static int[] findPathBetween(
+        GridSurface surface,
+        int startCell,
+        int endCell)
+    {
+        MostProbableFoldingPath alg =
+            new MostProbableFoldingPath(
+                surface,
+                startCell,
+                endCell);
+
+        return alg.getCellPath();
+    }
+
     /**
      * The core of the algorithm
      * touches each vertex once in visiting and potentially touches one other 
@@ -173,6 +283,9 @@ public final class MostProbableFoldingPath
         List<DefaultWeightedEdge> edgeList = new ArrayList<DefaultWeightedEdge>();
         List<WeightedVertex> visited = new ArrayList<WeightedVertex>();
         WeightedVertex currentVertex = startVertex;
+        int cyclesCreated = 0;
+        int cyclesMerged = 0;
+        int largestCycle = 0;
         
         while (currentVertex != endVertex) {
         	if (!visited.contains(currentVertex)) {
@@ -195,11 +308,15 @@ public final class MostProbableFoldingPath
         		WeightedVertexCycle targetCycle = minCycleEdgeTarget.getCycle();
         		if (currentCycle != null) {
         			currentCycle.merge(minCycleEdgeTarget);
+        			cyclesMerged++;
         		} else if (targetCycle != null) {
         			targetCycle.merge(currentVertex);
+        			cyclesMerged++;
         		} else {
         			currentCycle = new WeightedVertexCycle(graph, currentVertex);
+        			cyclesCreated++;
         		}
+        		largestCycle = Math.max(largestCycle, currentVertex.getCycle().getVertices().size());
         		minCycleEdge = graph.getMinEdgeInCycle(currentVertex);
         		minCycleEdgeTarget = graph.getEdgeTarget(minCycleEdge);
         	}
@@ -209,15 +326,154 @@ public final class MostProbableFoldingPath
         	currentVertex = graph.getEdgeTarget(minCycleEdge);
         }
 
+        recordSearch(visited.size(), cyclesCreated, cyclesMerged, largestCycle);
     	return edgeList;
         
     }
 
+    /**
+     * The core of the algorithm on a GridSurface, as for a WeightedVertexGraph.
+     * A cycle is grown whenever the lowest edge out of the current cycle leads
+     * back to a visited cell, until an unvisited cell can be reached.
+     *
+     * @param surface The surface within which to search
+     * @param startCell The cell at which to start
+     * @param endCell The cell at which to end
+     * @return A list of edges as consecutive (source, target) pairs, or null
+     * if the end cell cannot be reached
+     */
+    private IntList createEdgeList(
+        GridSurface surface,
+        int startCell,
+        int endCell)
+    {
+        // iterate through surface
+        IntList edgeList = new IntList();
+        BitSet visited = new BitSet(surface.size());
+        visitedCells = visited;
+        GridCycles cycles = new GridCycles(surface);
+        int currentCell = startCell;
+        boolean recording = PathMetrics.active() != null;
+        int cyclesCreated = 0;
+        int cyclesMerged = 0;
+        int largestCycle = 0;
+
+        while (currentCell != endCell) {
+            visited.set(currentCell);
+
+            long minCycleEdge = cycles.getMinEdgeInCycle(currentCell);
+            while (minCycleEdge != GridCycles.NO_EDGE
+                && visited.get(GridCycles.getEdgeTarget(minCycleEdge)))
+            {
+                // we've found a cycle!
+                int target = GridCycles.getEdgeTarget(minCycleEdge);
+                if (recording) {
+                    if (cycles.inCycle(currentCell) || cycles.inCycle(target)) {
+                        cyclesMerged++;
+                    } else {
+                        cyclesCreated++;
+                    }
+                }
+                cycles.merge(currentCell, target);
+                if (recording) {
+                    largestCycle = Math.max(largestCycle, cycles.getCycleSize(currentCell));
+                }
+                minCycleEdge = cycles.getMinEdgeInCycle(currentCell);
+            }
+
+            if (minCycleEdge == GridCycles.NO_EDGE) {
+                // enclosed basin, the end cell is unreachable
+                if (recording) {
+                    recordSearch(visited.cardinality(), cyclesCreated, cyclesMerged, largestCycle);
+                }
+                return null;
+            }
+
+            // proceed to the next cell
+            edgeList.add(GridCycles.getEdgeSource(minCycleEdge));
+            edgeList.add(GridCycles.getEdgeTarget(minCycleEdge));
+            currentCell = GridCycles.getEdgeTarget(minCycleEdge);
+        }
+
+        if (recording) {
+            recordSearch(visited.cardinality(), cyclesCreated, cyclesMerged, largestCycle);
+        }
+        return edgeList;
+    }
+
+    /** Records the counts from a search if metrics are being recorded
+     * @param cellsVisited Number of distinct cells visited
+     * @param cyclesCreated Number of cycles created from two cells in no cycle
+     * @param cyclesMerged Number of merges into an existing cycle
+     * @param largestCycle Number of cells in the largest cycle
+     */
+    private static void recordSearch(int cellsVisited, int cyclesCreated, int cyclesMerged, int largestCycle) {
+        PathMetrics metrics = PathMetrics.active();
+        if (metrics != null) {
+            metrics.add(PathMetrics.Counter.CELLS_VISITED, cellsVisited);
+            metrics.add(PathMetrics.Counter.CYCLES_CREATED, cyclesCreated);
+            metrics.add(PathMetrics.Counter.CYCLES_MERGED, cyclesMerged);
+            metrics.max(PathMetrics.Counter.LARGEST_CYCLE, largestCycle);
+        }
+    }
+
+    /** Removes any dead-end paths from a list of grid edges in order to remove noise
+     * Runs through edge array only once, from the last edge backwards - O(n)
+     * @param edgeList The list of edges as consecutive (source, target) pairs
+     */
+    public static void removeDeadEnds(IntList edgeList) {
+        int edgeCount = edgeList.size() / 2;
+        if (edgeCount == 0) {
+            return;
+        }
+
+        // compact the edges we keep towards the end of the list
+        int kept = edgeCount - 1;
+        int nextSource = edgeList.get(2 * kept);
+        for (int i = edgeCount - 2; i >= 0; i--) {
+            if (edgeList.get(2 * i + 1) == nextSource) {
+                kept--;
+                nextSource = edgeList.get(2 * i);
+                edgeList.set(2 * kept, nextSource);
+                edgeList.set(2 * kept + 1, edgeList.get(2 * i + 1));
+            }
+            // otherwise dead end! drop edge i
+        }
+
+        // then shift them back to the front
+        for (int i = kept; i < edgeCount; i++) {
+            edgeList.set(2 * (i - kept), edgeList.get(2 * i));
+            edgeList.set(2 * (i - kept) + 1, edgeList.get(2 * i + 1));
+        }
+        edgeList.truncate(2 * (edgeCount - kept));
+
+        PathMetrics metrics = PathMetrics.active();
+        if (metrics != null) {
+            metrics.add(PathMetrics.Counter.DEAD_END_EDGES_REMOVED, kept);
+        }
+    }
+
+    /** Converts a list of grid edges into the list of cells they pass through
+     * @param edgeList The list of edges as consecutive (source, target) pairs
+     * @param endCell The cell at which the path ends
+     * @return The source of each edge in order followed by the end cell
+     */
+    private static int[] toCellPath(IntList edgeList, int endCell) {
+        int edgeCount = edgeList.size() / 2;
+        int[] cells = new int[edgeCount + 1];
+        for (int i = 0; i < edgeCount; i++) {
+            cells[i] = edgeList.get(2 * i);
+        }
+        cells[edgeCount] = endCell;
+        return cells;
+    }
+
     /** Removes any dead-end paths from a list of edges in order to remove noise
      * Runs through edge array only once, max number of edges = number of vertices - O(n)
      * @param edgeList The list of edges to be parsed
      */
     public void removeDeadEnds(WeightedVertexGraph graph, List<DefaultWeightedEdge> edgeList) {
+	    int edgeCount = edgeList.size();
 	    Collections.reverse(edgeList);
     	Iterator<DefaultWeightedEdge> i = edgeList.iterator();
 	    if (i.hasNext()) {
@@ -233,6 +489,11 @@ public final class MostProbableFoldingPath
 	    	}
 	    }
 	    Collections.reverse(edgeList);
+
+	    PathMetrics metrics = PathMetrics.active();
+	    if (metrics != null) {
+	        metrics.add(PathMetrics.Counter.DEAD_END_EDGES_REMOVED, edgeCount - edgeList.size());
+	    }
     }
 }
 
@@ -0,0 +1,236 @@
+package minimumFreeEnergyPath.core;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import minimumFreeEnergyPath.gridSurface.EnergyStore;
+import minimumFreeEnergyPath.gridSurface.GridSurface;
+
+/** Finds the Most Probable Folding Path on a finely binned GridSurface
+ * from coarse to fine, so that the search does not wander the whole of a
+ * wide, nearly flat region
+ *
+ * The surface is halved along every axis, each coarse cell taking the
+ * lowest energy of the cells it covers, until it is small. The path is found
+ * on the coarsest surface, then on each finer surface in turn only within
+ * a corridor of cells whose coarse cell lies within a given number of coarse
+ * cells of the coarser path. Cells outside the corridor are treated as
+ * inaccessible, so each search visits O(corridor) cells. Should the corridor
+ * not join the start to the end it is doubled in width until it does or
+ * covers the surface. Any fine path maps onto a coarse one, so the end is
+ * reached whenever it is reachable at full resolution, though the path found
+ * need not be the one found at full resolution
+ */
+public final class MultiresolutionPath {
+
+	/** Width of the corridor, in coarse cells either side of the path, unless chosen otherwise */
+	public static final int DEFAULT_CORRIDOR = 2;
+	/** Number of cells below which a surface is not coarsened further */
+	private static final int COARSEST_CELLS = 1 << 12;
+
+	/** The surface on which the path lies */
+	private final GridSurface surface;
+	/** Cells from start to end inclusive, or null if no path exists */
+	private final int[] path;
+	/** Number of surfaces searched, the finest included */
+	private final int levels;
+	/** Number of times a corridor was widened */
+	private int widenings;
+
+	/** Constructor finds the path
+	 * @param surface The surface to be searched
+	 * @param startCell The cell at which the path should start
+	 * @param endCell The cell at which the path should end
+	 * @param corridor The width of the corridor, in coarse cells either side of the coarse path
+	 * @throws IllegalArgumentException if the start or end is inaccessible or the corridor negative
+	 */
+	public MultiresolutionPath(GridSurface surface, int startCell, int endCell, int corridor) {
+		if (corridor < 0) {
+			throw new IllegalArgumentException("corridor must not be negative");
+		}
+		if (startCell < 0 || endCell < 0 || !surface.isAccessible(startCell) || !surface.isAccessible(endCell)) {
+			throw new IllegalArgumentException("surface must contain the start and end cells");
+		}
+		this.surface = surface;
+
+		// build the pyramid - O(n)
+		List<GridSurface> pyramid = new ArrayList<GridSurface>();
+		List<int[]> ends = new ArrayList<int[]>();
+		pyramid.add(surface);
+		ends.add(new int[] {startCell, endCell});
+		while (pyramid.get(pyramid.size() - 1).size() > COARSEST_CELLS && canCoarsen(pyramid.get(pyramid.size() - 1))) {
+			GridSurface fine = pyramid.get(pyramid.size() - 1);
+			GridSurface coarse = fine.coarsen();
+			int[] fineEnds = ends.get(ends.size() - 1);
+			int[] indices = new int[fine.getDimensions()];
+			pyramid.add(coarse);
+			ends.add(new int[] {parentOf(fine, coarse, fineEnds[0], indices), parentOf(fine, coarse, fineEnds[1], indices)});
+		}
+		this.levels = pyramid.size();
+
+		int top = levels - 1;
+		int[] cells = MostProbableFoldingPath.findPathBetween(pyramid.get(top), ends.get(top)[0], ends.get(top)[1]);
+		for (int level = top - 1; level >= 0 && cells != null; level--) {
+			cells = refine(pyramid.get(level), pyramid.get(level + 1), cells, ends.get(level), corridor);
+		}
+		this.path = cells;
+	}
+
+	/** Convenience method to find the path via a single static method call
+	 * @param surface The surface to be searched
+	 * @param startCell The cell at which the path should start
+	 * @param endCell The cell at which the path should end
+	 * @param corridor The width of the corridor, in coarse cells either side of the coarse path
+	 * @return Array of cells from start to end, or null if no path exists
+	 */
+	public static int[] findPathBetween(GridSurface surface, int startCell, int endCell, int corridor) {
+		return new MultiresolutionPath(surface, startCell, endCell, corridor).getPath();
+	}
+
+	// Getters and setters
+	public GridSurface getSurface() {
+		return surface;
+	}
+
+	public int[] getPath() {
+		return path;
+	}
+
+	public int getLevels() {
+		return levels;
+	}
+
+	public int getWidenings() {
+		return widenings;
+	}
+
+	/** Finds the path on a surface within a corridor about the path on the
+	 * surface one level coarser, widening it until it joins the ends - O(corridor)
+	 * @param fine The surface to be searched
+	 * @param coarse The surface one level coarser
+	 * @param coarsePath The path on the coarse surface
+	 * @param ends The start and end cells on the fine surface
+	 * @param corridor The initial width of the corridor
+	 * @return The cells of the path, or null if there is none
+	 */
+	private int[] refine(GridSurface fine, GridSurface coarse, int[] coarsePath, int[] ends, int corridor) {
+		int widest = 0;
+		for (int axis = 0; axis < coarse.getDimensions(); axis++) {
+			widest = Math.max(widest, coarse.getShape(axis));
+		}
+		for (int width = corridor; width < widest; width = Math.max(1, 2 * width)) {
+			BitSet inside = markCorridor(coarse, coarsePath, width);
+			GridSurface masked = fine.withEnergies(new CorridorEnergyStore(fine, coarse, inside));
+			int[] cells = MostProbableFoldingPath.findPathBetween(masked, ends[0], ends[1]); // O(corridor)
+			if (cells != null) {
+				return cells;
+			}
+			widenings++;
+		}
+		// the corridor covers the surface
+		return MostProbableFoldingPath.findPathBetween(fine, ends[0], ends[1]);
+	}
+
+	/** Marks the coarse cells within a given number of cells of a path along every axis - O(path (2w + 1)^d)
+	 * @param coarse The coarse surface
+	 * @param coarsePath The path on it
+	 * @param width The number of cells either side of the path
+	 * @return The cells of the corridor
+	 */
+	private static BitSet markCorridor(GridSurface coarse, int[] coarsePath, int width) {
+		int dimensions = coarse.getDimensions();
+		BitSet inside = new BitSet();
+		int[] centre = new int[dimensions];
+		int[] offset = new int[dimensions];
+		int[] indices = new int[dimensions];
+		for (int cell : coarsePath) {
+			for (int axis = 0; axis < dimensions; axis++) {
+				centre[axis] = coarse.getIndex(cell, axis);
+				offset[axis] = -width;
+			}
+			// every offset in [-w, w]^d in turn
+			while (true) {
+				boolean within = true;
+				for (int axis = 0; axis < dimensions; axis++) {
+					indices[axis] = centre[axis] + offset[axis];
+					within &= indices[axis] >= 0 && indices[axis] < coarse.getShape(axis);
+				}
+				if (within) {
+					inside.set(coarse.getCell(indices));
+				}
+				int axis = 0;
+				while (axis < dimensions && ++offset[axis] > width) {
+					offset[axis++] = -width;
+				}
+				if (axis == dimensions) {
+					break;
+				}
+			}
+		}
+		return inside;
+	}
+
+	/** Finds the coarse cell covering a fine cell - O(d)
+	 * @param fine The fine surface
+	 * @param coarse The surface one level coarser
+	 * @param cell The fine cell
+	 * @param indices Scratch space of one index per axis
+	 * @return The coarse cell
+	 */
+	private static int parentOf(GridSurface fine, GridSurface coarse, int cell, int[] indices) {
+		for (int axis = 0; axis < indices.length; axis++) {
+			indices[axis] = fine.getIndex(cell, axis) / 2;
+		}
+		return coarse.getCell(indices);
+	}
+
+	/** Checks if any axis of a surface can be halved
+	 * @param surface The surface
+	 * @return True if some axis has more than one value
+	 */
+	private static boolean canCoarsen(GridSurface surface) {
+		for (int axis = 0; axis < surface.getDimensions(); axis++) {
+			if (surface.getShape(axis) > 1) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** Energies of a fine surface within a corridor of coarse cells, infinite
+	 * outside it. Not thread safe */
+	private static final class CorridorEnergyStore implements EnergyStore {
+		/** The fine surface */
+		private final GridSurface fine;
+		/** The surface one level coarser */
+		private final GridSurface coarse;
+		/** The coarse cells of the corridor */
+		private final BitSet inside;
+		/** Scratch space of one index per axis */
+		private final int[] indices;
+
+		private CorridorEnergyStore(GridSurface fine, GridSurface coarse, BitSet inside) {
+			this.fine = fine;
+			this.coarse = coarse;
+			this.inside = inside;
+			this.indices = new int[fine.getDimensions()];
+		}
+
+		@Override
+		public int size() {
+			return fine.size();
+		}
+
+		@Override
+		public double get(int cell) {
+			return inside.get(parentOf(fine, coarse, cell, indices)) ? fine.getEnergy(cell) : Double.POSITIVE_INFINITY;
+		}
+
+		@Override
+		public long getBytes() {
+			// the energies are those of the fine surface
+			return inside.size() / 8;
+		}
+	}
+}
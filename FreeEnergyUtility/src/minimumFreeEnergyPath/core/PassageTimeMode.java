@@ -0,0 +1,145 @@
+package minimumFreeEnergyPath.core;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import minimumFreeEnergyPath.markovModel.FirstPassageTimes;
+import minimumFreeEnergyPath.markovModel.MetastableStates;
+import minimumFreeEnergyPath.markovModel.SparseMatrix;
+import minimumFreeEnergyPath.markovModel.StateIndex;
+import minimumFreeEnergyPath.markovModel.StationaryDistribution;
+import minimumFreeEnergyPath.markovModel.TransitionCounts;
+
+/** The --mfpt mode of MinimumFreeEnergyPath, finding the mean first
+ * passage times of a count file to target sets by FirstPassageTimes
+ */
+final class PassageTimeMode {
+	
+	/** Command line option to find mean first passage times from transition counts */
+	static final String OPTION = "--mfpt";
+	/** Command line option adding a target set of a single state */
+	private static final String TARGET_OPTION = "--target";
+	/** Command line option adding a target set of the states within a rectangle */
+	private static final String REGION_OPTION = "--region";
+	/** Command line option giving the number of metastable macrostates */
+	private static final String MACROSTATES_OPTION = "--macrostates";
+	/** Option choosing the number of threads */
+	private static final String THREADS_OPTION = "--threads";
+	/** Suffix to be appended to output filename of mean first passage times */
+	private static final String TIMES_SUFFIX = "_mfpt.dat";
+	
+	/** Arguments of the mode for the usage message, after the name of the program */
+	static final String USAGE = OPTION + " <readfile> <datafile> [" + TARGET_OPTION + " <xcoord> <ycoord>]... ["
+			+ REGION_OPTION + " <xmin> <ymin> <xmax> <ymax>]... [" + MACROSTATES_OPTION + " <macrostates>] [" + THREADS_OPTION
+			+ " <threads>]";
+	
+	/** Utility class not to be instantiated */
+	private PassageTimeMode() {
+	}
+	
+	/** Finds the mean first passage time from every state of the Markov
+	 * model of a count file to each of several target sets, each a single
+	 * state or the states within a rectangle, the most probable state unless
+	 * any are given, and writes them as one column for each target set
+	 * @param args Command line arguments
+	 * @throws CommandLine.UsageException if the arguments do not match the usage
+	 */
+	static void run(String[] args) throws CommandLine.UsageException {
+		CommandLine line = new CommandLine().option(TARGET_OPTION, 2).option(REGION_OPTION, 4)
+				.option(MACROSTATES_OPTION, 1).option(THREADS_OPTION, 1).parse(args, 1);
+		List<String> positional = line.getPositional();
+		List<double[]> rectangles = new ArrayList<double[]>();
+		for (double[] given : line.getAllNumbers(TARGET_OPTION, REGION_OPTION)) {
+			// a target is a rectangle of a single point
+			rectangles.add(given.length == 4 ? given : new double[] {given[0], given[1], given[0], given[1]});
+		}
+		int macrostateCount = line.getInt(MACROSTATES_OPTION, 0);
+		int threads = line.getInt(THREADS_OPTION, Runtime.getRuntime().availableProcessors());
+		if (positional.size() != 2 || threads < 1 || macrostateCount == 1 || macrostateCount < 0) {
+			throw new CommandLine.UsageException(null);
+		}
+		String fileName = positional.get(0);
+		String dataFile = positional.get(1);
+		
+		String current = fileName;
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			JobFile job = new JobFile(fileName);
+			current = job.getDataPath(dataFile);
+			TransitionCounts counts = FileUtility.readToCounts(current, job.getXScale(), job.getYScale()); // O(lines)
+			StateIndex states = counts.getStates();
+			SparseMatrix matrix = SparseMatrix.fromCounts(counts); // O(nnz + n)
+			
+			List<BitSet> targets = new ArrayList<BitSet>();
+			if (rectangles.isEmpty() && macrostateCount > 0) {
+				// one target for each macrostate
+				MetastableStates macrostates = MacrostateMode.findMacrostates(matrix, macrostateCount, pool);
+				for (int macrostate = 0; macrostate < macrostateCount; macrostate++) {
+					if (!macrostates.getStates(macrostate).isEmpty()) {
+						targets.add(macrostates.getStates(macrostate));
+					}
+				}
+			} else if (rectangles.isEmpty()) {
+				StationaryDistribution distribution = new StationaryDistribution(matrix, null,
+						StationaryDistribution.DEFAULT_TOLERANCE, StationaryDistribution.DEFAULT_MAX_ITERATIONS); // O(nnz) per sweep
+				double[] q = distribution.getProbabilities();
+				int max = 0;
+				for (int state = 1; state < q.length; state++) {
+					if (q[state] > q[max]) {
+						max = state;
+					}
+				}
+				BitSet target = new BitSet(states.size());
+				target.set(max);
+				targets.add(target);
+			}
+			for (double[] rectangle : rectangles) {
+				// bins, as the coordinates of the states are
+				int xMin = StateIndex.toBin(Math.min(rectangle[0], rectangle[2]), job.getXScale());
+				int yMin = StateIndex.toBin(Math.min(rectangle[1], rectangle[3]), job.getYScale());
+				int xMax = StateIndex.toBin(Math.max(rectangle[0], rectangle[2]), job.getXScale());
+				int yMax = StateIndex.toBin(Math.max(rectangle[1], rectangle[3]), job.getYScale());
+				BitSet target = new BitSet(states.size());
+				for (int state = 0; state < states.size(); state++) {
+					if (states.getXBin(state) >= xMin && states.getXBin(state) <= xMax
+							&& states.getYBin(state) >= yMin && states.getYBin(state) <= yMax) {
+						target.set(state);
+					}
+				}
+				if (target.isEmpty()) {
+					Modes.fail("No transitions leave or enter (" + rectangle[0] + ", " + rectangle[1] + ") to ("
+							+ rectangle[2] + ", " + rectangle[3] + ").");
+				}
+				targets.add(target);
+			}
+			
+			PathMetrics metrics = PathMetrics.active();
+			long start = System.nanoTime();
+			FirstPassageTimes times = new FirstPassageTimes(matrix, targets, threads); // O(nnz) per iteration
+			if (metrics != null) {
+				metrics.endPhase(PathMetrics.Phase.FIRST_PASSAGE, start);
+			}
+			if (times.getUnconverged() > 0) {
+				System.out.println("Note: " + times.getUnconverged() + " of " + targets.size()
+						+ " target sets did not converge");
+			}
+			FileUtility.writeFromTimes(current + TIMES_SUFFIX, states, times, job.getXScale(), job.getYScale()); // O(n log n)
+			
+			int startState = job.findStartState(states);
+			for (int target = 0; target < targets.size(); target++) {
+				System.out.println("Target " + (target + 1) + ": " + targets.get(target).cardinality() + " states in "
+						+ times.getIterations(target) + " iterations"
+						+ (startState < 0 ? "" : ", " + times.getTimes(target)[startState] + " steps from the start"));
+			}
+		} catch (IOException e) {
+			Modes.fail("File " + current, e);
+		} catch (InterruptedException e) {
+			Modes.fail("Passage times interrupted.");
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
@@ -0,0 +1,295 @@
+package minimumFreeEnergyPath.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import minimumFreeEnergyPath.gridSurface.ArrayEnergyStore;
+import minimumFreeEnergyPath.gridSurface.GridSurface;
+import minimumFreeEnergyPath.markovModel.SplitMix64;
+
+/** Measures how stable the Most Probable Folding Path is under the error
+ * of the surface, by finding it on many replicas of the surface each drawn
+ * with the free energy of every cell perturbed by a normal deviate of its
+ * error, G + G_sd N(0, 1)
+ *
+ * Each thread draws its replicas into a single buffer wrapped by a single
+ * surface, so any number of replicas costs one surface per thread. Replica
+ * k always draws from stream k of the seed, so the ensemble is the same
+ * however many threads share it. The ensemble records how often each cell
+ * is on the path and is its highest point, the energy of the highest point
+ * of each path and how many distinct paths were found. The consensus path
+ * runs from the start to the minimum most often reached, through cells
+ * such that the least visited of them is visited as often as possible
+ */
+public final class PathEnsemble {
+
+	/** Seed used unless another is given */
+	public static final long DEFAULT_SEED = 0x5eed2015L;
+	/** Fraction of replicas outside a confidence interval, split between its ends */
+	private static final double CONFIDENCE_TAIL = 0.05;
+
+	/** The surface from which replicas are drawn */
+	private final GridSurface surface;
+	/** The cell at which every path starts */
+	private final int startCell;
+	/** Number of replicas drawn */
+	private final int replicas;
+	/** Number of paths through each cell */
+	private final int[] visits;
+	/** Number of paths whose highest point is each cell */
+	private final int[] saddles;
+	/** Number of paths ending at each cell */
+	private final int[] ends;
+	/** Energy of the highest point of each replica's path, NaN if it has none */
+	private final double[] saddleEnergies;
+	/** Hash of the cells of each replica's path, 0 if it has none */
+	private final long[] pathHashes;
+	/** Number of replicas from which the minimum could not be reached */
+	private final int unreachable;
+	/** Number of distinct paths found */
+	private final int distinctPaths;
+	/** Number of replicas finding the most common path */
+	private final int modalCount;
+	/** The consensus path, or null if no replica has a path */
+	private final int[] consensus;
+
+	/** Constructor draws the replicas and finds the path on each
+	 * @param surface The surface, with an error for each cell
+	 * @param startCell The cell at which every path starts
+	 * @param replicas The number of replicas to draw
+	 * @param seed The seed of the streams of the replicas
+	 * @param threads The number of replicas searched at once
+	 * @throws InterruptedException if interrupted while waiting for a thread
+	 * @throws IllegalArgumentException if the surface has no errors or the start is inaccessible
+	 */
+	public PathEnsemble(GridSurface surface, final int startCell, final int replicas, final long seed, int threads)
+			throws InterruptedException {
+		if (!surface.hasErrors()) {
+			throw new IllegalArgumentException("surface must have an error for each cell");
+		}
+		if (startCell < 0 || !surface.isAccessible(startCell)) {
+			throw new IllegalArgumentException("surface must contain the start cell");
+		}
+		this.surface = surface;
+		this.startCell = startCell;
+		this.replicas = replicas;
+		final int n = surface.size();
+
+		// read once, shared by every thread
+		final double[] energies = new double[n];
+		final double[] errors = new double[n];
+		for (int cell = 0; cell < n; cell++) {
+			energies[cell] = surface.getEnergy(cell);
+			double error = surface.getError(cell);
+			errors[cell] = error >= 0 && error != Double.POSITIVE_INFINITY ? error : 0;
+		}
+		this.saddleEnergies = new double[replicas];
+		this.pathHashes = new long[replicas];
+
+		final GridSurface base = surface;
+		final int workers = Math.max(1, Math.min(threads, replicas));
+		ExecutorService executor = Executors.newFixedThreadPool(workers);
+		List<Future<int[][]>> futures = new ArrayList<Future<int[][]>>();
+		for (int w = 0; w < workers; w++) {
+			final int worker = w;
+			futures.add(executor.submit(new Callable<int[][]>() {
+				@Override
+				public int[][] call() {
+					double[] buffer = new double[n];
+					GridSurface replica = base.withEnergies(new ArrayEnergyStore(buffer));
+					int[][] counts = new int[3][n];
+					for (int k = worker; k < replicas; k += workers) {
+						SplitMix64 random = SplitMix64.split(seed, k);
+						for (int cell = 0; cell < n; cell++) {
+							// inaccessible cells stay infinite
+							buffer[cell] = energies[cell] + errors[cell] * random.nextGaussian();
+						}
+						int[] path = MostProbableFoldingPath.findPathBetween(replica, startCell,
+								replica.getMinimumCell()); // O(n)
+						record(k, path, buffer, counts);
+					}
+					return counts;
+				}
+			}));
+		}
+		executor.shutdown();
+
+		int[][] totals = new int[3][n];
+		try {
+			for (Future<int[][]> future : futures) {
+				int[][] counts = future.get();
+				for (int i = 0; i < totals.length; i++) {
+					for (int cell = 0; cell < n; cell++) {
+						totals[i][cell] += counts[i][cell];
+					}
+				}
+			}
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+		this.visits = totals[0];
+		this.saddles = totals[1];
+		this.ends = totals[2];
+
+		// count the distinct paths - O(replicas)
+		Map<Long, Integer> paths = new HashMap<Long, Integer>();
+		int missing = 0;
+		int modal = 0;
+		for (int k = 0; k < replicas; k++) {
+			if (Double.isNaN(saddleEnergies[k])) {
+				missing++;
+				continue;
+			}
+			Integer count = paths.get(pathHashes[k]);
+			count = count == null ? 1 : count + 1;
+			paths.put(pathHashes[k], count);
+			modal = Math.max(modal, count);
+		}
+		this.unreachable = missing;
+		this.distinctPaths = paths.size();
+		this.modalCount = modal;
+		this.consensus = findConsensus();
+	}
+
+	// Getters and setters
+	public GridSurface getSurface() {
+		return surface;
+	}
+
+	public int getStartCell() {
+		return startCell;
+	}
+
+	public int getReplicas() {
+		return replicas;
+	}
+
+	public int getUnreachable() {
+		return unreachable;
+	}
+
+	public int getDistinctPaths() {
+		return distinctPaths;
+	}
+
+	public int getModalCount() {
+		return modalCount;
+	}
+
+	public int[] getConsensus() {
+		return consensus;
+	}
+
+	/** Finds the fraction of paths through a cell
+	 * @param cell The cell
+	 * @return The fraction of replicas with a path
+	 */
+	public double getVisitFrequency(int cell) {
+		return visits[cell] / (double) Math.max(1, replicas - unreachable);
+	}
+
+	/** Finds the fraction of paths whose highest point is a cell
+	 * @param cell The cell
+	 * @return The fraction of replicas with a path
+	 */
+	public double getSaddleFrequency(int cell) {
+		return saddles[cell] / (double) Math.max(1, replicas - unreachable);
+	}
+
+	/** Finds the mean energy of the highest point of each path - O(replicas)
+	 * @return The mean, or NaN if no replica has a path
+	 */
+	public double getMeanSaddleEnergy() {
+		double sum = 0;
+		for (double energy : sortedSaddleEnergies()) {
+			sum += energy;
+		}
+		return sum / (replicas - unreachable);
+	}
+
+	/** Finds the central 95% interval of the energy of the highest point of
+	 * each path, by the nearest rank - O(replicas log replicas)
+	 * @return The lower and upper ends, NaN if no replica has a path
+	 */
+	public double[] getSaddleEnergyInterval() {
+		double[] sorted = sortedSaddleEnergies();
+		if (sorted.length == 0) {
+			return new double[] {Double.NaN, Double.NaN};
+		}
+		int lower = (int) Math.floor(CONFIDENCE_TAIL / 2 * (sorted.length - 1));
+		int upper = (int) Math.ceil((1 - CONFIDENCE_TAIL / 2) * (sorted.length - 1));
+		return new double[] {sorted[lower], sorted[upper]};
+	}
+
+	/** Records the path of a replica in the counts of a thread - O(path length)
+	 * @param replica The index of the replica
+	 * @param path The cells of its path, or null if it has none
+	 * @param energies The energies of the replica
+	 * @param counts The visits, saddles and ends counted by the thread
+	 */
+	private void record(int replica, int[] path, double[] energies, int[][] counts) {
+		if (path == null) {
+			saddleEnergies[replica] = Double.NaN;
+			return;
+		}
+		int saddle = path[0];
+		long hash = 0xcbf29ce484222325L;
+		for (int cell : path) {
+			counts[0][cell]++;
+			if (energies[cell] > energies[saddle]) {
+				saddle = cell;
+			}
+			// FNV-1a over the cells
+			hash = (hash ^ cell) * 0x100000001b3L;
+		}
+		counts[1][saddle]++;
+		counts[2][path[path.length - 1]]++;
+		saddleEnergies[replica] = energies[saddle];
+		pathHashes[replica] = hash;
+	}
+
+	/** Finds the path from the start to the most common end whose least
+	 * visited cell is visited most often, over the cells of any path - O(n log n)
+	 * @return The cells of the path, or null if no replica has a path
+	 */
+	private int[] findConsensus() {
+		int end = -1;
+		double[] rarity = new double[visits.length];
+		for (int cell = 0; cell < visits.length; cell++) {
+			rarity[cell] = visits[cell] > 0 ? -visits[cell] : Double.POSITIVE_INFINITY;
+			if (ends[cell] > 0 && (end < 0 || ends[cell] > ends[end])) {
+				end = cell;
+			}
+		}
+		if (end < 0) {
+			return null;
+		}
+		GridSurface frequencies = surface.withEnergies(new ArrayEnergyStore(rarity));
+		return MinimumBarrierPath.findPathBetween(frequencies, startCell, end);
+	}
+
+	/** Lists the energy of the highest point of each path in ascending order - O(replicas log replicas)
+	 * @return The energies, leaving out replicas without a path
+	 */
+	private double[] sortedSaddleEnergies() {
+		double[] sorted = new double[replicas - unreachable];
+		int i = 0;
+		for (double energy : saddleEnergies) {
+			if (!Double.isNaN(energy)) {
+				sorted[i++] = energy;
+			}
+		}
+		Arrays.sort(sorted);
+		return sorted;
+	}
+}
@@ -0,0 +1,165 @@
+package minimumFreeEnergyPath.core;
+
+import java.io.FileNotFoundException;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/** Wall times and counts recorded for each phase of a path run
+ *
+ * Recording is off until enable is called. Instrumented code fetches the
+ * active metrics once per call and skips recording if there are none, so
+ * the cost when disabled is a single volatile read per instrumented method
+ */
+public final class PathMetrics {
+
+	/** Phases of a run whose wall time is recorded */
+	public enum Phase {
+		PARSE("parse"),
+		STATIONARY_DISTRIBUTION("stationaryDistribution"),
+		BOOTSTRAP("bootstrap"),
+		FIRST_PASSAGE("firstPassage"),
+		MACROSTATES("macrostates"),
+		VERTEX_INDEXING("vertexIndexing"),
+		EDGE_CREATION("edgeCreation"),
+		SEARCH("search"),
+		DEAD_END_REMOVAL("deadEndRemoval"),
+		OUTPUT("output");
+
+		/** Name of the phase in the JSON summary */
+		private final String key;
+
+		private Phase(String key) {
+			this.key = key;
+		}
+	}
+
+	/** Quantities counted during a run */
+	public enum Counter {
+		CELLS_PARSED("cellsParsed"),
+		INF_CELLS_SKIPPED("infCellsSkipped"),
+		EDGES_CREATED("edgesCreated"),
+		CELLS_VISITED("cellsVisited"),
+		CYCLES_CREATED("cyclesCreated"),
+		CYCLES_MERGED("cyclesMerged"),
+		LARGEST_CYCLE("largestCycle"),
+		PATH_LENGTH("pathLength"),
+		DEAD_END_EDGES_REMOVED("deadEndEdgesRemoved");
+
+		/** Name of the counter in the JSON summary */
+		private final String key;
+
+		private Counter(String key) {
+			this.key = key;
+		}
+	}
+
+	/** Metrics currently being recorded, or null if recording is off */
+	private static volatile PathMetrics active;
+
+	/** Nanoseconds spent in each phase */
+	private final AtomicLongArray phaseNanos;
+	/** Number of times each phase was entered */
+	private final AtomicLongArray phaseCalls;
+	/** Value of each counter */
+	private final AtomicLongArray counters;
+
+	/** Constructor creates a new PathMetrics object with nothing recorded */
+	private PathMetrics() {
+		phaseNanos = new AtomicLongArray(Phase.values().length);
+		phaseCalls = new AtomicLongArray(Phase.values().length);
+		counters = new AtomicLongArray(Counter.values().length);
+	}
+
+	/** Starts recording into a new, empty set of metrics
+	 * @return The metrics being recorded
+	 */
+	public static PathMetrics enable() {
+		PathMetrics metrics = new PathMetrics();
+		active = metrics;
+		return metrics;
+	}
+
+	/** Stops recording */
+	public static void disable() {
+		active = null;
+	}
+
+	/** Finds the metrics being recorded
+	 * @return The active metrics, or null if recording is off
+	 */
+	public static PathMetrics active() {
+		return active;
+	}
+
+	/** Records time spent in a phase
+	 * @param phase The phase
+	 * @param startNanos Value of System.nanoTime() when the phase began
+	 */
+	public void endPhase(Phase phase, long startNanos) {
+		phaseNanos.addAndGet(phase.ordinal(), System.nanoTime() - startNanos);
+		phaseCalls.incrementAndGet(phase.ordinal());
+	}
+
+	/** Adds to a counter
+	 * @param counter The counter
+	 * @param amount The amount to be added
+	 */
+	public void add(Counter counter, long amount) {
+		counters.addAndGet(counter.ordinal(), amount);
+	}
+
+	/** Raises a counter to a value if it is lower
+	 * @param counter The counter
+	 * @param value The value
+	 */
+	public void max(Counter counter, long value) {
+		int i = counter.ordinal();
+		long current;
+		while ((current = counters.get(i)) < value && !counters.compareAndSet(i, current, value)) {
+			// lost a race, try again
+		}
+	}
+
+	// Getters and setters
+	public long getPhaseNanos(Phase phase) {
+		return phaseNanos.get(phase.ordinal());
+	}
+
+	public long getCounter(Counter counter) {
+		return counters.get(counter.ordinal());
+	}
+
+	/** Summarises the metrics as a JSON object, with times in milliseconds
+	 * @return The JSON summary
+	 */
+	public String toJson() {
+		StringBuilder json = new StringBuilder("{\n  \"phases\": {");
+		String separator = "\n";
+		for (Phase phase : Phase.values()) {
+			json.append(separator).append(String.format(Locale.ROOT,
+					"    \"%s\": {\"millis\": %.3f, \"calls\": %d}",
+					phase.key, getPhaseNanos(phase) / 1e6, phaseCalls.get(phase.ordinal())));
+			separator = ",\n";
+		}
+		json.append("\n  },\n  \"counters\": {");
+		separator = "\n";
+		for (Counter counter : Counter.values()) {
+			json.append(separator).append("    \"").append(counter.key).append("\": ").append(getCounter(counter));
+			separator = ",\n";
+		}
+		return json.append("\n  }\n}\n").toString();
+	}
+
+	/** Writes the JSON summary to file
+	 * @param filename The file to be written to
+	 */
+	public void writeJson(String filename) {
+		try (PrintWriter writer = new PrintWriter(filename, "UTF-8")) {
+			writer.print(toJson());
+		} catch (FileNotFoundException | UnsupportedEncodingException e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,207 @@
+package minimumFreeEnergyPath.core;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import minimumFreeEnergyPath.gridSurface.GridSurface;
+
+/** The modes of MinimumFreeEnergyPath reading a free energy surface: the
+ * path from a single start, the paths from every cell with --all and the
+ * barrier tree with --tree
+ */
+final class PathMode {
+	
+	/** Suffix to be appended to output filename */
+	private static final String OUTPUT_SUFFIX = "_path.dat";
+	/** Suffix to be appended to output filename of the basin map in batch mode */
+	private static final String FOREST_SUFFIX = "_forest.dat";
+	/** Suffix to be appended to output filename of the disconnectivity graph */
+	private static final String TREE_SUFFIX = "_tree.dat";
+	/** Suffix to be appended to output filename of the basin labels of the disconnectivity graph */
+	private static final String BASINS_SUFFIX = "_basins.dat";
+	/** Option selecting batch mode, finding paths from every cell at once */
+	static final String FOREST_OPTION = "--all";
+	/** Option selecting the barrier tree, answering barriers between pairs of positions */
+	static final String TREE_OPTION = "--tree";
+	
+	/** Arguments of the mode for the usage message, after the name of the program */
+	static final String USAGE = "<filename> <xcoord> <ycoord> [<coord>...]";
+	/** Arguments of --all for the usage message */
+	static final String FOREST_USAGE = FOREST_OPTION + " <filename> [<xcoord> <ycoord> [<coord>...]]...";
+	/** Arguments of --tree for the usage message */
+	static final String TREE_USAGE = TREE_OPTION + " <filename> [<xcoord> <ycoord> [<coord>...] <xcoord> <ycoord> [<coord>...]]...";
+	
+	/** Kinds of path found from a single starting position */
+	enum PathType {
+		/** The Most Probable Folding Path */
+		MPFP,
+		/** The path whose highest point is lowest */
+		BARRIER,
+		/** The path of least total cost, by Dijkstra's algorithm */
+		ACTION,
+		/** The path of least total cost, by A* */
+		ASTAR,
+		/** The Most Probable Folding Path, found from coarse to fine */
+		MULTIRES
+	}
+	
+	/** Utility class not to be instantiated */
+	private PathMode() {
+	}
+	
+	/** Finds a path from a single start, the paths from every cell or the
+	 * barrier tree of a surface
+	 * @param args Command line arguments, without any leading options, the
+	 * surface file and a coordinate for each axis of the start at least
+	 * @param neighbourhood Which cells count as adjacent
+	 * @param pathType The kind of path to find from a single start
+	 * @param costModel The cost of each step of a minimum action path
+	 * @param kT The Boltzmann constant times the temperature, in kcal/mol
+	 * @param penalty The cost per cell of length of an uphill minimum action path
+	 * @param corridor The width of the corridor of a multiresolution path, in coarse cells
+	 * @throws CommandLine.UsageException if the arguments do not match the usage
+	 * or the neighbourhood is too wide for the surface
+	 */
+	static void run(String[] args, GridSurface.Neighbourhood neighbourhood, PathType pathType,
+			MinimumActionPath.CostModel costModel, double kT, double penalty, int corridor)
+			throws CommandLine.UsageException {
+		boolean allStarts = args.length > 0 && args[0].equals(FOREST_OPTION);
+		boolean tree = args.length > 0 && args[0].equals(TREE_OPTION);
+		if (allStarts || tree) {
+			args = Arrays.copyOfRange(args, 1, args.length);
+			if (args.length < 1) {
+				throw new CommandLine.UsageException(null);
+			}
+		} else if (args.length < 3) {
+			throw new CommandLine.UsageException(null);
+		}
+		String fileName = args[0];
+		try {
+			GridSurface surface = FileUtility.readToSurface(fileName); // O(n)
+			if (neighbourhood == GridSurface.Neighbourhood.FULL
+					&& surface.getDimensions() > GridSurface.MAX_FULL_DIMENSIONS) {
+				throw new CommandLine.UsageException("Surface has " + surface.getDimensions()
+						+ " dimensions, a full neighbourhood at most " + GridSurface.MAX_FULL_DIMENSIONS + ".");
+			}
+			surface = surface.withNeighbourhood(neighbourhood);
+			String[] coordinates = Arrays.copyOfRange(args, 1, args.length);
+			if (tree) {
+				findBarriers(fileName, surface, coordinates);
+			} else if (allStarts) {
+				findAllPaths(fileName, surface, coordinates);
+			} else {
+				findPath(fileName, surface, coordinates, pathType, costModel, kT, penalty, corridor);
+			}
+		} catch (IOException e) {
+			Modes.fail("File " + fileName, e);
+		}
+	}
+	
+	/** Finds the most probable folding path, the minimum barrier path or the
+	 * minimum action path from a single starting position and writes it to file
+	 * @param fileName Name of the surface file, used to name the output
+	 * @param surface The surface to be searched
+	 * @param coordinates The coordinate of the starting position along each axis
+	 * @param pathType The kind of path to find
+	 * @param costModel The cost of each step of a minimum action path
+	 * @param kT The Boltzmann constant times the temperature, in kcal/mol
+	 * @param penalty The cost per cell of length of an uphill minimum action path
+	 * @param corridor The width of the corridor of a multiresolution path, in coarse cells
+	 * @throws CommandLine.UsageException if the coordinates do not match the surface
+	 */
+	private static void findPath(String fileName, GridSurface surface, String[] coordinates, PathType pathType,
+			MinimumActionPath.CostModel costModel, double kT, double penalty, int corridor)
+			throws CommandLine.UsageException {
+		int startCell = Modes.findStartCell(surface, coordinates);
+		
+		int[] path;
+		if (pathType == PathType.BARRIER) {
+			MinimumBarrierPath barrierPath = new MinimumBarrierPath(surface, startCell, surface.getMinimumCell()); // O(n log n)
+			path = barrierPath.getPath();
+			if (path != null) {
+				System.out.println("Transition state: " + surface.toString(barrierPath.getSaddle())
+						+ "\tbarrier " + barrierPath.getBarrier());
+			}
+		} else if (pathType == PathType.ACTION || pathType == PathType.ASTAR) {
+			MinimumActionPath actionPath = new MinimumActionPath(surface, startCell, surface.getMinimumCell(),
+					costModel, kT, penalty, pathType == PathType.ASTAR); // O(n)
+			path = actionPath.getPath();
+			if (path != null) {
+				System.out.println("Action: " + actionPath.getCost());
+			}
+		} else if (pathType == PathType.MULTIRES) {
+			path = MultiresolutionPath.findPathBetween(surface, startCell, surface.getMinimumCell(), corridor); // O(corridor) per level
+		} else {
+			path = MostProbableFoldingPath.findPathBetween(surface, startCell, surface.getMinimumCell()); // O(n)
+		}
+		if (path == null) {
+			Modes.fail("Minimum free energy state is unreachable from " + Modes.formatPosition(coordinates) + ".");
+		}
+		
+		FileUtility.writeFromPath(fileName + OUTPUT_SUFFIX, surface, path); // O(n)
+	}
+	
+	/** Finds the path from every cell at once, writes the basin map and
+	 * writes the path from each starting position given
+	 * @param fileName Name of the surface file, used to name the output
+	 * @param surface The surface to be searched
+	 * @param coordinates The coordinates of each starting position in turn
+	 * @throws CommandLine.UsageException if the coordinates do not match the surface
+	 */
+	private static void findAllPaths(String fileName, GridSurface surface, String[] coordinates)
+			throws CommandLine.UsageException {
+		int dimensions = surface.getDimensions();
+		if (coordinates.length % dimensions != 0) {
+			throw new CommandLine.UsageException("Surface has " + dimensions + " dimensions, one coordinate is needed for each.");
+		}
+		DescentForest forest = new DescentForest(surface); // O(n) in parallel
+		FileUtility.writeFromForest(fileName + FOREST_SUFFIX, forest); // O(n)
+		
+		for (int i = 0; i < coordinates.length; i += dimensions) {
+			String[] start = Arrays.copyOfRange(coordinates, i, i + dimensions);
+			int[] path = forest.pathFrom(Modes.findStartCell(surface, start)); // O(path length)
+			if (path == null) {
+				System.out.println("Minimum free energy state is unreachable from " + Modes.formatPosition(start) + ".");
+				continue;
+			}
+			StringBuilder output = new StringBuilder(fileName);
+			for (String c : start) {
+				output.append('_').append(c);
+			}
+			FileUtility.writeFromPath(output + OUTPUT_SUFFIX, surface, path);
+		}
+	}
+	
+	/** Builds the barrier tree, writes it as a disconnectivity graph with the
+	 * basin label of every cell, and prints the lowest barrier between each
+	 * pair of positions given
+	 * @param fileName Name of the surface file, used to name the output
+	 * @param surface The surface to be searched
+	 * @param coordinates The coordinates of each position of each pair in turn
+	 * @throws CommandLine.UsageException if the coordinates do not match the surface
+	 */
+	private static void findBarriers(String fileName, GridSurface surface, String[] coordinates)
+			throws CommandLine.UsageException {
+		int dimensions = surface.getDimensions();
+		if (coordinates.length % (2 * dimensions) != 0) {
+			throw new CommandLine.UsageException("Surface has " + dimensions + " dimensions, one coordinate is needed for each.");
+		}
+		BarrierTree tree = new BarrierTree(surface); // O(n log n)
+		FileUtility.writeFromTree(fileName + TREE_SUFFIX, tree); // O(m)
+		FileUtility.writeBasins(fileName + BASINS_SUFFIX, tree); // O(n)
+		
+		for (int i = 0; i < coordinates.length; i += 2 * dimensions) {
+			String[] from = Arrays.copyOfRange(coordinates, i, i + dimensions);
+			String[] to = Arrays.copyOfRange(coordinates, i + dimensions, i + 2 * dimensions);
+			int fromCell = Modes.findStartCell(surface, from);
+			int toCell = Modes.findStartCell(surface, to);
+			int saddle = tree.getSaddle(fromCell, toCell); // O(log m)
+			if (saddle < 0) {
+				System.out.println(Modes.formatPosition(to) + " is unreachable from " + Modes.formatPosition(from) + ".");
+				continue;
+			}
+			System.out.println("Barrier from " + Modes.formatPosition(from) + " to " + Modes.formatPosition(to) + ": "
+					+ tree.getBarrier(fromCell, toCell) + "\tsaddle " + surface.toString(saddle));
+		}
+	}
+}
@@ -0,0 +1,318 @@
+package minimumFreeEnergyPath.core;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+
+import minimumFreeEnergyPath.gridSurface.GridSurface;
+
+/** Long-lived server answering path queries from warm memory, so that a
+ * pipeline making many queries pays for JVM startup only once
+ *
+ * Requests and replies are single lines of whitespace-separated words.
+ * Each reply begins with OK or ERROR.
+ * load filename                   read a surface into the cache, replying with its shape
+ * path filename x y [output]      write the path from (x,y), by default to filename_path.dat
+ * batch filename x1 y1 x2 y2 ...  write the path from each start to filename_x_y_path.dat
+ * barrier filename x1 y1 x2 y2    reply with the lowest barrier from (x1,y1) to (x2,y2)
+ *                                 followed by the coordinates and energy of its saddle
+ * status                          reply with the protocol version and the process id, so
+ *                                 a client can check it reached the server it started
+ * Surfaces of more than two dimensions take one coordinate per axis
+ * quit                            close this connection
+ * shutdown                        stop the server
+ */
+public class PathServer {
+
+	/** Version of the request protocol, raised when requests or replies change */
+	public static final int PROTOCOL_VERSION = 1;
+	/** Suffix to be appended to output filename */
+	private static final String OUTPUT_SUFFIX = "_path.dat";
+
+	/** Surfaces held between requests */
+	private final SurfaceCache cache;
+	/** Socket accepting connections, or null when serving standard input */
+	private ServerSocket serverSocket;
+	/** True once a shutdown request has been received */
+	private volatile boolean shutdown;
+
+	/** Constructor creates a new PathServer object
+	 * @param cache Surfaces held between requests
+	 */
+	public PathServer(SurfaceCache cache) {
+		this.cache = cache;
+	}
+
+	/** Serves requests from standard input until end of input or shutdown
+	 * @throws IOException
+	 */
+	public void serveStandardInput() throws IOException {
+		BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), true);
+		serve(in, out);
+	}
+
+	/** Serves requests from connections to a port on the loopback interface
+	 * until shutdown, one thread per connection
+	 * @param port The port on which to listen
+	 * @throws IOException if the port cannot be bound
+	 */
+	public void listen(int port) throws IOException {
+		serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		try {
+			while (!shutdown) {
+				final Socket socket;
+				try {
+					socket = serverSocket.accept();
+				} catch (SocketException e) {
+					// socket closed by shutdown
+					break;
+				}
+				Thread thread = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						try (Socket s = socket;
+								BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+								PrintWriter out = new PrintWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8), true)) {
+							serve(in, out);
+						} catch (IOException e) {
+							// connection dropped, nothing to reply to
+						}
+					}
+				});
+				thread.setDaemon(true);
+				thread.start();
+			}
+		} finally {
+			serverSocket.close();
+		}
+	}
+
+	/** Reads and answers requests until end of input, quit or shutdown
+	 * @param in Source of requests
+	 * @param out Destination of replies
+	 * @throws IOException
+	 */
+	private void serve(BufferedReader in, PrintWriter out) throws IOException {
+		String line;
+		while (!shutdown && (line = in.readLine()) != null) {
+			String[] words = line.trim().split("\\s+");
+			if (words[0].isEmpty()) {
+				continue;
+			}
+			if (words[0].equals("quit")) {
+				out.println("OK");
+				return;
+			}
+			if (words[0].equals("shutdown")) {
+				out.println("OK");
+				shutdown();
+				return;
+			}
+			out.println(execute(words));
+		}
+	}
+
+	/** Stops the server once current requests are answered */
+	private void shutdown() {
+		shutdown = true;
+		if (serverSocket != null) {
+			try {
+				serverSocket.close();
+			} catch (IOException e) {
+				// already closed
+			}
+		}
+	}
+
+	/** Answers a single request
+	 * @param words The request split into words
+	 * @return The reply
+	 */
+	private String execute(String[] words) {
+		try {
+			switch (words[0]) {
+			case "load":
+				return load(words);
+			case "path":
+				return path(words);
+			case "batch":
+				return batch(words);
+			case "barrier":
+				return barrier(words);
+			case "status":
+				return status(words);
+			default:
+				return "ERROR unknown command " + words[0];
+			}
+		} catch (NumberFormatException e) {
+			return "ERROR coordinates must be numeric";
+		} catch (FileNotFoundException e) {
+			return "ERROR " + words[1] + " not found";
+		} catch (SurfaceFormatException e) {
+			return "ERROR " + words[1] + " is malformed at " + e.getMessage();
+		} catch (IOException e) {
+			return "ERROR " + words[1] + " could not be read: " + e.getMessage();
+		} catch (IllegalArgumentException e) {
+			return "ERROR " + e.getMessage();
+		}
+	}
+
+	/** Identifies the server
+	 * @param words status
+	 * @return OK followed by the protocol version and the process id
+	 */
+	private String status(String[] words) {
+		checkArguments(words, 1, 1);
+		// the runtime is named pid@host on the usual JVMs
+		String name = ManagementFactory.getRuntimeMXBean().getName();
+		int at = name.indexOf('@');
+		return "OK " + PROTOCOL_VERSION + " " + (at > 0 ? name.substring(0, at) : "-1");
+	}
+
+	/** Reads a surface into the cache
+	 * @param words load filename
+	 * @return OK followed by the number of cells along each axis
+	 * @throws IOException
+	 */
+	private String load(String[] words) throws IOException {
+		checkArguments(words, 2, 2);
+		GridSurface surface = cache.getSurface(words[1]);
+		StringBuilder reply = new StringBuilder("OK");
+		for (int axis = 0; axis < surface.getDimensions(); axis++) {
+			reply.append(' ').append(surface.getShape(axis));
+		}
+		return reply.toString();
+	}
+
+	/** Finds and writes the most probable folding path from a single start
+	 * @param words path filename x y [output]
+	 * @return OK followed by the number of cells on the path and the output file
+	 * @throws IOException
+	 */
+	private String path(String[] words) throws IOException {
+		checkArguments(words, 2, Integer.MAX_VALUE);
+		GridSurface surface = cache.getSurface(words[1]);
+		int dimensions = surface.getDimensions();
+		checkArguments(words, 2 + dimensions, 3 + dimensions);
+		int startCell = findStartCell(surface, words, 2);
+		int[] path = MostProbableFoldingPath.findPathBetween(surface, startCell, surface.getMinimumCell());
+		if (path == null) {
+			return "ERROR minimum free energy state is unreachable from " + formatPosition(words, 2, dimensions);
+		}
+		String output = words.length > 2 + dimensions ? words[2 + dimensions] : words[1] + OUTPUT_SUFFIX;
+		FileUtility.writeFromPath(output, surface, path);
+		return "OK " + path.length + " " + output;
+	}
+
+	/** Writes the path from each of several starts, read off the descent forest
+	 * @param words batch filename x1 y1 x2 y2 ...
+	 * @return OK followed by the number of paths written
+	 * @throws IOException
+	 */
+	private String batch(String[] words) throws IOException {
+		checkArguments(words, 2, Integer.MAX_VALUE);
+		DescentForest forest = cache.getForest(words[1]);
+		GridSurface surface = forest.getSurface();
+		int dimensions = surface.getDimensions();
+		if (words.length < 2 + dimensions || (words.length - 2) % dimensions != 0) {
+			throw new IllegalArgumentException("usage: batch filename x1 y1 [x2 y2]...");
+		}
+
+		// check every start before writing anything
+		int[] startCells = new int[(words.length - 2) / dimensions];
+		for (int i = 0; i < startCells.length; i++) {
+			startCells[i] = findStartCell(surface, words, 2 + dimensions*i);
+		}
+
+		int written = 0;
+		for (int i = 0; i < startCells.length; i++) {
+			int[] path = forest.pathFrom(startCells[i]);
+			if (path != null) {
+				StringBuilder output = new StringBuilder(words[1]);
+				for (int j = 0; j < dimensions; j++) {
+					output.append('_').append(words[2 + dimensions*i + j]);
+				}
+				FileUtility.writeFromPath(output + OUTPUT_SUFFIX, surface, path);
+				written++;
+			}
+		}
+		return "OK " + written;
+	}
+
+	/** Finds the lowest barrier between two positions from the barrier tree
+	 * of a surface, building the tree on first use
+	 * @param words barrier filename x1 y1 x2 y2
+	 * @return OK followed by the barrier height and the saddle's coordinates and energy
+	 * @throws IOException
+	 */
+	private String barrier(String[] words) throws IOException {
+		checkArguments(words, 2, Integer.MAX_VALUE);
+		BarrierTree tree = cache.getTree(words[1]);
+		GridSurface surface = tree.getSurface();
+		int dimensions = surface.getDimensions();
+		checkArguments(words, 2 + 2*dimensions, 2 + 2*dimensions);
+		int from = findStartCell(surface, words, 2);
+		int to = findStartCell(surface, words, 2 + dimensions);
+		int saddle = tree.getSaddle(from, to);
+		if (saddle < 0) {
+			return "ERROR " + formatPosition(words, 2 + dimensions, dimensions) + " is unreachable from "
+					+ formatPosition(words, 2, dimensions);
+		}
+		return "OK " + tree.getBarrier(from, to) + " " + surface.toString(saddle).replace('\t', ' ');
+	}
+
+	/** Finds the cell at a starting position given in a request
+	 * @param surface The surface to be searched
+	 * @param words The request split into words
+	 * @param from Index of the word holding the first coordinate
+	 * @return The starting cell
+	 * @throws IllegalArgumentException if there is no accessible cell there
+	 */
+	private static int findStartCell(GridSurface surface, String[] words, int from) {
+		double[] coordinates = new double[surface.getDimensions()];
+		for (int axis = 0; axis < coordinates.length; axis++) {
+			coordinates[axis] = Double.parseDouble(words[from + axis]);
+		}
+		int startCell = surface.getCellAt(coordinates);
+		if (startCell < 0) {
+			throw new IllegalArgumentException("no accessible state at " + formatPosition(words, from, coordinates.length));
+		}
+		return startCell;
+	}
+
+	/** Formats a position given in a request for replies
+	 * @param words The request split into words
+	 * @param from Index of the word holding the first coordinate
+	 * @param dimensions Number of coordinates
+	 * @return The coordinates in parentheses, eg. (x, y)
+	 */
+	private static String formatPosition(String[] words, int from, int dimensions) {
+		StringBuilder s = new StringBuilder("(");
+		for (int axis = 0; axis < dimensions; axis++) {
+			s.append(axis > 0 ? ", " : "").append(words[from + axis]);
+		}
+		return s.append(")").toString();
+	}
+
+	/** Checks the number of words in a request
+	 * @param words The request split into words
+	 * @param min Minimum number of words including the command
+	 * @param max Maximum number of words including the command
+	 * @throws IllegalArgumentException if there are too few or too many words
+	 */
+	private static void checkArguments(String[] words, int min, int max) {
+		if (words.length < min || words.length > max) {
+			throw new IllegalArgumentException("wrong number of arguments to " + words[0]);
+		}
+	}
+}
@@ -0,0 +1,57 @@
+package minimumFreeEnergyPath.core;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/** The --server mode of MinimumFreeEnergyPath, answering path requests
+ * from a PathServer until it is shut down
+ */
+final class ServerMode {
+	
+	/** Option selecting server mode, answering requests until shut down */
+	static final String OPTION = "--server";
+	/** Fraction of the maximum heap which the server may use to cache surfaces */
+	private static final double SERVER_CACHE_FRACTION = 0.5;
+	
+	/** Arguments of the mode for the usage message, after the name of the program */
+	static final String USAGE = OPTION + " [<port>]";
+	
+	/** Utility class not to be instantiated */
+	private ServerMode() {
+	}
+	
+	/** Runs a PathServer until it is shut down, on a loopback port if one is
+	 * given or on standard input and output otherwise
+	 * @param args Command line arguments
+	 * @throws CommandLine.UsageException if the arguments do not match the usage
+	 */
+	static void run(String[] args) throws CommandLine.UsageException {
+		List<String> positional = new CommandLine().parse(args, 1).getPositional();
+		if (positional.size() > 1) {
+			throw new CommandLine.UsageException(null);
+		}
+		int port = -1;
+		try {
+			if (!positional.isEmpty()) {
+				port = Integer.parseInt(positional.get(0));
+			}
+		} catch (NumberFormatException e) {
+			throw new CommandLine.UsageException("Port must be an integer.");
+		}
+		ForkJoinPool pool = new ForkJoinPool();
+		SurfaceCache cache = new SurfaceCache((long) (Runtime.getRuntime().maxMemory() * SERVER_CACHE_FRACTION), pool);
+		PathServer server = new PathServer(cache);
+		try {
+			if (port >= 0) {
+				server.listen(port);
+			} else {
+				server.serveStandardInput();
+			}
+		} catch (IOException e) {
+			Modes.fail("Server stopped: " + e.getMessage());
+		} finally {
+			pool.shutdown();
+		}
+	}
+}
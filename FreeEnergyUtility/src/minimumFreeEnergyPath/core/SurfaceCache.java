@@ -0,0 +1,250 @@
+package minimumFreeEnergyPath.core;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+
+import minimumFreeEnergyPath.gridSurface.GridSurface;
+
+/** Least recently used cache of surfaces read from file, bounded by the
+ * approximate number of bytes held. Entries are keyed by file path and
+ * modification time, so a surface is read again once R rewrites the file
+ *
+ * The cache is locked only to find or replace an entry and to count its
+ * bytes. Each surface, descent forest and barrier tree is a task run by the
+ * first request to need it, while later requests for the same file wait
+ * for that task and requests for other files carry on
+ */
+public class SurfaceCache {
+
+	/** Maximum number of bytes to be held */
+	private final long capacity;
+	/** Pool in which descent forests are built */
+	private final ForkJoinPool pool;
+	/** Cached surfaces by canonical path, least recently used first */
+	private final LinkedHashMap<String, Entry> entries;
+	/** Number of bytes currently held */
+	private long size;
+
+	/** Constructor creates a new, empty SurfaceCache object
+	 * @param capacity Maximum number of bytes to be held
+	 * @param pool Pool in which descent forests are built
+	 */
+	public SurfaceCache(long capacity, ForkJoinPool pool) {
+		this.capacity = capacity;
+		this.pool = pool;
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	}
+
+	/** Retrieves a surface, reading it from file if it is not cached or the
+	 * file has been modified since it was cached
+	 * @param filename Name of the surface file
+	 * @return The GridSurface
+	 * @throws IOException if the file cannot be read or parsed
+	 */
+	public GridSurface getSurface(String filename) throws IOException {
+		return getEntry(filename).getSurface();
+	}
+
+	/** Retrieves the descent forest of a surface, building it if necessary
+	 * @param filename Name of the surface file
+	 * @return The DescentForest
+	 * @throws IOException if the file cannot be read or parsed
+	 */
+	public DescentForest getForest(String filename) throws IOException {
+		final Entry entry = getEntry(filename);
+		final GridSurface surface = entry.getSurface();
+		FutureTask<DescentForest> task;
+		synchronized (this) {
+			if (entry.forest == null) {
+				entry.forest = new FutureTask<DescentForest>(new Callable<DescentForest>() {
+					@Override
+					public DescentForest call() {
+						DescentForest forest = new DescentForest(surface, pool);
+						// successor and basin of each cell
+						addBytes(entry, 8L * surface.size());
+						return forest;
+					}
+				});
+			}
+			task = entry.forest;
+		}
+		return await(entry, task);
+	}
+
+	/** Retrieves the barrier tree of a surface, building it if necessary
+	 * @param filename Name of the surface file
+	 * @return The BarrierTree
+	 * @throws IOException if the file cannot be read or parsed
+	 */
+	public BarrierTree getTree(String filename) throws IOException {
+		final Entry entry = getEntry(filename);
+		final GridSurface surface = entry.getSurface();
+		FutureTask<BarrierTree> task;
+		synchronized (this) {
+			if (entry.tree == null) {
+				entry.tree = new FutureTask<BarrierTree>(new Callable<BarrierTree>() {
+					@Override
+					public BarrierTree call() {
+						BarrierTree tree = new BarrierTree(surface);
+						addBytes(entry, tree.getBytes());
+						return tree;
+					}
+				});
+			}
+			task = entry.tree;
+		}
+		return await(entry, task);
+	}
+
+	/** Finds the cache entry for a file, replacing it if the file has changed,
+	 * and reads its surface unless another request already is
+	 * @param filename Name of the surface file
+	 * @return The up to date entry, its surface read
+	 * @throws IOException if the file cannot be read or parsed
+	 */
+	private Entry getEntry(final String filename) throws IOException {
+		File file = new File(filename);
+		if (!file.isFile()) {
+			throw new FileNotFoundException(filename);
+		}
+		String key = file.getCanonicalPath();
+		long lastModified = file.lastModified();
+
+		Entry entry;
+		synchronized (this) {
+			entry = entries.get(key);
+			if (entry == null || entry.lastModified != lastModified) {
+				if (entry != null) {
+					// stale, file has been rewritten
+					remove(entry);
+				}
+				final Entry created = new Entry(key, lastModified);
+				created.surface = new FutureTask<GridSurface>(new Callable<GridSurface>() {
+					@Override
+					public GridSurface call() throws IOException {
+						GridSurface surface = FileUtility.readToSurface(filename);
+						// as the store counts it, nothing for mapped pages
+						addBytes(created, surface.getBytes());
+						return surface;
+					}
+				});
+				entries.put(key, created);
+				entry = created;
+			}
+		}
+		await(entry, entry.surface);
+		return entry;
+	}
+
+	/** Runs a task unless it has been run already and waits for its result
+	 * Removes the entry if the task fails, so the next request tries again
+	 * @param entry The entry the task belongs to
+	 * @param task The task
+	 * @return The result of the task
+	 * @throws IOException if the task could not read its file
+	 */
+	private <T> T await(Entry entry, FutureTask<T> task) throws IOException {
+		task.run(); // returns at once if started by another request
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while waiting for " + entry.key);
+		} catch (ExecutionException e) {
+			synchronized (this) {
+				remove(entry);
+			}
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IllegalStateException(cause);
+		}
+	}
+
+	/** Counts bytes held by an entry and evicts others to make room, unless
+	 * the entry has itself been evicted or replaced in the meantime
+	 * @param entry The entry
+	 * @param bytes The bytes added to it
+	 */
+	private synchronized void addBytes(Entry entry, long bytes) {
+		if (entries.get(entry.key) != entry) {
+			return;
+		}
+		entry.bytes += bytes;
+		size += bytes;
+		evict(entry);
+	}
+
+	/** Removes least recently used entries until the cache fits its capacity
+	 * The entry in use is always kept, even if it alone exceeds capacity.
+	 * Requests still using a removed entry keep it until they finish
+	 * @param inUse The entry which must not be removed
+	 */
+	private void evict(Entry inUse) {
+		Iterator<Map.Entry<String, Entry>> i = entries.entrySet().iterator();
+		while (size > capacity && i.hasNext()) {
+			Entry entry = i.next().getValue();
+			if (entry != inUse) {
+				size -= entry.bytes;
+				i.remove();
+			}
+		}
+	}
+
+	/** Removes an entry from the cache if it is still there
+	 * @param entry The entry
+	 */
+	private void remove(Entry entry) {
+		if (entries.get(entry.key) == entry) {
+			entries.remove(entry.key);
+			size -= entry.bytes;
+		}
+	}
+
+	/** A surface held in the cache and the results derived from it, each
+	 * a task which is run once. Fields are guarded by the cache */
+	private static final class Entry {
+		/** Canonical path of the file */
+		private final String key;
+		/** Modification time of the file when read */
+		private final long lastModified;
+		/** Reading of the surface from file */
+		private FutureTask<GridSurface> surface;
+		/** Building of the descent forest, or null if not yet asked for */
+		private FutureTask<DescentForest> forest;
+		/** Building of the barrier tree, or null if not yet asked for */
+		private FutureTask<BarrierTree> tree;
+		/** Approximate number of bytes held by the results built so far */
+		private long bytes;
+
+		private Entry(String key, long lastModified) {
+			this.key = key;
+			this.lastModified = lastModified;
+		}
+
+		/** Retrieves the surface, which has been read by the time the entry is handed out
+		 * @return The surface
+		 */
+		private GridSurface getSurface() {
+			try {
+				return surface.get();
+			} catch (InterruptedException | ExecutionException e) {
+				throw new IllegalStateException("surface read before use", e);
+			}
+		}
+	}
+}
@@ -0,0 +1,34 @@
+package minimumFreeEnergyPath.core;
+
+import java.io.IOException;
+
+/** Thrown when a tabulated free energy surface contains a malformed cell
+ */
+public class SurfaceFormatException extends IOException {
+	private static final long serialVersionUID = 1L;
+
+	/** Line of the file on which the error occurred, starting at 1 */
+	private final int line;
+	/** Tab-separated column in which the error occurred, starting at 1 */
+	private final int column;
+
+	/** Constructor creates a new SurfaceFormatException object
+	 * @param line The line on which the error occurred
+	 * @param column The column in which the error occurred
+	 * @param message Description of the error
+	 */
+	public SurfaceFormatException(int line, int column, String message) {
+		super("line " + line + ", column " + column + ": " + message);
+		this.line = line;
+		this.column = column;
+	}
+
+	// Getters and setters
+	public int getLine() {
+		return line;
+	}
+
+	public int getColumn() {
+		return column;
+	}
+}
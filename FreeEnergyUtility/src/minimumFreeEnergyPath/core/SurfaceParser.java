@@ -0,0 +1,627 @@
+package minimumFreeEnergyPath.core;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import minimumFreeEnergyPath.gridSurface.ArrayEnergyStore;
+import minimumFreeEnergyPath.gridSurface.GridSurface;
+
+/** Helper class used in reading a GridSurface from the tab-separated tables
+ * written by FreeEnergyUtility.r, either a 2D matrix or one state per line
+ * The file is memory mapped and parsed byte by byte, so no String is created
+ * per cell and inaccessible cells (Inf, NA, NaN or empty) are recognised
+ * without exceptions. Rows are streamed straight into the energy array
+ */
+final class SurfaceParser {
+
+	/** Largest region of the file mapped at once, lines must fit within it */
+	private static final long WINDOW_SIZE = 1L << 28;
+	/** Largest distance from the grid, as a fraction of its spacing, at which a coordinate is taken to lie on it */
+	private static final double GRID_TOLERANCE = 0.01;
+	/** Longest mantissa which can be parsed exactly with POWERS_OF_TEN */
+	private static final int MAX_EXACT_DIGITS = 15;
+	/** Powers of ten which are exactly representable as doubles */
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
+	/** The file being parsed */
+	private final FileChannel channel;
+	/** Length of the file in bytes */
+	private final long fileSize;
+	/** The currently mapped region of the file */
+	private MappedByteBuffer buffer;
+	/** Offset in the file of the start of buffer */
+	private long windowStart;
+	/** Current read position within buffer */
+	private int position;
+	/** Position within buffer of the end of the current line */
+	private int lineEnd;
+	/** Current line number, starting at 1 */
+	private int line;
+	/** Current column number, starting at 1 */
+	private int column;
+
+	/** Constructor creates a new SurfaceParser object
+	 * @param channel The file to be parsed
+	 * @throws IOException
+	 */
+	private SurfaceParser(FileChannel channel) throws IOException {
+		this.channel = channel;
+		this.fileSize = channel.size();
+	}
+
+	/** Reads a tabulated free energy surface - O(n)
+	 * @param filename Name of R output file
+	 * @return The GridSurface
+	 * @throws java.io.FileNotFoundException if the file does not exist
+	 * @throws SurfaceFormatException if a cell cannot be parsed
+	 * @throws IOException
+	 */
+	static GridSurface parse(String filename) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(filename, "r");
+				FileChannel channel = file.getChannel()) {
+			return new SurfaceParser(channel).parseSurface();
+		}
+	}
+
+	/** Parses the table, either a matrix with a header row or one line per
+	 * state holding its coordinates followed by its energy
+	 * @return The GridSurface
+	 * @throws IOException
+	 */
+	private GridSurface parseSurface() throws IOException {
+		// count rows first so energies can be allocated exactly once
+		int rows = countLines() - 1;
+		if (rows < 0) {
+			throw new SurfaceFormatException(1, 1, "file is empty");
+		}
+
+		rewind();
+		if (isColumnFormat()) {
+			return parseColumns();
+		}
+		return parseMatrix(rows);
+	}
+
+	/** Checks the first line of the table for a numeric first cell, which a
+	 * matrix written by write.table with column names never has
+	 * @return True if each line holds a single state
+	 * @throws IOException
+	 */
+	private boolean isColumnFormat() throws IOException {
+		if (!nextLine()) {
+			return false;
+		}
+		int start = position;
+		column = 1;
+		double first;
+		try {
+			first = parseCell();
+		} catch (SurfaceFormatException e) {
+			// a text label, as in the corner of a matrix
+			first = Double.POSITIVE_INFINITY;
+		}
+		position = start;
+		return first != Double.POSITIVE_INFINITY;
+	}
+
+	/** Parses a table with one line per state, the coordinate along each axis
+	 * followed by the energy, as written by FreeEnergyUtility.r for 2D and by
+	 * other tools for any number of dimensions. Each axis is a regular grid
+	 * from its least to its greatest value, spaced by the smallest difference
+	 * between neighbouring values, so that a bin missing from the table
+	 * leaves an inaccessible gap rather than joining its neighbours. States
+	 * which are not listed are inaccessible. Axis values are collected in a
+	 * first pass so that energies can be allocated exactly once - O(n log m),
+	 * m values per axis
+	 * @return The GridSurface
+	 * @throws SurfaceFormatException if a coordinate does not lie on the grid of its axis
+	 * @throws IOException
+	 */
+	private GridSurface parseColumns() throws IOException {
+		// count columns on the first line
+		int dimensions = 0;
+		for (int i = position; i < lineEnd; i++) {
+			if (buffer.get(i) == '\t') {
+				dimensions++;
+			}
+		}
+		if (dimensions < 1 || dimensions > GridSurface.MAX_DIMENSIONS) {
+			throw new SurfaceFormatException(line, 1,
+					"line must hold between 1 and " + GridSurface.MAX_DIMENSIONS + " coordinates and an energy");
+		}
+
+		// collect the distinct values along each axis
+		List<Set<Double>> values = new ArrayList<Set<Double>>();
+		double[] last = new double[dimensions];
+		for (int axis = 0; axis < dimensions; axis++) {
+			values.add(new HashSet<Double>());
+			last[axis] = Double.NaN;
+		}
+		double[] coordinates = new double[dimensions];
+		while (nextLine()) {
+			if (!isBlankLine()) {
+				parseCoordinates(coordinates);
+				for (int axis = 0; axis < dimensions; axis++) {
+					// consecutive lines mostly share coordinates, skip boxing them
+					if (coordinates[axis] != last[axis]) {
+						values.get(axis).add(coordinates[axis]);
+						last[axis] = coordinates[axis];
+					}
+				}
+			}
+			endLine();
+		}
+
+		double[] minimum = new double[dimensions];
+		double[] spacing = new double[dimensions];
+		double[][] axes = new double[dimensions][];
+		long cells = 1;
+		for (int axis = 0; axis < dimensions; axis++) {
+			double[] distinct = new double[values.get(axis).size()];
+			int i = 0;
+			for (double value : values.get(axis)) {
+				distinct[i++] = value;
+			}
+			Arrays.sort(distinct);
+			minimum[axis] = distinct[0];
+			spacing[axis] = findSpacing(distinct);
+			long length = distinct.length == 1 ? 1
+					: Math.round((distinct[distinct.length - 1] - distinct[0]) / spacing[axis]) + 1;
+			cells *= length;
+			if (cells > Integer.MAX_VALUE) {
+				throw new SurfaceFormatException(1, 1, "surface has more than 2^31 cells");
+			}
+			axes[axis] = new double[(int) length];
+			for (int k = 0; k < length; k++) {
+				axes[axis][k] = minimum[axis] + k * spacing[axis];
+			}
+		}
+		values = null;
+
+		// fill energies, leaving unlisted states inaccessible
+		double[] energies = new double[(int) cells];
+		Arrays.fill(energies, Double.POSITIVE_INFINITY);
+		BitSet listed = new BitSet(energies.length);
+		rewind();
+		while (nextLine()) {
+			if (!isBlankLine()) {
+				parseCoordinates(coordinates);
+				int cell = 0;
+				int stride = 1;
+				for (int axis = 0; axis < dimensions; axis++) {
+					double offset = (coordinates[axis] - minimum[axis]) / spacing[axis];
+					long k = Math.round(offset);
+					if (Math.abs(offset - k) > GRID_TOLERANCE) {
+						throw new SurfaceFormatException(line, axis + 1, "coordinate " + coordinates[axis]
+								+ " is not on the grid from " + minimum[axis] + " in steps of " + spacing[axis]);
+					}
+					// keep the value as written, so it can be looked up exactly
+					axes[axis][(int) k] = coordinates[axis];
+					cell += k * stride;
+					stride *= axes[axis].length;
+				}
+				if (listed.get(cell)) {
+					throw new SurfaceFormatException(line, 1, "state is listed more than once");
+				}
+				listed.set(cell);
+				position++; // skip tab
+				column++;
+				energies[cell] = parseCell();
+				if (position < lineEnd) {
+					throw new SurfaceFormatException(line, column + 1,
+							"line has more than " + (dimensions + 1) + " values");
+				}
+			}
+			endLine();
+		}
+
+		return new GridSurface(axes, new ArrayEnergyStore(energies), null, GridSurface.widestNeighbourhood(axes.length));
+	}
+
+	/** Finds the spacing of the grid on which sorted values lie, the
+	 * smallest difference between neighbouring values refined over the
+	 * whole range so that rounding in the written values does not
+	 * accumulate along the axis - O(m)
+	 * @param distinct The distinct values along an axis, in ascending order
+	 * @return The spacing, or 1 if there is only one value
+	 */
+	private static double findSpacing(double[] distinct) {
+		if (distinct.length == 1) {
+			return 1;
+		}
+		double smallest = Double.POSITIVE_INFINITY;
+		for (int i = 1; i < distinct.length; i++) {
+			smallest = Math.min(smallest, distinct[i] - distinct[i - 1]);
+		}
+		double range = distinct[distinct.length - 1] - distinct[0];
+		return range / Math.round(range / smallest);
+	}
+
+	/** Parses the coordinates at the start of a line of a table with one state per line
+	 * @param coordinates Array to be filled with one coordinate per axis
+	 * @throws SurfaceFormatException if a coordinate is missing or not numeric
+	 */
+	private void parseCoordinates(double[] coordinates) throws SurfaceFormatException {
+		for (int axis = 0; axis < coordinates.length; axis++) {
+			if (axis > 0) {
+				position++; // skip tab
+			}
+			column = axis + 1;
+			if (position >= lineEnd) {
+				throw new SurfaceFormatException(line, column, "line has fewer than " + (coordinates.length + 1) + " values");
+			}
+			coordinates[axis] = parseCell();
+			if (coordinates[axis] == Double.POSITIVE_INFINITY) {
+				throw new SurfaceFormatException(line, column, "coordinate is not numeric");
+			}
+		}
+		if (position >= lineEnd) {
+			throw new SurfaceFormatException(line, column + 1, "line has no energy");
+		}
+	}
+
+	/** Parses the header and all rows of a matrix
+	 * @param rows The number of rows excluding the header
+	 * @return The GridSurface
+	 * @throws IOException
+	 */
+	private GridSurface parseMatrix(int rows) throws IOException {
+		double[] xHeader = parseHeader();
+
+		double[] yHeader = new double[rows];
+		double[] energies = new double[rows * xHeader.length];
+		int row = 0;
+		while (nextLine()) {
+			if (isBlankLine()) {
+				endLine();
+				continue;
+			}
+
+			// first column holds the row name
+			column = 1;
+			double y = parseCell();
+			if (y == Double.POSITIVE_INFINITY) {
+				throw new SurfaceFormatException(line, column, "row name is not numeric");
+			}
+			yHeader[row] = y;
+
+			// stream the remaining columns straight into the energy array
+			int offset = row * xHeader.length;
+			int i = 0;
+			while (position < lineEnd) {
+				position++; // skip tab
+				column++;
+				double energy = parseCell();
+				if (i < xHeader.length) {
+					energies[offset + i] = energy;
+				} else if (energy != Double.POSITIVE_INFINITY) {
+					throw new SurfaceFormatException(line, column,
+							"row has more than " + xHeader.length + " values");
+				}
+				i++;
+			}
+			// short rows are inaccessible beyond their last value
+			for (; i < xHeader.length; i++) {
+				energies[offset + i] = Double.POSITIVE_INFINITY;
+			}
+			row++;
+			endLine();
+		}
+
+		return new GridSurface(xHeader, yHeader, energies);
+	}
+
+	/** Parses the column names from the first line of the table
+	 * @return The column names, excluding the row name column
+	 * @throws IOException
+	 */
+	private double[] parseHeader() throws IOException {
+		if (!nextLine()) {
+			throw new SurfaceFormatException(1, 1, "file is empty");
+		}
+
+		// count columns on the line before parsing them
+		int columns = 0;
+		for (int i = position; i < lineEnd; i++) {
+			if (buffer.get(i) == '\t') {
+				columns++;
+			}
+		}
+
+		double[] xHeader = new double[columns];
+		column = 1;
+		parseCell(); // row name column is unused
+		for (int i = 0; i < columns; i++) {
+			position++; // skip tab
+			column++;
+			xHeader[i] = parseCell();
+			if (xHeader[i] == Double.POSITIVE_INFINITY) {
+				throw new SurfaceFormatException(line, column, "column name is not numeric");
+			}
+		}
+		endLine();
+		return xHeader;
+	}
+
+	/** Parses the cell beginning at position, leaving position on the following tab or line end
+	 * @return The value of the cell, infinite if the cell is inaccessible
+	 * @throws SurfaceFormatException if the cell is not numeric
+	 */
+	private double parseCell() throws SurfaceFormatException {
+		int start = position;
+		int end = position;
+		while (end < lineEnd && buffer.get(end) != '\t') {
+			end++;
+		}
+		position = end;
+
+		// trim whitespace and quotes written by write.table
+		while (start < end && buffer.get(start) <= ' ') {
+			start++;
+		}
+		while (end > start && buffer.get(end - 1) <= ' ') {
+			end--;
+		}
+		if (end - start >= 2 && buffer.get(start) == '"' && buffer.get(end - 1) == '"') {
+			start++;
+			end--;
+		}
+
+		if (start == end || isInaccessible(start, end)) {
+			// Inf found, leave it inaccessible
+			return Double.POSITIVE_INFINITY;
+		}
+		return parseNumber(start, end);
+	}
+
+	/** Checks if a cell holds one of the tokens R writes for an inaccessible state
+	 * @param start Position of the first byte of the cell
+	 * @param end Position after the last byte of the cell
+	 * @return True if the cell is Inf, NA or NaN
+	 */
+	private boolean isInaccessible(int start, int end) {
+		if (buffer.get(start) == '+') {
+			start++;
+		}
+		return matches(start, end, "Inf") || matches(start, end, "NA")
+				|| matches(start, end, "NaN");
+	}
+
+	/** Compares bytes of the buffer against an ASCII token
+	 * @param start Position of the first byte to be compared
+	 * @param end Position after the last byte to be compared
+	 * @param token The token to be matched
+	 * @return True if the bytes spell the token exactly
+	 */
+	private boolean matches(int start, int end, String token) {
+		if (end - start != token.length()) {
+			return false;
+		}
+		for (int i = 0; i < token.length(); i++) {
+			if (buffer.get(start + i) != token.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** Parses a decimal number in place
+	 * Mantissas of up to 15 significant digits with small exponents are
+	 * computed exactly from powers of ten, anything longer falls back to
+	 * Double.parseDouble
+	 * @param start Position of the first byte of the number
+	 * @param end Position after the last byte of the number
+	 * @return The value of the number
+	 * @throws SurfaceFormatException if the bytes are not a number
+	 */
+	private double parseNumber(int start, int end) throws SurfaceFormatException {
+		int i = start;
+		boolean negative = false;
+		if (buffer.get(i) == '-' || buffer.get(i) == '+') {
+			negative = buffer.get(i) == '-';
+			i++;
+		}
+
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean seenDigit = false;
+		boolean seenPoint = false;
+		for (; i < end; i++) {
+			byte b = buffer.get(i);
+			if (b >= '0' && b <= '9') {
+				seenDigit = true;
+				if (mantissa != 0 || b != '0') {
+					digits++;
+				}
+				if (digits <= 18) {
+					mantissa = mantissa * 10 + (b - '0');
+					if (seenPoint) {
+						exponent--;
+					}
+				} else if (!seenPoint) {
+					exponent++;
+				}
+			} else if (b == '.' && !seenPoint) {
+				seenPoint = true;
+			} else {
+				break;
+			}
+		}
+		if (!seenDigit) {
+			throw malformed(start, end);
+		}
+
+		if (i < end) {
+			byte b = buffer.get(i);
+			if (b != 'e' && b != 'E') {
+				throw malformed(start, end);
+			}
+			i++;
+			boolean negativeExponent = false;
+			if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+				negativeExponent = buffer.get(i) == '-';
+				i++;
+			}
+			if (i == end) {
+				throw malformed(start, end);
+			}
+			int e = 0;
+			for (; i < end; i++) {
+				b = buffer.get(i);
+				if (b < '0' || b > '9') {
+					throw malformed(start, end);
+				}
+				if (e < 10000) {
+					e = e * 10 + (b - '0');
+				}
+			}
+			exponent += negativeExponent ? -e : e;
+		}
+
+		double value;
+		if (digits <= MAX_EXACT_DIGITS && exponent >= -22 && exponent <= 22) {
+			// both operands are exact so the result is correctly rounded
+			value = exponent >= 0 ? mantissa * POWERS_OF_TEN[exponent]
+					: mantissa / POWERS_OF_TEN[-exponent];
+		} else {
+			value = Math.abs(Double.parseDouble(toString(start, end)));
+		}
+		return negative ? -value : value;
+	}
+
+	/** Creates an exception describing the cell at the given position
+	 * @param start Position of the first byte of the cell
+	 * @param end Position after the last byte of the cell
+	 * @return The exception to be thrown
+	 */
+	private SurfaceFormatException malformed(int start, int end) {
+		return new SurfaceFormatException(line, column,
+				"cannot parse \"" + toString(start, end) + "\" as a number");
+	}
+
+	/** Copies bytes of the buffer into a String
+	 * @param start Position of the first byte
+	 * @param end Position after the last byte
+	 * @return The bytes decoded as ASCII
+	 */
+	private String toString(int start, int end) {
+		byte[] bytes = new byte[end - start];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = buffer.get(start + i);
+		}
+		return new String(bytes, StandardCharsets.US_ASCII);
+	}
+
+	/** Maps a window of the file beginning at the given offset
+	 * @param offset Offset in the file of the start of the window
+	 * @throws IOException
+	 */
+	private void map(long offset) throws IOException {
+		windowStart = offset;
+		buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset,
+				Math.min(WINDOW_SIZE, fileSize - offset));
+		position = 0;
+	}
+
+	/** Finds the end of the line beginning at position, remapping the
+	 * window if the line crosses its end
+	 * @return False if the end of the file has been reached
+	 * @throws IOException
+	 */
+	private boolean nextLine() throws IOException {
+		while (windowStart + position < fileSize) {
+			int limit = buffer.limit();
+			int i = position;
+			while (i < limit && buffer.get(i) != '\n') {
+				i++;
+			}
+			if (i < limit || windowStart + limit >= fileSize) {
+				lineEnd = i;
+				return true;
+			}
+			if (position == 0) {
+				throw new SurfaceFormatException(line, 1,
+						"line is longer than " + WINDOW_SIZE + " bytes");
+			}
+			map(windowStart + position);
+		}
+		return false;
+	}
+
+	/** Moves past the end of the current line */
+	private void endLine() {
+		position = lineEnd + 1;
+		line++;
+	}
+
+	/** Checks if the current line contains only whitespace
+	 * @return True if the line is blank
+	 */
+	private boolean isBlankLine() {
+		for (int i = position; i < lineEnd; i++) {
+			if (buffer.get(i) > ' ') {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** Returns to the first non-blank line of the file
+	 * @throws IOException
+	 */
+	private void rewind() throws IOException {
+		map(0);
+		line = 1;
+		skipBlankLines();
+	}
+
+	/** Moves past any blank lines at the current position
+	 * @throws IOException
+	 */
+	private void skipBlankLines() throws IOException {
+		while (nextLine() && isBlankLine()) {
+			endLine();
+		}
+	}
+
+	/** Counts the non-blank lines of the file - O(n)
+	 * @return The number of lines containing at least one printable byte
+	 * @throws IOException
+	 */
+	private int countLines() throws IOException {
+		int count = 0;
+		boolean printable = false;
+		for (long offset = 0; offset < fileSize; offset += WINDOW_SIZE) {
+			map(offset);
+			int limit = buffer.limit();
+			for (int i = 0; i < limit; i++) {
+				byte b = buffer.get(i);
+				if (b == '\n') {
+					if (printable) {
+						count++;
+					}
+					printable = false;
+				} else if (b > ' ') {
+					printable = true;
+				}
+			}
+		}
+		if (printable) {
+			count++;
+		}
+		return count;
+	}
+}
@@ -0,0 +1,108 @@
+package minimumFreeEnergyPath.core;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+
+import minimumFreeEnergyPath.markovModel.DirichletBootstrap;
+import minimumFreeEnergyPath.markovModel.ImpliedTimescales;
+import minimumFreeEnergyPath.markovModel.SparseMatrix;
+import minimumFreeEnergyPath.markovModel.TransitionCounts;
+
+/** The --timescales mode of MinimumFreeEnergyPath, finding the implied
+ * timescales of raw trajectories over a range of lags
+ */
+final class TimescaleMode {
+	
+	/** Command line option to find the implied timescales of raw trajectories over a range of lags */
+	static final String OPTION = "--timescales";
+	/** Command line option giving the number of implied timescales to find */
+	private static final String EIGENVALUES_OPTION = "--eigenvalues";
+	/** Command line option giving the number of samples of the transition matrix */
+	private static final String SAMPLES_OPTION = "--samples";
+	/** Command line option giving the seed of the samples */
+	private static final String SEED_OPTION = "--seed";
+	/** Option choosing the number of threads */
+	private static final String THREADS_OPTION = "--threads";
+	/** Lags of an implied timescale sweep unless chosen otherwise, in frames */
+	private static final int[] DEFAULT_SWEEP_LAGS = {1, 2, 5, 10, 20, 50};
+	
+	/** Arguments of the mode for the usage message, after the name of the program */
+	static final String USAGE = OPTION + " <readfile> <output> <trajectory>... [" + CountMode.LAG_OPTION
+			+ " <frames>[,<frames>...]] [" + EIGENVALUES_OPTION + " <timescales>] [" + SAMPLES_OPTION + " <samples>] ["
+			+ CountMode.COLUMNS_OPTION + " <x column> <y column>] [" + THREADS_OPTION + " <threads>] [" + SEED_OPTION + " <seed>]";
+	
+	/** Utility class not to be instantiated */
+	private TimescaleMode() {
+	}
+	
+	/** Counts the transitions of raw trajectories at a range of lags in one
+	 * pass and writes the implied timescales of each lag with their bands,
+	 * one line per lag, so the lag at which the model becomes Markovian can
+	 * be read off where the timescales level out
+	 * @param args Command line arguments
+	 * @throws CommandLine.UsageException if the arguments do not match the usage
+	 */
+	static void run(String[] args) throws CommandLine.UsageException {
+		CommandLine line = CountMode.parseTrajectoryOptions(args, new CommandLine().option(EIGENVALUES_OPTION, 1)
+				.option(SAMPLES_OPTION, 1).option(SEED_OPTION, 1));
+		List<String> positional = line.getPositional();
+		int[] lags = line.getIntList(CountMode.LAG_OPTION, DEFAULT_SWEEP_LAGS);
+		int[] columns = line.getInts(CountMode.COLUMNS_OPTION, new int[] {1, 2});
+		int threads = line.getInt(THREADS_OPTION, Runtime.getRuntime().availableProcessors());
+		int count = line.getInt(EIGENVALUES_OPTION, ImpliedTimescales.DEFAULT_TIMESCALES);
+		int samples = line.getInt(SAMPLES_OPTION, ImpliedTimescales.DEFAULT_SAMPLES);
+		long seed = line.getLong(SEED_OPTION, DirichletBootstrap.DEFAULT_SEED);
+		if (count < 1 || samples < 0) {
+			throw new CommandLine.UsageException(null);
+		}
+		String fileName = positional.get(0);
+		String outputName = positional.get(1);
+		List<String> trajectories = positional.subList(2, positional.size());
+		
+		String current = "File " + fileName;
+		try {
+			JobFile job = new JobFile(fileName);
+			current = "Trajectory";
+			long begin = System.nanoTime();
+			// columns are counted from 1 on the command line
+			TrajectoryCounter counter = new TrajectoryCounter(lags, job.getXScale(), job.getYScale(), columns[0] - 1,
+					columns[1] - 1);
+			TransitionCounts[] counts = counter.count(trajectories, threads); // O(frames * lags)
+			SparseMatrix[] matrices = new SparseMatrix[lags.length];
+			for (int i = 0; i < lags.length; i++) {
+				matrices[i] = SparseMatrix.fromCounts(counts[i]); // O(nnz + n)
+			}
+			
+			PathMetrics metrics = PathMetrics.active();
+			long start = System.nanoTime();
+			List<ImpliedTimescales> sweep = ImpliedTimescales.sweep(matrices, lags, count, samples, seed, threads); // O(samples n^2) per product
+			if (metrics != null) {
+				metrics.endPhase(PathMetrics.Phase.BOOTSTRAP, start);
+			}
+			current = "File " + outputName;
+			FileUtility.writeFromTimescales(outputName, sweep); // O(lags k)
+			
+			for (int i = 0; i < lags.length; i++) {
+				ImpliedTimescales timescales = sweep.get(i);
+				StringBuilder summary = new StringBuilder("lag " + lags[i] + " (" + counts[i].getStateCount() + " states):");
+				for (int k = 0; k < count; k++) {
+					summary.append(" ").append(String.format(Locale.ROOT, "%.4g", timescales.getTimescales()[k]));
+					if (samples > 0) {
+						summary.append(String.format(Locale.ROOT, " [%.4g, %.4g]", timescales.getLower()[k], timescales.getUpper()[k]));
+					}
+				}
+				System.out.println(summary);
+				if (timescales.getUnconverged() > 0) {
+					System.out.println("Note: the eigenvalues of " + timescales.getUnconverged() + " of "
+							+ (samples + 1) + " matrices at lag " + lags[i] + " did not settle.");
+				}
+			}
+			System.out.println(outputName + ": " + lags.length + " lags in " + (System.nanoTime() - begin) / 1e9 + " s");
+		} catch (IOException e) {
+			Modes.fail(current, e);
+		} catch (InterruptedException e) {
+			Modes.fail("Timescales interrupted.");
+		}
+	}
+}
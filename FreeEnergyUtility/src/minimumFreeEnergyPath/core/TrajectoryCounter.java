@@ -0,0 +1,258 @@
+package minimumFreeEnergyPath.core;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+import minimumFreeEnergyPath.markovModel.StateIndex;
+import minimumFreeEnergyPath.markovModel.TransitionCounts;
+
+/** Counts the transitions of raw trajectories of two collective variables,
+ * one frame per line, into the 5 column files in dat/in read by
+ * FreeEnergyUtility.r (x1, y1, x2, y2, count)
+ *
+ * Each file is one trajectory, gzipped if its name ends in .gz, and is read
+ * a line at a time, each frame binned with the scales of readfile.dat and
+ * kept in a ring buffer as deep as the longest lag, so every lag is counted
+ * in a single pass and memory does not grow with the length of a
+ * trajectory. Lines starting with # or @, as in xvg files, are skipped.
+ * A value binned below 0 is rejected, as FreeEnergyUtility.r numbers each
+ * state x * y_max + y and would take a negative bin for another state, so
+ * variables which go negative must be shifted before they are counted.
+ * Files are shared between threads, each counting into its own maps, and
+ * merged in the order given
+ */
+public final class TrajectoryCounter {
+
+	/** Suffix of the names of gzipped trajectories */
+	private static final String GZIP_SUFFIX = ".gz";
+	/** Bytes read from a trajectory at a time */
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/** Numbers of frames between the two ends of each transition counted */
+	private final int[] lags;
+	/** Width of the bins along x */
+	private final double xScale;
+	/** Width of the bins along y */
+	private final double yScale;
+	/** Column holding x, counting from 0 */
+	private final int xColumn;
+	/** Column holding y, counting from 0 */
+	private final int yColumn;
+
+	/** Constructor creates a new TrajectoryCounter object
+	 * @param lags The numbers of frames between the two ends of each transition counted
+	 * @param xScale The width of the bins along x
+	 * @param yScale The width of the bins along y
+	 * @param xColumn The column holding x, counting from 0
+	 * @param yColumn The column holding y, counting from 0
+	 * @throws IllegalArgumentException if a lag is not positive or a column negative
+	 */
+	public TrajectoryCounter(int[] lags, double xScale, double yScale, int xColumn, int yColumn) {
+		if (lags.length == 0 || xColumn < 0 || yColumn < 0) {
+			throw new IllegalArgumentException("a lag and non-negative columns are needed");
+		}
+		for (int lag : lags) {
+			if (lag < 1) {
+				throw new IllegalArgumentException("lags must be positive, found " + lag);
+			}
+		}
+		this.lags = lags.clone();
+		this.xScale = xScale;
+		this.yScale = yScale;
+		this.xColumn = xColumn;
+		this.yColumn = yColumn;
+	}
+
+	// Getters and setters
+	public int[] getLags() {
+		return lags.clone();
+	}
+
+	/** Counts the transitions of several trajectories, none across the end of one and the start of the next
+	 * @param filenames The names of the trajectories
+	 * @param threads The number of trajectories read at once
+	 * @return The counts at each lag, in the order of the lags
+	 * @throws java.io.FileNotFoundException
+	 * @throws SurfaceFormatException if a frame is malformed or binned below 0, naming the file in its message
+	 * @throws IOException
+	 * @throws InterruptedException if interrupted while waiting for a thread
+	 */
+	public TransitionCounts[] count(final List<String> filenames, int threads) throws IOException, InterruptedException {
+		PathMetrics metrics = PathMetrics.active();
+		long start = System.nanoTime();
+
+		final int workers = Math.max(1, Math.min(threads, filenames.size()));
+		ExecutorService executor = Executors.newFixedThreadPool(workers);
+		List<Future<TransitionCounts[]>> futures = new ArrayList<Future<TransitionCounts[]>>();
+		for (final String filename : filenames) {
+			futures.add(executor.submit(new Callable<TransitionCounts[]>() {
+				@Override
+				public TransitionCounts[] call() throws IOException {
+					return countFile(filename); // O(frames * lags)
+				}
+			}));
+		}
+		executor.shutdown();
+
+		TransitionCounts[] totals = newCounts();
+		try {
+			// merged in the order given
+			for (Future<TransitionCounts[]> future : futures) {
+				TransitionCounts[] counts = future.get();
+				for (int i = 0; i < lags.length; i++) {
+					totals[i].addAll(counts[i]);
+				}
+			}
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+
+		if (metrics != null) {
+			metrics.endPhase(PathMetrics.Phase.PARSE, start);
+		}
+		return totals;
+	}
+
+	/** Counts the transitions of one trajectory at every lag - O(frames * lags)
+	 * @param filename The name of the trajectory
+	 * @return The counts at each lag
+	 * @throws java.io.FileNotFoundException
+	 * @throws SurfaceFormatException if a frame is malformed or binned below 0, naming the file in its message
+	 * @throws IOException
+	 */
+	public TransitionCounts[] countFile(String filename) throws IOException {
+		TransitionCounts[] counts = newCounts();
+		int depth = 0;
+		for (int lag : lags) {
+			depth = Math.max(depth, lag + 1);
+		}
+		// bins of the last frames, indexed by frame modulo depth
+		int[] xBins = new int[depth];
+		int[] yBins = new int[depth];
+		long frame = 0;
+
+		try (InputStream file = new FileInputStream(filename);
+				BufferedReader reader = new BufferedReader(new InputStreamReader(filename.endsWith(GZIP_SUFFIX)
+						? new GZIPInputStream(file, BUFFER_SIZE) : file, StandardCharsets.ISO_8859_1), BUFFER_SIZE)) {
+			String line;
+			for (int lineNumber = 1; (line = reader.readLine()) != null; lineNumber++) {
+				int first = skipSpace(line, 0);
+				if (first == line.length() || line.charAt(first) == '#' || line.charAt(first) == '@') {
+					continue;
+				}
+				int slot = (int) (frame % depth);
+				xBins[slot] = toBin(line, lineNumber, xColumn, xScale, filename);
+				yBins[slot] = toBin(line, lineNumber, yColumn, yScale, filename);
+				for (int i = 0; i < lags.length; i++) {
+					if (frame >= lags[i]) {
+						int from = (int) ((frame - lags[i]) % depth);
+						counts[i].add(xBins[from], yBins[from], xBins[slot], yBins[slot], 1);
+					}
+				}
+				frame++;
+			}
+		}
+		return counts;
+	}
+
+	/** Creates empty counts for every lag
+	 * @return The counts
+	 */
+	private TransitionCounts[] newCounts() {
+		TransitionCounts[] counts = new TransitionCounts[lags.length];
+		for (int i = 0; i < lags.length; i++) {
+			counts[i] = new TransitionCounts();
+		}
+		return counts;
+	}
+
+	/** Bins the value in one column of a frame
+	 * @param line The line holding the frame
+	 * @param lineNumber The number of the line, for the message
+	 * @param column The column, counting from 0
+	 * @param scale The width of the bins
+	 * @param filename The name of the trajectory, for the message
+	 * @return The bin, 0 or above
+	 * @throws SurfaceFormatException if the value is malformed or binned below 0, naming its column from 1
+	 */
+	private static int toBin(String line, int lineNumber, int column, double scale, String filename)
+			throws SurfaceFormatException {
+		double value;
+		try {
+			value = parseColumn(line, column);
+		} catch (IllegalArgumentException e) {
+			// NumberFormatException included
+			throw new SurfaceFormatException(lineNumber, column + 1, e.getMessage() + " in " + filename);
+		}
+		int bin = StateIndex.toBin(value, scale);
+		if (bin < 0) {
+			throw new SurfaceFormatException(lineNumber, column + 1, "expected a value binned at 0 or above, found "
+					+ value + " in " + filename + "; shift the variable to start at 0");
+		}
+		return bin;
+	}
+
+	/** Parses one whitespace separated column of a line without splitting
+	 * the whole line - O(line length)
+	 * @param line The line
+	 * @param column The column, counting from 0
+	 * @return The value
+	 * @throws NumberFormatException if the value is not numeric
+	 * @throws IllegalArgumentException if the line has too few columns or the value is not finite
+	 */
+	private static double parseColumn(String line, int column) {
+		int start = skipSpace(line, 0);
+		for (int i = 0; i < column && start < line.length(); i++) {
+			start = skipSpace(line, skipValue(line, start));
+		}
+		if (start == line.length()) {
+			throw new IllegalArgumentException("expected at least " + (column + 1) + " values");
+		}
+		double value = Double.parseDouble(line.substring(start, skipValue(line, start)));
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			throw new IllegalArgumentException("expected a finite value, found " + value);
+		}
+		return value;
+	}
+
+	/** Finds the first character at or after a position which is not whitespace
+	 * @param line The line
+	 * @param position The position
+	 * @return The position of the character, or the length of the line
+	 */
+	private static int skipSpace(String line, int position) {
+		while (position < line.length() && Character.isWhitespace(line.charAt(position))) {
+			position++;
+		}
+		return position;
+	}
+
+	/** Finds the first whitespace character at or after a position
+	 * @param line The line
+	 * @param position The position
+	 * @return The position of the character, or the length of the line
+	 */
+	private static int skipValue(String line, int position) {
+		while (position < line.length() && !Character.isWhitespace(line.charAt(position))) {
+			position++;
+		}
+		return position;
+	}
+}
@@ -0,0 +1,181 @@
+package minimumFreeEnergyPath.core;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+
+import minimumFreeEnergyPath.markovModel.MetastableStates;
+import minimumFreeEnergyPath.markovModel.SparseMatrix;
+import minimumFreeEnergyPath.markovModel.StateIndex;
+import minimumFreeEnergyPath.markovModel.StationaryDistribution;
+import minimumFreeEnergyPath.markovModel.TransitionCounts;
+import minimumFreeEnergyPath.markovModel.TransitionPathTheory;
+
+/** The --tpt mode of MinimumFreeEnergyPath, finding the committors,
+ * reactive flux and pathways of a count file by TransitionPathTheory
+ */
+final class TransitionPathMode {
+	
+	/** Command line option to find committors, reactive flux and pathways from transition counts */
+	static final String OPTION = "--tpt";
+	/** Command line option adding a state to the source of the reaction */
+	private static final String SOURCE_OPTION = "--source";
+	/** Command line option adding a state to the sink of the reaction */
+	private static final String SINK_OPTION = "--sink";
+	/** Command line option giving the number of metastable macrostates */
+	private static final String MACROSTATES_OPTION = "--macrostates";
+	/** Command line option giving the number of reactive pathways to find */
+	private static final String PATHWAYS_OPTION = "--pathways";
+	/** Option choosing the number of threads */
+	private static final String THREADS_OPTION = "--threads";
+	/** Number of reactive pathways found by default */
+	private static final int DEFAULT_PATHWAYS = 10;
+	/** Fraction of the total reactive flux below which a pathway is not reported */
+	private static final double MIN_PATHWAY_FRACTION = 1e-6;
+	/** Suffix to be appended to output filename of committors */
+	private static final String COMMITTORS_SUFFIX = "_committors.dat";
+	/** Suffix to be appended to output filename of net reactive flux */
+	private static final String FLUX_SUFFIX = "_flux.dat";
+	/** Suffix to be appended to output filename of reactive pathways */
+	private static final String PATHWAYS_SUFFIX = "_pathways.dat";
+	
+	/** Arguments of the mode for the usage message, after the name of the program */
+	static final String USAGE = OPTION + " <readfile> <datafile> [" + SOURCE_OPTION + " <xcoord> <ycoord>]... ["
+			+ SINK_OPTION + " <xcoord> <ycoord>]... [" + MACROSTATES_OPTION + " <macrostates>] [" + PATHWAYS_OPTION
+			+ " <pathways>] [" + THREADS_OPTION + " <threads>]";
+	
+	/** Utility class not to be instantiated */
+	private TransitionPathMode() {
+	}
+	
+	/** Finds the committors and net reactive flux between a source and a
+	 * sink of the Markov model of a count file, and the pathways carrying
+	 * most of the flux. The source is the start of the job file and the sink
+	 * the most probable state unless states are given
+	 * @param args Command line arguments
+	 * @throws CommandLine.UsageException if the arguments do not match the usage
+	 */
+	static void run(String[] args) throws CommandLine.UsageException {
+		CommandLine line = new CommandLine().option(SOURCE_OPTION, 2).option(SINK_OPTION, 2)
+				.option(MACROSTATES_OPTION, 1).option(PATHWAYS_OPTION, 1).option(THREADS_OPTION, 1).parse(args, 1);
+		List<String> positional = line.getPositional();
+		List<String[]> sourceNames = line.getAll(SOURCE_OPTION);
+		List<double[]> sources = line.getAllNumbers(SOURCE_OPTION);
+		List<String[]> sinkNames = line.getAll(SINK_OPTION);
+		List<double[]> sinks = line.getAllNumbers(SINK_OPTION);
+		int macrostateCount = line.getInt(MACROSTATES_OPTION, 0);
+		int pathwayCount = line.getInt(PATHWAYS_OPTION, DEFAULT_PATHWAYS);
+		int threads = line.getInt(THREADS_OPTION, Runtime.getRuntime().availableProcessors());
+		if (positional.size() != 2 || pathwayCount < 0 || threads < 1 || macrostateCount == 1 || macrostateCount < 0) {
+			throw new CommandLine.UsageException(null);
+		}
+		String fileName = positional.get(0);
+		String dataFile = positional.get(1);
+		
+		String current = fileName;
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			JobFile job = new JobFile(fileName);
+			current = job.getDataPath(dataFile);
+			TransitionCounts counts = FileUtility.readToCounts(current, job.getXScale(), job.getYScale()); // O(lines)
+			StateIndex states = counts.getStates();
+			SparseMatrix matrix = SparseMatrix.fromCounts(counts); // O(nnz + n)
+			
+			PathMetrics metrics = PathMetrics.active();
+			long start = System.nanoTime();
+			StationaryDistribution distribution = new StationaryDistribution(matrix, null,
+					StationaryDistribution.DEFAULT_TOLERANCE, StationaryDistribution.DEFAULT_MAX_ITERATIONS); // O(nnz) per sweep
+			if (metrics != null) {
+				metrics.endPhase(PathMetrics.Phase.STATIONARY_DISTRIBUTION, start);
+			}
+			
+			BitSet source = new BitSet(states.size());
+			BitSet sink = new BitSet(states.size());
+			MetastableStates macrostates = null;
+			if (macrostateCount > 0 && (sources.isEmpty() || sinks.isEmpty())) {
+				// the macrostates of the start and the most probable state in place of the states themselves
+				macrostates = MacrostateMode.findMacrostates(matrix, macrostateCount, pool);
+			}
+			if (sources.isEmpty() && macrostates != null) {
+				int startState = job.findStartState(states);
+				addState(source, startState, "start");
+				source = macrostates.getStates(macrostates.getAssignments()[startState]);
+			} else if (sources.isEmpty()) {
+				addState(source, job.findStartState(states), "start");
+			}
+			for (int i = 0; i < sources.size(); i++) {
+				addState(source, states.get(StateIndex.toBin(sources.get(i)[0], job.getXScale()),
+						StateIndex.toBin(sources.get(i)[1], job.getYScale())), Modes.formatPosition(sourceNames.get(i)));
+			}
+			if (sinks.isEmpty()) {
+				double[] q = distribution.getProbabilities();
+				int max = 0;
+				for (int state = 1; state < q.length; state++) {
+					if (q[state] > q[max]) {
+						max = state;
+					}
+				}
+				addState(sink, max, "most probable state");
+				if (macrostates != null) {
+					sink = macrostates.getStates(macrostates.getAssignments()[max]);
+				}
+			}
+			for (int i = 0; i < sinks.size(); i++) {
+				addState(sink, states.get(StateIndex.toBin(sinks.get(i)[0], job.getXScale()),
+						StateIndex.toBin(sinks.get(i)[1], job.getYScale())), Modes.formatPosition(sinkNames.get(i)));
+			}
+			if (source.intersects(sink)) {
+				Modes.fail(macrostates == null ? "Source and sink must not share a state."
+						: "Source and sink lie in the same macrostate; try more macrostates.");
+			}
+			boolean leaves = false;
+			for (int state = source.nextSetBit(0); state >= 0; state = source.nextSetBit(state + 1)) {
+				leaves |= matrix.getRowEnd(state) > matrix.getRowStart(state);
+			}
+			if (!leaves) {
+				System.out.println("Note: no transitions leave the source, so its reactive flux is 0");
+			}
+			
+			start = System.nanoTime();
+			TransitionPathTheory tpt = new TransitionPathTheory(matrix, distribution, source, sink, pool); // O(nnz) per iteration
+			List<TransitionPathTheory.Pathway> pathways = tpt.getPathways(pathwayCount, MIN_PATHWAY_FRACTION); // O(nnz) each
+			if (metrics != null) {
+				metrics.endPhase(PathMetrics.Phase.SEARCH, start);
+			}
+			if (!tpt.isConverged()) {
+				System.out.println("Note: committors did not converge in " + tpt.getIterations() + " iterations");
+			}
+			FileUtility.writeFromCommittors(current + COMMITTORS_SUFFIX, states, tpt, distribution.getProbabilities(),
+					job.getXScale(), job.getYScale()); // O(n log n)
+			FileUtility.writeFromFlux(current + FLUX_SUFFIX, states, tpt.getNetFlux(), job.getXScale(),
+					job.getYScale()); // O(nnz)
+			FileUtility.writeFromPathways(current + PATHWAYS_SUFFIX, states, pathways, job.getXScale(),
+					job.getYScale()); // O(total length)
+			
+			double explained = 0;
+			for (TransitionPathTheory.Pathway pathway : pathways) {
+				explained += pathway.getFlux();
+			}
+			System.out.println(String.format(Locale.ROOT, "Reactive flux %g, rate %g per step, %d pathways carrying %.1f%%",
+					tpt.getFlux(), tpt.getRate(), pathways.size(), tpt.getFlux() > 0 ? 100 * explained / tpt.getFlux() : 0));
+		} catch (IOException e) {
+			Modes.fail("File " + current, e);
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	/** Adds a state to the source or sink, stopping if it has no counts
+	 * @param set The source or sink
+	 * @param state The state, -1 if its bin was not seen
+	 * @param name How the state was given, for the message
+	 */
+	private static void addState(BitSet set, int state, String name) {
+		if (state < 0) {
+			Modes.fail("No transitions leave or enter " + name + ".");
+		}
+		set.set(state);
+	}
+}
@@ -0,0 +1,39 @@
+package minimumFreeEnergyPath.gridSurface;
+
+/** EnergyStore held in a flat array on the heap, 8 bytes per cell
+ */
+public class ArrayEnergyStore implements EnergyStore {
+
+	/** The value of each cell */
+	private final double[] values;
+
+	/** Constructor creates a new ArrayEnergyStore object
+	 * @param values The value of each cell, not copied
+	 */
+	public ArrayEnergyStore(double[] values) {
+		this.values = values;
+	}
+
+	@Override
+	public int size() {
+		return values.length;
+	}
+
+	@Override
+	public double get(int cell) {
+		return values[cell];
+	}
+
+	@Override
+	public long getBytes() {
+		return 8L * values.length;
+	}
+
+	/** Exposes the array to GridSurface, which reads it directly rather than
+	 * through the interface in the inner loops of the searches
+	 * @return The value of each cell, not copied
+	 */
+	double[] getValues() {
+		return values;
+	}
+}
@@ -0,0 +1,24 @@
+package minimumFreeEnergyPath.gridSurface;
+
+/** Storage for one value per cell of a GridSurface, infinite where a cell
+ * is inaccessible
+ */
+public interface EnergyStore {
+
+	/** Number of cells held
+	 * @return The number of cells
+	 */
+	int size();
+
+	/** Retrieves the value of a cell
+	 * @param cell The index of the cell
+	 * @return The value held for the cell
+	 */
+	double get(int cell);
+
+	/** Estimates the memory the store holds on the heap, for caches bounded
+	 * by size
+	 * @return The approximate number of bytes
+	 */
+	long getBytes();
+}
@@ -0,0 +1,306 @@
+package minimumFreeEnergyPath.gridSurface;
+
+import java.util.Arrays;
+
+/** The cycles found by the Most Probable Folding Path algorithm on a GridSurface
+ * Counterpart of WeightedVertexCycle for grid cells. Edges are implicit and are
+ * passed around as a packed long of source and target cell
+ *
+ * Cycles are kept as a disjoint-set forest (union by rank, path compression)
+ * and the root of each cycle owns a leftist heap of the edges leaving its
+ * cells. Edges which become internal when cycles merge are discarded lazily
+ * as they reach the top of the heap, so finding the lowest edge out of a
+ * cycle, merging two cycles and checking membership are all O(log n) amortised
+ *
+ * Per-cell state is paged, so memory grows with the cells reached by a
+ * search rather than with the size of the surface
+ */
+public class GridCycles {
+
+	/** Value returned when no edge exists */
+	public static final long NO_EDGE = -1L;
+
+	/** The surface in which the cycles lie */
+	private final GridSurface surface;
+	/** Parent of each cell in the forest plus one, 0 for a root */
+	private final PagedIntArray parent;
+	/** Upper bound on the height of each root's tree, 0 for a cell in no cycle */
+	private final PagedIntArray rank;
+	/** Top node of each root's heap plus one, 0 for an empty heap */
+	private final PagedIntArray heapOf;
+	/** Number of cells in each root's cycle, 0 for a cell in no cycle */
+	private final PagedIntArray cycleSize;
+	/** Scratch space for neighbour lookups */
+	private final int[] neighbours;
+	/** Cells whose entries have been changed since construction or clear */
+	private final IntList touched;
+
+	// Leftist heap of edges, one node per edge leaving a cell in a cycle
+	/** Weight of each edge */
+	private double[] nodeWeight;
+	/** Source cell of each edge */
+	private int[] nodeSource;
+	/** Target cell of each edge */
+	private int[] nodeTarget;
+	/** Left child of each node, or -1 */
+	private int[] nodeLeft;
+	/** Right child of each node, or -1 */
+	private int[] nodeRight;
+	/** Length of the right spine of each node */
+	private int[] nodeDistance;
+	/** Number of heap nodes created */
+	private int nodeCount;
+
+	/** Constructor creates a new GridCycles object in which no cell belongs to a cycle
+	 * @param surface The surface in which the cycles lie
+	 */
+	public GridCycles(GridSurface surface) {
+		this.surface = surface;
+		parent = new PagedIntArray(surface.size());
+		rank = new PagedIntArray(surface.size());
+		heapOf = new PagedIntArray(surface.size());
+		cycleSize = new PagedIntArray(surface.size());
+		neighbours = new int[surface.getMaxNeighbours()];
+		touched = new IntList();
+		allocateNodes(64);
+	}
+
+	/** Returns every cell to belonging to no cycle, so the object can be
+	 * reused for another search - O(number of cells merged)
+	 */
+	public void clear() {
+		for (int i = 0; i < touched.size(); i++) {
+			int cell = touched.get(i);
+			parent.set(cell, 0);
+			rank.set(cell, 0);
+			heapOf.set(cell, 0);
+			cycleSize.set(cell, 0);
+		}
+		touched.clear();
+		nodeCount = 0;
+	}
+
+	/** Packs an edge between two cells into a long
+	 * @param source The cell the edge leaves
+	 * @param target The cell the edge enters
+	 * @return The packed edge
+	 */
+	public static long edge(int source, int target) {
+		return ((long) source << 32) | (target & 0xFFFFFFFFL);
+	}
+
+	public static int getEdgeSource(long edge) {
+		return (int) (edge >>> 32);
+	}
+
+	public static int getEdgeTarget(long edge) {
+		return (int) edge;
+	}
+
+	/** Check if two cells belong to the same cycle - O(log n) amortised
+	 * @param c1 The first cell to be checked
+	 * @param c2 The second cell to be checked
+	 * @return True if both cells are in one cycle, false otherwise
+	 */
+	public boolean inSameCycle(int c1, int c2) {
+		return find(c1) == find(c2);
+	}
+
+	/** Check if a cell belongs to a cycle - O(log n) amortised
+	 * @param cell The cell to be checked
+	 * @return True if the cell has been merged into a cycle, false otherwise
+	 */
+	public boolean inCycle(int cell) {
+		return rank.get(find(cell)) != 0;
+	}
+
+	/** Counts the cells in a cell's cycle - O(log n) amortised
+	 * @param cell Any one of the cells contained in the cycle
+	 * @return The number of cells in the cycle, 1 if the cell is in no cycle
+	 */
+	public int getCycleSize(int cell) {
+		int root = find(cell);
+		return rank.get(root) == 0 ? 1 : cycleSize.get(root);
+	}
+
+	/** Finds the lowest (or most negative) weighted edge outgoing from a cell's
+	 * cycle, or from the cell alone if it belongs to no cycle - O(log n) amortised
+	 * Edge weight is the energy of the target less the energy of the source
+	 * @param cell Any one of the cells contained in the cycle
+	 * @return The lowest weighted edge, or NO_EDGE if there isn't one
+	 */
+	public long getMinEdgeInCycle(int cell) {
+		int root = find(cell);
+		if (rank.get(root) == 0) {
+			return minEdgeOfCell(root);
+		}
+
+		// discard edges which have become internal since they were added
+		int top = heapOf.get(root) - 1;
+		while (top >= 0 && find(nodeTarget[top]) == root) {
+			top = meld(nodeLeft[top], nodeRight[top]);
+		}
+		heapOf.set(root, top + 1);
+		return top < 0 ? NO_EDGE : edge(nodeSource[top], nodeTarget[top]);
+	}
+
+	/** Finds the lowest weighted edge leaving a cell in no cycle - O(k) for k neighbours per cell
+	 * @param source The cell to be searched
+	 * @return The lowest edge leaving source, or NO_EDGE if there isn't one
+	 */
+	private long minEdgeOfCell(int source) {
+		long minEdge = NO_EDGE;
+		double minWeight = Double.POSITIVE_INFINITY;
+		double sourceEnergy = surface.getEnergy(source);
+		int count = surface.getNeighbours(source, neighbours);
+		for (int i = 0; i < count; i++) {
+			double w = surface.getEnergy(neighbours[i]) - sourceEnergy;
+			if (w < minWeight) {
+				minEdge = edge(source, neighbours[i]);
+				minWeight = w;
+			}
+		}
+		return minEdge;
+	}
+
+	/** Merge the cycles of two cells, creating one if neither belongs to a cycle
+	 * O(log n) amortised plus O(k) for each cell joining a cycle for the first time
+	 * @param c1 The first cell
+	 * @param c2 The second cell
+	 */
+	public void merge(int c1, int c2) {
+		int r1 = find(c1);
+		int r2 = find(c2);
+		if (r1 == r2) {
+			return;
+		}
+		int h1 = heapOf(r1);
+		int h2 = heapOf(r2);
+		int size = getCycleSize(r1) + getCycleSize(r2);
+
+		// union by rank, a cell in no cycle has rank 0
+		int rank1 = rank.get(r1);
+		int rank2 = rank.get(r2);
+		if (rank1 < rank2) {
+			int swap = r1;
+			r1 = r2;
+			r2 = swap;
+		} else if (rank1 == rank2) {
+			rank.set(r1, rank1 + 1);
+		}
+		parent.set(r2, r1 + 1);
+		heapOf.set(r2, 0);
+		touched.add(r1);
+		touched.add(r2);
+		heapOf.set(r1, meld(h1, h2) + 1);
+		cycleSize.set(r1, size);
+		cycleSize.set(r2, 0);
+	}
+
+	/** Finds the heap belonging to a root, creating one from the edges of
+	 * the cell if it does not yet belong to a cycle
+	 * @param root The root of the cycle
+	 * @return The top node of the heap, or -1 if it is empty
+	 */
+	private int heapOf(int root) {
+		if (rank.get(root) != 0) {
+			return heapOf.get(root) - 1;
+		}
+		int heap = -1;
+		double sourceEnergy = surface.getEnergy(root);
+		int count = surface.getNeighbours(root, neighbours);
+		for (int i = 0; i < count; i++) {
+			int target = neighbours[i];
+			heap = meld(heap, newNode(surface.getEnergy(target) - sourceEnergy, root, target));
+		}
+		return heap;
+	}
+
+	/** Finds the root of the cycle containing a cell, compressing the path to it
+	 * @param cell The cell to be found
+	 * @return The root cell of its cycle, or the cell itself if it is in no cycle
+	 */
+	private int find(int cell) {
+		int root = cell;
+		int next;
+		while ((next = parent.get(root)) != 0) {
+			root = next - 1;
+		}
+		while ((next = parent.get(cell)) != 0) {
+			parent.set(cell, root + 1);
+			cell = next - 1;
+		}
+		return root;
+	}
+
+	/** Merges two leftist heaps - O(log n)
+	 * Ties are broken by the order in which edges were added
+	 * @param a Top node of the first heap, or -1
+	 * @param b Top node of the second heap, or -1
+	 * @return Top node of the merged heap
+	 */
+	private int meld(int a, int b) {
+		if (a < 0) {
+			return b;
+		}
+		if (b < 0) {
+			return a;
+		}
+		if (nodeWeight[b] < nodeWeight[a] || (nodeWeight[b] == nodeWeight[a] && b < a)) {
+			int swap = a;
+			a = b;
+			b = swap;
+		}
+		nodeRight[a] = meld(nodeRight[a], b);
+		int l = nodeLeft[a];
+		int r = nodeRight[a];
+		if (l < 0 || nodeDistance[l] < nodeDistance[r]) {
+			// keep the shorter spine on the right
+			nodeLeft[a] = r;
+			nodeRight[a] = l;
+		}
+		nodeDistance[a] = nodeRight[a] < 0 ? 1 : nodeDistance[nodeRight[a]] + 1;
+		return a;
+	}
+
+	/** Creates a single node heap
+	 * @param weight The weight of the edge
+	 * @param source The cell the edge leaves
+	 * @param target The cell the edge enters
+	 * @return The new node
+	 */
+	private int newNode(double weight, int source, int target) {
+		if (nodeCount == nodeWeight.length) {
+			allocateNodes(nodeCount * 2);
+		}
+		int node = nodeCount++;
+		nodeWeight[node] = weight;
+		nodeSource[node] = source;
+		nodeTarget[node] = target;
+		nodeLeft[node] = -1;
+		nodeRight[node] = -1;
+		nodeDistance[node] = 1;
+		return node;
+	}
+
+	/** Grows the heap node arrays
+	 * @param capacity The number of nodes to allocate space for
+	 */
+	private void allocateNodes(int capacity) {
+		if (nodeWeight == null) {
+			nodeWeight = new double[capacity];
+			nodeSource = new int[capacity];
+			nodeTarget = new int[capacity];
+			nodeLeft = new int[capacity];
+			nodeRight = new int[capacity];
+			nodeDistance = new int[capacity];
+		} else {
+			nodeWeight = Arrays.copyOf(nodeWeight, capacity);
+			nodeSource = Arrays.copyOf(nodeSource, capacity);
+			nodeTarget = Arrays.copyOf(nodeTarget, capacity);
+			nodeLeft = Arrays.copyOf(nodeLeft, capacity);
+			nodeRight = Arrays.copyOf(nodeRight, capacity);
+			nodeDistance = Arrays.copyOf(nodeDistance, capacity);
+		}
+	}
+}
@@ -0,0 +1,748 @@
+package minimumFreeEnergyPath.gridSurface;
+
+import java.util.Arrays;
+
+/** A free energy surface stored as a flat grid of energies over any number
+ * of collective variables
+ * Cells are indexed in row-major order with the first axis varying fastest
+ * (the order in which R writes a 2D table), and adjacency is implicit, so no
+ * vertex or edge objects are created. Memory use is 8 bytes per cell plus the
+ * axis values when held in an array, or none when the energies are memory
+ * mapped from a binary surface file
+ */
+public class GridSurface {
+
+	/** Which cells count as adjacent */
+	public enum Neighbourhood {
+		/** Cells differing by one step along a single axis, 2d neighbours */
+		AXIS,
+		/** Cells differing by at most one step along every axis, 3^d-1 neighbours */
+		FULL
+	}
+
+	/** Maximum number of neighbours of any cell of a 2D surface, diagonal adjacency allowed */
+	public static final int MAX_NEIGHBOURS = 8;
+	/** Largest number of axes supported */
+	public static final int MAX_DIMENSIONS = 16;
+	/** Largest number of axes of a FULL neighbourhood, 3^8-1 = 6560 steps from each cell */
+	public static final int MAX_FULL_DIMENSIONS = 8;
+	/** Number of cells from which sortByEnergy uses radix sort */
+	private static final int RADIX_SORT_THRESHOLD = 1 << 12;
+	/** Bits of the key sorted on in each pass of radix sort */
+	private static final int RADIX_BITS = 11;
+	/** Mask giving one digit of a radix sort key */
+	private static final int RADIX_MASK = (1 << RADIX_BITS) - 1;
+
+	/** x offsets of neighbouring cells in 2D, cardinal directions first */
+	private static final int[] X_DIRECTIONS = {-1, 1, 0, 0, -1, 1, -1, 1};
+	/** y offsets of neighbouring cells in 2D, cardinal directions first */
+	private static final int[] Y_DIRECTIONS = {0, 0, 1, -1, -1, 1, 1, -1};
+
+	/** Values along each axis; for a 2D surface, column then row names */
+	private final double[][] axes;
+	/** Number of cells between neighbours along each axis */
+	private final int[] strides;
+	/** Free energy of each cell, infinite where inaccessible */
+	private final EnergyStore energies;
+	/** The array of energies if held in an ArrayEnergyStore, else null, read
+	 * directly so the searches do not call through an interface with several
+	 * implementations for every cell */
+	private final double[] denseEnergies;
+	/** Error in the free energy of each cell, or null if unknown */
+	private final EnergyStore errors;
+	/** Which cells count as adjacent */
+	private final Neighbourhood neighbourhood;
+	/** Difference in cell index of each neighbour */
+	private final int[] neighbourOffsets;
+	/** Edges of the grid beyond which each neighbour lies, as in edgeMask */
+	private final int[] neighbourEdges;
+	/** Length in cells of the step to each neighbour, the square root of the number of axes moved along */
+	private final double[] neighbourLengths;
+
+	/** Constructor creates a new GridSurface object
+	 * @param xHeader The names of columns
+	 * @param yHeader The names of rows
+	 * @param energies The free energy of each cell in row-major order
+	 */
+	public GridSurface(double[] xHeader, double[] yHeader, double[] energies) {
+		this(xHeader, yHeader, new ArrayEnergyStore(energies), null);
+	}
+
+	/** Constructor creates a new GridSurface object
+	 * @param xHeader The names of columns
+	 * @param yHeader The names of rows
+	 * @param energies The free energy of each cell in row-major order
+	 * @param errors The error in the free energy of each cell, or null if unknown
+	 */
+	public GridSurface(double[] xHeader, double[] yHeader, EnergyStore energies, EnergyStore errors) {
+		this(new double[][] {xHeader, yHeader}, energies, errors, Neighbourhood.FULL);
+	}
+
+	/** Constructor creates a new GridSurface object of any number of dimensions
+	 * @param axes The values along each axis, the first varying fastest
+	 * @param energies The free energy of each cell in row-major order
+	 * @param errors The error in the free energy of each cell, or null if unknown
+	 * @param neighbourhood Which cells count as adjacent, FULL only up to MAX_FULL_DIMENSIONS axes
+	 */
+	public GridSurface(double[][] axes, EnergyStore energies, EnergyStore errors, Neighbourhood neighbourhood) {
+		if (axes.length < 1 || axes.length > MAX_DIMENSIONS) {
+			throw new IllegalArgumentException(
+					"surface must have between 1 and " + MAX_DIMENSIONS + " axes");
+		}
+		if (neighbourhood == Neighbourhood.FULL && axes.length > MAX_FULL_DIMENSIONS) {
+			throw new IllegalArgumentException("surface of " + axes.length
+					+ " axes must have an AXIS neighbourhood, FULL allows at most " + MAX_FULL_DIMENSIONS);
+		}
+		strides = new int[axes.length];
+		long cells = 1;
+		for (int axis = 0; axis < axes.length; axis++) {
+			strides[axis] = (int) cells;
+			cells *= axes[axis].length;
+			if (cells > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException(
+						"surface must contain fewer than 2^31 cells");
+			}
+		}
+		if (energies.size() != cells) {
+			throw new IllegalArgumentException(
+					"surface must contain exactly one energy per cell");
+		}
+		if (errors != null && errors.size() != energies.size()) {
+			throw new IllegalArgumentException(
+					"surface must contain exactly one error per cell");
+		}
+		this.axes = axes;
+		this.energies = energies;
+		this.denseEnergies = energies instanceof ArrayEnergyStore ? ((ArrayEnergyStore) energies).getValues() : null;
+		this.errors = errors;
+		this.neighbourhood = neighbourhood;
+
+		// enumerate neighbours as steps of -1, 0 or 1 along each axis
+		int[][] steps = neighbourSteps(axes.length, neighbourhood);
+		neighbourOffsets = new int[steps.length];
+		neighbourEdges = new int[steps.length];
+		neighbourLengths = new double[steps.length];
+		for (int i = 0; i < steps.length; i++) {
+			int moved = 0;
+			for (int axis = 0; axis < axes.length; axis++) {
+				neighbourOffsets[i] += steps[i][axis] * strides[axis];
+				if (steps[i][axis] < 0) {
+					neighbourEdges[i] |= 1 << (2 * axis);
+				} else if (steps[i][axis] > 0) {
+					neighbourEdges[i] |= 1 << (2 * axis + 1);
+				}
+				moved += steps[i][axis] != 0 ? 1 : 0;
+			}
+			neighbourLengths[i] = Math.sqrt(moved);
+		}
+	}
+
+	/** Constructor creates a new GridSurface object sharing the axes and
+	 * energies of another, with the given errors
+	 * @param surface The surface to be shared
+	 * @param errors The error in the free energy of each cell, or null if unknown
+	 */
+	public GridSurface(GridSurface surface, EnergyStore errors) {
+		this(surface.axes, surface.energies, errors, surface.neighbourhood);
+	}
+
+	/** Finds the widest neighbourhood a surface of a number of axes may have
+	 * @param dimensions The number of axes
+	 * @return FULL up to MAX_FULL_DIMENSIONS axes, AXIS above
+	 */
+	public static Neighbourhood widestNeighbourhood(int dimensions) {
+		return dimensions <= MAX_FULL_DIMENSIONS ? Neighbourhood.FULL : Neighbourhood.AXIS;
+	}
+
+	/** Creates a surface sharing the axes, energies and errors of this one
+	 * but with a different neighbourhood - O(3^d)
+	 * @param neighbourhood Which cells count as adjacent
+	 * @return The new surface
+	 */
+	public GridSurface withNeighbourhood(Neighbourhood neighbourhood) {
+		if (neighbourhood == this.neighbourhood) {
+			return this;
+		}
+		return new GridSurface(axes, energies, errors, neighbourhood);
+	}
+
+	/** Creates a surface sharing the axes, errors and neighbourhood of this
+	 * one but with other energies, as a buffer to be refilled - O(3^d)
+	 * @param energies The free energy of each cell, one per cell of this surface
+	 * @return The new surface
+	 */
+	public GridSurface withEnergies(EnergyStore energies) {
+		return new GridSurface(axes, energies, errors, neighbourhood);
+	}
+
+	/** Creates a surface of half the resolution along every axis, each cell
+	 * taking the lowest energy of the block of up to 2^d cells it covers and
+	 * the coordinates of the first of them, so that a coarse cell is
+	 * accessible if any cell of its block is - O(n d)
+	 * @return The coarse surface, without errors
+	 */
+	public GridSurface coarsen() {
+		double[][] coarseAxes = new double[axes.length][];
+		int[] coarseStrides = new int[axes.length];
+		int coarseSize = 1;
+		for (int axis = 0; axis < axes.length; axis++) {
+			coarseAxes[axis] = new double[(axes[axis].length + 1) / 2];
+			for (int i = 0; i < coarseAxes[axis].length; i++) {
+				coarseAxes[axis][i] = axes[axis][2 * i];
+			}
+			coarseStrides[axis] = coarseSize;
+			coarseSize *= coarseAxes[axis].length;
+		}
+		double[] pooled = new double[coarseSize];
+		Arrays.fill(pooled, Double.POSITIVE_INFINITY);
+
+		// walk the indices of each cell in order rather than dividing
+		int[] indices = new int[axes.length];
+		int coarseCell = 0;
+		for (int cell = 0; cell < energies.size(); cell++) {
+			pooled[coarseCell] = Math.min(pooled[coarseCell], getEnergy(cell));
+			for (int axis = 0; axis < axes.length; axis++) {
+				if (++indices[axis] < axes[axis].length) {
+					if ((indices[axis] & 1) == 0) {
+						coarseCell += coarseStrides[axis];
+					}
+					break;
+				}
+				indices[axis] = 0;
+				coarseCell -= ((axes[axis].length - 1) / 2) * coarseStrides[axis];
+			}
+		}
+		return new GridSurface(coarseAxes, new ArrayEnergyStore(pooled), null, neighbourhood);
+	}
+
+	// Getters and setters
+	public int getDimensions() {
+		return axes.length;
+	}
+
+	public int getShape(int axis) {
+		return axes[axis].length;
+	}
+
+	public int getWidth() {
+		return axes[0].length;
+	}
+
+	public int getHeight() {
+		return axes.length > 1 ? axes[1].length : 1;
+	}
+
+	public int size() {
+		return energies.size();
+	}
+
+	public Neighbourhood getNeighbourhood() {
+		return neighbourhood;
+	}
+
+	/** Finds the largest number of neighbours any cell can have
+	 * @return The length of array needed by getNeighbours
+	 */
+	public int getMaxNeighbours() {
+		return neighbourOffsets.length;
+	}
+
+	/** Estimates the memory held by the energies and errors of the surface,
+	 * as their stores count it
+	 * @return The approximate number of bytes
+	 */
+	public long getBytes() {
+		return energies.getBytes() + (errors != null ? errors.getBytes() : 0);
+	}
+
+	public EnergyStore getEnergies() {
+		return energies;
+	}
+
+	public EnergyStore getErrors() {
+		return errors;
+	}
+
+	public boolean hasErrors() {
+		return errors != null;
+	}
+
+	public double getError(int cell) {
+		return errors.get(cell);
+	}
+
+	/** Checks if another surface has the same number of cells along each axis - O(d)
+	 * @param surface The surface to be compared
+	 * @return True if the surfaces have the same shape
+	 */
+	public boolean hasSameShape(GridSurface surface) {
+		if (surface.axes.length != axes.length) {
+			return false;
+		}
+		for (int axis = 0; axis < axes.length; axis++) {
+			if (surface.axes[axis].length != axes[axis].length) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public double getAxisValue(int axis, int index) {
+		return axes[axis][index];
+	}
+
+	/** Finds the index of a cell along one axis - O(1)
+	 * @param cell The cell
+	 * @param axis The axis
+	 * @return The index of the cell's coordinate in that axis
+	 */
+	public int getIndex(int cell, int axis) {
+		return (cell / strides[axis]) % axes[axis].length;
+	}
+
+	public double getCoordinate(int cell, int axis) {
+		return axes[axis][getIndex(cell, axis)];
+	}
+
+	public double getX(int cell) {
+		return getCoordinate(cell, 0);
+	}
+
+	public double getY(int cell) {
+		return getCoordinate(cell, 1);
+	}
+
+	public double getEnergy(int cell) {
+		return denseEnergies != null ? denseEnergies[cell] : energies.get(cell);
+	}
+
+	/** Checks if a cell is accessible, ie. has finite free energy
+	 * @param cell The cell to be checked
+	 * @return True if the cell can be visited, false otherwise
+	 */
+	public boolean isAccessible(int cell) {
+		return getEnergy(cell) != Double.POSITIVE_INFINITY;
+	}
+
+	/** Finds the cell at given column and row indices, a 1D surface
+	 * having a single row as getHeight does - O(1)
+	 * @param xIndex The column index
+	 * @param yIndex The row index
+	 * @return The index of the cell
+	 * @throws IllegalStateException if the surface has more than two axes
+	 */
+	public int getCell(int xIndex, int yIndex) {
+		if (axes.length > 2) {
+			throw new IllegalStateException("surface has " + axes.length + " axes, expected at most 2");
+		}
+		return yIndex * axes[0].length + xIndex;
+	}
+
+	/** Finds the cell at given indices along each axis - O(d)
+	 * @param indices The index along each axis
+	 * @return The index of the cell
+	 */
+	public int getCell(int[] indices) {
+		int cell = 0;
+		for (int axis = 0; axis < axes.length; axis++) {
+			cell += indices[axis] * strides[axis];
+		}
+		return cell;
+	}
+
+	/** Finds the cell at given coordinates - O(sqrt(n))
+	 * @param x The x coordinate to be retrieved
+	 * @param y The y coordinate to be retrieved
+	 * @return The index of the cell at (x,y), or -1 if there isn't an accessible one
+	 */
+	public int getCellAt(double x, double y) {
+		return getCellAt(new double[] {x, y});
+	}
+
+	/** Finds the cell at given coordinates along every axis - O(sum of axis lengths)
+	 * @param coordinates The coordinate along each axis
+	 * @return The index of the cell, or -1 if there isn't an accessible one
+	 */
+	public int getCellAt(double[] coordinates) {
+		if (coordinates.length != axes.length) {
+			return -1;
+		}
+		int cell = 0;
+		for (int axis = 0; axis < axes.length; axis++) {
+			int index = indexOf(axes[axis], coordinates[axis]);
+			if (index < 0) {
+				return -1;
+			}
+			cell += index * strides[axis];
+		}
+		return isAccessible(cell) ? cell : -1;
+	}
+
+	/** Finds the accessible cell of lowest free energy - O(n), or O(1) if
+	 * stored with tiled energies
+	 * @return The index of the first cell of minimum energy, or -1 if no cell is accessible
+	 */
+	public int getMinimumCell() {
+		if (energies instanceof TiledEnergyStore && ((TiledEnergyStore) energies).getMinimumCell() >= 0) {
+			// scanning would load every tile
+			return ((TiledEnergyStore) energies).getMinimumCell();
+		}
+		int minCell = -1;
+		double minEnergy = Double.POSITIVE_INFINITY;
+		for (int cell = 0; cell < energies.size(); cell++) {
+			double energy = getEnergy(cell);
+			if (energy < minEnergy) {
+				minEnergy = energy;
+				minCell = cell;
+			}
+		}
+		return minCell;
+	}
+
+	/** Sorts cells in place by ascending energy, ties broken by cell index - O(n log n)
+	 * Energies are read once into an array sorted alongside the cells, so the
+	 * store is not consulted on every comparison. Long arrays are radix sorted
+	 * @param cells The cells to be sorted
+	 */
+	public void sortByEnergy(int[] cells) {
+		if (cells.length >= RADIX_SORT_THRESHOLD) {
+			radixSortByEnergy(cells);
+			return;
+		}
+		double[] keys = new double[cells.length];
+		for (int i = 0; i < cells.length; i++) {
+			keys[i] = getEnergy(cells[i]);
+		}
+		sortByEnergy(keys, cells, 0, cells.length - 1);
+	}
+
+	/** Least significant digit radix sort of cells by energy - O(n)
+	 * Each energy is mapped to a long which orders as the energy does, and
+	 * digits on which every key agrees are skipped. Runs of equal energy are
+	 * then sorted by cell index
+	 * @param cells The cells to be sorted
+	 */
+	private void radixSortByEnergy(int[] cells) {
+		int n = cells.length;
+		long[] keys = new long[n];
+		for (int i = 0; i < n; i++) {
+			// adding 0.0 turns -0.0 into 0.0, which must compare equal
+			long bits = Double.doubleToRawLongBits(getEnergy(cells[i]) + 0.0);
+			keys[i] = bits ^ ((bits >> 63) | Long.MIN_VALUE);
+		}
+
+		long[] keyBuffer = new long[n];
+		int[] sorted = cells;
+		int[] cellBuffer = new int[n];
+		int[] counts = new int[1 << RADIX_BITS];
+		for (int shift = 0; shift < 64; shift += RADIX_BITS) {
+			Arrays.fill(counts, 0);
+			for (int i = 0; i < n; i++) {
+				counts[(int) (keys[i] >>> shift) & RADIX_MASK]++;
+			}
+			if (counts[(int) (keys[0] >>> shift) & RADIX_MASK] == n) {
+				// every key has the same digit here
+				continue;
+			}
+			int total = 0;
+			for (int d = 0; d < counts.length; d++) {
+				int count = counts[d];
+				counts[d] = total;
+				total += count;
+			}
+			for (int i = 0; i < n; i++) {
+				int position = counts[(int) (keys[i] >>> shift) & RADIX_MASK]++;
+				keyBuffer[position] = keys[i];
+				cellBuffer[position] = sorted[i];
+			}
+			long[] swapKeys = keys;
+			keys = keyBuffer;
+			keyBuffer = swapKeys;
+			int[] swapCells = sorted;
+			sorted = cellBuffer;
+			cellBuffer = swapCells;
+		}
+		if (sorted != cells) {
+			System.arraycopy(sorted, 0, cells, 0, n);
+		}
+
+		for (int i = 0, j; i < n; i = j) {
+			for (j = i + 1; j < n && keys[j] == keys[i]; j++) {
+				// find the end of the run
+			}
+			if (j - i > 1) {
+				Arrays.sort(cells, i, j);
+			}
+		}
+	}
+
+	/** Quicksort of a range of cells by energy, recursing on the smaller half
+	 * @param keys The energy of each cell, sorted alongside them
+	 * @param cells The cells to be sorted
+	 * @param lo The first index of the range
+	 * @param hi The last index of the range
+	 */
+	private static void sortByEnergy(double[] keys, int[] cells, int lo, int hi) {
+		while (hi - lo > 16) {
+			// median of three pivot
+			int mid = (lo + hi) >>> 1;
+			if (lessThan(keys, cells, mid, lo)) {
+				swap(keys, cells, mid, lo);
+			}
+			if (lessThan(keys, cells, hi, lo)) {
+				swap(keys, cells, hi, lo);
+			}
+			if (lessThan(keys, cells, hi, mid)) {
+				swap(keys, cells, hi, mid);
+			}
+			double pivotKey = keys[mid];
+			int pivot = cells[mid];
+			int i = lo;
+			int j = hi;
+			while (i <= j) {
+				while (keys[i] < pivotKey || (keys[i] == pivotKey && cells[i] < pivot)) {
+					i++;
+				}
+				while (pivotKey < keys[j] || (pivotKey == keys[j] && pivot < cells[j])) {
+					j--;
+				}
+				if (i <= j) {
+					swap(keys, cells, i++, j--);
+				}
+			}
+			if (j - lo < hi - i) {
+				sortByEnergy(keys, cells, lo, j);
+				lo = i;
+			} else {
+				sortByEnergy(keys, cells, i, hi);
+				hi = j;
+			}
+		}
+		// insertion sort for short ranges
+		for (int i = lo + 1; i <= hi; i++) {
+			double key = keys[i];
+			int cell = cells[i];
+			int j = i - 1;
+			while (j >= lo && (key < keys[j] || (key == keys[j] && cell < cells[j]))) {
+				keys[j + 1] = keys[j];
+				cells[j + 1] = cells[j];
+				j--;
+			}
+			keys[j + 1] = key;
+			cells[j + 1] = cell;
+		}
+	}
+
+	/** Compares two entries by energy, then by cell index
+	 * @param keys The energy of each cell
+	 * @param cells The cells
+	 * @param i The first entry
+	 * @param j The second entry
+	 * @return True if entry i comes before entry j
+	 */
+	private static boolean lessThan(double[] keys, int[] cells, int i, int j) {
+		return keys[i] < keys[j] || (keys[i] == keys[j] && cells[i] < cells[j]);
+	}
+
+	private static void swap(double[] keys, int[] cells, int i, int j) {
+		double key = keys[i];
+		keys[i] = keys[j];
+		keys[j] = key;
+		int cell = cells[i];
+		cells[i] = cells[j];
+		cells[j] = cell;
+	}
+
+	/** Retrieves the accessible cells adjacent to a given cell - O(d + neighbours)
+	 * Diagonally adjacent cells accepted in a FULL neighbourhood
+	 * @param cell The central cell
+	 * @param neighbours Array of length at least getMaxNeighbours() to be filled
+	 * @return The number of neighbours written to the array
+	 */
+	public int getNeighbours(int cell, int[] neighbours) {
+		return getNeighbours(cell, neighbours, null);
+	}
+
+	/** Retrieves the accessible cells adjacent to a given cell and the
+	 * direction of the step to each - O(d + neighbours)
+	 * @param cell The central cell
+	 * @param neighbours Array of length at least getMaxNeighbours() to be filled
+	 * @param directions Array of the same length to be filled with the
+	 * direction of each neighbour, as given to getStepLength, or null
+	 * @return The number of neighbours written to the array
+	 */
+	public int getNeighbours(int cell, int[] neighbours, int[] directions) {
+		int edges = edgeMask(cell);
+		int count = 0;
+		for (int i = 0; i < neighbourOffsets.length; i++) {
+			if ((edges & neighbourEdges[i]) != 0) {
+				// we're on the edge of the grid, no problems here
+				continue;
+			}
+			int adj = cell + neighbourOffsets[i];
+			if (isAccessible(adj)) {
+				if (directions != null) {
+					directions[count] = i;
+				}
+				neighbours[count++] = adj;
+			}
+		}
+		return count;
+	}
+
+	/** Finds the length of a step to a neighbour, measured in cells - O(1)
+	 * @param direction The direction of the step, as found by getNeighbours
+	 * @return 1 along an axis, the square root of 2 diagonally in a plane, and so on
+	 */
+	public double getStepLength(int direction) {
+		return neighbourLengths[direction];
+	}
+
+	/** Finds the fewest steps between two cells if every cell were accessible - O(d)
+	 * @param c1 The first cell
+	 * @param c2 The second cell
+	 * @return The Chebyshev distance in a FULL neighbourhood, the Manhattan distance otherwise
+	 */
+	public int getMinimumSteps(int c1, int c2) {
+		int steps = 0;
+		for (int axis = 0; axis < axes.length; axis++) {
+			int distance = Math.abs(getIndex(c1, axis) - getIndex(c2, axis));
+			steps = neighbourhood == Neighbourhood.FULL ? Math.max(steps, distance) : steps + distance;
+		}
+		return steps;
+	}
+
+	/** Finds the shortest length, as summed by getStepLength, of any path
+	 * between two cells if every cell were accessible - O(d log d)
+	 * @param c1 The first cell
+	 * @param c2 The second cell
+	 * @return The length in cells
+	 */
+	public double getMinimumLength(int c1, int c2) {
+		int[] distances = new int[axes.length];
+		for (int axis = 0; axis < axes.length; axis++) {
+			distances[axis] = Math.abs(getIndex(c1, axis) - getIndex(c2, axis));
+		}
+		if (neighbourhood == Neighbourhood.AXIS) {
+			int length = 0;
+			for (int distance : distances) {
+				length += distance;
+			}
+			return length;
+		}
+		// move diagonally along every axis with distance left, as in octile distance
+		Arrays.sort(distances);
+		double length = 0;
+		int previous = 0;
+		for (int i = 0; i < distances.length; i++) {
+			length += (distances[i] - previous) * Math.sqrt(distances.length - i);
+			previous = distances[i];
+		}
+		return length;
+	}
+
+	/** Finds which edges of the grid a cell lies on
+	 * @param cell The cell to be checked
+	 * @return Bit 2k set if the cell is first along axis k, bit 2k+1 if it is last
+	 */
+	private int edgeMask(int cell) {
+		int edges = 0;
+		for (int axis = 0; axis < axes.length; axis++) {
+			int index = getIndex(cell, axis);
+			if (index == 0) {
+				edges |= 1 << (2 * axis);
+			}
+			if (index == axes[axis].length - 1) {
+				edges |= 1 << (2 * axis + 1);
+			}
+		}
+		return edges;
+	}
+
+	/** Formats a cell for printing to a TSV file, as WeightedVertex does
+	 * @param cell The cell to be formatted
+	 * @return The coordinates and energy separated by tabs
+	 */
+	public String toString(int cell) {
+		return coordinatesToString(cell) + "\t" + getEnergy(cell);
+	}
+
+	/** Formats the coordinates of a cell for printing to a TSV file
+	 * @param cell The cell to be formatted
+	 * @return The coordinate along each axis separated by tabs
+	 */
+	public String coordinatesToString(int cell) {
+		StringBuilder s = new StringBuilder();
+		for (int axis = 0; axis < axes.length; axis++) {
+			if (axis > 0) {
+				s.append('\t');
+			}
+			s.append(getCoordinate(cell, axis));
+		}
+		return s.toString();
+	}
+
+	/** Lists the steps to each neighbour of a cell
+	 * In 2D the order is that of VertexArray, so paths are unchanged from the
+	 * graph implementation. Otherwise steps along a single axis come first,
+	 * then diagonal steps in lexicographic order
+	 * @param dimensions The number of axes
+	 * @param neighbourhood Which cells count as adjacent
+	 * @return The step along each axis for each neighbour
+	 */
+	private static int[][] neighbourSteps(int dimensions, Neighbourhood neighbourhood) {
+		if (dimensions == 2) {
+			int count = neighbourhood == Neighbourhood.FULL ? MAX_NEIGHBOURS : 4;
+			int[][] steps = new int[count][];
+			for (int i = 0; i < count; i++) {
+				steps[i] = new int[] {X_DIRECTIONS[i], Y_DIRECTIONS[i]};
+			}
+			return steps;
+		}
+
+		int total = 1;
+		for (int axis = 0; axis < dimensions; axis++) {
+			total *= 3;
+		}
+		int count = neighbourhood == Neighbourhood.FULL ? total - 1 : 2 * dimensions;
+		int[][] steps = new int[count][];
+		int n = 0;
+		for (int axis = 0; axis < dimensions; axis++) {
+			for (int step = -1; step <= 1; step += 2) {
+				steps[n] = new int[dimensions];
+				steps[n++][axis] = step;
+			}
+		}
+		if (neighbourhood == Neighbourhood.FULL) {
+			for (int code = 0; code < total; code++) {
+				// read code in base 3, most significant digit on the first axis
+				int[] step = new int[dimensions];
+				int nonZero = 0;
+				for (int axis = dimensions - 1, c = code; axis >= 0; axis--, c /= 3) {
+					step[axis] = c % 3 - 1;
+					if (step[axis] != 0) {
+						nonZero++;
+					}
+				}
+				if (nonZero > 1) {
+					steps[n++] = step;
+				}
+			}
+		}
+		return steps;
+	}
+
+	/** Finds the position of a value in an axis
+	 * @param header The axis to be searched
+	 * @param value The value to be found
+	 * @return The index of the value, or -1 if it is not present
+	 */
+	private static int indexOf(double[] header, double value) {
+		for (int i = 0; i < header.length; i++) {
+			if (header[i] == value) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,102 @@
+package minimumFreeEnergyPath.gridSurface;
+
+import java.util.Arrays;
+
+/** A growable list of primitive ints, used in place of List<Integer> to
+ * avoid boxing one object per cell
+ */
+public class IntList {
+
+	/** Backing array, grown geometrically */
+	private int[] values;
+	/** Number of values in use */
+	private int size;
+
+	/** Constructor creates a new, empty IntList object */
+	public IntList() {
+		this(16);
+	}
+
+	/** Constructor creates a new, empty IntList object
+	 * @param capacity The number of values to allocate space for
+	 */
+	public IntList(int capacity) {
+		values = new int[Math.max(capacity, 1)];
+	}
+
+	// Getters and setters
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public int get(int i) {
+		if (i >= size) {
+			throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+		}
+		return values[i];
+	}
+
+	public void set(int i, int value) {
+		if (i >= size) {
+			throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+		}
+		values[i] = value;
+	}
+
+	/** Add a value to the end of the list - amortised O(1)
+	 * @param value The value to be added
+	 */
+	public void add(int value) {
+		if (size == values.length) {
+			values = Arrays.copyOf(values, size * 2);
+		}
+		values[size++] = value;
+	}
+
+	/** Add all values of another list to the end of this one
+	 * @param list The list to be appended
+	 */
+	public void addAll(IntList list) {
+		if (size + list.size > values.length) {
+			values = Arrays.copyOf(values, Math.max(size * 2, size + list.size));
+		}
+		System.arraycopy(list.values, 0, values, size, list.size);
+		size += list.size;
+	}
+
+	/** Remove and return the last value in the list - O(1)
+	 * @return The value removed
+	 */
+	public int removeLast() {
+		if (size == 0) {
+			throw new IndexOutOfBoundsException("List is empty");
+		}
+		return values[--size];
+	}
+
+	/** Discard all values beyond a given length - O(1)
+	 * @param newSize The number of values to be retained
+	 */
+	public void truncate(int newSize) {
+		if (newSize > size) {
+			throw new IndexOutOfBoundsException("Index: " + newSize + ", Size: " + size);
+		}
+		size = newSize;
+	}
+
+	/** Remove all values from the list, retaining its capacity */
+	public void clear() {
+		size = 0;
+	}
+
+	/** Copies the list to an array
+	 * @return A new array containing the values in order
+	 */
+	public int[] toArray() {
+		return Arrays.copyOf(values, size);
+	}
+}
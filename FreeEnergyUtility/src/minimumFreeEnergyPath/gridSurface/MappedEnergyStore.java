@@ -0,0 +1,78 @@
+package minimumFreeEnergyPath.gridSurface;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/** EnergyStore read directly from a memory-mapped block of little-endian
+ * doubles or floats in a file. Opening costs nothing beyond mapping, pages are
+ * read by the operating system as cells are accessed. The block is mapped in
+ * chunks, as a single mapping cannot exceed 2GB
+ */
+public class MappedEnergyStore implements EnergyStore {
+
+	/** log2 of the number of cells in each chunk */
+	private static final int CHUNK_SHIFT = 27;
+	/** Mask giving the index of a cell within its chunk */
+	private static final int CHUNK_MASK = (1 << CHUNK_SHIFT) - 1;
+
+	/** Number of cells held */
+	private final int size;
+	/** Chunks of double values, or null if stored as floats */
+	private final DoubleBuffer[] doubleChunks;
+	/** Chunks of float values, or null if stored as doubles */
+	private final FloatBuffer[] floatChunks;
+
+	/** Constructor maps a block of values from a file
+	 * The mapping remains valid after the channel is closed
+	 * @param channel The file holding the block
+	 * @param offset Offset in the file of the first value
+	 * @param size Number of cells held
+	 * @param singlePrecision True if values are stored as floats, false for doubles
+	 * @throws IOException if the block cannot be mapped
+	 */
+	public MappedEnergyStore(FileChannel channel, long offset, int size, boolean singlePrecision) throws IOException {
+		this.size = size;
+		int bytesPerCell = singlePrecision ? 4 : 8;
+		int chunkCount = (int) (((long) size + CHUNK_MASK) >>> CHUNK_SHIFT);
+		doubleChunks = singlePrecision ? null : new DoubleBuffer[chunkCount];
+		floatChunks = singlePrecision ? new FloatBuffer[chunkCount] : null;
+		for (int i = 0; i < chunkCount; i++) {
+			long first = (long) i << CHUNK_SHIFT;
+			long cells = Math.min(1L << CHUNK_SHIFT, size - first);
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+					offset + first * bytesPerCell, cells * bytesPerCell);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			if (singlePrecision) {
+				floatChunks[i] = buffer.asFloatBuffer();
+			} else {
+				doubleChunks[i] = buffer.asDoubleBuffer();
+			}
+		}
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public double get(int cell) {
+		if (doubleChunks != null) {
+			return doubleChunks[cell >>> CHUNK_SHIFT].get(cell & CHUNK_MASK);
+		}
+		return floatChunks[cell >>> CHUNK_SHIFT].get(cell & CHUNK_MASK);
+	}
+
+	/** The mapped pages are held by the operating system, which evicts them
+	 * itself, so nothing is counted
+	 * @return 0
+	 */
+	@Override
+	public long getBytes() {
+		return 0;
+	}
+}
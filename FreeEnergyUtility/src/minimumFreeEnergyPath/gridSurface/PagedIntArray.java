@@ -0,0 +1,48 @@
+package minimumFreeEnergyPath.gridSurface;
+
+/** Array of ints, initially all 0, allocated a page at a time as non-zero
+ * values are stored. Searches touch only a small region of a large surface,
+ * so per-cell search state costs memory in proportion to the cells reached
+ * rather than to the size of the surface
+ */
+final class PagedIntArray {
+
+	/** log2 of the number of values in each page */
+	private static final int PAGE_SHIFT = 12;
+	/** Mask giving the index of a value within its page */
+	private static final int PAGE_MASK = (1 << PAGE_SHIFT) - 1;
+
+	/** Pages of values, null where every value is 0 */
+	private final int[][] pages;
+
+	/** Constructor creates a new PagedIntArray object with no pages allocated
+	 * @param size The number of values held
+	 */
+	PagedIntArray(int size) {
+		pages = new int[(int) (((long) size + PAGE_MASK) >>> PAGE_SHIFT)][];
+	}
+
+	/** Retrieves a value
+	 * @param i The index of the value
+	 * @return The value, 0 if never set
+	 */
+	int get(int i) {
+		int[] page = pages[i >>> PAGE_SHIFT];
+		return page == null ? 0 : page[i & PAGE_MASK];
+	}
+
+	/** Stores a value, allocating its page if necessary
+	 * @param i The index of the value
+	 * @param value The value to be stored
+	 */
+	void set(int i, int value) {
+		int[] page = pages[i >>> PAGE_SHIFT];
+		if (page == null) {
+			if (value == 0) {
+				return;
+			}
+			page = pages[i >>> PAGE_SHIFT] = new int[PAGE_MASK + 1];
+		}
+		page[i & PAGE_MASK] = value;
+	}
+}
@@ -0,0 +1,131 @@
+package minimumFreeEnergyPath.gridSurface;
+
+import java.util.Arrays;
+
+/** Monotone priority queue of cells keyed by non-negative doubles, as
+ * needed by Dijkstra's algorithm, where no key pushed is below the last key
+ * popped
+ *
+ * A radix heap: the bits of a non-negative double order as the double does,
+ * and each entry is kept in the bucket numbered by the highest bit in which
+ * its key differs from the last key popped. Popping from an empty bucket 0
+ * redistributes the lowest non-empty bucket, and an entry only ever moves
+ * to lower buckets, so push is O(1) and pop O(64) amortised. Decrease-key is
+ * left to the caller, by pushing again and skipping stale entries
+ */
+public class RadixQueue {
+
+	/** Number of buckets, one per bit of the key plus one for keys equal to the last */
+	private static final int BUCKETS = 65;
+
+	/** Keys held in each bucket */
+	private final long[][] keys;
+	/** Cells held in each bucket */
+	private final int[][] cells;
+	/** Number of entries in each bucket */
+	private final int[] sizes;
+	/** Key of the last entry popped */
+	private long last;
+	/** Number of entries held */
+	private int size;
+
+	/** Constructor creates a new, empty RadixQueue object */
+	public RadixQueue() {
+		keys = new long[BUCKETS][];
+		cells = new int[BUCKETS][];
+		sizes = new int[BUCKETS];
+		for (int b = 0; b < BUCKETS; b++) {
+			keys[b] = new long[4];
+			cells[b] = new int[4];
+		}
+	}
+
+	// Getters and setters
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/** Finds the key of the last entry popped
+	 * @return The key, 0 if nothing has been popped
+	 */
+	public double getLastKey() {
+		return Double.longBitsToDouble(last);
+	}
+
+	/** Adds a cell - O(1)
+	 * Keys below the last key popped, eg. through rounding, are raised to it
+	 * @param key The priority of the cell, non-negative
+	 * @param cell The cell
+	 */
+	public void push(double key, int cell) {
+		// adding 0.0 turns -0.0 into 0.0, whose bits are the lowest
+		long bits = Math.max(Double.doubleToLongBits(key + 0.0), last);
+		add(bucket(bits), bits, cell);
+		size++;
+	}
+
+	/** Removes the cell of lowest key - O(64) amortised
+	 * @return The cell
+	 * @throws IllegalStateException if the queue is empty
+	 */
+	public int pop() {
+		if (size == 0) {
+			throw new IllegalStateException("queue is empty");
+		}
+		if (sizes[0] == 0) {
+			// find the lowest non-empty bucket and its lowest key
+			int b = 1;
+			while (sizes[b] == 0) {
+				b++;
+			}
+			long min = Long.MAX_VALUE;
+			for (int i = 0; i < sizes[b]; i++) {
+				min = Math.min(min, keys[b][i]);
+			}
+			last = min;
+
+			// every entry differs from the new last key in a lower bit
+			int count = sizes[b];
+			sizes[b] = 0;
+			for (int i = 0; i < count; i++) {
+				add(bucket(keys[b][i]), keys[b][i], cells[b][i]);
+			}
+		}
+		size--;
+		return cells[0][--sizes[0]];
+	}
+
+	/** Removes every entry and resets the last key popped to 0 - O(1) */
+	public void clear() {
+		Arrays.fill(sizes, 0);
+		last = 0;
+		size = 0;
+	}
+
+	/** Finds the bucket of a key
+	 * @param bits The bits of the key
+	 * @return 0 if the key equals the last key popped, otherwise one more than
+	 * the highest bit in which they differ
+	 */
+	private int bucket(long bits) {
+		return bits == last ? 0 : 64 - Long.numberOfLeadingZeros(bits ^ last);
+	}
+
+	/** Appends an entry to a bucket, growing it if necessary
+	 * @param b The bucket
+	 * @param bits The bits of the key
+	 * @param cell The cell
+	 */
+	private void add(int b, long bits, int cell) {
+		if (sizes[b] == keys[b].length) {
+			keys[b] = Arrays.copyOf(keys[b], sizes[b] * 2);
+			cells[b] = Arrays.copyOf(cells[b], sizes[b] * 2);
+		}
+		keys[b][sizes[b]] = bits;
+		cells[b][sizes[b]++] = cell;
+	}
+}
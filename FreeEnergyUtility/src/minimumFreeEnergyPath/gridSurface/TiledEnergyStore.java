@@ -0,0 +1,268 @@
+package minimumFreeEnergyPath.gridSurface;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/** EnergyStore divided into tiles, blocks of 2^s cells along every axis, of
+ * which only those holding an accessible cell are stored. Stored tiles are
+ * memory mapped and copied onto the heap as they are first reached, into a
+ * cache of bounded size, so a surface much larger than the heap can be
+ * searched and wholly inaccessible regions cost nothing at all
+ *
+ * The cache is evicted in clock order, so a hit costs no locking and no
+ * bookkeeping beyond marking the tile as recently used
+ */
+public class TiledEnergyStore implements EnergyStore {
+
+	/** log2 of the number of cells in a tile, in any number of dimensions */
+	private static final int TILE_BITS = 12;
+	/** Largest region of the file mapped at once */
+	private static final long CHUNK_BYTES = 1L << 30;
+
+	/** Number of cells along each axis */
+	private final int[] shape;
+	/** Number of cells held */
+	private final int size;
+	/** log2 of the number of cells along each axis of a tile */
+	private final int tileShift;
+	/** Mask giving the index of a cell along an axis within its tile */
+	private final int tileMask;
+	/** Number of cells in a tile */
+	private final int tileCells;
+	/** Step in tile number for one tile along each axis */
+	private final int[] tileStrides;
+	/** Position of each tile among the stored tiles, or -1 if it is not stored */
+	private final int[] tileSlots;
+	/** Cell of lowest value, or -1 if unknown */
+	private final int minimumCell;
+	/** Number of stored tiles in each chunk */
+	private final int tilesPerChunk;
+	/** Chunks of stored tiles as doubles, or null if stored as floats */
+	private final DoubleBuffer[] doubleChunks;
+	/** Chunks of stored tiles as floats, or null if stored as doubles */
+	private final FloatBuffer[] floatChunks;
+
+	// Cache of tiles copied onto the heap
+	/** Values of each tile on the heap, or null if not loaded */
+	private final AtomicReferenceArray<double[]> loaded;
+	/** Set when a tile is read, cleared as the clock hand passes it */
+	private final byte[] referenced;
+	/** Tile held in each position of the clock */
+	private final int[] clock;
+	/** Number of positions of the clock in use */
+	private int clockSize;
+	/** Next position of the clock to be considered for eviction */
+	private int hand;
+	/** Number of tiles copied onto the heap */
+	private long loads;
+
+	/** Constructor maps the stored tiles of a block of values in a file
+	 * The mapping remains valid after the channel is closed
+	 * @param channel The file holding the block
+	 * @param offset Offset in the file of the first stored tile
+	 * @param shape The number of cells along each axis
+	 * @param tileSlots Position of each tile in the block, or -1 if every cell of it is inaccessible
+	 * @param singlePrecision True if values are stored as floats, false for doubles
+	 * @param maxLoadedTiles Number of tiles which may be held on the heap at once
+	 * @param minimumCell Cell of lowest value, or -1 if unknown
+	 * @throws IOException if the block cannot be mapped
+	 */
+	public TiledEnergyStore(FileChannel channel, long offset, int[] shape, int[] tileSlots,
+			boolean singlePrecision, int maxLoadedTiles, int minimumCell) throws IOException {
+		this.shape = shape.clone();
+		this.tileShift = getTileShift(shape.length);
+		this.tileMask = (1 << tileShift) - 1;
+		this.tileCells = 1 << (tileShift * shape.length);
+		this.tileStrides = new int[shape.length];
+		long cells = 1;
+		int tiles = 1;
+		for (int axis = 0; axis < shape.length; axis++) {
+			cells *= shape[axis];
+			tileStrides[axis] = tiles;
+			tiles *= getTileCount(shape[axis], tileShift);
+		}
+		if (tileSlots.length != tiles) {
+			throw new IllegalArgumentException("expected " + tiles + " tiles, found " + tileSlots.length);
+		}
+		this.size = (int) cells;
+		this.tileSlots = tileSlots;
+		this.minimumCell = minimumCell;
+
+		int stored = 0;
+		for (int slot : tileSlots) {
+			stored = Math.max(stored, slot + 1);
+		}
+		int bytesPerCell = singlePrecision ? 4 : 8;
+		long tileBytes = (long) tileCells * bytesPerCell;
+		tilesPerChunk = (int) (CHUNK_BYTES / tileBytes);
+		int chunkCount = (stored + tilesPerChunk - 1) / tilesPerChunk;
+		doubleChunks = singlePrecision ? null : new DoubleBuffer[chunkCount];
+		floatChunks = singlePrecision ? new FloatBuffer[chunkCount] : null;
+		for (int i = 0; i < chunkCount; i++) {
+			long first = (long) i * tilesPerChunk;
+			long count = Math.min(tilesPerChunk, stored - first);
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+					offset + first * tileBytes, count * tileBytes);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			if (singlePrecision) {
+				floatChunks[i] = buffer.asFloatBuffer();
+			} else {
+				doubleChunks[i] = buffer.asDoubleBuffer();
+			}
+		}
+
+		loaded = new AtomicReferenceArray<double[]>(tiles);
+		referenced = new byte[tiles];
+		clock = new int[Math.max(1, Math.min(maxLoadedTiles, stored))];
+	}
+
+	/** Finds the number of cells along each axis of a tile
+	 * @param dimensions The number of axes
+	 * @return log2 of the number of cells along each axis
+	 */
+	public static int getTileShift(int dimensions) {
+		return Math.max(1, TILE_BITS / dimensions);
+	}
+
+	/** Finds the number of tiles needed to cover an axis
+	 * @param length The number of cells along the axis
+	 * @param tileShift log2 of the number of cells along each axis of a tile
+	 * @return The number of tiles
+	 */
+	public static int getTileCount(int length, int tileShift) {
+		return (int) (((long) length + (1 << tileShift) - 1) >>> tileShift);
+	}
+
+	/** Finds the cells covered by a tile, in the order in which they are stored
+	 * @param shape The number of cells along each axis
+	 * @param tileShift log2 of the number of cells along each axis of a tile
+	 * @param tile The tile number
+	 * @param cells Array of length 2^(tileShift * dimensions) to be filled with
+	 * the cell at each position of the tile, or -1 beyond the edge of the grid
+	 */
+	public static void getTileCells(int[] shape, int tileShift, int tile, int[] cells) {
+		int side = 1 << tileShift;
+		for (int position = 0; position < cells.length; position++) {
+			int cell = 0;
+			int stride = 1;
+			int rest = tile;
+			for (int axis = 0; axis < shape.length; axis++) {
+				int tiles = getTileCount(shape[axis], tileShift);
+				int index = (rest % tiles) * side + ((position >>> (tileShift * axis)) & (side - 1));
+				rest /= tiles;
+				if (index >= shape[axis]) {
+					cell = -1;
+					break;
+				}
+				cell += index * stride;
+				stride *= shape[axis];
+			}
+			cells[position] = cell;
+		}
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public double get(int cell) {
+		int tile = 0;
+		int position = 0;
+		int rest = cell;
+		int last = shape.length - 1;
+		int shift = 0;
+		// one division per axis but the last, whose index is what remains
+		for (int axis = 0; axis < last; axis++, shift += tileShift) {
+			int quotient = rest / shape[axis];
+			int index = rest - quotient * shape[axis];
+			rest = quotient;
+			tile += (index >>> tileShift) * tileStrides[axis];
+			position |= (index & tileMask) << shift;
+		}
+		tile += (rest >>> tileShift) * tileStrides[last];
+		position |= (rest & tileMask) << shift;
+		if (tileSlots[tile] < 0) {
+			return Double.POSITIVE_INFINITY;
+		}
+		double[] values = loaded.get(tile);
+		if (values == null) {
+			values = load(tile);
+		}
+		if (referenced[tile] == 0) {
+			referenced[tile] = 1;
+		}
+		return values[position];
+	}
+
+	/** Copies a stored tile onto the heap, evicting the first tile the clock
+	 * hand finds unused since it last passed if the cache is full
+	 * @param tile The tile to be loaded
+	 * @return The values of the tile
+	 */
+	private synchronized double[] load(int tile) {
+		double[] values = loaded.get(tile);
+		if (values != null) {
+			// loaded by another thread while we waited
+			return values;
+		}
+
+		values = new double[tileCells];
+		int slot = tileSlots[tile];
+		int start = (slot % tilesPerChunk) * tileCells;
+		if (doubleChunks != null) {
+			DoubleBuffer chunk = doubleChunks[slot / tilesPerChunk].duplicate();
+			chunk.position(start);
+			chunk.get(values);
+		} else {
+			FloatBuffer chunk = floatChunks[slot / tilesPerChunk];
+			for (int i = 0; i < tileCells; i++) {
+				values[i] = chunk.get(start + i);
+			}
+		}
+
+		if (clockSize < clock.length) {
+			clock[clockSize++] = tile;
+		} else {
+			while (referenced[clock[hand]] != 0) {
+				referenced[clock[hand]] = 0;
+				hand = (hand + 1) % clock.length;
+			}
+			// readers holding the evicted array still see its values
+			loaded.set(clock[hand], null);
+			clock[hand] = tile;
+			hand = (hand + 1) % clock.length;
+		}
+		loaded.set(tile, values);
+		loads++;
+		return values;
+	}
+
+	/** Counts the tile cache full, as it soon is once paths are searched, and
+	 * the slot and reference of each tile, but not the mapped pages
+	 * @return The approximate number of bytes
+	 */
+	@Override
+	public long getBytes() {
+		return 8L * tileCells * clock.length + 4L * clock.length + 13L * tileSlots.length;
+	}
+
+	// Getters and setters
+	public int getMinimumCell() {
+		return minimumCell;
+	}
+
+	public int getMaxLoadedTiles() {
+		return clock.length;
+	}
+
+	public synchronized long getTilesLoaded() {
+		return loads;
+	}
+}
@@ -0,0 +1,532 @@
+package minimumFreeEnergyPath.markovModel;
+
+import java.util.Arrays;
+
+/** The eigenvalues of largest modulus of a LinearOperator, found by the
+ * Arnoldi iteration with explicit restarts
+ *
+ * The Krylov basis is grown one product at a time, each new vector
+ * orthogonalised twice by modified Gram-Schmidt, and every few steps the
+ * eigenvalues of the small Hessenberg matrix are found by the shifted QR
+ * algorithm. The iteration stops when the wanted eigenvalues stop moving or
+ * are exact, the basis spanning the whole space. A basis which reaches its
+ * largest size is restarted, as in LanczosEigenvectors, from the sum of the
+ * real and imaginary parts of the wanted Ritz vectors, found by inverse
+ * iteration on the Hessenberg matrix. A basis spanning an invariant subspace
+ * holds only one copy of each eigenvalue it reaches, so the iteration goes
+ * on from a random vector outside it, which finds repeated eigenvalues, such
+ * as those of a block closed to the rest, rather than leaving them out. A
+ * step costs one product and O(m n) for the orthogonalisation, a restart
+ * O(count m^3 + m n), and the basis O(m n) memory
+ */
+public final class ArnoldiEigenvalues {
+
+	/** Largest number of vectors in the basis */
+	public static final int DEFAULT_MAX_BASIS = 100;
+	/** Change in each wanted eigenvalue between checks at which the iteration stops */
+	public static final double DEFAULT_TOLERANCE = 1e-10;
+	/** Maximum number of restarts of the basis */
+	public static final int MAX_RESTARTS = 20;
+	/** Number of steps between checks of the eigenvalues */
+	private static final int CHECK_INTERVAL = 10;
+	/** Length of a new vector, relative to the product it came from, below which the basis is invariant */
+	private static final double BREAKDOWN = 1e-12;
+	/** Number of QR iterations allowed for each eigenvalue */
+	private static final int MAX_QR_ITERATIONS = 60;
+	/** Number of inverse iterations for each Ritz vector */
+	private static final int INVERSE_ITERATIONS = 2;
+	/** Seed of the random vectors which continue the basis past an invariant subspace */
+	private static final long BREAKDOWN_SEED = 0x4a726e6f6c6469L;
+
+	/** Real part of each eigenvalue, in order of decreasing modulus */
+	private final double[] real;
+	/** Imaginary part of each eigenvalue */
+	private final double[] imaginary;
+	/** Number of products taken */
+	private final int steps;
+	/** True if the eigenvalues settled or are exact */
+	private final boolean converged;
+
+	/** Constructor finds the eigenvalues
+	 * @param operator The matrix
+	 * @param count The number of eigenvalues wanted
+	 * @param start The first vector of the basis, not 0
+	 * @param maxBasis The largest number of vectors in the basis, raised to count + 1
+	 * @param tolerance The change in each eigenvalue between checks at which to stop
+	 */
+	public ArnoldiEigenvalues(LinearOperator operator, int count, double[] start, int maxBasis, double tolerance) {
+		int n = operator.size();
+		int m = Math.min(n, Math.max(maxBasis, count + 1));
+		count = Math.min(count, n);
+		SplitMix64 random = new SplitMix64(BREAKDOWN_SEED);
+
+		double[] initial = start.clone();
+		double[] previousReal = null;
+		double[] previousImaginary = null;
+		boolean settled = false;
+		int products = 0;
+		for (int restart = 0; restart <= MAX_RESTARTS && !settled; restart++) {
+			double[][] basis = new double[m][];
+			// Hessenberg matrix, from 1 as the QR algorithm is written
+			double[][] h = new double[m + 2][m + 2];
+			basis[0] = initial;
+			scale(basis[0], 1 / norm(basis[0]));
+			double[] wr = null;
+			double[] wi = null;
+			int[] order = null;
+			int j = 0;
+			while (j < m && !settled) {
+				double[] w = new double[n];
+				operator.apply(basis[j], w);
+				products++;
+				double length = norm(w);
+				for (int pass = 0; pass < 2; pass++) {
+					for (int i = 0; i <= j; i++) {
+						double projection = dot(basis[i], w);
+						h[i + 1][j + 1] += projection;
+						for (int k = 0; k < n; k++) {
+							w[k] -= projection * basis[i][k];
+						}
+					}
+				}
+				double next = norm(w);
+				j++;
+				if (j < m) {
+					if (next > BREAKDOWN * Math.max(length, Double.MIN_NORMAL)) {
+						h[j + 1][j] = next;
+						scale(w, 1 / next);
+					} else {
+						// invariant, h[j + 1][j] stays 0
+						w = outside(random, basis, j);
+					}
+					basis[j] = w;
+				}
+
+				if (j == m || j % CHECK_INTERVAL == 0) {
+					double[][] a = new double[j + 1][j + 1];
+					for (int r = 1; r <= j; r++) {
+						System.arraycopy(h[r], 1, a[r], 1, j);
+					}
+					wr = new double[j + 1];
+					wi = new double[j + 1];
+					if (!hqr(a, j, wr, wi)) {
+						wr = null;
+						continue;
+					}
+					order = byModulus(wr, wi, j);
+					int found = Math.min(count, j);
+					double[] currentReal = new double[found];
+					double[] currentImaginary = new double[found];
+					for (int i = 0; i < found; i++) {
+						currentReal[i] = wr[order[i]];
+						currentImaginary[i] = wi[order[i]];
+					}
+					if (j == n) {
+						// the basis spans the space, the eigenvalues are exact
+						settled = true;
+					} else if (previousReal != null && previousReal.length == found && j >= count) {
+						double change = 0;
+						for (int i = 0; i < found; i++) {
+							change = Math.max(change, Math.hypot(currentReal[i] - previousReal[i],
+									currentImaginary[i] - previousImaginary[i]));
+						}
+						settled = change < tolerance;
+					}
+					previousReal = currentReal;
+					previousImaginary = currentImaginary;
+				}
+			}
+			if (settled || wr == null) {
+				// no eigenvalues to restart from
+				break;
+			}
+			initial = ritzSum(h, basis, j, wr, wi, order, Math.min(count, j));
+		}
+		this.steps = products;
+		this.converged = settled;
+		this.real = previousReal == null ? new double[0] : previousReal;
+		this.imaginary = previousImaginary == null ? new double[0] : previousImaginary;
+	}
+
+	// Getters and setters
+	public double[] getReal() {
+		return real;
+	}
+
+	public double[] getImaginary() {
+		return imaginary;
+	}
+
+	public int getSteps() {
+		return steps;
+	}
+
+	public boolean isConverged() {
+		return converged;
+	}
+
+	/** Finds the modulus of an eigenvalue
+	 * @param index The position of the eigenvalue, 0 for the largest
+	 * @return The modulus
+	 */
+	public double getModulus(int index) {
+		return Math.hypot(real[index], imaginary[index]);
+	}
+
+	/** Orders eigenvalues by decreasing modulus, ties by decreasing real part,
+	 * by insertion as there are few - O(m^2)
+	 * @param wr The real parts, from 1
+	 * @param wi The imaginary parts, from 1
+	 * @param m The number of eigenvalues
+	 * @return The positions of the eigenvalues in order, from 1
+	 */
+	private static int[] byModulus(double[] wr, double[] wi, int m) {
+		double[] moduli = new double[m + 1];
+		for (int i = 1; i <= m; i++) {
+			moduli[i] = Math.hypot(wr[i], wi[i]);
+		}
+		int[] order = new int[m];
+		for (int i = 1; i <= m; i++) {
+			int k = i - 1;
+			while (k > 0 && (moduli[order[k - 1]] < moduli[i]
+					|| (moduli[order[k - 1]] == moduli[i] && wr[order[k - 1]] < wr[i]))) {
+				order[k] = order[k - 1];
+				k--;
+			}
+			order[k] = i;
+		}
+		return order;
+	}
+
+	/** Finds the eigenvalues of an upper Hessenberg matrix by the shifted QR
+	 * algorithm with Francis double shifts, as hqr of EISPACK - O(m^3)
+	 * @param a The matrix, indexed from 1, destroyed
+	 * @param n The size of the matrix
+	 * @param wr The real part of each eigenvalue, from 1
+	 * @param wi The imaginary part of each eigenvalue, from 1
+	 * @return False if an eigenvalue did not converge
+	 */
+	private static boolean hqr(double[][] a, int n, double[] wr, double[] wi) {
+		double norm = 0;
+		for (int i = 1; i <= n; i++) {
+			for (int j = Math.max(i - 1, 1); j <= n; j++) {
+				norm += Math.abs(a[i][j]);
+			}
+		}
+		int nn = n;
+		double t = 0;
+		double p = 0, q = 0, r = 0, s, w, x, y, z;
+		while (nn >= 1) {
+			int its = 0;
+			int l;
+			do {
+				// look for a single small subdiagonal element
+				for (l = nn; l >= 2; l--) {
+					s = Math.abs(a[l - 1][l - 1]) + Math.abs(a[l][l]);
+					if (s == 0) {
+						s = norm;
+					}
+					if (Math.abs(a[l][l - 1]) + s == s) {
+						a[l][l - 1] = 0;
+						break;
+					}
+				}
+				x = a[nn][nn];
+				if (l == nn) {
+					// one root found
+					wr[nn] = x + t;
+					wi[nn--] = 0;
+				} else {
+					y = a[nn - 1][nn - 1];
+					w = a[nn][nn - 1] * a[nn - 1][nn];
+					if (l == nn - 1) {
+						// two roots found
+						p = 0.5 * (y - x);
+						q = p * p + w;
+						z = Math.sqrt(Math.abs(q));
+						x += t;
+						if (q >= 0) {
+							z = p + (p >= 0 ? Math.abs(z) : -Math.abs(z));
+							wr[nn - 1] = wr[nn] = x + z;
+							if (z != 0) {
+								wr[nn] = x - w / z;
+							}
+							wi[nn - 1] = wi[nn] = 0;
+						} else {
+							wr[nn - 1] = wr[nn] = x + p;
+							wi[nn] = z;
+							wi[nn - 1] = -z;
+						}
+						nn -= 2;
+					} else {
+						if (its == MAX_QR_ITERATIONS) {
+							return false;
+						}
+						if (its == 10 || its == 20) {
+							// exceptional shift
+							t += x;
+							for (int i = 1; i <= nn; i++) {
+								a[i][i] -= x;
+							}
+							s = Math.abs(a[nn][nn - 1]) + Math.abs(a[nn - 1][nn - 2]);
+							y = x = 0.75 * s;
+							w = -0.4375 * s * s;
+						}
+						its++;
+						// look for two consecutive small subdiagonal elements
+						int m;
+						for (m = nn - 2; m >= l; m--) {
+							z = a[m][m];
+							r = x - z;
+							s = y - z;
+							p = (r * s - w) / a[m + 1][m] + a[m][m + 1];
+							q = a[m + 1][m + 1] - z - r - s;
+							r = a[m + 2][m + 1];
+							s = Math.abs(p) + Math.abs(q) + Math.abs(r);
+							p /= s;
+							q /= s;
+							r /= s;
+							if (m == l) {
+								break;
+							}
+							double u = Math.abs(a[m][m - 1]) * (Math.abs(q) + Math.abs(r));
+							double v = Math.abs(p) * (Math.abs(a[m - 1][m - 1]) + Math.abs(z) + Math.abs(a[m + 1][m + 1]));
+							if (u + v == v) {
+								break;
+							}
+						}
+						for (int i = m + 2; i <= nn; i++) {
+							a[i][i - 2] = 0;
+							if (i != m + 2) {
+								a[i][i - 3] = 0;
+							}
+						}
+						// double QR step on rows l to nn and columns m to nn
+						for (int k = m; k <= nn - 1; k++) {
+							if (k != m) {
+								p = a[k][k - 1];
+								q = a[k + 1][k - 1];
+								r = 0;
+								if (k != nn - 1) {
+									r = a[k + 2][k - 1];
+								}
+								if ((x = Math.abs(p) + Math.abs(q) + Math.abs(r)) != 0) {
+									p /= x;
+									q /= x;
+									r /= x;
+								}
+							}
+							s = Math.sqrt(p * p + q * q + r * r);
+							if (p < 0) {
+								s = -s;
+							}
+							if (s != 0) {
+								if (k == m) {
+									if (l != m) {
+										a[k][k - 1] = -a[k][k - 1];
+									}
+								} else {
+									a[k][k - 1] = -s * x;
+								}
+								p += s;
+								x = p / s;
+								y = q / s;
+								z = r / s;
+								q /= p;
+								r /= p;
+								for (int j = k; j <= nn; j++) {
+									p = a[k][j] + q * a[k + 1][j];
+									if (k != nn - 1) {
+										p += r * a[k + 2][j];
+										a[k + 2][j] -= p * z;
+									}
+									a[k + 1][j] -= p * y;
+									a[k][j] -= p * x;
+								}
+								int last = Math.min(nn, k + 3);
+								for (int i = l; i <= last; i++) {
+									p = x * a[i][k] + y * a[i][k + 1];
+									if (k != nn - 1) {
+										p += z * a[i][k + 2];
+										a[i][k + 2] -= p * r;
+									}
+									a[i][k + 1] -= p * q;
+									a[i][k] -= p;
+								}
+							}
+						}
+					}
+				}
+			} while (l < nn - 1);
+		}
+		return true;
+	}
+
+	/** Draws a random unit vector orthogonal to the basis, which continues
+	 * it past an invariant subspace - O(m n)
+	 * @param random The stream of the vectors
+	 * @param basis The basis
+	 * @param m The number of vectors in the basis
+	 * @return The vector
+	 */
+	private static double[] outside(SplitMix64 random, double[][] basis, int m) {
+		int n = basis[0].length;
+		double[] w = new double[n];
+		for (int k = 0; k < n; k++) {
+			w[k] = random.nextGaussian();
+		}
+		for (int pass = 0; pass < 2; pass++) {
+			for (int i = 0; i < m; i++) {
+				double projection = dot(basis[i], w);
+				for (int k = 0; k < n; k++) {
+					w[k] -= projection * basis[i][k];
+				}
+			}
+		}
+		scale(w, 1 / norm(w));
+		return w;
+	}
+
+	/** Forms the vector a basis restarts from, the sum of the real and
+	 * imaginary parts of the wanted Ritz vectors, each of unit length
+	 * O(count m^3 + m n)
+	 * @param h The Hessenberg matrix, from 1
+	 * @param basis The basis
+	 * @param m The number of vectors in the basis
+	 * @param wr The real part of each eigenvalue of h, from 1
+	 * @param wi The imaginary part of each eigenvalue of h, from 1
+	 * @param order The positions of the eigenvalues by decreasing modulus
+	 * @param count The number of eigenvalues wanted
+	 * @return The vector, or the first vector of the basis if the sum vanishes
+	 */
+	private static double[] ritzSum(double[][] h, double[][] basis, int m, double[] wr, double[] wi, int[] order,
+			int count) {
+		double[] combination = new double[m];
+		for (int i = 0; i < count; i++) {
+			double[] y = ritzVector(h, m, wr[order[i]], wi[order[i]]);
+			double length = norm(y);
+			if (!(length > 0) || Double.isInfinite(length)) {
+				continue;
+			}
+			for (int r = 0; r < m; r++) {
+				combination[r] += (y[r] + y[m + r]) / length;
+			}
+		}
+		int n = basis[0].length;
+		double[] x = new double[n];
+		for (int r = 0; r < m; r++) {
+			for (int k = 0; k < n; k++) {
+				x[k] += combination[r] * basis[r][k];
+			}
+		}
+		double length = norm(x);
+		return length > 0 && !Double.isInfinite(length) ? x : basis[0].clone();
+	}
+
+	/** Finds the eigenvector of a Hessenberg matrix for an eigenvalue a + ib
+	 * by inverse iteration, solving (H - aI) u + b v = r, (H - aI) v - b u = s
+	 * for its real part u and imaginary part v as one real system - O(m^3)
+	 * @param h The Hessenberg matrix, from 1
+	 * @param m The size of the matrix
+	 * @param a The real part of the eigenvalue
+	 * @param b The imaginary part of the eigenvalue
+	 * @return The real part followed by the imaginary part, from 0, not of unit length
+	 */
+	private static double[] ritzVector(double[][] h, int m, double a, double b) {
+		int size = 2 * m;
+		double[][] lu = new double[size][size];
+		double scale = 0;
+		for (int r = 0; r < m; r++) {
+			for (int c = 0; c < m; c++) {
+				lu[r][c] = h[r + 1][c + 1];
+				lu[m + r][m + c] = h[r + 1][c + 1];
+				scale = Math.max(scale, Math.abs(h[r + 1][c + 1]));
+			}
+			lu[r][r] -= a;
+			lu[m + r][m + r] -= a;
+			lu[r][m + r] = b;
+			lu[m + r][r] = -b;
+		}
+		// the shifted matrix is singular but for rounding, so small pivots are kept from 0
+		double smallest = Math.max(scale, Double.MIN_NORMAL) * 1e-14;
+		int[] pivots = new int[size];
+		for (int c = 0; c < size; c++) {
+			int pivot = c;
+			for (int r = c + 1; r < size; r++) {
+				if (Math.abs(lu[r][c]) > Math.abs(lu[pivot][c])) {
+					pivot = r;
+				}
+			}
+			pivots[c] = pivot;
+			double[] swap = lu[c];
+			lu[c] = lu[pivot];
+			lu[pivot] = swap;
+			if (Math.abs(lu[c][c]) < smallest) {
+				lu[c][c] = lu[c][c] < 0 ? -smallest : smallest;
+			}
+			for (int r = c + 1; r < size; r++) {
+				double factor = lu[r][c] /= lu[c][c];
+				if (factor != 0) {
+					for (int k = c + 1; k < size; k++) {
+						lu[r][k] -= factor * lu[c][k];
+					}
+				}
+			}
+		}
+
+		double[] y = new double[size];
+		Arrays.fill(y, 1);
+		for (int iteration = 0; iteration < INVERSE_ITERATIONS; iteration++) {
+			for (int c = 0; c < size; c++) {
+				double swap = y[c];
+				y[c] = y[pivots[c]];
+				y[pivots[c]] = swap;
+			}
+			for (int c = 0; c < size; c++) {
+				for (int r = c + 1; r < size; r++) {
+					y[r] -= lu[r][c] * y[c];
+				}
+			}
+			for (int r = size - 1; r >= 0; r--) {
+				double sum = y[r];
+				for (int k = r + 1; k < size; k++) {
+					sum -= lu[r][k] * y[k];
+				}
+				y[r] = sum / lu[r][r];
+			}
+			scale(y, 1 / norm(y));
+		}
+		return y;
+	}
+
+	/** Multiplies a vector by a constant in place - O(n)
+	 * @param a The vector
+	 * @param factor The constant
+	 */
+	private static void scale(double[] a, double factor) {
+		for (int i = 0; i < a.length; i++) {
+			a[i] *= factor;
+		}
+	}
+
+	/** Finds the dot product of two vectors - O(n)
+	 * @param a The first vector
+	 * @param b The second vector
+	 * @return The dot product
+	 */
+	private static double dot(double[] a, double[] b) {
+		double sum = 0;
+		for (int i = 0; i < a.length; i++) {
+			sum += a[i] * b[i];
+		}
+		return sum;
+	}
+
+	/** Finds the Euclidean length of a vector - O(n)
+	 * @param a The vector
+	 * @return The length
+	 */
+	private static double norm(double[] a) {
+		return Math.sqrt(dot(a, a));
+	}
+}
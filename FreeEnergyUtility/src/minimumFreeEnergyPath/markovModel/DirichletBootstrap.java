@@ -0,0 +1,273 @@
+package minimumFreeEnergyPath.markovModel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** Error of a stationary distribution, estimated as SampleStandardDeviation
+ * in FreeEnergyUtility.r does by sampling each row of the transition matrix
+ * from its Dirichlet posterior, Dir(Z + 1), and finding the stationary
+ * distribution of every sample
+ *
+ * Each sample is a DirichletSample, which draws its prior exponentials
+ * again on every sweep rather than storing them, so a sample holds
+ * O(nnz + n) values and a sweep costs O(n^2). Each distribution is found by power iteration from the point estimate and
+ * folded into a running mean and variance, so memory stays O(nnz + n) for
+ * each thread however many samples are drawn
+ *
+ * Sample k always draws from stream k of the seed, so the samples are the
+ * same however many threads share them. As in R, each distribution is scaled
+ * to unit length before its deviation is taken
+ */
+public final class DirichletBootstrap {
+
+	/** Seed used unless another is given */
+	public static final long DEFAULT_SEED = 0x5eed2015L;
+	/** Change in a sampled distribution, summed over states, at which its iteration stops */
+	public static final double DEFAULT_TOLERANCE = 1e-10;
+
+	/** Number of samples drawn */
+	private final int samples;
+	/** Mean of each state over the samples */
+	private final double[] means;
+	/** Standard deviation of each state over the samples */
+	private final double[] deviations;
+	/** Total number of sweeps made over all samples */
+	private final long iterations;
+	/** Number of samples whose iteration did not converge */
+	private final int unconverged;
+
+	/** Constructor draws the samples and summarises them
+	 * @param counts The count matrix, one row for each state the transitions leave
+	 * @param estimate The stationary distribution of the counts, from which
+	 * each sample's iteration starts
+	 * @param samples The number of samples to draw
+	 * @param seed The seed of the streams of the samples
+	 * @param threads The number of samples drawn at once
+	 * @throws InterruptedException if interrupted while waiting for a thread
+	 */
+	public DirichletBootstrap(final SparseMatrix counts, final double[] estimate, final int samples, final long seed,
+			int threads) throws InterruptedException {
+		final int workers = Math.max(1, Math.min(threads, samples));
+		ExecutorService executor = Executors.newFixedThreadPool(workers);
+		List<Future<Accumulator>> futures = new ArrayList<Future<Accumulator>>();
+		for (int w = 0; w < workers; w++) {
+			final int worker = w;
+			futures.add(executor.submit(new Callable<Accumulator>() {
+				@Override
+				public Accumulator call() {
+					Accumulator accumulator = new Accumulator(counts.getSize());
+					Sampler sampler = new Sampler(counts, estimate);
+					for (int k = worker; k < samples; k += workers) {
+						sampler.solve(SplitMix64.split(seed, k)); // O(nnz + n) per sweep
+						accumulator.add(toUnitLength(sampler.q), sampler.iterations, sampler.converged);
+					}
+					return accumulator;
+				}
+			}));
+		}
+		executor.shutdown();
+
+		Accumulator total = new Accumulator(counts.getSize());
+		try {
+			// merged in a fixed order so a given number of threads gives the same sums
+			for (Future<Accumulator> future : futures) {
+				total.merge(future.get());
+			}
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+
+		this.samples = samples;
+		this.means = total.mean;
+		this.deviations = new double[total.mean.length];
+		for (int i = 0; i < deviations.length; i++) {
+			// sample standard deviation, as rowSds
+			deviations[i] = total.count > 1 ? Math.sqrt(total.m2[i] / (total.count - 1)) : 0;
+		}
+		this.iterations = total.iterations;
+		this.unconverged = total.unconverged;
+	}
+
+	// Getters and setters
+	public int getSamples() {
+		return samples;
+	}
+
+	public double[] getMeans() {
+		return means;
+	}
+
+	public double[] getStandardDeviations() {
+		return deviations;
+	}
+
+	public long getIterations() {
+		return iterations;
+	}
+
+	public int getUnconverged() {
+		return unconverged;
+	}
+
+	/** Finds the error of the free energy of each state, as G_sd in
+	 * FreeEnergyUtility.r, from the deviation of its probability and that of
+	 * the most probable state, kT sqrt((sd/q)^2 + (sd_max/q_max)^2) - O(n)
+	 * @param estimate The stationary distribution of the counts
+	 * @param kT The Boltzmann constant times the temperature, in units of free energy
+	 * @return The error of each state
+	 */
+	public double[] getFreeEnergyErrors(double[] estimate, double kT) {
+		double[] q = toUnitLength(estimate);
+		int max = 0;
+		for (int i = 1; i < q.length; i++) {
+			if (q[i] > q[max]) {
+				max = i;
+			}
+		}
+		double[] errors = new double[q.length];
+		double maxError = q.length == 0 ? 0 : deviations[max] / q[max];
+		for (int i = 0; i < q.length; i++) {
+			double error = deviations[i] / q[i];
+			errors[i] = kT * Math.sqrt(error * error + maxError * maxError);
+		}
+		return errors;
+	}
+
+	/** Scales a vector to unit Euclidean length, as eigen does - O(n)
+	 * @param vector The vector
+	 * @return The scaled copy
+	 */
+	private static double[] toUnitLength(double[] vector) {
+		double sum = 0;
+		for (double v : vector) {
+			sum += v * v;
+		}
+		double scale = sum > 0 ? 1 / Math.sqrt(sum) : 0;
+		double[] scaled = new double[vector.length];
+		for (int i = 0; i < vector.length; i++) {
+			scaled[i] = vector[i] * scale;
+		}
+		return scaled;
+	}
+
+	/** Draws samples of the transition matrix and finds their stationary
+	 * distributions, reusing its arrays from one sample to the next */
+	private static final class Sampler {
+		/** The stationary distribution of the counts */
+		private final double[] estimate;
+		/** The transition matrix of the current sample */
+		private final DirichletSample sample;
+		/** Distribution of the last sample */
+		private double[] q;
+		/** Distribution of the next sweep */
+		private double[] next;
+		/** Number of sweeps made on the last sample */
+		private int iterations;
+		/** True if the last sample converged */
+		private boolean converged;
+
+		private Sampler(SparseMatrix counts, double[] estimate) {
+			int n = counts.getSize();
+			this.estimate = estimate;
+			this.sample = new DirichletSample(counts);
+			this.q = new double[n];
+			this.next = new double[n];
+		}
+
+		/** Draws a transition matrix and finds its stationary distribution
+		 * from the point estimate - O(n^2) per sweep
+		 * @param random The stream of the sample
+		 */
+		private void solve(SplitMix64 random) {
+			sample.draw(random); // O(n^2)
+
+			int n = q.length;
+			System.arraycopy(estimate, 0, q, 0, n);
+			iterations = 0;
+			converged = false;
+			while (!converged && iterations < StationaryDistribution.DEFAULT_MAX_ITERATIONS) {
+				sample.applyTransposed(q, next); // O(n^2)
+				double lambda = 0;
+				for (int j = 0; j < n; j++) {
+					lambda += next[j];
+				}
+				if (!(lambda > 0)) {
+					break;
+				}
+				double change = 0;
+				for (int j = 0; j < n; j++) {
+					next[j] /= lambda;
+					change += Math.abs(next[j] - q[j]);
+				}
+				double[] swap = q;
+				q = next;
+				next = swap;
+				iterations++;
+				converged = change < DEFAULT_TOLERANCE;
+			}
+		}
+	}
+
+	/** Running mean and sum of squared deviations of each state, by
+	 * Welford's update, mergeable by the formula of Chan et al. */
+	private static final class Accumulator {
+		/** Number of samples added */
+		private long count;
+		/** Mean of each state */
+		private final double[] mean;
+		/** Sum of squared deviations from the mean of each state */
+		private final double[] m2;
+		/** Total number of sweeps */
+		private long iterations;
+		/** Number of samples which did not converge */
+		private int unconverged;
+
+		private Accumulator(int n) {
+			mean = new double[n];
+			m2 = new double[n];
+		}
+
+		/** Adds a sample - O(n)
+		 * @param x The value of each state
+		 * @param sweeps The number of sweeps taken to find it
+		 * @param converged True if its iteration converged
+		 */
+		private void add(double[] x, int sweeps, boolean converged) {
+			count++;
+			for (int i = 0; i < mean.length; i++) {
+				double delta = x[i] - mean[i];
+				mean[i] += delta / count;
+				m2[i] += delta * (x[i] - mean[i]);
+			}
+			iterations += sweeps;
+			if (!converged) {
+				unconverged++;
+			}
+		}
+
+		/** Adds every sample of another accumulator - O(n)
+		 * @param other The other accumulator
+		 */
+		private void merge(Accumulator other) {
+			if (other.count == 0) {
+				return;
+			}
+			long combined = count + other.count;
+			for (int i = 0; i < mean.length; i++) {
+				double delta = other.mean[i] - mean[i];
+				mean[i] += delta * other.count / combined;
+				m2[i] += other.m2[i] + delta * delta * count * other.count / combined;
+			}
+			count = combined;
+			iterations += other.iterations;
+			unconverged += other.unconverged;
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package minimumFreeEnergyPath.markovModel;
+
+/** A transition matrix drawn from the Dirichlet posterior of each row of a
+ * count matrix, Dir(Z + 1) as SampleStandardDeviation in FreeEnergyUtility.r
+ * draws it, redrawn in place for each sample. Rows without counts are 0, as
+ * in R. Not thread safe
+ *
+ * Every entry of a row with counts is drawn as Gamma(c + 1), the sum of a
+ * unit exponential from the prior and, where c is above 0, a Gamma(c) from
+ * the counts. The n exponentials of a row come from a stream of its own,
+ * whose seed alone is kept, and are drawn again in the same order on every
+ * product rather than stored. A sample so holds O(nnz + n) values and
+ * follows the posterior exactly, at O(n^2) for a draw or a product
+ */
+final class DirichletSample implements LinearOperator {
+
+	/** The count matrix */
+	private final SparseMatrix counts;
+	/** Gamma variate of the counts of each entry with counts, without its prior */
+	private final double[] values;
+	/** The count matrix with the sampled values */
+	private final SparseMatrix sampled;
+	/** Seed of the stream of prior exponentials of each row */
+	private final long[] seeds;
+	/** Reciprocal of the sampled total of each row, 0 for an empty row */
+	private final double[] weights;
+	/** Each value of the vector being carried divided by the total of its row */
+	private final double[] scaled;
+
+	/** Constructor allocates a sample of a count matrix, to be drawn before use
+	 * @param counts The count matrix, one row for each state the transitions leave
+	 */
+	DirichletSample(SparseMatrix counts) {
+		int n = counts.getSize();
+		this.counts = counts;
+		this.values = new double[counts.getNonZeros()];
+		this.sampled = counts.withValues(values);
+		this.seeds = new long[n];
+		this.weights = new double[n];
+		this.scaled = new double[n];
+	}
+
+	/** Draws each row with counts from its Dirichlet posterior - O(n^2)
+	 * @param random The stream of the sample
+	 */
+	void draw(SplitMix64 random) {
+		int n = counts.getSize();
+		for (int i = 0; i < n; i++) {
+			int start = counts.getRowStart(i);
+			int end = counts.getRowEnd(i);
+			if (end == start) {
+				// no counts out, a row of 0 as in R
+				weights[i] = 0;
+				continue;
+			}
+			seeds[i] = random.nextLong();
+			double total = 0;
+			for (int k = start; k < end; k++) {
+				double c = counts.getValue(k);
+				values[k] = c > 0 ? random.nextGamma(c) : 0;
+				total += values[k];
+			}
+			SplitMix64 prior = new SplitMix64(seeds[i]);
+			for (int j = 0; j < n; j++) {
+				total += prior.nextExponential();
+			}
+			weights[i] = 1 / total;
+		}
+	}
+
+	@Override
+	public int size() {
+		return counts.getSize();
+	}
+
+	/** Multiplies a vector by the sampled matrix, y = T x - O(n^2)
+	 * @param x The vector, one value for each column
+	 * @param y The product, one value for each row, overwritten
+	 */
+	@Override
+	public void apply(double[] x, double[] y) {
+		int n = y.length;
+		for (int i = 0; i < n; i++) {
+			if (weights[i] == 0) {
+				y[i] = 0;
+				continue;
+			}
+			double row = 0;
+			for (int k = counts.getRowStart(i); k < counts.getRowEnd(i); k++) {
+				row += values[k] * x[counts.getColumn(k)];
+			}
+			SplitMix64 prior = new SplitMix64(seeds[i]);
+			for (int j = 0; j < n; j++) {
+				row += prior.nextExponential() * x[j];
+			}
+			y[i] = row * weights[i];
+		}
+	}
+
+	/** Multiplies a vector by the transpose of the sampled matrix, y = T^T x,
+	 * which carries a distribution one step along the transitions - O(n^2)
+	 * @param x The vector, one value for each row
+	 * @param y The product, one value for each column, overwritten
+	 */
+	void applyTransposed(double[] x, double[] y) {
+		int n = y.length;
+		for (int i = 0; i < n; i++) {
+			scaled[i] = x[i] * weights[i];
+		}
+		sampled.multiplyTransposed(scaled, y); // O(nnz)
+		for (int i = 0; i < n; i++) {
+			if (scaled[i] == 0) {
+				continue;
+			}
+			SplitMix64 prior = new SplitMix64(seeds[i]);
+			for (int j = 0; j < n; j++) {
+				y[j] += scaled[i] * prior.nextExponential();
+			}
+		}
+	}
+}
@@ -0,0 +1,265 @@
+package minimumFreeEnergyPath.markovModel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** Mean first passage times from every state of the Markov model of
+ * FreeEnergyUtility.r to each of several target sets, in steps of the model
+ *
+ * The time to a target set B solves m = 1 + T m off B, with m = 0 on B. As
+ * in TransitionPathTheory the dense prior of T enters each product as one
+ * sum over the states, so a product costs O(nnz + n), and each system is
+ * solved by BiCGSTAB preconditioned by the diagonal of I - T. A state no
+ * transition leaves has a row of 0 in R, which would end the chain there
+ * rather than let it reach the target, so here it takes the prior alone,
+ * moving to every state alike
+ *
+ * The target sets are shared between threads, each taking every t-th set
+ * and starting each system from its solution of the last, so a run of
+ * similar targets needs few iterations after the first. The times found
+ * therefore depend on the number of threads only within the tolerance
+ */
+public final class FirstPassageTimes {
+
+	/** Residual relative to the right hand side at which the solver stops */
+	public static final double DEFAULT_TOLERANCE = 1e-10;
+	/** Number of iterations after which the solver gives up */
+	public static final int DEFAULT_MAX_ITERATIONS = 10000;
+
+	/** The count matrix */
+	private final SparseMatrix counts;
+	/** Reciprocal of the prior total of each row, 1 / (row total + n) */
+	private final double[] weights;
+	/** Reciprocal of the diagonal of I - T, the preconditioner */
+	private final double[] inverseDiagonal;
+	/** Mean first passage time from each state to each target set */
+	private final double[][] times;
+	/** Number of iterations taken by each target set */
+	private final int[] iterations;
+	/** Number of target sets whose solver did not converge */
+	private final int unconverged;
+
+	/** Constructor finds the times to every target set
+	 * @param counts The count matrix, one row for each state the transitions leave
+	 * @param targets The target sets, none of them empty
+	 * @param threads The number of target sets solved at once
+	 * @throws InterruptedException if interrupted while waiting for a thread
+	 * @throws IllegalArgumentException if a target set is empty
+	 */
+	public FirstPassageTimes(SparseMatrix counts, final List<BitSet> targets, int threads)
+			throws InterruptedException {
+		for (BitSet target : targets) {
+			if (target.isEmpty()) {
+				throw new IllegalArgumentException("target sets must not be empty");
+			}
+		}
+		final int n = counts.getSize();
+		this.counts = counts;
+		this.weights = new double[n];
+		this.inverseDiagonal = new double[n];
+		for (int i = 0; i < n; i++) {
+			weights[i] = 1 / (counts.getRowSum(i) + n);
+			int self = counts.find(i, i);
+			double stay = ((self < 0 ? 0 : counts.getValue(self)) + 1) * weights[i];
+			inverseDiagonal[i] = stay < 1 ? 1 / (1 - stay) : 1;
+		}
+		this.times = new double[targets.size()][];
+		this.iterations = new int[targets.size()];
+
+		final int workers = Math.max(1, Math.min(threads, targets.size()));
+		ExecutorService executor = Executors.newFixedThreadPool(workers);
+		List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+		for (int w = 0; w < workers; w++) {
+			final int worker = w;
+			futures.add(executor.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() {
+					int failed = 0;
+					double[] previous = new double[n];
+					for (int k = worker; k < targets.size(); k += workers) {
+						// O(nnz + n) per iteration
+						if (!solve(targets.get(k), previous, k)) {
+							failed++;
+						}
+						previous = times[k];
+					}
+					return failed;
+				}
+			}));
+		}
+		executor.shutdown();
+
+		int failed = 0;
+		try {
+			for (Future<Integer> future : futures) {
+				failed += future.get();
+			}
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+		this.unconverged = failed;
+	}
+
+	// Getters and setters
+	public int getTargetCount() {
+		return times.length;
+	}
+
+	public int getUnconverged() {
+		return unconverged;
+	}
+
+	/** Finds the mean first passage time from each state to a target set
+	 * @param target The index of the target set
+	 * @return The time from each state, 0 on the set, in steps of the model
+	 */
+	public double[] getTimes(int target) {
+		return times[target];
+	}
+
+	/** Finds the number of iterations taken by a target set
+	 * @param target The index of the target set
+	 * @return The number of iterations
+	 */
+	public int getIterations(int target) {
+		return iterations[target];
+	}
+
+	/** Solves for the times to a target set by preconditioned BiCGSTAB over
+	 * the states outside it, recording the solution and iterations under its index
+	 * @param target The target set
+	 * @param initial The starting guess, the times to another target set
+	 * @param index The index of the target set
+	 * @return True if the solver converged
+	 */
+	private boolean solve(BitSet target, double[] initial, int index) {
+		int n = counts.getSize();
+		double[] x = initial.clone();
+		mask(target, x);
+		// r = 1 - (I - T) x off the target
+		double[] r = new double[n];
+		apply(target, x, r);
+		for (int i = 0; i < n; i++) {
+			r[i] = 1 - r[i];
+		}
+		mask(target, r);
+
+		double[] rHat = r.clone();
+		double[] p = new double[n];
+		double[] pHat = new double[n];
+		double[] v = new double[n];
+		double[] s = new double[n];
+		double[] sHat = new double[n];
+		double[] t = new double[n];
+		double rho = 1, alpha = 1, omega = 1;
+		double limit = DEFAULT_TOLERANCE * Math.sqrt(n - target.cardinality());
+		boolean done = norm(r) <= limit;
+		int iteration = 0;
+		while (!done && iteration < DEFAULT_MAX_ITERATIONS) {
+			iteration++;
+			double rhoNext = dot(rHat, r);
+			if (rhoNext == 0 || omega == 0) {
+				// breakdown, restart from the current residual
+				System.arraycopy(r, 0, rHat, 0, n);
+				Arrays.fill(p, 0);
+				Arrays.fill(v, 0);
+				rho = alpha = omega = 1;
+				rhoNext = dot(rHat, r);
+			}
+			double beta = (rhoNext / rho) * (alpha / omega);
+			rho = rhoNext;
+			for (int i = 0; i < n; i++) {
+				p[i] = r[i] + beta * (p[i] - omega * v[i]);
+				pHat[i] = p[i] * inverseDiagonal[i];
+			}
+			apply(target, pHat, v);
+			alpha = rho / dot(rHat, v);
+			for (int i = 0; i < n; i++) {
+				s[i] = r[i] - alpha * v[i];
+			}
+			if (norm(s) <= limit) {
+				for (int i = 0; i < n; i++) {
+					x[i] += alpha * pHat[i];
+				}
+				done = true;
+				break;
+			}
+			for (int i = 0; i < n; i++) {
+				sHat[i] = s[i] * inverseDiagonal[i];
+			}
+			apply(target, sHat, t);
+			omega = dot(t, s) / dot(t, t);
+			for (int i = 0; i < n; i++) {
+				x[i] += alpha * pHat[i] + omega * sHat[i];
+				r[i] = s[i] - omega * t[i];
+			}
+			done = norm(r) <= limit;
+		}
+		mask(target, x);
+		times[index] = x;
+		iterations[index] = iteration;
+		return done;
+	}
+
+	/** Applies the operator of the passage time equations, y = x - T x off
+	 * the target and 0 on it, to a vector which is 0 on the target - O(nnz + n)
+	 * @param target The target set
+	 * @param x The vector
+	 * @param y The product, overwritten
+	 */
+	private void apply(BitSet target, double[] x, double[] y) {
+		double sum = 0;
+		for (double value : x) {
+			sum += value;
+		}
+		int n = x.length;
+		for (int i = 0; i < n; i++) {
+			double row = sum;
+			for (int k = counts.getRowStart(i); k < counts.getRowEnd(i); k++) {
+				row += counts.getValue(k) * x[counts.getColumn(k)];
+			}
+			y[i] = x[i] - row * weights[i];
+		}
+		mask(target, y);
+	}
+
+	/** Sets the entries of the target set to 0
+	 * @param target The target set
+	 * @param x The vector
+	 */
+	private static void mask(BitSet target, double[] x) {
+		for (int i = target.nextSetBit(0); i >= 0; i = target.nextSetBit(i + 1)) {
+			x[i] = 0;
+		}
+	}
+
+	/** Finds the dot product of two vectors - O(n)
+	 * @param a The first vector
+	 * @param b The second vector
+	 * @return The dot product
+	 */
+	private static double dot(double[] a, double[] b) {
+		double sum = 0;
+		for (int i = 0; i < a.length; i++) {
+			sum += a[i] * b[i];
+		}
+		return sum;
+	}
+
+	/** Finds the Euclidean length of a vector - O(n)
+	 * @param a The vector
+	 * @return The length
+	 */
+	private static double norm(double[] a) {
+		return Math.sqrt(dot(a, a));
+	}
+}
@@ -0,0 +1,253 @@
+package minimumFreeEnergyPath.markovModel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** Implied timescales of the transition matrix of one lag, t = -lag / ln|l|
+ * for each eigenvalue l after the first, with bands from Dirichlet samples
+ * of the matrix as DirichletBootstrap draws them
+ *
+ * A model is Markovian at the lags where its timescales no longer change
+ * with the lag. The eigenvalues of largest modulus are found by
+ * ArnoldiEigenvalues, the matrix applied as the counts plus the prior, as in
+ * FreeEnergyUtility.r, without forming it, at O(nnz + n) a product, and
+ * each sample as a DirichletSample, at O(n^2). An eigenvalue within
+ * UNIT_TOLERANCE of 1 is a second stationary distribution and its timescale
+ * infinite. Each sample orders its eigenvalues by modulus and the bands are
+ * quantiles of the timescale in each position. Sample k draws from stream k of the seed at
+ * every lag, so the bands of neighbouring lags differ only as their counts
+ * do, and are the same however many threads share the lags
+ */
+public final class ImpliedTimescales {
+
+	/** Number of timescales found unless chosen otherwise */
+	public static final int DEFAULT_TIMESCALES = 5;
+	/** Number of samples drawn unless chosen otherwise */
+	public static final int DEFAULT_SAMPLES = 100;
+	/** Quantile of the samples at the bottom of each band */
+	public static final double LOWER_QUANTILE = 0.025;
+	/** Quantile of the samples at the top of each band */
+	public static final double UPPER_QUANTILE = 0.975;
+	/** Distance below 1 within which the modulus of an eigenvalue is taken as 1 */
+	public static final double UNIT_TOLERANCE = 1e-10;
+
+	/** Number of steps between the two ends of each transition */
+	private final int lag;
+	/** Timescale of each eigenvalue after the first, in steps */
+	private final double[] timescales;
+	/** Bottom of the band of each timescale */
+	private final double[] lower;
+	/** Top of the band of each timescale */
+	private final double[] upper;
+	/** Number of samples drawn */
+	private final int samples;
+	/** Total number of products taken over the estimate and all samples */
+	private long steps;
+	/** Number of eigenvalue problems, the estimate's included, which did not converge */
+	private int unconverged;
+
+	/** Constructor finds the timescales of a count matrix and draws its samples
+	 * @param counts The count matrix, one row for each state the transitions leave
+	 * @param lag The number of steps between the two ends of each transition
+	 * @param count The number of timescales wanted
+	 * @param samples The number of samples to draw, 0 for no bands
+	 * @param seed The seed of the streams of the samples
+	 */
+	public ImpliedTimescales(SparseMatrix counts, int lag, int count, int samples, long seed) {
+		int n = counts.getSize();
+		this.lag = lag;
+		this.samples = samples;
+		this.timescales = new double[count];
+		double[] start = new double[n];
+		SplitMix64 random = new SplitMix64(seed);
+		for (int i = 0; i < n; i++) {
+			// not 1, the right eigenvector of the stationary eigenvalue
+			start[i] = random.nextGaussian();
+		}
+
+		solve(new EstimateOperator(counts), start, timescales);
+
+		double[][] drawn = new double[count][samples];
+		double[] sample = new double[count];
+		DirichletSample sampled = samples > 0 ? new DirichletSample(counts) : null;
+		for (int k = 0; k < samples; k++) {
+			sampled.draw(SplitMix64.split(seed, k)); // O(n^2)
+			solve(sampled, start, sample);
+			for (int i = 0; i < count; i++) {
+				drawn[i][k] = sample[i];
+			}
+		}
+		this.lower = new double[count];
+		this.upper = new double[count];
+		for (int i = 0; i < count; i++) {
+			lower[i] = quantile(drawn[i], LOWER_QUANTILE);
+			upper[i] = quantile(drawn[i], UPPER_QUANTILE);
+		}
+	}
+
+	/** Finds the timescales of several lags at once, each lag a task of its own
+	 * @param counts The count matrix of each lag
+	 * @param lags The lags
+	 * @param count The number of timescales wanted
+	 * @param samples The number of samples to draw at each lag
+	 * @param seed The seed of the streams of the samples
+	 * @param threads The number of lags solved at once
+	 * @return The timescales of each lag, in the order of the lags
+	 * @throws InterruptedException if interrupted while waiting for a thread
+	 */
+	public static List<ImpliedTimescales> sweep(SparseMatrix[] counts, int[] lags, final int count, final int samples,
+			final long seed, int threads) throws InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, lags.length)));
+		List<Future<ImpliedTimescales>> futures = new ArrayList<Future<ImpliedTimescales>>();
+		for (int i = 0; i < lags.length; i++) {
+			final SparseMatrix matrix = counts[i];
+			final int lag = lags[i];
+			futures.add(executor.submit(new Callable<ImpliedTimescales>() {
+				@Override
+				public ImpliedTimescales call() {
+					return new ImpliedTimescales(matrix, lag, count, samples, seed);
+				}
+			}));
+		}
+		executor.shutdown();
+
+		List<ImpliedTimescales> sweep = new ArrayList<ImpliedTimescales>();
+		try {
+			for (Future<ImpliedTimescales> future : futures) {
+				sweep.add(future.get());
+			}
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+		return sweep;
+	}
+
+	// Getters and setters
+	public int getLag() {
+		return lag;
+	}
+
+	public double[] getTimescales() {
+		return timescales;
+	}
+
+	public double[] getLower() {
+		return lower;
+	}
+
+	public double[] getUpper() {
+		return upper;
+	}
+
+	public int getSamples() {
+		return samples;
+	}
+
+	public long getSteps() {
+		return steps;
+	}
+
+	public int getUnconverged() {
+		return unconverged;
+	}
+
+	/** Finds the timescales of one matrix
+	 * @param operator The transition matrix
+	 * @param start The first vector of the Krylov basis
+	 * @param result The timescale of each eigenvalue after the first, NaN
+	 * past the last eigenvalue of a matrix with too few states, overwritten
+	 */
+	private void solve(LinearOperator operator, double[] start, double[] result) {
+		ArnoldiEigenvalues eigenvalues = new ArnoldiEigenvalues(operator, result.length + 1, start,
+				ArnoldiEigenvalues.DEFAULT_MAX_BASIS, ArnoldiEigenvalues.DEFAULT_TOLERANCE);
+		steps += eigenvalues.getSteps();
+		if (!eigenvalues.isConverged()) {
+			unconverged++;
+		}
+		for (int i = 0; i < result.length; i++) {
+			if (i + 1 >= eigenvalues.getReal().length) {
+				result[i] = Double.NaN;
+				continue;
+			}
+			double modulus = eigenvalues.getModulus(i + 1);
+			if (modulus > 1 - UNIT_TOLERANCE) {
+				// a further stationary distribution, as of a block closed to the rest
+				result[i] = Double.POSITIVE_INFINITY;
+			} else if (modulus > 0) {
+				result[i] = -lag / Math.log(modulus);
+			} else {
+				result[i] = 0;
+			}
+		}
+	}
+
+	/** Finds a quantile of some values by linear interpolation, as R's
+	 * quantile does by default - O(n log n)
+	 * @param values The values, sorted in place
+	 * @param probability The probability of the quantile
+	 * @return The quantile, or NaN if there are no values
+	 */
+	private static double quantile(double[] values, double probability) {
+		if (values.length == 0) {
+			return Double.NaN;
+		}
+		Arrays.sort(values);
+		double position = probability * (values.length - 1);
+		int below = (int) Math.floor(position);
+		int above = Math.min(below + 1, values.length - 1);
+		double fraction = position - below;
+		if (fraction == 0 || values[below] == values[above]) {
+			return values[below];
+		}
+		return values[below] + fraction * (values[above] - values[below]);
+	}
+
+	/** The transition matrix of the counts, (Z + 1) / (rowSum + n) on rows
+	 * with counts and 0 on the rest, as in FreeEnergyUtility.r */
+	private static final class EstimateOperator implements LinearOperator {
+		/** The count matrix */
+		private final SparseMatrix counts;
+		/** Reciprocal of the total of each row with its prior, 0 for an empty row */
+		private final double[] weights;
+
+		private EstimateOperator(SparseMatrix counts) {
+			int n = counts.getSize();
+			this.counts = counts;
+			this.weights = new double[n];
+			for (int i = 0; i < n; i++) {
+				if (counts.getRowEnd(i) > counts.getRowStart(i)) {
+					weights[i] = 1 / (counts.getRowSum(i) + n);
+				}
+			}
+		}
+
+		@Override
+		public int size() {
+			return counts.getSize();
+		}
+
+		@Override
+		public void apply(double[] x, double[] y) {
+			double sum = 0;
+			for (double v : x) {
+				sum += v;
+			}
+			// the prior adds the same sum to every row - O(nnz + n)
+			for (int i = 0; i < y.length; i++) {
+				double row = sum;
+				for (int k = counts.getRowStart(i); k < counts.getRowEnd(i); k++) {
+					row += counts.getValue(k) * x[counts.getColumn(k)];
+				}
+				y[i] = row * weights[i];
+			}
+		}
+	}
+}
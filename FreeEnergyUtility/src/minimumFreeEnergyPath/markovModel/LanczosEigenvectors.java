@@ -0,0 +1,256 @@
+package minimumFreeEnergyPath.markovModel;
+
+/** The largest eigenvalues and their eigenvectors of a symmetric
+ * LinearOperator, found by the Lanczos iteration
+ *
+ * Each new vector of the Krylov basis is orthogonalised against the whole
+ * basis twice, so no spurious copies of converged eigenvalues appear, and
+ * every few steps the tridiagonal matrix is diagonalised by Jacobi rotations.
+ * An eigenpair has converged when its residual, read from the last row of
+ * the tridiagonal's eigenvector, is below the tolerance. If the basis fills
+ * first, the iteration restarts from the sum of the wanted Ritz vectors. A
+ * step costs one product and O(m n), and the basis O(m n) memory, so the
+ * largest basis bounds memory for very many states
+ */
+public final class LanczosEigenvectors {
+
+	/** Largest number of vectors in the basis */
+	public static final int DEFAULT_MAX_BASIS = 100;
+	/** Residual, relative to the largest eigenvalue, at which an eigenpair has converged */
+	public static final double DEFAULT_TOLERANCE = 1e-9;
+	/** Number of times the basis may be rebuilt */
+	private static final int MAX_RESTARTS = 20;
+	/** Number of steps between checks of the eigenpairs */
+	private static final int CHECK_INTERVAL = 10;
+	/** Length of a new vector, relative to the product it came from, below which the basis is invariant */
+	private static final double BREAKDOWN = 1e-12;
+	/** Number of Jacobi sweeps after which the tridiagonal is taken as diagonal */
+	private static final int MAX_SWEEPS = 100;
+
+	/** Eigenvalues in decreasing order */
+	private final double[] eigenvalues;
+	/** Unit eigenvector of each eigenvalue */
+	private final double[][] eigenvectors;
+	/** Number of products taken */
+	private int steps;
+	/** True if every eigenpair converged */
+	private boolean converged;
+
+	/** Constructor finds the eigenpairs
+	 * @param operator The matrix, symmetric
+	 * @param count The number of eigenpairs wanted
+	 * @param start The first vector of the basis, not 0
+	 * @param maxBasis The largest number of vectors in the basis
+	 * @param tolerance The residual, relative to the largest eigenvalue, at which to stop
+	 */
+	public LanczosEigenvectors(LinearOperator operator, int count, double[] start, int maxBasis, double tolerance) {
+		int n = operator.size();
+		int m = Math.max(Math.min(n, maxBasis), Math.min(n, count + 1));
+		count = Math.min(count, n);
+		this.eigenvalues = new double[count];
+		this.eigenvectors = new double[count][];
+
+		double[] initial = start.clone();
+		for (int restart = 0; restart <= MAX_RESTARTS && !converged; restart++) {
+			double[][] basis = new double[m][];
+			double[] alpha = new double[m];
+			double[] beta = new double[m];
+			basis[0] = initial;
+			scale(basis[0], 1 / norm(basis[0]));
+			double[][] ritz = null;
+			double[] theta = null;
+			int j = 0;
+			while (j < m) {
+				double[] w = new double[n];
+				operator.apply(basis[j], w);
+				steps++;
+				double length = norm(w);
+				for (int pass = 0; pass < 2; pass++) {
+					for (int i = 0; i <= j; i++) {
+						double projection = dot(basis[i], w);
+						if (i == j) {
+							alpha[j] += projection;
+						}
+						for (int k = 0; k < n; k++) {
+							w[k] -= projection * basis[i][k];
+						}
+					}
+				}
+				beta[j] = norm(w);
+				j++;
+				boolean invariant = !(beta[j - 1] > BREAKDOWN * Math.max(length, Double.MIN_NORMAL));
+				if (j < m && !invariant) {
+					scale(w, 1 / beta[j - 1]);
+					basis[j] = w;
+				}
+
+				if (invariant || j == m || (j % CHECK_INTERVAL == 0 && j >= count)) {
+					ritz = new double[j][j];
+					theta = diagonalise(alpha, beta, j, ritz);
+					int wanted = Math.min(count, j);
+					double largest = Math.max(Math.abs(theta[0]), Double.MIN_NORMAL);
+					boolean done = wanted == count;
+					for (int i = 0; i < wanted && done; i++) {
+						// the residual of a Ritz pair is beta times the last entry of its vector
+						done = invariant || Math.abs(beta[j - 1] * ritz[j - 1][i]) < tolerance * largest;
+					}
+					if (done || invariant) {
+						converged = done;
+						break;
+					}
+				}
+			}
+
+			// Ritz vectors, and the start of the next basis if any
+			initial = new double[n];
+			for (int i = 0; i < Math.min(count, j); i++) {
+				double[] vector = new double[n];
+				for (int l = 0; l < j; l++) {
+					double weight = ritz[l][i];
+					for (int k = 0; k < n; k++) {
+						vector[k] += weight * basis[l][k];
+					}
+				}
+				scale(vector, 1 / norm(vector));
+				eigenvalues[i] = theta[i];
+				eigenvectors[i] = vector;
+				for (int k = 0; k < n; k++) {
+					initial[k] += vector[k];
+				}
+			}
+			if (!(norm(initial) > 0)) {
+				break;
+			}
+		}
+	}
+
+	// Getters and setters
+	public double[] getEigenvalues() {
+		return eigenvalues;
+	}
+
+	public double[][] getEigenvectors() {
+		return eigenvectors;
+	}
+
+	public int getSteps() {
+		return steps;
+	}
+
+	public boolean isConverged() {
+		return converged;
+	}
+
+	/** Diagonalises the leading part of a tridiagonal matrix by cyclic
+	 * Jacobi rotations - O(m^3) per sweep
+	 * @param alpha The diagonal
+	 * @param beta The subdiagonal
+	 * @param m The size of the leading part
+	 * @param vectors The eigenvectors as columns, in the order of the eigenvalues, overwritten
+	 * @return The eigenvalues in decreasing order
+	 */
+	private static double[] diagonalise(double[] alpha, double[] beta, int m, double[][] vectors) {
+		double[][] a = new double[m][m];
+		double[][] v = new double[m][m];
+		for (int i = 0; i < m; i++) {
+			a[i][i] = alpha[i];
+			if (i + 1 < m) {
+				a[i][i + 1] = a[i + 1][i] = beta[i];
+			}
+			v[i][i] = 1;
+		}
+		for (int sweep = 0; sweep < MAX_SWEEPS; sweep++) {
+			double off = 0;
+			double diagonal = 0;
+			for (int p = 0; p < m; p++) {
+				diagonal += a[p][p] * a[p][p];
+				for (int q = p + 1; q < m; q++) {
+					off += a[p][q] * a[p][q];
+				}
+			}
+			if (!(off > 1e-30 * diagonal)) {
+				break;
+			}
+			for (int p = 0; p < m; p++) {
+				for (int q = p + 1; q < m; q++) {
+					if (a[p][q] == 0) {
+						continue;
+					}
+					// the rotation zeroing a_pq, taking the smaller angle
+					double t = (a[q][q] - a[p][p]) / (2 * a[p][q]);
+					t = (t >= 0 ? 1 : -1) / (Math.abs(t) + Math.sqrt(t * t + 1));
+					double c = 1 / Math.sqrt(t * t + 1);
+					double s = t * c;
+					for (int r = 0; r < m; r++) {
+						double rp = a[r][p];
+						double rq = a[r][q];
+						a[r][p] = c * rp - s * rq;
+						a[r][q] = s * rp + c * rq;
+					}
+					for (int r = 0; r < m; r++) {
+						double pr = a[p][r];
+						double qr = a[q][r];
+						a[p][r] = c * pr - s * qr;
+						a[q][r] = s * pr + c * qr;
+					}
+					for (int r = 0; r < m; r++) {
+						double rp = v[r][p];
+						double rq = v[r][q];
+						v[r][p] = c * rp - s * rq;
+						v[r][q] = s * rp + c * rq;
+					}
+				}
+			}
+		}
+
+		// order by decreasing eigenvalue, by insertion as there are few
+		int[] order = new int[m];
+		for (int i = 0; i < m; i++) {
+			int k = i;
+			while (k > 0 && a[order[k - 1]][order[k - 1]] < a[i][i]) {
+				order[k] = order[k - 1];
+				k--;
+			}
+			order[k] = i;
+		}
+		double[] values = new double[m];
+		for (int i = 0; i < m; i++) {
+			values[i] = a[order[i]][order[i]];
+			for (int r = 0; r < m; r++) {
+				vectors[r][i] = v[r][order[i]];
+			}
+		}
+		return values;
+	}
+
+	/** Multiplies a vector by a constant in place - O(n)
+	 * @param a The vector
+	 * @param factor The constant
+	 */
+	private static void scale(double[] a, double factor) {
+		for (int i = 0; i < a.length; i++) {
+			a[i] *= factor;
+		}
+	}
+
+	/** Finds the dot product of two vectors - O(n)
+	 * @param a The first vector
+	 * @param b The second vector
+	 * @return The dot product
+	 */
+	private static double dot(double[] a, double[] b) {
+		double sum = 0;
+		for (int i = 0; i < a.length; i++) {
+			sum += a[i] * b[i];
+		}
+		return sum;
+	}
+
+	/** Finds the Euclidean length of a vector - O(n)
+	 * @param a The vector
+	 * @return The length
+	 */
+	private static double norm(double[] a) {
+		return Math.sqrt(dot(a, a));
+	}
+}
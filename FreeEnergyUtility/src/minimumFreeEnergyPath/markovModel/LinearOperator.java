@@ -0,0 +1,19 @@
+package minimumFreeEnergyPath.markovModel;
+
+/** A square matrix known only by its product with a vector, so that a
+ * matrix with a dense part, such as the prior of a transition matrix, need
+ * not be formed
+ */
+public interface LinearOperator {
+
+	/** Number of rows and columns
+	 * @return The size
+	 */
+	int size();
+
+	/** Multiplies a vector by the matrix, y = A x
+	 * @param x The vector
+	 * @param y The product, overwritten
+	 */
+	void apply(double[] x, double[] y);
+}
@@ -0,0 +1,159 @@
+package minimumFreeEnergyPath.markovModel;
+
+import java.util.Arrays;
+
+/** Map from long keys to double values by open addressing, with no boxing
+ * and no entry objects, so that millions of transition counts cost 17
+ * bytes each. Entries can be added to but not removed
+ *
+ * Entries are visited by slot: every slot from 0 to getCapacity() - 1 for
+ * which isUsed is true holds one entry
+ */
+public final class LongDoubleHashMap {
+
+	/** Fraction of slots which may be used before the table grows */
+	private static final double LOAD_FACTOR = 0.5;
+
+	/** Key of each slot */
+	private long[] keys;
+	/** Value of each slot */
+	private double[] values;
+	/** Set for each slot holding an entry */
+	private boolean[] used;
+	/** Number of entries */
+	private int size;
+	/** Mask giving the slot of a hash */
+	private int mask;
+
+	/** Constructor creates a new, empty LongDoubleHashMap object */
+	public LongDoubleHashMap() {
+		this(16);
+	}
+
+	/** Constructor creates a new, empty LongDoubleHashMap object
+	 * @param expectedSize The number of entries to allocate space for
+	 */
+	public LongDoubleHashMap(int expectedSize) {
+		allocate(Math.max(16, Integer.highestOneBit((int) Math.min(1 << 30, expectedSize / LOAD_FACTOR)) << 1));
+	}
+
+	// Getters and setters
+	public int size() {
+		return size;
+	}
+
+	public int getCapacity() {
+		return keys.length;
+	}
+
+	public boolean isUsed(int slot) {
+		return used[slot];
+	}
+
+	public long getKey(int slot) {
+		return keys[slot];
+	}
+
+	public double getValue(int slot) {
+		return values[slot];
+	}
+
+	/** Retrieves the value of a key - O(1) expected
+	 * @param key The key
+	 * @return The value, 0 if the key is absent
+	 */
+	public double get(long key) {
+		for (int slot = slot(key); used[slot]; slot = (slot + 1) & mask) {
+			if (keys[slot] == key) {
+				return values[slot];
+			}
+		}
+		return 0;
+	}
+
+	/** Checks if a key is present - O(1) expected
+	 * @param key The key
+	 * @return True if the key has an entry
+	 */
+	public boolean containsKey(long key) {
+		for (int slot = slot(key); used[slot]; slot = (slot + 1) & mask) {
+			if (keys[slot] == key) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** Adds to the value of a key, creating its entry at 0 if it is absent - O(1) amortised
+	 * @param key The key
+	 * @param delta The amount to be added
+	 * @return The new value
+	 */
+	public double add(long key, double delta) {
+		int slot = slot(key);
+		while (used[slot]) {
+			if (keys[slot] == key) {
+				return values[slot] += delta;
+			}
+			slot = (slot + 1) & mask;
+		}
+		if (size + 1 > keys.length * LOAD_FACTOR) {
+			grow();
+			return add(key, delta);
+		}
+		used[slot] = true;
+		keys[slot] = key;
+		values[slot] = delta;
+		size++;
+		return delta;
+	}
+
+	/** Removes every entry, keeping the space allocated - O(capacity) */
+	public void clear() {
+		Arrays.fill(used, false);
+		size = 0;
+	}
+
+	/** Finds the first slot to be probed for a key
+	 * @param key The key
+	 * @return The slot
+	 */
+	private int slot(long key) {
+		// finalizer of MurmurHash3, so that packed pairs of small ints spread
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return (int) key & mask;
+	}
+
+	/** Doubles the number of slots, reinserting every entry - O(capacity) */
+	private void grow() {
+		long[] oldKeys = keys;
+		double[] oldValues = values;
+		boolean[] oldUsed = used;
+		allocate(oldKeys.length * 2);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldUsed[i]) {
+				int slot = slot(oldKeys[i]);
+				while (used[slot]) {
+					slot = (slot + 1) & mask;
+				}
+				used[slot] = true;
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	/** Allocates empty slots
+	 * @param capacity The number of slots, a power of 2
+	 */
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new double[capacity];
+		used = new boolean[capacity];
+		mask = capacity - 1;
+	}
+}
@@ -0,0 +1,557 @@
+package minimumFreeEnergyPath.markovModel;
+
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/** Metastable macrostates of a reversible transition matrix, found by
+ * PCCA+ (Deuflhard and Weber, 2005; Roblitz and Weber, 2013), in place of
+ * drawing folded and unfolded regions by hand on the surface
+ *
+ * The k largest eigenvalues of T, and their eigenvectors, are found by
+ * LanczosEigenvectors on the symmetric D^1/2 T D^-1/2, D the stationary
+ * distribution, whose eigenvectors become those of T scaled by D^-1/2, the
+ * first of them constant. k representative states are picked from the
+ * eigenvectors by the inner simplex algorithm, the linear map A taking
+ * their rows to the corners of the simplex is made feasible, so that every
+ * membership chi = X A lies in [0, 1] and each state's memberships sum to
+ * 1, and is then improved by the Nelder-Mead simplex method to maximise
+ * sum_ij A_ij^2 / A_1j, which is k for perfectly crisp memberships. The
+ * coarse grained transition matrix is the Galerkin projection
+ * (chi^T D chi)^-1 chi^T D T chi
+ *
+ * Products with T are shared between the threads of a pool. Each
+ * evaluation of the objective costs O(n k^2), so memory is O(n (k + m))
+ * for a Lanczos basis of m vectors, practical for 10^5 states
+ */
+public final class MetastableStates {
+
+	/** Seed of the first vector of the Lanczos basis */
+	private static final long SEED = 0x5eed2015L;
+	/** Change in the objective between the best and worst points of the simplex at which it stops */
+	private static final double SIMPLEX_TOLERANCE = 1e-10;
+	/** Number of evaluations of the objective allowed for each parameter */
+	private static final int EVALUATIONS_PER_PARAMETER = 200;
+	/** Number of rows below which a product is not split further */
+	private static final int SEQUENTIAL_THRESHOLD = 4096;
+
+	/** The transition matrix */
+	private final SparseMatrix transition;
+	/** Square root of the probability of each state */
+	private final double[] roots;
+	/** Number of macrostates */
+	private final int count;
+	/** Largest eigenvalues of the transition matrix, in decreasing order */
+	private final double[] eigenvalues;
+	/** Membership of each state in each macrostate, one array for each macrostate */
+	private final double[][] memberships;
+	/** Macrostate of highest membership of each state */
+	private final int[] assignments;
+	/** Stationary probability of each macrostate */
+	private final double[] probabilities;
+	/** Coarse grained transition matrix */
+	private final double[][] coarse;
+	/** Crispness of the memberships, 1 if each state lies wholly in one macrostate */
+	private final double crispness;
+	/** True if the eigenpairs converged */
+	private final boolean converged;
+	/** Number of products with the transition matrix */
+	private final int steps;
+
+	/** Constructor finds the macrostates
+	 * @param transition The transition matrix, reversible with respect to the distribution
+	 * @param distribution The stationary probability of each state, summing to 1
+	 * @param count The number of macrostates, at least 2 and at most the number of states
+	 * @param pool The pool whose threads share the rows of each product
+	 * @throws IllegalArgumentException if the number of macrostates is out of range
+	 */
+	public MetastableStates(SparseMatrix transition, double[] distribution, int count, final ForkJoinPool pool) {
+		final int n = transition.getSize();
+		if (count < 2 || count > n) {
+			throw new IllegalArgumentException("macrostates must number from 2 to " + n + ", not " + count);
+		}
+		this.transition = transition;
+		this.count = count;
+		this.roots = new double[n];
+		for (int i = 0; i < n; i++) {
+			roots[i] = Math.sqrt(distribution[i]);
+		}
+
+		// eigenpairs of D^1/2 T D^-1/2, which is symmetric as T is reversible
+		double[] start = new double[n];
+		SplitMix64 random = new SplitMix64(SEED);
+		for (int i = 0; i < n; i++) {
+			start[i] = random.nextGaussian();
+		}
+		LanczosEigenvectors lanczos = new LanczosEigenvectors(new LinearOperator() {
+			@Override
+			public int size() {
+				return n;
+			}
+
+			@Override
+			public void apply(double[] x, double[] y) {
+				pool.invoke(new Rows(x, y, true, 0, n)); // O(nnz + n)
+			}
+		}, count, start, LanczosEigenvectors.DEFAULT_MAX_BASIS, LanczosEigenvectors.DEFAULT_TOLERANCE);
+		this.eigenvalues = lanczos.getEigenvalues();
+		this.converged = lanczos.isConverged();
+		this.steps = lanczos.getSteps();
+
+		// eigenvectors of T, orthonormal under D, the first constant
+		double[][] x = new double[n][count];
+		for (int j = 0; j < count; j++) {
+			double[] u = lanczos.getEigenvectors()[j];
+			for (int i = 0; i < n; i++) {
+				x[i][j] = roots[i] > 0 ? u[i] / roots[i] : 0;
+			}
+		}
+		for (int i = 0; i < n; i++) {
+			x[i][0] = 1;
+		}
+
+		double[][] a = invert(select(x, innerSimplex(x)));
+		double[] parameters = new double[(count - 1) * (count - 1)];
+		for (int i = 1; i < count; i++) {
+			System.arraycopy(a[i], 1, parameters, (i - 1) * (count - 1), count - 1);
+		}
+		parameters = maximise(x, parameters);
+		a = fill(x, parameters);
+		this.crispness = objective(a) / count;
+
+		// memberships and their macrostates - O(n k^2)
+		this.memberships = new double[count][n];
+		this.assignments = new int[n];
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < count; j++) {
+				double chi = 0;
+				for (int l = 0; l < count; l++) {
+					chi += x[i][l] * a[l][j];
+				}
+				// rounding may leave the least member just below 0
+				memberships[j][i] = Math.min(1, Math.max(0, chi));
+				if (memberships[j][i] > memberships[assignments[i]][i]) {
+					assignments[i] = j;
+				}
+			}
+		}
+
+		// Galerkin projection of T onto the memberships - O(k (nnz + n k))
+		this.probabilities = new double[count];
+		double[][] overlap = new double[count][count];
+		double[][] flow = new double[count][count];
+		double[] moved = new double[n];
+		for (int j = 0; j < count; j++) {
+			pool.invoke(new Rows(memberships[j], moved, false, 0, n));
+			for (int i = 0; i < n; i++) {
+				probabilities[j] += distribution[i] * memberships[j][i];
+				for (int l = 0; l < count; l++) {
+					overlap[l][j] += distribution[i] * memberships[l][i] * memberships[j][i];
+					flow[l][j] += distribution[i] * memberships[l][i] * moved[i];
+				}
+			}
+		}
+		double[][] inverse = invert(overlap);
+		this.coarse = new double[count][count];
+		for (int i = 0; i < count; i++) {
+			for (int j = 0; j < count; j++) {
+				for (int l = 0; l < count; l++) {
+					coarse[i][j] += inverse[i][l] * flow[l][j];
+				}
+			}
+		}
+	}
+
+	// Getters and setters
+	public int getCount() {
+		return count;
+	}
+
+	public double[] getEigenvalues() {
+		return eigenvalues;
+	}
+
+	public double[][] getMemberships() {
+		return memberships;
+	}
+
+	public int[] getAssignments() {
+		return assignments;
+	}
+
+	public double[] getProbabilities() {
+		return probabilities;
+	}
+
+	public double[][] getCoarseMatrix() {
+		return coarse;
+	}
+
+	public double getCrispness() {
+		return crispness;
+	}
+
+	public boolean isConverged() {
+		return converged;
+	}
+
+	public int getSteps() {
+		return steps;
+	}
+
+	/** Finds the states whose highest membership is in a macrostate - O(n)
+	 * @param macrostate The macrostate
+	 * @return The states
+	 */
+	public BitSet getStates(int macrostate) {
+		BitSet states = new BitSet(assignments.length);
+		for (int i = 0; i < assignments.length; i++) {
+			if (assignments[i] == macrostate) {
+				states.set(i);
+			}
+		}
+		return states;
+	}
+
+	/** Finds the most probable of the states whose highest membership is in a macrostate - O(n)
+	 * @param macrostate The macrostate
+	 * @return The state, or -1 if there is none
+	 */
+	public int getCore(int macrostate) {
+		int core = -1;
+		for (int i = 0; i < assignments.length; i++) {
+			if (assignments[i] == macrostate && (core < 0 || roots[i] > roots[core])) {
+				core = i;
+			}
+		}
+		return core;
+	}
+
+	/** Picks k states whose eigenvector rows span the largest simplex, each
+	 * farthest from the span of those already picked - O(n k^2)
+	 * @param x The eigenvector row of each state
+	 * @return The representative states
+	 */
+	private static int[] innerSimplex(double[][] x) {
+		int n = x.length;
+		int k = x[0].length;
+		int[] picked = new int[k];
+		double farthest = -1;
+		for (int i = 0; i < n; i++) {
+			double length = dot(x[i], x[i]);
+			if (length > farthest) {
+				farthest = length;
+				picked[0] = i;
+			}
+		}
+		// rows relative to the first pick, less their projections on later picks
+		double[][] rest = new double[n][k];
+		for (int i = 0; i < n; i++) {
+			for (int l = 0; l < k; l++) {
+				rest[i][l] = x[i][l] - x[picked[0]][l];
+			}
+		}
+		for (int p = 1; p < k; p++) {
+			if (p > 1) {
+				double[] axis = rest[picked[p - 1]].clone();
+				double length = Math.sqrt(dot(axis, axis));
+				for (int l = 0; l < k && length > 0; l++) {
+					axis[l] /= length;
+				}
+				for (int i = 0; i < n; i++) {
+					double projection = dot(axis, rest[i]);
+					for (int l = 0; l < k; l++) {
+						rest[i][l] -= projection * axis[l];
+					}
+				}
+			}
+			farthest = -1;
+			for (int i = 0; i < n; i++) {
+				double length = dot(rest[i], rest[i]);
+				if (length > farthest) {
+					farthest = length;
+					picked[p] = i;
+				}
+			}
+		}
+		return picked;
+	}
+
+	/** Builds a feasible map from its lower right block, choosing the first
+	 * column so each row of the map but the first sums to 0 and the first row
+	 * so every membership is at least 0, then scaling the memberships of each
+	 * state to sum to 1 - O(n k^2)
+	 * @param x The eigenvector row of each state
+	 * @param parameters The lower right (k - 1) x (k - 1) block, row by row
+	 * @return The map
+	 */
+	private static double[][] fill(double[][] x, double[] parameters) {
+		int k = x[0].length;
+		double[][] a = new double[k][k];
+		for (int i = 1; i < k; i++) {
+			double sum = 0;
+			for (int j = 1; j < k; j++) {
+				a[i][j] = parameters[(i - 1) * (k - 1) + j - 1];
+				sum += a[i][j];
+			}
+			a[i][0] = -sum;
+		}
+		double[] least = new double[k];
+		for (int j = 0; j < k; j++) {
+			least[j] = Double.POSITIVE_INFINITY;
+		}
+		for (double[] row : x) {
+			for (int j = 0; j < k; j++) {
+				double value = 0;
+				for (int l = 1; l < k; l++) {
+					value += row[l] * a[l][j];
+				}
+				least[j] = Math.min(least[j], value);
+			}
+		}
+		double total = 0;
+		for (int j = 0; j < k; j++) {
+			a[0][j] = -least[j];
+			total += a[0][j];
+		}
+		for (int i = 0; i < k; i++) {
+			for (int j = 0; j < k; j++) {
+				a[i][j] /= total;
+			}
+		}
+		return a;
+	}
+
+	/** Finds the crispness objective of a feasible map, sum_ij A_ij^2 / A_1j - O(k^2)
+	 * @param a The map
+	 * @return The objective, at most k
+	 */
+	private static double objective(double[][] a) {
+		double sum = 0;
+		for (int j = 0; j < a.length; j++) {
+			if (!(a[0][j] > 0)) {
+				return Double.NEGATIVE_INFINITY;
+			}
+			for (int i = 0; i < a.length; i++) {
+				sum += a[i][j] * a[i][j] / a[0][j];
+			}
+		}
+		return sum;
+	}
+
+	/** Maximises the objective over the lower right block of the map by the
+	 * Nelder-Mead simplex method - O(n k^2) per evaluation
+	 * @param x The eigenvector row of each state
+	 * @param initial The block to start from
+	 * @return The best block found
+	 */
+	private static double[] maximise(double[][] x, double[] initial) {
+		int d = initial.length;
+		double[][] points = new double[d + 1][];
+		double[] values = new double[d + 1];
+		points[0] = initial.clone();
+		for (int p = 1; p <= d; p++) {
+			points[p] = initial.clone();
+			// steps of 5%, as scipy's fmin takes
+			points[p][p - 1] = initial[p - 1] != 0 ? 1.05 * initial[p - 1] : 0.00025;
+		}
+		for (int p = 0; p <= d; p++) {
+			values[p] = -objective(fill(x, points[p]));
+		}
+
+		int evaluations = d + 1;
+		while (evaluations < EVALUATIONS_PER_PARAMETER * d) {
+			// order the points by value, best first
+			for (int p = 1; p <= d; p++) {
+				double[] point = points[p];
+				double value = values[p];
+				int q = p;
+				while (q > 0 && values[q - 1] > value) {
+					points[q] = points[q - 1];
+					values[q] = values[q - 1];
+					q--;
+				}
+				points[q] = point;
+				values[q] = value;
+			}
+			if (Math.abs(values[d] - values[0]) < SIMPLEX_TOLERANCE) {
+				break;
+			}
+
+			double[] centroid = new double[d];
+			for (int p = 0; p < d; p++) {
+				for (int l = 0; l < d; l++) {
+					centroid[l] += points[p][l] / d;
+				}
+			}
+			double[] reflected = along(centroid, points[d], -1);
+			double reflectedValue = -objective(fill(x, reflected));
+			evaluations++;
+			if (reflectedValue < values[0]) {
+				double[] expanded = along(centroid, points[d], -2);
+				double expandedValue = -objective(fill(x, expanded));
+				evaluations++;
+				if (expandedValue < reflectedValue) {
+					points[d] = expanded;
+					values[d] = expandedValue;
+				} else {
+					points[d] = reflected;
+					values[d] = reflectedValue;
+				}
+			} else if (reflectedValue < values[d - 1]) {
+				points[d] = reflected;
+				values[d] = reflectedValue;
+			} else {
+				boolean outside = reflectedValue < values[d];
+				double[] contracted = along(centroid, points[d], outside ? -0.5 : 0.5);
+				double contractedValue = -objective(fill(x, contracted));
+				evaluations++;
+				if (contractedValue < (outside ? reflectedValue : values[d])) {
+					points[d] = contracted;
+					values[d] = contractedValue;
+				} else {
+					// shrink towards the best point
+					for (int p = 1; p <= d; p++) {
+						points[p] = along(points[0], points[p], 0.5);
+						values[p] = -objective(fill(x, points[p]));
+						evaluations++;
+					}
+				}
+			}
+		}
+		int best = 0;
+		for (int p = 1; p <= d; p++) {
+			if (values[p] < values[best]) {
+				best = p;
+			}
+		}
+		return points[best];
+	}
+
+	/** Moves from a centre towards or away from a point, c + t (p - c) - O(d)
+	 * @param centre The centre
+	 * @param point The point
+	 * @param t The fraction of the way to the point, negative to move away
+	 * @return The new point
+	 */
+	private static double[] along(double[] centre, double[] point, double t) {
+		double[] moved = new double[centre.length];
+		for (int l = 0; l < centre.length; l++) {
+			moved[l] = centre[l] + t * (point[l] - centre[l]);
+		}
+		return moved;
+	}
+
+	/** Takes the rows of some states - O(k^2)
+	 * @param x The row of each state
+	 * @param states The states
+	 * @return The rows, in the order of the states
+	 */
+	private static double[][] select(double[][] x, int[] states) {
+		double[][] rows = new double[states.length][];
+		for (int i = 0; i < states.length; i++) {
+			rows[i] = x[states[i]].clone();
+		}
+		return rows;
+	}
+
+	/** Inverts a small square matrix by Gauss-Jordan elimination with partial pivoting - O(k^3)
+	 * @param matrix The matrix
+	 * @return The inverse
+	 * @throws IllegalStateException if the matrix is singular
+	 */
+	private static double[][] invert(double[][] matrix) {
+		int k = matrix.length;
+		double[][] a = new double[k][2 * k];
+		for (int i = 0; i < k; i++) {
+			System.arraycopy(matrix[i], 0, a[i], 0, k);
+			a[i][k + i] = 1;
+		}
+		for (int c = 0; c < k; c++) {
+			int pivot = c;
+			for (int i = c + 1; i < k; i++) {
+				if (Math.abs(a[i][c]) > Math.abs(a[pivot][c])) {
+					pivot = i;
+				}
+			}
+			if (a[pivot][c] == 0) {
+				throw new IllegalStateException("macrostates are not linearly independent");
+			}
+			double[] swap = a[c];
+			a[c] = a[pivot];
+			a[pivot] = swap;
+			double scale = a[c][c];
+			for (int j = 0; j < 2 * k; j++) {
+				a[c][j] /= scale;
+			}
+			for (int i = 0; i < k; i++) {
+				double factor = a[i][c];
+				if (i != c && factor != 0) {
+					for (int j = 0; j < 2 * k; j++) {
+						a[i][j] -= factor * a[c][j];
+					}
+				}
+			}
+		}
+		double[][] inverse = new double[k][k];
+		for (int i = 0; i < k; i++) {
+			System.arraycopy(a[i], k, inverse[i], 0, k);
+		}
+		return inverse;
+	}
+
+	/** Finds the dot product of two vectors - O(k)
+	 * @param a The first vector
+	 * @param b The second vector
+	 * @return The dot product
+	 */
+	private static double dot(double[] a, double[] b) {
+		double sum = 0;
+		for (int i = 0; i < a.length; i++) {
+			sum += a[i] * b[i];
+		}
+		return sum;
+	}
+
+	/** A range of rows of a product with T, or with D^1/2 T D^-1/2, split in half until small enough */
+	private final class Rows extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		/** The vector */
+		private final double[] x;
+		/** The product */
+		private final double[] y;
+		/** True for the symmetric matrix */
+		private final boolean symmetric;
+		/** First row */
+		private final int from;
+		/** Row after the last */
+		private final int to;
+
+		private Rows(double[] x, double[] y, boolean symmetric, int from, int to) {
+			this.x = x;
+			this.y = y;
+			this.symmetric = symmetric;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > SEQUENTIAL_THRESHOLD) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new Rows(x, y, symmetric, from, middle), new Rows(x, y, symmetric, middle, to));
+				return;
+			}
+			for (int i = from; i < to; i++) {
+				double row = 0;
+				for (int k = transition.getRowStart(i); k < transition.getRowEnd(i); k++) {
+					int j = transition.getColumn(k);
+					row += transition.getValue(k) * (symmetric ? (roots[j] > 0 ? x[j] / roots[j] : 0) : x[j]);
+				}
+				y[i] = symmetric ? roots[i] * row : row;
+			}
+		}
+	}
+}
@@ -0,0 +1,249 @@
+package minimumFreeEnergyPath.markovModel;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/** The reversible maximum likelihood transition matrix of a count matrix,
+ * which obeys detailed balance, pi_i T_ij = pi_j T_ji, by construction
+ * rather than having its violations reported as checkDetailedBalance in
+ * FreeEnergyUtility.r does
+ *
+ * The estimate is found by the fixed point iteration of Bowman et al. on
+ * a symmetric matrix X of the pattern of C + C^T,
+ * x_ij = (c_ij + c_ji) / (c_i / x_i + c_j / x_j), where c_i and x_i are row
+ * sums, from X = C + C^T. Then T_ij = x_ij / x_i and the stationary
+ * distribution is x_i / sum(X), so no eigenvector need be found. Each sweep
+ * costs O(nnz + n) and its rows are shared between the threads of a pool.
+ * No prior is added, as a prior count on every transition would make X
+ * dense, so the estimate covers only transitions seen in either direction
+ */
+public final class ReversibleEstimate {
+
+	/** Change in the stationary distribution, summed over states, below which a sweep has converged */
+	public static final double DEFAULT_TOLERANCE = 1e-12;
+	/** Number of sweeps after which the iteration gives up */
+	public static final int DEFAULT_MAX_ITERATIONS = 100000;
+	/** Number of rows below which a sweep is not split further */
+	private static final int SEQUENTIAL_THRESHOLD = 4096;
+
+	/** Symmetric count matrix, C + C^T */
+	private final SparseMatrix symmetric;
+	/** Total counts out of each state */
+	private final double[] outCounts;
+	/** Entries of X */
+	private double[] x;
+	/** Entries of X after the sweep */
+	private double[] next;
+	/** Row sums of X */
+	private double[] rowSums;
+	/** Row sums of X after the sweep */
+	private double[] nextRowSums;
+	/** Probability of each state, summing to 1 */
+	private final double[] probabilities;
+	/** Number of sweeps made */
+	private final int iterations;
+	/** Change in the distribution on the last sweep */
+	private final double change;
+	/** True if the last sweep changed the distribution by less than the tolerance */
+	private final boolean converged;
+	/** Log likelihood of the counts under the estimate */
+	private final double logLikelihood;
+
+	/** Constructor finds the estimate of a count matrix
+	 * @param counts The count matrix, one row for each state the transitions leave
+	 * @param tolerance Change in the stationary distribution, summed over states, at which to stop
+	 * @param maxIterations Number of sweeps after which to stop regardless
+	 * @param pool The pool whose threads share the rows of each sweep
+	 */
+	public ReversibleEstimate(SparseMatrix counts, double tolerance, int maxIterations, ForkJoinPool pool) {
+		int n = counts.getSize();
+		this.symmetric = symmetrise(counts, counts.transpose()); // O(nnz + n)
+		this.outCounts = new double[n];
+		for (int i = 0; i < n; i++) {
+			outCounts[i] = counts.getRowSum(i);
+		}
+		this.x = new double[symmetric.getNonZeros()];
+		this.next = new double[x.length];
+		this.rowSums = new double[n];
+		this.nextRowSums = new double[n];
+		for (int i = 0; i < n; i++) {
+			for (int k = symmetric.getRowStart(i); k < symmetric.getRowEnd(i); k++) {
+				x[k] = symmetric.getValue(k);
+				rowSums[i] += x[k];
+			}
+		}
+
+		double[] q = normalise(rowSums);
+		double[] nextQ;
+		double difference = Double.POSITIVE_INFINITY;
+		int iteration = 0;
+		boolean done = n == 0;
+		while (!done && iteration < maxIterations) {
+			pool.invoke(new Rows(0, n)); // O(nnz + n)
+			double[] swap = x;
+			x = next;
+			next = swap;
+			swap = rowSums;
+			rowSums = nextRowSums;
+			nextRowSums = swap;
+
+			nextQ = normalise(rowSums);
+			difference = 0;
+			for (int i = 0; i < n; i++) {
+				difference += Math.abs(nextQ[i] - q[i]);
+			}
+			q = nextQ;
+			iteration++;
+			done = difference < tolerance;
+		}
+		this.probabilities = q;
+		this.iterations = iteration;
+		this.change = difference;
+		this.converged = done;
+
+		double likelihood = 0;
+		for (int i = 0; i < n; i++) {
+			for (int k = counts.getRowStart(i); k < counts.getRowEnd(i); k++) {
+				int entry = symmetric.find(i, counts.getColumn(k));
+				likelihood += counts.getValue(k) * Math.log(x[entry] / rowSums[i]);
+			}
+		}
+		this.logLikelihood = likelihood;
+	}
+
+	/** Constructor finds the estimate with the default tolerance and limit
+	 * @param counts The count matrix, one row for each state the transitions leave
+	 * @param pool The pool whose threads share the rows of each sweep
+	 */
+	public ReversibleEstimate(SparseMatrix counts, ForkJoinPool pool) {
+		this(counts, DEFAULT_TOLERANCE, DEFAULT_MAX_ITERATIONS, pool);
+	}
+
+	// Getters and setters
+	public double[] getProbabilities() {
+		return probabilities;
+	}
+
+	public int getIterations() {
+		return iterations;
+	}
+
+	public double getChange() {
+		return change;
+	}
+
+	public boolean isConverged() {
+		return converged;
+	}
+
+	public double getLogLikelihood() {
+		return logLikelihood;
+	}
+
+	/** Builds the transition matrix, on the pattern of C + C^T - O(nnz + n)
+	 * @return The matrix, each row with entries summing to 1
+	 */
+	public SparseMatrix getTransitionMatrix() {
+		double[] values = new double[x.length];
+		for (int i = 0; i < symmetric.getSize(); i++) {
+			for (int k = symmetric.getRowStart(i); k < symmetric.getRowEnd(i); k++) {
+				values[k] = x[k] / rowSums[i];
+			}
+		}
+		return symmetric.withValues(values);
+	}
+
+	/** Finds the free energy of each state relative to the most probable,
+	 * G = -kT log(q / max q) - O(n)
+	 * @param kT The Boltzmann constant times the temperature, in units of free energy
+	 * @return The free energy of each state
+	 */
+	public double[] getFreeEnergies(double kT) {
+		return StationaryDistribution.toFreeEnergies(probabilities, kT);
+	}
+
+	/** Adds a matrix to its transpose, merging their sorted rows - O(nnz + n)
+	 * @param counts The matrix
+	 * @param transposed Its transpose
+	 * @return The sum, its rows sorted by column
+	 */
+	private static SparseMatrix symmetrise(SparseMatrix counts, SparseMatrix transposed) {
+		int n = counts.getSize();
+		int[] rowStart = new int[n + 1];
+		int[] columns = new int[2 * counts.getNonZeros()];
+		double[] values = new double[columns.length];
+		int position = 0;
+		for (int i = 0; i < n; i++) {
+			int a = counts.getRowStart(i);
+			int b = transposed.getRowStart(i);
+			while (a < counts.getRowEnd(i) || b < transposed.getRowEnd(i)) {
+				int columnA = a < counts.getRowEnd(i) ? counts.getColumn(a) : Integer.MAX_VALUE;
+				int columnB = b < transposed.getRowEnd(i) ? transposed.getColumn(b) : Integer.MAX_VALUE;
+				int column = Math.min(columnA, columnB);
+				double value = 0;
+				if (columnA == column) {
+					value += counts.getValue(a++);
+				}
+				if (columnB == column) {
+					value += transposed.getValue(b++);
+				}
+				columns[position] = column;
+				values[position++] = value;
+			}
+			rowStart[i + 1] = position;
+		}
+		return new SparseMatrix(n, rowStart, columns, values);
+	}
+
+	/** Scales a vector to sum to 1 - O(n)
+	 * @param vector The vector
+	 * @return The scaled copy
+	 */
+	private static double[] normalise(double[] vector) {
+		double sum = 0;
+		for (double v : vector) {
+			sum += v;
+		}
+		double[] scaled = new double[vector.length];
+		for (int i = 0; i < vector.length; i++) {
+			scaled[i] = vector[i] / sum;
+		}
+		return scaled;
+	}
+
+	/** A range of rows of a sweep, split in half until small enough */
+	private final class Rows extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		/** First row */
+		private final int from;
+		/** Row after the last */
+		private final int to;
+
+		private Rows(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > SEQUENTIAL_THRESHOLD) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new Rows(from, middle), new Rows(middle, to));
+				return;
+			}
+			for (int i = from; i < to; i++) {
+				double ratio = outCounts[i] / rowSums[i];
+				double sum = 0;
+				for (int k = symmetric.getRowStart(i); k < symmetric.getRowEnd(i); k++) {
+					int j = symmetric.getColumn(k);
+					// the same sum in both orders, so X stays symmetric
+					next[k] = symmetric.getValue(k) / (ratio + outCounts[j] / rowSums[j]);
+					sum += next[k];
+				}
+				nextRowSums[i] = sum;
+			}
+		}
+	}
+}
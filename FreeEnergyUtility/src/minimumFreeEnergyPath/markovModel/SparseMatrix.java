@@ -0,0 +1,198 @@
+package minimumFreeEnergyPath.markovModel;
+
+/** Square matrix stored in compressed sparse row form, the entries of each
+ * row held contiguously in order of column, so that a product touches only
+ * the entries which are not zero and reads them in sequence
+ */
+public final class SparseMatrix {
+
+	/** Number of rows and columns */
+	private final int size;
+	/** Position of the first entry of each row, with the number of entries last */
+	private final int[] rowStart;
+	/** Column of each entry */
+	private final int[] columns;
+	/** Value of each entry */
+	private final double[] values;
+
+	/** Constructor creates a new SparseMatrix object from its arrays, which are not copied
+	 * @param size The number of rows and columns
+	 * @param rowStart The position of the first entry of each row, with the number of entries last
+	 * @param columns The column of each entry
+	 * @param values The value of each entry
+	 */
+	public SparseMatrix(int size, int[] rowStart, int[] columns, double[] values) {
+		if (rowStart.length != size + 1 || columns.length < rowStart[size] || values.length < rowStart[size]) {
+			throw new IllegalArgumentException("arrays do not hold " + size + " rows");
+		}
+		this.size = size;
+		this.rowStart = rowStart;
+		this.columns = columns;
+		this.values = values;
+	}
+
+	/** Builds the matrix of transition counts, one row for each state the
+	 * transitions leave - O(nnz + n)
+	 * @param counts The transition counts
+	 * @return The count matrix
+	 */
+	public static SparseMatrix fromCounts(TransitionCounts counts) {
+		int n = counts.getStateCount();
+		LongDoubleHashMap entries = counts.getCounts();
+		int nonZeros = entries.size();
+
+		// bucket the entries by column first, so that placing them by row
+		// in order of column leaves each row sorted
+		int[] columnStart = new int[n + 1];
+		for (int slot = 0; slot < entries.getCapacity(); slot++) {
+			if (entries.isUsed(slot)) {
+				columnStart[TransitionCounts.getTo(entries.getKey(slot)) + 1]++;
+			}
+		}
+		for (int j = 0; j < n; j++) {
+			columnStart[j + 1] += columnStart[j];
+		}
+		int[] next = new int[n];
+		System.arraycopy(columnStart, 0, next, 0, n);
+		int[] byColumnRow = new int[nonZeros];
+		double[] byColumnValue = new double[nonZeros];
+		int[] rowStart = new int[n + 1];
+		for (int slot = 0; slot < entries.getCapacity(); slot++) {
+			if (entries.isUsed(slot)) {
+				long key = entries.getKey(slot);
+				int k = next[TransitionCounts.getTo(key)]++;
+				byColumnRow[k] = TransitionCounts.getFrom(key);
+				byColumnValue[k] = entries.getValue(slot);
+				rowStart[byColumnRow[k] + 1]++;
+			}
+		}
+
+		for (int i = 0; i < n; i++) {
+			rowStart[i + 1] += rowStart[i];
+		}
+		System.arraycopy(rowStart, 0, next, 0, n);
+		int[] columns = new int[nonZeros];
+		double[] values = new double[nonZeros];
+		for (int j = 0; j < n; j++) {
+			for (int k = columnStart[j]; k < columnStart[j + 1]; k++) {
+				int position = next[byColumnRow[k]]++;
+				columns[position] = j;
+				values[position] = byColumnValue[k];
+			}
+		}
+		return new SparseMatrix(n, rowStart, columns, values);
+	}
+
+	/** Creates a matrix with the same entries as this one but other values,
+	 * sharing the arrays of positions - O(1)
+	 * @param values The value of each entry, not copied
+	 * @return The matrix
+	 */
+	public SparseMatrix withValues(double[] values) {
+		return new SparseMatrix(size, rowStart, columns, values);
+	}
+
+	// Getters and setters
+	public int getSize() {
+		return size;
+	}
+
+	public int getNonZeros() {
+		return rowStart[size];
+	}
+
+	public int getRowStart(int row) {
+		return rowStart[row];
+	}
+
+	public int getRowEnd(int row) {
+		return rowStart[row + 1];
+	}
+
+	public int getColumn(int entry) {
+		return columns[entry];
+	}
+
+	public double getValue(int entry) {
+		return values[entry];
+	}
+
+	/** Finds the entry at a row and column, by binary search of the row - O(log entries in the row)
+	 * @param row The row
+	 * @param column The column
+	 * @return The position of the entry, or -1 if it is 0
+	 */
+	public int find(int row, int column) {
+		int low = rowStart[row];
+		int high = rowStart[row + 1] - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			if (columns[middle] < column) {
+				low = middle + 1;
+			} else if (columns[middle] > column) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -1;
+	}
+
+	/** Builds the transpose, its rows sorted by column as this is - O(nnz + n)
+	 * @return The transpose
+	 */
+	public SparseMatrix transpose() {
+		int nonZeros = getNonZeros();
+		int[] start = new int[size + 1];
+		for (int k = 0; k < nonZeros; k++) {
+			start[columns[k] + 1]++;
+		}
+		for (int j = 0; j < size; j++) {
+			start[j + 1] += start[j];
+		}
+		int[] next = new int[size];
+		System.arraycopy(start, 0, next, 0, size);
+		int[] transposedColumns = new int[nonZeros];
+		double[] transposedValues = new double[nonZeros];
+		// rows in ascending order leave the columns of the transpose sorted
+		for (int i = 0; i < size; i++) {
+			for (int k = rowStart[i]; k < rowStart[i + 1]; k++) {
+				int position = next[columns[k]]++;
+				transposedColumns[position] = i;
+				transposedValues[position] = values[k];
+			}
+		}
+		return new SparseMatrix(size, start, transposedColumns, transposedValues);
+	}
+
+	/** Sums the entries of a row - O(entries in the row)
+	 * @param row The row
+	 * @return The sum
+	 */
+	public double getRowSum(int row) {
+		double sum = 0;
+		for (int k = rowStart[row]; k < rowStart[row + 1]; k++) {
+			sum += values[k];
+		}
+		return sum;
+	}
+
+	/** Multiplies a vector by the transpose of the matrix, y = A^T x, which
+	 * carries a distribution over the rows one step along the transitions - O(nnz + n)
+	 * @param x The vector, one value for each row
+	 * @param y The product, one value for each column, overwritten
+	 */
+	public void multiplyTransposed(double[] x, double[] y) {
+		for (int j = 0; j < size; j++) {
+			y[j] = 0;
+		}
+		for (int i = 0; i < size; i++) {
+			double xi = x[i];
+			if (xi != 0) {
+				for (int k = rowStart[i]; k < rowStart[i + 1]; k++) {
+					y[columns[k]] += xi * values[k];
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package minimumFreeEnergyPath.markovModel;
+
+/** SplitMix64 pseudorandom generator, with the exponential and gamma
+ * variates a Dirichlet sample is built from
+ *
+ * Streams split from the same seed by index are independent of one another
+ * and of the order in which they are used, so work divided between threads
+ * gives the same numbers however it is scheduled. Not thread safe; each
+ * thread takes its own stream
+ */
+public final class SplitMix64 {
+
+	/** Increment of the state, the odd integer closest to 2^64 / golden ratio */
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+	/** 2^-53, the spacing of doubles in [0.5, 1) */
+	private static final double DOUBLE_UNIT = 1.0 / (1L << 53);
+	/** Number of layers of the ziggurat of the exponential, a power of 2 */
+	private static final int LAYERS = 256;
+	/** Start of the tail of the exponential below the lowest layer */
+	private static final double TAIL = 7.69711747013104972;
+	/** Area of each layer and of the lowest layer with the tail */
+	private static final double LAYER_AREA = 3.949659822581572e-3;
+	/** Right edge of each layer, that of the lowest widened to hold the tail's area */
+	private static final double[] EDGES = new double[LAYERS + 1];
+	/** Exponential density at each edge */
+	private static final double[] DENSITIES = new double[LAYERS + 1];
+
+	static {
+		EDGES[0] = LAYER_AREA / Math.exp(-TAIL);
+		EDGES[1] = TAIL;
+		for (int i = 1; i < LAYERS - 1; i++) {
+			EDGES[i + 1] = -Math.log(LAYER_AREA / EDGES[i] + Math.exp(-EDGES[i]));
+		}
+		EDGES[LAYERS] = 0;
+		for (int i = 0; i <= LAYERS; i++) {
+			DENSITIES[i] = Math.exp(-EDGES[i]);
+		}
+	}
+
+	/** State, advanced by GOLDEN_GAMMA on each draw */
+	private long state;
+
+	/** Constructor creates a new SplitMix64 object
+	 * @param seed The seed
+	 */
+	public SplitMix64(long seed) {
+		this.state = seed;
+	}
+
+	/** Creates one of a family of independent streams
+	 * @param seed The seed of the family
+	 * @param index The index of the stream
+	 * @return The stream
+	 */
+	public static SplitMix64 split(long seed, long index) {
+		// seed each stream from a draw of the family rather than adjacent states
+		return new SplitMix64(mix(seed + mix(index + 1) * GOLDEN_GAMMA));
+	}
+
+	/** Draws a uniformly distributed long
+	 * @return The draw
+	 */
+	public long nextLong() {
+		return mix(state += GOLDEN_GAMMA);
+	}
+
+	/** Draws a double uniformly distributed in [0, 1)
+	 * @return The draw
+	 */
+	public double nextDouble() {
+		return (nextLong() >>> 11) * DOUBLE_UNIT;
+	}
+
+	/** Draws a unit exponential variate by the ziggurat of Marsaglia and
+	 * Tsang, one long and no logarithm for all but about 1 draw in 100
+	 * @return The draw
+	 */
+	public double nextExponential() {
+		while (true) {
+			long bits = nextLong();
+			// low bits pick the layer, the high 53 the point along it
+			int layer = (int) bits & (LAYERS - 1);
+			double x = (bits >>> 11) * DOUBLE_UNIT * EDGES[layer];
+			if (x < EDGES[layer + 1]) {
+				return x;
+			}
+			if (layer == 0) {
+				// past the tail's start, which is exponential again by inversion
+				return TAIL - Math.log(1 - nextDouble());
+			}
+			if (DENSITIES[layer] + nextDouble() * (DENSITIES[layer + 1] - DENSITIES[layer]) < Math.exp(-x)) {
+				return x;
+			}
+		}
+	}
+
+	/** Draws a standard normal variate by the polar method
+	 * @return The draw
+	 */
+	public double nextGaussian() {
+		double u, v, s;
+		do {
+			u = 2 * nextDouble() - 1;
+			v = 2 * nextDouble() - 1;
+			s = u * u + v * v;
+		} while (s >= 1 || s == 0);
+		return u * Math.sqrt(-2 * Math.log(s) / s);
+	}
+
+	/** Draws a gamma variate of unit scale by the method of Marsaglia and
+	 * Tsang, boosting shapes below 1 - O(1) expected
+	 * @param shape The shape, positive
+	 * @return The draw
+	 */
+	public double nextGamma(double shape) {
+		if (shape < 1) {
+			// Gamma(a) = Gamma(a + 1) U^(1/a)
+			double u = nextDouble();
+			return nextGamma(shape + 1) * Math.pow(u == 0 ? Double.MIN_VALUE : u, 1 / shape);
+		}
+		double d = shape - 1.0 / 3;
+		double c = 1 / Math.sqrt(9 * d);
+		while (true) {
+			double x, v;
+			do {
+				x = nextGaussian();
+				v = 1 + c * x;
+			} while (v <= 0);
+			v = v * v * v;
+			double u = nextDouble();
+			if (u < 1 - 0.0331 * x * x * x * x || Math.log(u) < 0.5 * x * x + d * (1 - v + Math.log(v))) {
+				return d * v;
+			}
+		}
+	}
+
+	/** Finalizer of SplitMix64, a bijective scramble of 64 bits
+	 * @param z The bits
+	 * @return The scrambled bits
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+}
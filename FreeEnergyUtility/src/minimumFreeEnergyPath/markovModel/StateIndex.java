@@ -0,0 +1,167 @@
+package minimumFreeEnergyPath.markovModel;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+/** Numbers the states of a Markov model, the bins of a 2D collective
+ * variable space, consecutively from 0 in the order in which they are first
+ * seen, by open addressing on the pair of bin indices
+ */
+public final class StateIndex {
+
+	/** Fraction of slots which may be used before the table grows */
+	private static final double LOAD_FACTOR = 0.5;
+
+	/** Bin indices of the state in each slot, packed into one long */
+	private long[] keys;
+	/** State in each slot, or -1 if the slot is empty */
+	private int[] slots;
+	/** Mask giving the slot of a hash */
+	private int mask;
+	/** Bin index along x of each state */
+	private int[] xBins;
+	/** Bin index along y of each state */
+	private int[] yBins;
+	/** Number of states */
+	private int size;
+
+	/** Constructor creates a new StateIndex object with no states */
+	public StateIndex() {
+		allocate(64);
+		xBins = new int[32];
+		yBins = new int[32];
+	}
+
+	// Getters and setters
+	public int size() {
+		return size;
+	}
+
+	public int getXBin(int state) {
+		return xBins[state];
+	}
+
+	public int getYBin(int state) {
+		return yBins[state];
+	}
+
+	/** Finds the state of a bin - O(1) expected
+	 * @param xBin The bin index along x
+	 * @param yBin The bin index along y
+	 * @return The state, or -1 if the bin has not been seen
+	 */
+	public int get(int xBin, int yBin) {
+		long key = pack(xBin, yBin);
+		for (int slot = slot(key); slots[slot] >= 0; slot = (slot + 1) & mask) {
+			if (keys[slot] == key) {
+				return slots[slot];
+			}
+		}
+		return -1;
+	}
+
+	/** Finds the state of a bin, numbering it next if it has not been seen - O(1) amortised
+	 * @param xBin The bin index along x
+	 * @param yBin The bin index along y
+	 * @return The state
+	 */
+	public int getOrAdd(int xBin, int yBin) {
+		long key = pack(xBin, yBin);
+		int slot = slot(key);
+		while (slots[slot] >= 0) {
+			if (keys[slot] == key) {
+				return slots[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+		if (size + 1 > keys.length * LOAD_FACTOR) {
+			grow();
+			return getOrAdd(xBin, yBin);
+		}
+		if (size == xBins.length) {
+			xBins = Arrays.copyOf(xBins, size * 2);
+			yBins = Arrays.copyOf(yBins, size * 2);
+		}
+		keys[slot] = key;
+		slots[slot] = size;
+		xBins[size] = xBin;
+		yBins[size] = yBin;
+		return size++;
+	}
+
+	/** Finds the bin index of a coordinate, the nearest multiple of the scale
+	 * as in FreeEnergyUtility.r
+	 * @param coordinate The coordinate
+	 * @param scale The width of a bin
+	 * @return The bin index
+	 */
+	public static int toBin(double coordinate, double scale) {
+		return (int) Math.round(coordinate / scale);
+	}
+
+	/** Finds the coordinate of a bin, the decimal product of its index and
+	 * the scale, so that bin 3 of 0.1 is written 0.3 as R writes it
+	 * @param bin The bin index
+	 * @param scale The width of a bin
+	 * @return The coordinate
+	 */
+	public static double toCoordinate(int bin, double scale) {
+		return BigDecimal.valueOf(scale).multiply(BigDecimal.valueOf(bin)).doubleValue();
+	}
+
+	/** Removes every state, keeping the space allocated - O(capacity) */
+	public void clear() {
+		Arrays.fill(slots, -1);
+		size = 0;
+	}
+
+	/** Packs a pair of bin indices into a key
+	 * @param xBin The bin index along x
+	 * @param yBin The bin index along y
+	 * @return The key
+	 */
+	private static long pack(int xBin, int yBin) {
+		return ((long) xBin << 32) | (yBin & 0xffffffffL);
+	}
+
+	/** Finds the first slot to be probed for a key
+	 * @param key The key
+	 * @return The slot
+	 */
+	private int slot(long key) {
+		// finalizer of MurmurHash3, as in LongDoubleHashMap
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return (int) key & mask;
+	}
+
+	/** Doubles the number of slots, reinserting every state - O(capacity) */
+	private void grow() {
+		long[] oldKeys = keys;
+		int[] oldSlots = slots;
+		allocate(oldKeys.length * 2);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldSlots[i] >= 0) {
+				int slot = slot(oldKeys[i]);
+				while (slots[slot] >= 0) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = oldKeys[i];
+				slots[slot] = oldSlots[i];
+			}
+		}
+	}
+
+	/** Allocates empty slots
+	 * @param capacity The number of slots, a power of 2
+	 */
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		slots = new int[capacity];
+		Arrays.fill(slots, -1);
+		mask = capacity - 1;
+	}
+}
@@ -0,0 +1,183 @@
+package minimumFreeEnergyPath.markovModel;
+
+/** The stationary distribution of the transition matrix estimated from a
+ * set of TransitionCounts as in FreeEnergyUtility.r, found by power
+ * iteration from a starting guess, so that a previous distribution can be
+ * refined in a few sweeps when counts are added
+ *
+ * R adds a uniform prior count of 1 to every transition out of each state
+ * with counts, T = (Z + 1) / (rowSums(Z) + n), and takes the leading
+ * eigenvector of T. The counts are held as a SparseMatrix and the prior,
+ * a rank one term, adds the same amount to every state on each sweep
+ * rather than materialising n^2 entries, so a sweep costs O(nnz + n).
+ * States with no counts out have a row of 0, as in R, so each sweep is
+ * normalised and the eigenvalue may be a little below 1
+ */
+public final class StationaryDistribution {
+
+	/** Change in the distribution, summed over states, below which a sweep has converged */
+	public static final double DEFAULT_TOLERANCE = 1e-12;
+	/** Number of sweeps after which the iteration gives up */
+	public static final int DEFAULT_MAX_ITERATIONS = 100000;
+
+	/** Probability of each state, summing to 1 */
+	private final double[] probabilities;
+	/** Number of sweeps made */
+	private final int iterations;
+	/** Leading eigenvalue of the transition matrix */
+	private final double eigenvalue;
+	/** True if the last sweep changed the distribution by less than the tolerance */
+	private final boolean converged;
+
+	/** Constructor finds the distribution from a uniform start
+	 * @param counts The transition counts
+	 */
+	public StationaryDistribution(TransitionCounts counts) {
+		this(counts, null, DEFAULT_TOLERANCE, DEFAULT_MAX_ITERATIONS);
+	}
+
+	/** Constructor finds the distribution from a starting guess
+	 * @param counts The transition counts
+	 * @param initial The starting guess, which may cover only the first
+	 * states, as a distribution found before states were added, or null
+	 * @param tolerance Change in the distribution, summed over states, at which to stop
+	 * @param maxIterations Number of sweeps after which to stop regardless
+	 */
+	public StationaryDistribution(TransitionCounts counts, double[] initial, double tolerance, int maxIterations) {
+		this(SparseMatrix.fromCounts(counts), initial, tolerance, maxIterations);
+	}
+
+	/** Constructor finds the distribution of a count matrix from a starting guess
+	 * @param counts The count matrix, one row for each state the transitions leave
+	 * @param initial The starting guess, which may cover only the first
+	 * states, as a distribution found before states were added, or null
+	 * @param tolerance Change in the distribution, summed over states, at which to stop
+	 * @param maxIterations Number of sweeps after which to stop regardless
+	 */
+	public StationaryDistribution(SparseMatrix counts, double[] initial, double tolerance, int maxIterations) {
+		int n = counts.getSize();
+		double[] q = start(initial, n);
+		double[] next = new double[n];
+		// reciprocal of the prior total of each row, 0 for a row of no counts
+		double[] weights = new double[n];
+		for (int i = 0; i < n; i++) {
+			double rowTotal = counts.getRowSum(i);
+			weights[i] = rowTotal > 0 ? 1 / (rowTotal + n) : 0;
+		}
+		// probability of each state divided by the prior total of its row
+		double[] scaled = new double[n];
+
+		int iteration = 0;
+		double lambda = n == 0 ? 0 : 1;
+		boolean done = n == 0;
+		while (!done && iteration < maxIterations) {
+			double prior = 0;
+			for (int i = 0; i < n; i++) {
+				scaled[i] = q[i] * weights[i];
+				prior += scaled[i];
+			}
+			counts.multiplyTransposed(scaled, next); // O(nnz)
+			for (int j = 0; j < n; j++) {
+				next[j] += prior;
+			}
+
+			lambda = 0;
+			for (int j = 0; j < n; j++) {
+				lambda += next[j];
+			}
+			if (!(lambda > 0)) {
+				// no state has counts out, every state is absorbing
+				break;
+			}
+			double change = 0;
+			for (int j = 0; j < n; j++) {
+				next[j] /= lambda;
+				change += Math.abs(next[j] - q[j]);
+			}
+			double[] swap = q;
+			q = next;
+			next = swap;
+			iteration++;
+			done = change < tolerance;
+		}
+
+		this.probabilities = q;
+		this.iterations = iteration;
+		this.eigenvalue = lambda;
+		this.converged = done;
+	}
+
+	// Getters and setters
+	public double[] getProbabilities() {
+		return probabilities;
+	}
+
+	public int getIterations() {
+		return iterations;
+	}
+
+	public double getEigenvalue() {
+		return eigenvalue;
+	}
+
+	public boolean isConverged() {
+		return converged;
+	}
+
+	/** Finds the free energy of each state relative to the most probable,
+	 * G = -kT log(q / max q) - O(n)
+	 * @param kT The Boltzmann constant times the temperature, in units of free energy
+	 * @return The free energy of each state, infinite where its probability is 0
+	 */
+	public double[] getFreeEnergies(double kT) {
+		return toFreeEnergies(probabilities, kT);
+	}
+
+	/** Finds the free energy of each state of a distribution relative to
+	 * the most probable, G = -kT log(q / max q) - O(n)
+	 * @param probabilities The probability of each state
+	 * @param kT The Boltzmann constant times the temperature, in units of free energy
+	 * @return The free energy of each state, infinite where its probability is 0
+	 */
+	static double[] toFreeEnergies(double[] probabilities, double kT) {
+		double max = 0;
+		for (double p : probabilities) {
+			max = Math.max(max, p);
+		}
+		double[] energies = new double[probabilities.length];
+		for (int i = 0; i < energies.length; i++) {
+			// adding 0.0 turns -0.0 at the most probable state into 0.0
+			energies[i] = -kT * Math.log(probabilities[i] / max) + 0.0;
+		}
+		return energies;
+	}
+
+	/** Builds the starting vector of the iteration
+	 * @param initial The starting guess for the first states, or null
+	 * @param n The number of states
+	 * @return A distribution over all n states, new states taking the mean
+	 * probability
+	 */
+	private static double[] start(double[] initial, int n) {
+		double[] q = new double[n];
+		int known = initial == null ? 0 : Math.min(initial.length, n);
+		double sum = 0;
+		for (int i = 0; i < known; i++) {
+			q[i] = Math.max(initial[i], 0);
+			sum += q[i];
+		}
+		double fill = known == 0 || !(sum > 0) ? 1.0 / n : sum / known;
+		if (!(sum > 0)) {
+			known = 0;
+			sum = 0;
+		}
+		for (int i = known; i < n; i++) {
+			q[i] = fill;
+			sum += fill;
+		}
+		for (int i = 0; i < n; i++) {
+			q[i] /= sum;
+		}
+		return q;
+	}
+}
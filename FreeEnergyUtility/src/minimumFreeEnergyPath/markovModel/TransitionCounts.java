@@ -0,0 +1,167 @@
+package minimumFreeEnergyPath.markovModel;
+
+import java.util.Arrays;
+
+/** Counts of transitions between the states of a Markov model, as read
+ * from the 5 column files in dat/in (x1, y1, x2, y2, count), accumulated
+ * sparsely so that counts can be added at any time
+ *
+ * Each count is held against the pair of states packed into one long, and
+ * the total out of each state is kept up to date as counts are added
+ */
+public final class TransitionCounts {
+
+	/** The state of each bin */
+	private final StateIndex states;
+	/** Count of each transition, keyed by pack(from, to) */
+	private final LongDoubleHashMap counts;
+	/** Total count of transitions out of each state */
+	private double[] rowTotals;
+	/** Total count of all transitions */
+	private double total;
+
+	/** Constructor creates a new TransitionCounts object with no states */
+	public TransitionCounts() {
+		states = new StateIndex();
+		counts = new LongDoubleHashMap();
+		rowTotals = new double[32];
+	}
+
+	// Getters and setters
+	public StateIndex getStates() {
+		return states;
+	}
+
+	public int getStateCount() {
+		return states.size();
+	}
+
+	public LongDoubleHashMap getCounts() {
+		return counts;
+	}
+
+	public double getTotal() {
+		return total;
+	}
+
+	public double getRowTotal(int state) {
+		return rowTotals[state];
+	}
+
+	/** Retrieves the count of a transition - O(1) expected
+	 * @param from The state the transition leaves
+	 * @param to The state the transition enters
+	 * @return The count
+	 */
+	public double getCount(int from, int to) {
+		return counts.get(pack(from, to));
+	}
+
+	/** Adds to the count of a transition between two bins, numbering either
+	 * bin as a new state if it has not been seen - O(1) amortised
+	 * A count of 0 is ignored, as in FreeEnergyUtility.r, so creates no state
+	 * @param fromX The bin index along x of the state the transition leaves
+	 * @param fromY The bin index along y of the state the transition leaves
+	 * @param toX The bin index along x of the state the transition enters
+	 * @param toY The bin index along y of the state the transition enters
+	 * @param count The number of transitions, non-negative
+	 * @throws IllegalArgumentException if the count is negative or not a number
+	 */
+	public void add(int fromX, int fromY, int toX, int toY, double count) {
+		if (!(count >= 0) || Double.isInfinite(count)) {
+			throw new IllegalArgumentException("count must be finite and non-negative, found " + count);
+		}
+		if (count == 0) {
+			return;
+		}
+		add(states.getOrAdd(fromX, fromY), states.getOrAdd(toX, toY), count);
+	}
+
+	/** Adds to the count of a transition between two states - O(1) amortised
+	 * @param from The state the transition leaves
+	 * @param to The state the transition enters
+	 * @param count The number of transitions
+	 */
+	public void add(int from, int to, double count) {
+		if (states.size() > rowTotals.length) {
+			rowTotals = Arrays.copyOf(rowTotals, Math.max(states.size(), rowTotals.length * 2));
+		}
+		counts.add(pack(from, to), count);
+		rowTotals[from] += count;
+		total += count;
+	}
+
+	/** Adds every count of another set of counts, matching states by their
+	 * bins - O(transitions of the other)
+	 * @param other The counts to be added
+	 */
+	public void addAll(TransitionCounts other) {
+		StateIndex otherStates = other.getStates();
+		LongDoubleHashMap entries = other.getCounts();
+		for (int slot = 0; slot < entries.getCapacity(); slot++) {
+			if (entries.isUsed(slot)) {
+				int from = getFrom(entries.getKey(slot));
+				int to = getTo(entries.getKey(slot));
+				add(otherStates.getXBin(from), otherStates.getYBin(from), otherStates.getXBin(to),
+						otherStates.getYBin(to), entries.getValue(slot));
+			}
+		}
+	}
+
+	/** Adds the transitions of one line of a 5 column file, x1 y1 x2 y2 count
+	 * separated by whitespace - O(line length)
+	 * @param line The line
+	 * @param xScale The width of the bins along x
+	 * @param yScale The width of the bins along y
+	 * @return False if the line is blank
+	 * @throws NumberFormatException if a value is not numeric
+	 * @throws IllegalArgumentException if the line does not hold 5 values
+	 */
+	public boolean addLine(String line, double xScale, double yScale) {
+		String trimmed = line.trim();
+		if (trimmed.isEmpty()) {
+			return false;
+		}
+		String[] values = trimmed.split("\\s+");
+		if (values.length != 5) {
+			throw new IllegalArgumentException("expected 5 values, found " + values.length);
+		}
+		add(StateIndex.toBin(Double.parseDouble(values[0]), xScale), StateIndex.toBin(Double.parseDouble(values[1]), yScale),
+				StateIndex.toBin(Double.parseDouble(values[2]), xScale), StateIndex.toBin(Double.parseDouble(values[3]), yScale),
+				Double.parseDouble(values[4]));
+		return true;
+	}
+
+	/** Removes every state and count - O(capacity) */
+	public void clear() {
+		states.clear();
+		counts.clear();
+		Arrays.fill(rowTotals, 0);
+		total = 0;
+	}
+
+	/** Packs a pair of states into a key
+	 * @param from The state the transition leaves
+	 * @param to The state the transition enters
+	 * @return The key
+	 */
+	public static long pack(int from, int to) {
+		return ((long) from << 32) | to;
+	}
+
+	/** Finds the state a transition leaves
+	 * @param key The key of the transition
+	 * @return The state
+	 */
+	public static int getFrom(long key) {
+		return (int) (key >>> 32);
+	}
+
+	/** Finds the state a transition enters
+	 * @param key The key of the transition
+	 * @return The state
+	 */
+	public static int getTo(long key) {
+		return (int) key;
+	}
+}
@@ -0,0 +1,498 @@
+package minimumFreeEnergyPath.markovModel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import minimumFreeEnergyPath.gridSurface.RadixQueue;
+
+/** Transition path theory on the Markov model of FreeEnergyUtility.r,
+ * giving the committors, reactive flux and dominant pathways from a set of
+ * source states A to a set of sink states B
+ *
+ * The transition matrix is T = (Z + alpha) / w, alpha being the prior of 1
+ * on every entry of a row with counts, as in StationaryDistribution. Its
+ * dense prior enters each product as one sum over the states, so a product
+ * costs O(nnz + n). The forward committor solves q+ = T q+ off A and B, and
+ * the backward committor the same for the time reversed matrix, each by
+ * BiCGSTAB with the rows of each product shared across a fork-join pool
+ *
+ * The net reactive flux is taken over the pairs of states with counts in
+ * either direction. Pairs joined only by the prior carry a diffuse flux
+ * which is counted in the total but not in the network, so the pathways,
+ * found by repeatedly removing the path of widest bottleneck, follow
+ * observed transitions only
+ */
+public final class TransitionPathTheory {
+
+	/** Residual relative to the right hand side at which the solver stops */
+	public static final double DEFAULT_TOLERANCE = 1e-10;
+	/** Number of iterations after which the solver gives up */
+	public static final int DEFAULT_MAX_ITERATIONS = 10000;
+	/** Number of rows below which a product is not split further */
+	private static final int SEQUENTIAL_THRESHOLD = 1 << 12;
+
+	/** The count matrix */
+	private final SparseMatrix counts;
+	/** Its transpose */
+	private final SparseMatrix transposed;
+	/** Prior count on every entry of each row */
+	private final double[] priors;
+	/** Reciprocal of the prior total of each row, 1 for an empty row as in R */
+	private final double[] weights;
+	/** Stationary distribution */
+	private final double[] stationary;
+	/** Leading eigenvalue of the transition matrix */
+	private final double eigenvalue;
+	/** Source states */
+	private final BitSet source;
+	/** Sink states */
+	private final BitSet sink;
+	/** Pool sharing the rows of each product */
+	private final ForkJoinPool pool;
+
+	/** Probability of reaching B before A from each state */
+	private final double[] forward;
+	/** Probability of having last left A rather than B, for each state */
+	private final double[] backward;
+	/** Number of solver iterations taken by both committors */
+	private int iterations;
+	/** True if both committors converged */
+	private boolean converged;
+	/** Total reactive flux out of A */
+	private final double flux;
+
+	/** Constructor finds the committors and the total flux
+	 * @param counts The count matrix, one row for each state the transitions leave
+	 * @param distribution The stationary distribution of the counts
+	 * @param source The source states, A
+	 * @param sink The sink states, B, disjoint from A
+	 * @param pool The pool sharing the rows of each product
+	 * @throws IllegalArgumentException if either set is empty or they overlap
+	 */
+	public TransitionPathTheory(SparseMatrix counts, StationaryDistribution distribution, BitSet source,
+			BitSet sink, ForkJoinPool pool) {
+		if (source.isEmpty() || sink.isEmpty() || source.intersects(sink)) {
+			throw new IllegalArgumentException("source and sink must be disjoint and not empty");
+		}
+		int n = counts.getSize();
+		this.counts = counts;
+		this.transposed = counts.transpose(); // O(nnz + n)
+		this.priors = new double[n];
+		this.weights = new double[n];
+		for (int i = 0; i < n; i++) {
+			double rowTotal = counts.getRowSum(i);
+			priors[i] = rowTotal > 0 ? 1 : 0;
+			weights[i] = 1 / (rowTotal > 0 ? rowTotal + n : 1);
+		}
+		this.stationary = distribution.getProbabilities();
+		this.eigenvalue = distribution.getEigenvalue();
+		this.source = source;
+		this.sink = sink;
+		this.pool = pool;
+		this.converged = true;
+
+		this.forward = solve(false, sink);
+		this.backward = solve(true, source);
+
+		// flux out of A, where q- is 1 and q+ is 0 - O(nnz + n)
+		double forwardSum = 0;
+		for (double q : forward) {
+			forwardSum += q;
+		}
+		double total = 0;
+		for (int i = source.nextSetBit(0); i >= 0; i = source.nextSetBit(i + 1)) {
+			double out = priors[i] * forwardSum;
+			for (int k = counts.getRowStart(i); k < counts.getRowEnd(i); k++) {
+				out += counts.getValue(k) * forward[counts.getColumn(k)];
+			}
+			total += stationary[i] * out * weights[i];
+		}
+		this.flux = total;
+	}
+
+	// Getters and setters
+	public double[] getForwardCommittors() {
+		return forward;
+	}
+
+	public double[] getBackwardCommittors() {
+		return backward;
+	}
+
+	public double getFlux() {
+		return flux;
+	}
+
+	public int getIterations() {
+		return iterations;
+	}
+
+	public boolean isConverged() {
+		return converged;
+	}
+
+	/** Finds the rate of reactions from A to B, the flux divided by the
+	 * probability of having last left A - O(n)
+	 * @return The rate, per step of the model
+	 */
+	public double getRate() {
+		double lastInSource = 0;
+		for (int i = 0; i < stationary.length; i++) {
+			lastInSource += stationary[i] * backward[i];
+		}
+		return flux / lastInSource;
+	}
+
+	/** Finds the reactive flux from one state to another,
+	 * f = pi_i q-_i T_ij q+_j - O(log entries in the row)
+	 * @param from The state the transition leaves
+	 * @param to The state the transition enters
+	 * @return The flux, 0 from a state to itself
+	 */
+	public double getReactiveFlux(int from, int to) {
+		if (from == to) {
+			return 0;
+		}
+		int entry = counts.find(from, to);
+		double transition = ((entry < 0 ? 0 : counts.getValue(entry)) + priors[from]) * weights[from];
+		return stationary[from] * backward[from] * transition * forward[to];
+	}
+
+	/** Builds the net reactive flux over the pairs of states with counts in
+	 * either direction - O(nnz log n)
+	 * @return The network, one entry for each pair with positive net flux,
+	 * from the state it leaves to the state it enters
+	 */
+	public SparseMatrix getNetFlux() {
+		int n = counts.getSize();
+		int[] from = new int[counts.getNonZeros()];
+		int[] to = new int[from.length];
+		double[] values = new double[from.length];
+		int[] toStart = new int[n + 1];
+		int m = 0;
+		for (int i = 0; i < n; i++) {
+			for (int k = counts.getRowStart(i); k < counts.getRowEnd(i); k++) {
+				int j = counts.getColumn(k);
+				if (i == j || (j < i && counts.find(j, i) >= 0)) {
+					// the pair was taken from the other side
+					continue;
+				}
+				double net = getReactiveFlux(i, j) - getReactiveFlux(j, i);
+				if (net != 0) {
+					from[m] = net > 0 ? i : j;
+					to[m] = net > 0 ? j : i;
+					values[m] = Math.abs(net);
+					toStart[to[m] + 1]++;
+					m++;
+				}
+			}
+		}
+
+		// bucket by the state entered, then transpose to sort each row by column
+		for (int j = 0; j < n; j++) {
+			toStart[j + 1] += toStart[j];
+		}
+		int[] next = Arrays.copyOf(toStart, n);
+		int[] byToColumns = new int[m];
+		double[] byToValues = new double[m];
+		for (int e = 0; e < m; e++) {
+			int position = next[to[e]]++;
+			byToColumns[position] = from[e];
+			byToValues[position] = values[e];
+		}
+		return new SparseMatrix(n, toStart, byToColumns, byToValues).transpose();
+	}
+
+	/** Decomposes the net flux into pathways from A to B, each the path of
+	 * widest bottleneck through the flux left by those before it - O(nnz + n) each
+	 * @param maxPathways The number of pathways after which to stop
+	 * @param minFraction The fraction of the total flux below which a pathway is not taken
+	 * @return The pathways in order of decreasing flux
+	 */
+	public List<Pathway> getPathways(int maxPathways, double minFraction) {
+		SparseMatrix network = getNetFlux();
+		int n = network.getSize();
+		double[] remaining = new double[network.getNonZeros()];
+		for (int k = 0; k < remaining.length; k++) {
+			remaining[k] = network.getValue(k);
+		}
+
+		List<Pathway> pathways = new ArrayList<Pathway>();
+		double[] width = new double[n];
+		int[] parentEntry = new int[n];
+		int[] parent = new int[n];
+		RadixQueue queue = new RadixQueue();
+		while (pathways.size() < maxPathways) {
+			// widest path, as Dijkstra's algorithm keyed on the reciprocal of the width
+			Arrays.fill(width, 0);
+			queue.clear();
+			for (int i = source.nextSetBit(0); i >= 0; i = source.nextSetBit(i + 1)) {
+				width[i] = Double.POSITIVE_INFINITY;
+				parent[i] = -1;
+				queue.push(0, i);
+			}
+			int end = -1;
+			while (!queue.isEmpty()) {
+				int state = queue.pop();
+				if (queue.getLastKey() != 1 / width[state]) {
+					continue; // stale
+				}
+				if (sink.get(state)) {
+					end = state;
+					break;
+				}
+				for (int k = network.getRowStart(state); k < network.getRowEnd(state); k++) {
+					int next = network.getColumn(k);
+					double w = Math.min(width[state], remaining[k]);
+					if (w > width[next] && !source.get(next)) {
+						width[next] = w;
+						parent[next] = state;
+						parentEntry[next] = k;
+						queue.push(1 / w, next);
+					}
+				}
+			}
+			if (end < 0 || width[end] < minFraction * flux) {
+				break;
+			}
+
+			double bottleneck = width[end];
+			int length = 1;
+			for (int state = end; parent[state] >= 0; state = parent[state]) {
+				remaining[parentEntry[state]] -= bottleneck;
+				length++;
+			}
+			int[] path = new int[length];
+			for (int state = end, i = length - 1; i >= 0; state = parent[state], i--) {
+				path[i] = state;
+			}
+			pathways.add(new Pathway(path, bottleneck));
+		}
+		return pathways;
+	}
+
+	/** Solves for a committor, 1 on the target and 0 on the other set, by
+	 * BiCGSTAB over the states in neither set
+	 * @param reversed True for the backward committor, on the time reversed matrix
+	 * @param target The states on which the committor is 1
+	 * @return The committor of each state
+	 */
+	private double[] solve(boolean reversed, BitSet target) {
+		int n = counts.getSize();
+		double[] indicator = new double[n];
+		for (int i = target.nextSetBit(0); i >= 0; i = target.nextSetBit(i + 1)) {
+			indicator[i] = 1;
+		}
+		// b = P 1_target off the boundary
+		double[] b = new double[n];
+		propagate(reversed, indicator, b);
+		mask(b);
+
+		double[] x = new double[n];
+		double[] r = b.clone();
+		double[] rHat = b.clone();
+		double[] p = new double[n];
+		double[] v = new double[n];
+		double[] s = new double[n];
+		double[] t = new double[n];
+		double rho = 1, alpha = 1, omega = 1;
+		double limit = DEFAULT_TOLERANCE * Math.max(norm(b), Double.MIN_NORMAL);
+		boolean done = norm(r) <= limit;
+		int iteration = 0;
+		while (!done && iteration < DEFAULT_MAX_ITERATIONS) {
+			iteration++;
+			double rhoNext = dot(rHat, r);
+			if (rhoNext == 0 || omega == 0) {
+				// breakdown, restart from the current residual
+				System.arraycopy(r, 0, rHat, 0, n);
+				Arrays.fill(p, 0);
+				Arrays.fill(v, 0);
+				rho = alpha = omega = 1;
+				rhoNext = dot(rHat, r);
+			}
+			double beta = (rhoNext / rho) * (alpha / omega);
+			rho = rhoNext;
+			for (int i = 0; i < n; i++) {
+				p[i] = r[i] + beta * (p[i] - omega * v[i]);
+			}
+			apply(reversed, p, v);
+			alpha = rho / dot(rHat, v);
+			for (int i = 0; i < n; i++) {
+				s[i] = r[i] - alpha * v[i];
+			}
+			if (norm(s) <= limit) {
+				for (int i = 0; i < n; i++) {
+					x[i] += alpha * p[i];
+				}
+				done = true;
+				break;
+			}
+			apply(reversed, s, t);
+			omega = dot(t, s) / dot(t, t);
+			for (int i = 0; i < n; i++) {
+				x[i] += alpha * p[i] + omega * s[i];
+				r[i] = s[i] - omega * t[i];
+			}
+			done = norm(r) <= limit;
+		}
+		iterations += iteration;
+		converged &= done;
+
+		for (int i = 0; i < n; i++) {
+			// rounding may stray just outside [0, 1]
+			x[i] = Math.min(1, Math.max(0, x[i] + indicator[i]));
+		}
+		return x;
+	}
+
+	/** Applies the operator of the committor equations, y = x - P x off the
+	 * boundary and 0 on it, to a vector which is 0 on the boundary - O(nnz + n)
+	 * @param reversed True for the time reversed matrix
+	 * @param x The vector
+	 * @param y The product, overwritten
+	 */
+	private void apply(boolean reversed, double[] x, double[] y) {
+		propagate(reversed, x, y);
+		for (int i = 0; i < y.length; i++) {
+			y[i] = x[i] - y[i];
+		}
+		mask(y);
+	}
+
+	/** Sets the entries of the boundary, A and B, to 0
+	 * @param x The vector
+	 */
+	private void mask(double[] x) {
+		for (int i = source.nextSetBit(0); i >= 0; i = source.nextSetBit(i + 1)) {
+			x[i] = 0;
+		}
+		for (int i = sink.nextSetBit(0); i >= 0; i = sink.nextSetBit(i + 1)) {
+			x[i] = 0;
+		}
+	}
+
+	/** Multiplies a vector by the transition matrix, y = T v, or by its
+	 * time reversal, y_i = sum_j pi_j T_ji v_j / (lambda pi_i) - O(nnz + n)
+	 * @param reversed True for the time reversed matrix
+	 * @param v The vector
+	 * @param y The product, overwritten
+	 */
+	private void propagate(boolean reversed, double[] v, double[] y) {
+		int n = v.length;
+		double[] u = v;
+		double sum = 0;
+		if (reversed) {
+			u = new double[n];
+			for (int j = 0; j < n; j++) {
+				u[j] = stationary[j] * v[j] * weights[j];
+				sum += priors[j] * u[j];
+			}
+		} else {
+			for (int j = 0; j < n; j++) {
+				sum += v[j];
+			}
+		}
+		Rows rows = new Rows(reversed, u, sum, y, 0, n);
+		if (n <= SEQUENTIAL_THRESHOLD) {
+			rows.compute();
+		} else {
+			pool.invoke(rows);
+		}
+	}
+
+	/** Finds the dot product of two vectors - O(n)
+	 * @param a The first vector
+	 * @param b The second vector
+	 * @return The dot product
+	 */
+	private static double dot(double[] a, double[] b) {
+		double sum = 0;
+		for (int i = 0; i < a.length; i++) {
+			sum += a[i] * b[i];
+		}
+		return sum;
+	}
+
+	/** Finds the Euclidean length of a vector - O(n)
+	 * @param a The vector
+	 * @return The length
+	 */
+	private static double norm(double[] a) {
+		return Math.sqrt(dot(a, a));
+	}
+
+	/** A range of rows of a product, split in half until small enough */
+	private final class Rows extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		/** True for the time reversed matrix */
+		private final boolean reversed;
+		/** The vector, scaled for the time reversed matrix */
+		private final double[] u;
+		/** Sum of the vector over the prior */
+		private final double sum;
+		/** The product */
+		private final double[] y;
+		/** First row */
+		private final int from;
+		/** Row after the last */
+		private final int to;
+
+		private Rows(boolean reversed, double[] u, double sum, double[] y, int from, int to) {
+			this.reversed = reversed;
+			this.u = u;
+			this.sum = sum;
+			this.y = y;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > SEQUENTIAL_THRESHOLD) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new Rows(reversed, u, sum, y, from, middle), new Rows(reversed, u, sum, y, middle, to));
+				return;
+			}
+			SparseMatrix matrix = reversed ? transposed : counts;
+			for (int i = from; i < to; i++) {
+				double row = reversed ? sum : priors[i] * sum;
+				for (int k = matrix.getRowStart(i); k < matrix.getRowEnd(i); k++) {
+					row += matrix.getValue(k) * u[matrix.getColumn(k)];
+				}
+				if (reversed) {
+					y[i] = stationary[i] > 0 ? row / (eigenvalue * stationary[i]) : 0;
+				} else {
+					y[i] = row * weights[i];
+				}
+			}
+		}
+	}
+
+	/** A path from A to B carrying part of the net reactive flux */
+	public static final class Pathway {
+		/** The states of the path, from A to B */
+		private final int[] states;
+		/** The flux carried, the bottleneck of the path */
+		private final double flux;
+
+		private Pathway(int[] states, double flux) {
+			this.states = states;
+			this.flux = flux;
+		}
+
+		// Getters and setters
+		public int[] getStates() {
+			return states;
+		}
+
+		public double getFlux() {
+			return flux;
+		}
+	}
+}
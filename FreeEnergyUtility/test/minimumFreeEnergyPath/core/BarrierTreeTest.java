@@ -0,0 +1,111 @@
+package minimumFreeEnergyPath.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import minimumFreeEnergyPath.gridSurface.GridSurface;
+
+import org.junit.Test;
+
+/** Tests of BarrierTree queries against a brute force minimax search */
+public class BarrierTreeTest {
+
+	/** Fraction of cells left inaccessible, enough to leave separate regions */
+	private static final double HOLES = 0.3;
+
+	@Test
+	public void saddlesMatchBruteForce() {
+		for (long seed = 1; seed <= 5; seed++) {
+			GridSurface surface = randomSurface(new Random(seed), 20, 15);
+			BarrierTree tree = new BarrierTree(surface);
+			for (int from = 0; from < surface.size(); from++) {
+				double[] lowest = lowestPeaks(surface, from);
+				for (int to = 0; to < surface.size(); to++) {
+					int saddle = tree.getSaddle(from, to);
+					String message = "seed " + seed + " from " + from + " to " + to;
+					if (Double.isInfinite(lowest[to])) {
+						assertEquals(message, -1, saddle);
+						assertEquals(message, Double.POSITIVE_INFINITY, tree.getBarrier(from, to), 0);
+					} else {
+						assertEquals(message, lowest[to], surface.getEnergy(saddle), 0);
+						assertEquals(message, lowest[to] - surface.getEnergy(from), tree.getBarrier(from, to), 0);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void leavesAreLocalMinimaBelowTheirSaddles() {
+		GridSurface surface = randomSurface(new Random(7), 30, 30);
+		BarrierTree tree = new BarrierTree(surface);
+		int[] neighbours = new int[GridSurface.MAX_NEIGHBOURS];
+		for (int node = 0; node < tree.getNodeCount(); node++) {
+			int cell = tree.getNodeCell(node);
+			if (tree.isMinimum(node)) {
+				int count = surface.getNeighbours(cell, neighbours);
+				for (int i = 0; i < count; i++) {
+					assertTrue("node " + node, surface.getEnergy(neighbours[i]) >= surface.getEnergy(cell));
+				}
+			}
+			int parent = tree.getParent(node);
+			if (parent >= 0) {
+				assertTrue("node " + node, surface.getEnergy(tree.getNodeCell(parent)) >= surface.getEnergy(cell));
+				assertTrue("node " + node, tree.getSize(parent) > tree.getSize(node));
+			}
+		}
+	}
+
+	/** Finds the lowest peak of any path from a cell to every other cell by
+	 * a Dijkstra search on the highest energy so far - O(n^2)
+	 * @param surface The surface
+	 * @param from The cell at which paths start
+	 * @return The lowest peak for each cell, or infinity if unreachable
+	 */
+	private static double[] lowestPeaks(GridSurface surface, int from) {
+		double[] peak = new double[surface.size()];
+		boolean[] done = new boolean[surface.size()];
+		Arrays.fill(peak, Double.POSITIVE_INFINITY);
+		if (!surface.isAccessible(from)) {
+			return peak;
+		}
+		peak[from] = surface.getEnergy(from);
+		int[] neighbours = new int[GridSurface.MAX_NEIGHBOURS];
+		while (true) {
+			int next = -1;
+			for (int cell = 0; cell < peak.length; cell++) {
+				if (!done[cell] && !Double.isInfinite(peak[cell]) && (next < 0 || peak[cell] < peak[next])) {
+					next = cell;
+				}
+			}
+			if (next < 0) {
+				return peak;
+			}
+			done[next] = true;
+			int count = surface.getNeighbours(next, neighbours);
+			for (int i = 0; i < count; i++) {
+				int cell = neighbours[i];
+				if (surface.isAccessible(cell)) {
+					peak[cell] = Math.min(peak[cell], Math.max(peak[next], surface.getEnergy(cell)));
+				}
+			}
+		}
+	}
+
+	/** Builds a surface of random energies with many inaccessible cells
+	 * @param random The source of the energies
+	 * @param width The number of cells along x
+	 * @param height The number of cells along y
+	 * @return The GridSurface
+	 */
+	private static GridSurface randomSurface(Random random, int width, int height) {
+		double[] energies = new double[width * height];
+		for (int cell = 0; cell < energies.length; cell++) {
+			energies[cell] = random.nextDouble() < HOLES ? Double.POSITIVE_INFINITY : 10 * random.nextDouble();
+		}
+		return new GridSurface(DescentForestTest.axis(width, 0.5), DescentForestTest.axis(height, 0.25), energies);
+	}
+}
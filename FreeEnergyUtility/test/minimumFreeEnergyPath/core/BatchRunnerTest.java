@@ -0,0 +1,129 @@
+package minimumFreeEnergyPath.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import minimumFreeEnergyPath.gridSurface.GridSurface;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Tests that BatchRunner writes the paths single runs would write for
+ * every file of a job file */
+public class BatchRunnerTest {
+
+	/** Number of data files in the job */
+	private static final int FILES = 6;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void writesPathOfEverySurface() throws IOException, InterruptedException {
+		String prefix = new File(folder.getRoot(), "free_energy_").getPath();
+		for (int file = 0; file < FILES; file++) {
+			writeRandomTable(new Random(file), prefix + "run" + file + ".dat");
+		}
+		String[] dataFiles = new String[FILES + 1];
+		for (int file = 0; file < FILES; file++) {
+			dataFiles[file] = "run" + file + ".dat";
+		}
+		dataFiles[FILES] = "missing.dat";
+		String jobFile = writeJobFile(0, -1, dataFiles);
+		BatchRunner runner = new BatchRunner(jobFile, prefix, GridSurface.Neighbourhood.FULL);
+		assertEquals(FILES + 1, runner.getSurfaceFiles().size());
+
+		List<BatchRunner.Result> results = runner.run(3, 1L << 30);
+		assertEquals(FILES + 1, results.size());
+		for (int file = 0; file < FILES; file++) {
+			BatchRunner.Result result = results.get(file);
+			assertTrue(result.getError(), result.isSuccessful());
+			assertEquals(prefix + "run" + file + ".dat", result.getSurfaceFile());
+
+			// a single run from the top left, the last row counted back from the end
+			GridSurface surface = FileUtility.readToSurface(result.getSurfaceFile());
+			int startCell = surface.getCell(0, surface.getHeight() - 1);
+			String expected = new File(folder.getRoot(), "expected" + file + ".dat").getPath();
+			FileUtility.writeFromPath(expected, surface,
+					MostProbableFoldingPath.findPathBetween(surface, startCell, surface.getMinimumCell()));
+			assertArrayEquals(Files.readAllBytes(new File(expected).toPath()),
+					Files.readAllBytes(new File(result.getSurfaceFile() + "_path.dat").toPath()));
+		}
+		assertFalse(results.get(FILES).isSuccessful());
+		assertEquals("not found", results.get(FILES).getError());
+	}
+
+	@Test
+	public void smallBudgetRunsOneSurfaceAtATime() throws IOException, InterruptedException {
+		String prefix = new File(folder.getRoot(), "free_energy_").getPath();
+		String[] dataFiles = new String[FILES];
+		for (int file = 0; file < FILES; file++) {
+			dataFiles[file] = "run" + file + ".dat";
+			writeRandomTable(new Random(file), prefix + dataFiles[file]);
+		}
+		BatchRunner runner = new BatchRunner(writeJobFile(0, -1, dataFiles), prefix, GridSurface.Neighbourhood.FULL);
+		for (BatchRunner.Result result : runner.run(4, 1)) {
+			assertTrue(result.getError(), result.isSuccessful());
+		}
+	}
+
+	@Test(expected = SurfaceFormatException.class)
+	public void rejectsJobFileWithoutDataFiles() throws IOException {
+		new BatchRunner(writeJobFile(0, 0), null, GridSurface.Neighbourhood.FULL);
+	}
+
+	/** Writes a job file in the format of dat/in/readfile.dat
+	 * @param x The x coordinate of the start
+	 * @param y The y coordinate of the start
+	 * @param dataFiles The data files listed
+	 * @return The path of the file
+	 * @throws IOException
+	 */
+	private String writeJobFile(double x, double y, String... dataFiles) throws IOException {
+		File file = new File(folder.getRoot(), "readfile.dat");
+		try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+			out.print("300\t# temperature\n1\t# x scale\n1\t# y scale\n");
+			out.print(x + "\t# x start\n" + y + "\t# y start\nx\t# x label\ny\t# y label\n10\t# samples\n");
+			for (String dataFile : dataFiles) {
+				out.print(dataFile + "\n");
+			}
+		}
+		return file.getPath();
+	}
+
+	/** Writes a table of random energies as write.table in FreeEnergyUtility.r does
+	 * @param random The source of the energies
+	 * @param filename The path of the file
+	 * @throws IOException
+	 */
+	private static void writeRandomTable(Random random, String filename) throws IOException {
+		int width = 12 + random.nextInt(8);
+		int height = 9 + random.nextInt(8);
+		try (PrintWriter out = new PrintWriter(filename, "US-ASCII")) {
+			out.print("\"\"");
+			for (int i = 0; i < width; i++) {
+				out.print("\t\"" + i + "\"");
+			}
+			out.print("\n");
+			for (int j = 0; j < height; j++) {
+				out.print("\"" + j + "\"");
+				for (int i = 0; i < width; i++) {
+					double energy = i == 0 && j == height - 1 ? 9.5 : 10 * random.nextDouble();
+					out.print(String.format(Locale.ROOT, "\t%.6f", energy));
+				}
+				out.print("\n");
+			}
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package minimumFreeEnergyPath.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import minimumFreeEnergyPath.gridSurface.GridSurface;
+
+import org.junit.Test;
+
+/** Tests of DescentForest on random surfaces and a bowl whose paths are known */
+public class DescentForestTest {
+
+	/** Fraction of cells left inaccessible */
+	private static final double HOLES = 0.1;
+
+	@Test
+	public void everyPathStepsBetweenNeighboursToRoot() {
+		for (long seed = 1; seed <= 10; seed++) {
+			GridSurface surface = randomSurface(new Random(seed), 40, 30);
+			DescentForest forest = new DescentForest(surface);
+			int[] neighbours = new int[GridSurface.MAX_NEIGHBOURS];
+			for (int cell = 0; cell < surface.size(); cell++) {
+				int[] path = forest.pathFrom(cell);
+				if (path == null) {
+					assertEquals("seed " + seed + " cell " + cell, -1, forest.getPathLength(cell));
+					continue;
+				}
+				assertEquals(cell, path[0]);
+				assertEquals(forest.getRoot(), path[path.length - 1]);
+				assertEquals(path.length - 1, forest.getPathLength(cell));
+				for (int i = 1; i < path.length; i++) {
+					int count = surface.getNeighbours(path[i - 1], neighbours);
+					boolean adjacent = false;
+					for (int j = 0; j < count; j++) {
+						adjacent |= neighbours[j] == path[i];
+					}
+					assertTrue("seed " + seed + " cell " + cell + " step " + i, adjacent);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void cellsDescendToLowestNeighbourAndBasinMinimum() {
+		GridSurface surface = randomSurface(new Random(17), 40, 30);
+		DescentForest forest = new DescentForest(surface);
+		int[] neighbours = new int[GridSurface.MAX_NEIGHBOURS];
+		for (int cell = 0; cell < surface.size(); cell++) {
+			if (!surface.isAccessible(cell)) {
+				assertEquals(-1, forest.getBasin(cell));
+				assertNull(forest.pathFrom(cell));
+				continue;
+			}
+			int lowest = lowestNeighbour(surface, cell, neighbours);
+			if (lowest >= 0) {
+				assertEquals("cell " + cell, forest.getBasin(lowest), forest.getBasin(cell));
+				if (forest.getBasin(cell) == forest.getRoot()) {
+					// no escape path passes through the basin of the root
+					assertEquals("cell " + cell, lowest, forest.getSuccessor(cell));
+				}
+			} else {
+				assertEquals("cell " + cell, cell, forest.getBasin(cell));
+			}
+		}
+	}
+
+	@Test
+	public void bowlPathsAreStraightDescents() {
+		int width = 21;
+		int height = 15;
+		double[] energies = new double[width * height];
+		for (int j = 0; j < height; j++) {
+			for (int i = 0; i < width; i++) {
+				energies[j * width + i] = (i - 10) * (i - 10) + (j - 7) * (j - 7);
+			}
+		}
+		GridSurface surface = new GridSurface(axis(width, 1), axis(height, 1), energies);
+		DescentForest forest = new DescentForest(surface);
+		assertEquals(surface.getCell(10, 7), forest.getRoot());
+		assertArrayEquals(new int[] { forest.getRoot() }, forest.pathFrom(forest.getRoot()));
+		for (int j = 0; j < height; j++) {
+			for (int i = 0; i < width; i++) {
+				int cell = surface.getCell(i, j);
+				assertEquals(forest.getRoot(), forest.getBasin(cell));
+				assertEquals(Math.max(Math.abs(i - 10), Math.abs(j - 7)), forest.getPathLength(cell));
+			}
+		}
+	}
+
+	@Test
+	public void forestDoesNotDependOnThreads() {
+		// large enough to be split across tasks
+		GridSurface surface = randomSurface(new Random(23), 200, 150);
+		ForkJoinPool one = new ForkJoinPool(1);
+		ForkJoinPool four = new ForkJoinPool(4);
+		try {
+			DescentForest sequential = new DescentForest(surface, one);
+			DescentForest parallel = new DescentForest(surface, four);
+			for (int cell = 0; cell < surface.size(); cell++) {
+				assertEquals(sequential.getSuccessor(cell), parallel.getSuccessor(cell));
+				assertEquals(sequential.getBasin(cell), parallel.getBasin(cell));
+			}
+		} finally {
+			one.shutdown();
+			four.shutdown();
+		}
+	}
+
+	/** Finds the neighbour of a cell lowest in energy, if lower than the cell
+	 * @param surface The surface
+	 * @param cell The cell
+	 * @param neighbours Array of length at least MAX_NEIGHBOURS to be used
+	 * @return The first of the lowest neighbours, or -1 for a local minimum
+	 */
+	private static int lowestNeighbour(GridSurface surface, int cell, int[] neighbours) {
+		int lowest = -1;
+		double minEnergy = surface.getEnergy(cell);
+		int count = surface.getNeighbours(cell, neighbours);
+		for (int i = 0; i < count; i++) {
+			if (surface.getEnergy(neighbours[i]) < minEnergy) {
+				minEnergy = surface.getEnergy(neighbours[i]);
+				lowest = neighbours[i];
+			}
+		}
+		return lowest;
+	}
+
+	/** Builds a surface of random energies with a few inaccessible cells
+	 * @param random The source of the energies
+	 * @param width The number of cells along x
+	 * @param height The number of cells along y
+	 * @return The GridSurface
+	 */
+	static GridSurface randomSurface(Random random, int width, int height) {
+		double[] energies = new double[width * height];
+		for (int cell = 0; cell < energies.length; cell++) {
+			energies[cell] = random.nextDouble() < HOLES ? Double.POSITIVE_INFINITY : 10 * random.nextDouble();
+		}
+		return new GridSurface(axis(width, 0.5), axis(height, 0.25), energies);
+	}
+
+	/** Builds an evenly spaced axis starting at 0
+	 * @param length The number of values
+	 * @param spacing The distance between values
+	 * @return The axis
+	 */
+	static double[] axis(int length, double spacing) {
+		double[] values = new double[length];
+		for (int i = 0; i < length; i++) {
+			values[i] = spacing * i;
+		}
+		return values;
+	}
+}
@@ -0,0 +1,144 @@
+package minimumFreeEnergyPath.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import minimumFreeEnergyPath.gridSurface.GridSurface;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Tests that IncrementalPath, fed a count file a piece at a time, ends
+ * with the surface and path found from the whole file at once */
+public class IncrementalPathTest {
+
+	/** Largest difference allowed between free energies refined and found from scratch */
+	private static final double DELTA = 1e-6;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void appendedCountsGiveSamePathAsWholeFile() throws IOException {
+		JobFile job = writeJobFile();
+		String counts = randomWalk(new Random(1), 3000);
+		File countFile = folder.newFile("counts.dat");
+		IncrementalPath incremental = new IncrementalPath(job, folder.newFile("incremental.dat").getPath(),
+				GridSurface.Neighbourhood.FULL, 1e-9);
+
+		int[] breaks = { 0, counts.length() / 3, 2 * counts.length() / 3, counts.length() };
+		for (int piece = 1; piece < breaks.length; piece++) {
+			// the break falls part way through a line, which waits for the next piece
+			append(countFile, counts.substring(breaks[piece - 1], breaks[piece]));
+			incremental.readAppended(countFile);
+			assertNotNull(incremental.update());
+		}
+		assertNull(incremental.update());
+
+		IncrementalPath whole = fromScratch(job, countFile);
+		assertSameSurfaceAndPath(whole, incremental);
+	}
+
+	@Test
+	public void truncatedFileIsReadAgain() throws IOException {
+		JobFile job = writeJobFile();
+		File countFile = folder.newFile("counts.dat");
+		IncrementalPath incremental = new IncrementalPath(job, folder.newFile("incremental.dat").getPath(),
+				GridSurface.Neighbourhood.FULL, 1e-9);
+		append(countFile, randomWalk(new Random(2), 3000));
+		incremental.readAppended(countFile);
+		incremental.update();
+
+		// rewritten by a new run, shorter than before
+		try (OutputStream out = new FileOutputStream(countFile)) {
+			out.write(randomWalk(new Random(3), 1000).getBytes(StandardCharsets.US_ASCII));
+		}
+		assertEquals(1000, incremental.readAppended(countFile));
+		incremental.update();
+		assertSameSurfaceAndPath(fromScratch(job, countFile), incremental);
+	}
+
+	/** Reads a whole count file into a new IncrementalPath and updates it once
+	 * @param job Settings of the job
+	 * @param countFile The count file
+	 * @return The IncrementalPath
+	 * @throws IOException
+	 */
+	private IncrementalPath fromScratch(JobFile job, File countFile) throws IOException {
+		IncrementalPath whole = new IncrementalPath(job, folder.newFile().getPath(), GridSurface.Neighbourhood.FULL, 1e-9);
+		whole.readAppended(countFile);
+		assertNotNull(whole.update());
+		return whole;
+	}
+
+	/** Checks two IncrementalPaths hold the same surface and path
+	 * @param expected The IncrementalPath found from scratch
+	 * @param actual The IncrementalPath refined a piece at a time
+	 */
+	private static void assertSameSurfaceAndPath(IncrementalPath expected, IncrementalPath actual) {
+		GridSurface expectedSurface = expected.getSurface();
+		GridSurface actualSurface = actual.getSurface();
+		assertEquals(expectedSurface.getWidth(), actualSurface.getWidth());
+		assertEquals(expectedSurface.getHeight(), actualSurface.getHeight());
+		for (int cell = 0; cell < expectedSurface.size(); cell++) {
+			assertEquals("cell " + cell, expectedSurface.getEnergy(cell), actualSurface.getEnergy(cell), DELTA);
+		}
+		assertNotNull(expected.getPath());
+		assertArrayEquals(expected.getPath(), actual.getPath());
+	}
+
+	/** Writes the lines of a random walk over a 10 by 10 grid of bins from
+	 * the origin, one transition per line as a simulation appends them
+	 * @param random The source of the steps
+	 * @param steps The number of steps
+	 * @return The lines
+	 */
+	private static String randomWalk(Random random, int steps) {
+		StringBuilder s = new StringBuilder();
+		int x = 0;
+		int y = 0;
+		for (int step = 0; step < steps; step++) {
+			int nextX = Math.max(0, Math.min(9, x + random.nextInt(3) - 1));
+			int nextY = Math.max(0, Math.min(9, y + random.nextInt(3) - 1));
+			s.append(x).append(' ').append(y).append(' ').append(nextX).append(' ').append(nextY).append(" 1\n");
+			x = nextX;
+			y = nextY;
+		}
+		return s.toString();
+	}
+
+	/** Appends text to a file
+	 * @param file The file
+	 * @param text The text
+	 * @throws IOException
+	 */
+	private static void append(File file, String text) throws IOException {
+		try (OutputStream out = new FileOutputStream(file, true)) {
+			out.write(text.getBytes(StandardCharsets.US_ASCII));
+		}
+	}
+
+	/** Writes a job file in the format of dat/in/readfile.dat, starting at the origin
+	 * @return The settings
+	 * @throws IOException
+	 */
+	private JobFile writeJobFile() throws IOException {
+		File file = folder.newFile("readfile.dat");
+		try (PrintWriter out = new PrintWriter(file, "UTF-8")) {
+			out.print("300\t# temperature\n1\t# x scale\n1\t# y scale\n0\t# x start\n0\t# y start\n");
+			out.print("x\t# x label\ny\t# y label\n10\t# samples\ncounts.dat\n");
+		}
+		return new JobFile(file.getPath());
+	}
+}
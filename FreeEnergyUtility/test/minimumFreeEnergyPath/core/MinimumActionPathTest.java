@@ -0,0 +1,181 @@
+package minimumFreeEnergyPath.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import minimumFreeEnergyPath.core.MinimumActionPath.CostModel;
+import minimumFreeEnergyPath.gridSurface.ArrayEnergyStore;
+import minimumFreeEnergyPath.gridSurface.GridSurface;
+import minimumFreeEnergyPath.gridSurface.GridSurface.Neighbourhood;
+
+import org.junit.Test;
+
+/** Tests of MinimumActionPath, by Dijkstra and A*, against a brute force
+ * Dijkstra search over the same step costs */
+public class MinimumActionPathTest {
+
+	/** Largest relative difference allowed between costs summed in different orders */
+	private static final double RELATIVE_DELTA = 1e-12;
+	/** Boltzmann constant times the temperature */
+	private static final double KT = 0.6;
+
+	@Test
+	public void costsMatchBruteForceIn2D() {
+		for (long seed = 1; seed <= 10; seed++) {
+			Random random = new Random(seed);
+			GridSurface surface = randomSurface(random, new int[] { 25, 20 }, Neighbourhood.FULL);
+			checkRandomPairs(random, surface);
+			checkRandomPairs(random, surface.withNeighbourhood(Neighbourhood.AXIS));
+		}
+	}
+
+	@Test
+	public void costsMatchBruteForceIn3D() {
+		for (long seed = 1; seed <= 5; seed++) {
+			Random random = new Random(seed);
+			checkRandomPairs(random, randomSurface(random, new int[] { 8, 7, 6 }, Neighbourhood.FULL));
+		}
+	}
+
+	@Test
+	public void unreachableEndHasNoPath() {
+		// a wall of inaccessible cells down the middle column
+		double[] energies = new double[5 * 4];
+		for (int j = 0; j < 4; j++) {
+			energies[j * 5 + 2] = Double.POSITIVE_INFINITY;
+		}
+		GridSurface surface = new GridSurface(DescentForestTest.axis(5, 1), DescentForestTest.axis(4, 1), energies);
+		MinimumActionPath path = new MinimumActionPath(surface, surface.getCell(0, 0), surface.getCell(4, 3),
+				CostModel.UPHILL, KT, 1, true);
+		assertNull(path.getPath());
+		assertEquals(Double.POSITIVE_INFINITY, path.getCost(), 0);
+	}
+
+	/** Checks Dijkstra and A* against brute force between random pairs of
+	 * accessible cells, under both cost models
+	 * @param random The source of the pairs
+	 * @param surface The surface
+	 */
+	private static void checkRandomPairs(Random random, GridSurface surface) {
+		for (int pair = 0; pair < 10; pair++) {
+			int start = randomAccessibleCell(random, surface);
+			int end = randomAccessibleCell(random, surface);
+			for (CostModel costModel : CostModel.values()) {
+				double penalty = costModel == CostModel.UPHILL ? 0.5 : 0;
+				double[] expected = bruteForceCosts(surface, start, costModel, penalty);
+				for (boolean heuristic : new boolean[] { false, true }) {
+					MinimumActionPath path = new MinimumActionPath(surface, start, end, costModel, KT, penalty, heuristic);
+					String message = costModel + (heuristic ? " A*" : " Dijkstra") + " from " + start + " to " + end;
+					if (Double.isInfinite(expected[end])) {
+						assertNull(message, path.getPath());
+						continue;
+					}
+					assertEquals(message, expected[end], path.getCost(), RELATIVE_DELTA * expected[end]);
+					assertNotNull(message, path.getPath());
+					assertEquals(message, expected[end], pathCost(surface, path.getPath(), costModel, penalty),
+							RELATIVE_DELTA * expected[end]);
+				}
+			}
+		}
+	}
+
+	/** Finds the least cost from a cell to every other cell by Dijkstra's
+	 * algorithm with a linear scan for the next cell - O(n^2)
+	 * @param surface The surface
+	 * @param start The cell at which paths start
+	 * @param costModel The cost of each step
+	 * @param penalty The cost per cell of length
+	 * @return The least cost of reaching each cell, or infinity if unreachable
+	 */
+	private static double[] bruteForceCosts(GridSurface surface, int start, CostModel costModel, double penalty) {
+		double[] distance = new double[surface.size()];
+		boolean[] done = new boolean[surface.size()];
+		Arrays.fill(distance, Double.POSITIVE_INFINITY);
+		distance[start] = 0;
+		int[] neighbours = new int[surface.getMaxNeighbours()];
+		int[] directions = new int[surface.getMaxNeighbours()];
+		while (true) {
+			int next = -1;
+			for (int cell = 0; cell < distance.length; cell++) {
+				if (!done[cell] && !Double.isInfinite(distance[cell]) && (next < 0 || distance[cell] < distance[next])) {
+					next = cell;
+				}
+			}
+			if (next < 0) {
+				return distance;
+			}
+			done[next] = true;
+			int count = surface.getNeighbours(next, neighbours, directions);
+			for (int i = 0; i < count; i++) {
+				double cost = costModel.getCost(surface.getEnergy(neighbours[i]) - surface.getEnergy(next),
+						surface.getStepLength(directions[i]), KT, penalty);
+				distance[neighbours[i]] = Math.min(distance[neighbours[i]], distance[next] + cost);
+			}
+		}
+	}
+
+	/** Sums the cost of the steps of a path, checking each is to a neighbour
+	 * @param surface The surface
+	 * @param path The cells from start to end
+	 * @param costModel The cost of each step
+	 * @param penalty The cost per cell of length
+	 * @return The total cost
+	 */
+	private static double pathCost(GridSurface surface, int[] path, CostModel costModel, double penalty) {
+		int[] neighbours = new int[surface.getMaxNeighbours()];
+		int[] directions = new int[surface.getMaxNeighbours()];
+		double total = 0;
+		for (int i = 1; i < path.length; i++) {
+			int count = surface.getNeighbours(path[i - 1], neighbours, directions);
+			int direction = -1;
+			for (int j = 0; j < count; j++) {
+				if (neighbours[j] == path[i]) {
+					direction = directions[j];
+				}
+			}
+			if (direction < 0) {
+				throw new AssertionError("step " + i + " is not to a neighbour");
+			}
+			total += costModel.getCost(surface.getEnergy(path[i]) - surface.getEnergy(path[i - 1]),
+					surface.getStepLength(direction), KT, penalty);
+		}
+		return total;
+	}
+
+	/** Picks an accessible cell at random
+	 * @param random The source of the choice
+	 * @param surface The surface
+	 * @return The cell
+	 */
+	private static int randomAccessibleCell(Random random, GridSurface surface) {
+		int cell;
+		do {
+			cell = random.nextInt(surface.size());
+		} while (!surface.isAccessible(cell));
+		return cell;
+	}
+
+	/** Builds a surface of random energies with a few inaccessible cells
+	 * @param random The source of the energies
+	 * @param shape The number of cells along each axis
+	 * @param neighbourhood Which cells count as adjacent
+	 * @return The GridSurface
+	 */
+	private static GridSurface randomSurface(Random random, int[] shape, Neighbourhood neighbourhood) {
+		double[][] axes = new double[shape.length][];
+		int size = 1;
+		for (int axis = 0; axis < shape.length; axis++) {
+			axes[axis] = DescentForestTest.axis(shape[axis], 0.5);
+			size *= shape[axis];
+		}
+		double[] energies = new double[size];
+		for (int cell = 0; cell < size; cell++) {
+			energies[cell] = random.nextDouble() < 0.15 ? Double.POSITIVE_INFINITY : 3 * random.nextDouble();
+		}
+		return new GridSurface(axes, new ArrayEnergyStore(energies), null, neighbourhood);
+	}
+}
@@ -0,0 +1,126 @@
+package minimumFreeEnergyPath.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import minimumFreeEnergyPath.gridSurface.GridSurface;
+import minimumFreeEnergyPath.weightedVertexGraph.WeightedVertex;
+import minimumFreeEnergyPath.weightedVertexGraph.WeightedVertexGraph;
+
+import org.jgrapht.graph.DefaultWeightedEdge;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Tests that the path found on a GridSurface is the path found on the
+ * WeightedVertexGraph read from the same table */
+public class MostProbableFoldingPathTest {
+
+	/** Fraction of cells left inaccessible */
+	private static final double HOLES = 0.1;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void gridPathMatchesGraphPath() throws IOException {
+		for (long seed = 1; seed <= 20; seed++) {
+			String filename = writeRandomTable(new Random(seed), 14, 11, "surface" + seed + ".dat");
+			GridSurface surface = FileUtility.readToSurface(filename);
+			int startCell = highestCell(surface);
+			int[] cells = MostProbableFoldingPath.findPathBetween(surface, startCell, surface.getMinimumCell());
+
+			WeightedVertexGraph graph = FileUtility.readToGraph(filename, surface.getX(startCell), surface.getY(startCell));
+			List<DefaultWeightedEdge> edges = MostProbableFoldingPath.findPathBetween(graph,
+					graph.getStartVertex(), graph.getEndVertex());
+
+			assertNotNull("seed " + seed, cells);
+			assertNotNull("seed " + seed, edges);
+			assertEquals("seed " + seed, cells.length, edges.size() + 1);
+			for (int i = 0; i < edges.size(); i++) {
+				WeightedVertex vertex = graph.getEdgeSource(edges.get(i));
+				assertEquals("seed " + seed + " step " + i, surface.getX(cells[i]), vertex.getX(), 0);
+				assertEquals("seed " + seed + " step " + i, surface.getY(cells[i]), vertex.getY(), 0);
+			}
+			WeightedVertex end = graph.getEdgeTarget(edges.get(edges.size() - 1));
+			assertEquals(surface.getX(cells[cells.length - 1]), end.getX(), 0);
+			assertEquals(surface.getY(cells[cells.length - 1]), end.getY(), 0);
+		}
+	}
+
+	@Test
+	public void pathStepsBetweenNeighboursToMinimum() throws IOException {
+		GridSurface surface = FileUtility.readToSurface(writeRandomTable(new Random(42), 30, 30, "surface.dat"));
+		int startCell = highestCell(surface);
+		int[] cells = MostProbableFoldingPath.findPathBetween(surface, startCell, surface.getMinimumCell());
+		assertNotNull(cells);
+		assertEquals(startCell, cells[0]);
+		assertEquals(surface.getMinimumCell(), cells[cells.length - 1]);
+		int[] neighbours = new int[GridSurface.MAX_NEIGHBOURS];
+		for (int i = 1; i < cells.length; i++) {
+			int count = surface.getNeighbours(cells[i - 1], neighbours);
+			boolean adjacent = false;
+			for (int j = 0; j < count; j++) {
+				adjacent |= neighbours[j] == cells[i];
+			}
+			assertTrue("step " + i, adjacent);
+		}
+	}
+
+	/** Writes a table of random energies as write.table in FreeEnergyUtility.r
+	 * does, with a few inaccessible cells and a single minimum of 0
+	 * @param random The source of the energies
+	 * @param width The number of columns, along x
+	 * @param height The number of rows, along y
+	 * @param name The name of the file in the temporary folder
+	 * @return The path of the file
+	 * @throws IOException
+	 */
+	private String writeRandomTable(Random random, int width, int height, String name) throws IOException {
+		File file = folder.newFile(name);
+		try (PrintWriter out = new PrintWriter(file, "US-ASCII")) {
+			out.print("\"\"");
+			for (int i = 0; i < width; i++) {
+				out.print("\t\"" + 0.5 * i + "\"");
+			}
+			out.print("\n");
+			for (int j = 0; j < height; j++) {
+				out.print("\"" + 0.25 * j + "\"");
+				for (int i = 0; i < width; i++) {
+					double energy = random.nextDouble() < HOLES ? Double.POSITIVE_INFINITY : 0.1 + 10 * random.nextDouble();
+					if (i == 0 && j == 0) {
+						// corners kept open for the minimum and the start
+						energy = 0;
+					} else if (i == width - 1 && j == height - 1) {
+						energy = 20;
+					}
+					out.print(Double.isInfinite(energy) ? "\tInf" : String.format(Locale.ROOT, "\t%.6f", energy));
+				}
+				out.print("\n");
+			}
+		}
+		return file.getPath();
+	}
+
+	/** Finds the accessible cell of highest energy
+	 * @param surface The surface
+	 * @return The cell
+	 */
+	private static int highestCell(GridSurface surface) {
+		int highest = -1;
+		for (int cell = 0; cell < surface.size(); cell++) {
+			if (surface.isAccessible(cell) && (highest < 0 || surface.getEnergy(cell) > surface.getEnergy(highest))) {
+				highest = cell;
+			}
+		}
+		return highest;
+	}
+}
@@ -0,0 +1,25 @@
+package minimumFreeEnergyPath.core;
+
+import static org.junit.Assert.fail;
+
+import minimumFreeEnergyPath.gridSurface.GridSurface;
+
+import org.junit.Test;
+
+/** Tests that PathMode asks for the usage rather than guessing missing arguments */
+public class PathModeTest {
+
+	@Test
+	public void rejectsMissingCoordinates() {
+		String[][] given = {{}, {"surface.dat"}, {"surface.dat", "33"}, {PathMode.FOREST_OPTION}, {PathMode.TREE_OPTION}};
+		for (String[] args : given) {
+			try {
+				PathMode.run(args, GridSurface.Neighbourhood.FULL, PathMode.PathType.MPFP,
+						MinimumActionPath.CostModel.BOLTZMANN, 0.6, 0.6, MultiresolutionPath.DEFAULT_CORRIDOR);
+				fail(args.length + " arguments were accepted");
+			} catch (CommandLine.UsageException e) {
+				// expected
+			}
+		}
+	}
+}
@@ -0,0 +1,169 @@
+package minimumFreeEnergyPath.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import minimumFreeEnergyPath.gridSurface.GridSurface;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Tests of SurfaceParser on both table formats written by FreeEnergyUtility.r */
+public class SurfaceParserTest {
+
+	/** Largest difference allowed between a value written and the value parsed */
+	private static final double DELTA = 1e-12;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void parsesMatrixWithInaccessibleCells() throws IOException {
+		GridSurface surface = parse("\"\"\t\"0\"\t\"0.5\"\t\"1\"\n"
+				+ "\"0\"\t1.5\tInf\t0\n"
+				+ "\"0.5\"\tNA\t2\t3.25\n");
+		assertEquals(3, surface.getWidth());
+		assertEquals(2, surface.getHeight());
+		assertEquals(1, surface.getX(surface.getCell(2, 0)), DELTA);
+		assertEquals(0.5, surface.getY(surface.getCell(0, 1)), DELTA);
+		assertEquals(1.5, surface.getEnergy(surface.getCell(0, 0)), DELTA);
+		assertEquals(3.25, surface.getEnergy(surface.getCell(2, 1)), DELTA);
+		assertFalse(surface.isAccessible(surface.getCell(1, 0)));
+		assertFalse(surface.isAccessible(surface.getCell(0, 1)));
+		assertEquals(surface.getCell(2, 0), surface.getMinimumCell());
+	}
+
+	@Test
+	public void parsesNumbersAsDoubleDoes() throws IOException {
+		String[] numbers = {"0.1", "-2.5e-3", "123456.789012", "1E5", "7"};
+		StringBuilder table = new StringBuilder("\"\"");
+		for (int i = 0; i < numbers.length; i++) {
+			table.append("\t\"").append(i).append('"');
+		}
+		table.append("\n\"0\"");
+		for (String number : numbers) {
+			table.append('\t').append(number);
+		}
+		GridSurface surface = parse(table.append('\n').toString());
+		for (int i = 0; i < numbers.length; i++) {
+			assertEquals(numbers[i], Double.parseDouble(numbers[i]), surface.getEnergy(surface.getCell(i, 0)), 0);
+		}
+	}
+
+	@Test
+	public void parsesStatePerLine() throws IOException {
+		GridSurface surface = parse("0\t0\t1.0\n"
+				+ "0.5\t0\t2.0\n"
+				+ "1\t0\t0.5\n"
+				+ "0\t0.25\t4.0\n"
+				+ "1\t0.25\t0\n");
+		assertEquals(3, surface.getWidth());
+		assertEquals(2, surface.getHeight());
+		assertEquals(0.25, surface.getAxisValue(1, 1), DELTA);
+		assertEquals(2.0, surface.getEnergy(surface.getCellAt(0.5, 0)), DELTA);
+		assertEquals(4.0, surface.getEnergy(surface.getCellAt(0, 0.25)), DELTA);
+		// not listed
+		assertFalse(surface.isAccessible(surface.getCell(1, 1)));
+		assertEquals(-1, surface.getCellAt(0.5, 0.25));
+	}
+
+	@Test
+	public void parsesStatePerLineInThreeDimensions() throws IOException {
+		StringBuilder table = new StringBuilder();
+		for (int x = 0; x < 2; x++) {
+			for (int y = 0; y < 3; y++) {
+				for (int z = 0; z < 4; z++) {
+					table.append(x).append('\t').append(y).append('\t').append(0.5 * z).append('\t')
+							.append(x + 10 * y + 100 * z).append('\n');
+				}
+			}
+		}
+		GridSurface surface = parse(table.toString());
+		assertEquals(3, surface.getDimensions());
+		assertEquals(2, surface.getShape(0));
+		assertEquals(3, surface.getShape(1));
+		assertEquals(4, surface.getShape(2));
+		assertEquals(1 + 20 + 300, surface.getEnergy(surface.getCellAt(new double[] {1, 2, 1.5})), DELTA);
+		assertEquals(1.5, surface.getAxisValue(2, 3), DELTA);
+		assertEquals(surface.getCell(new int[] {0, 0, 0}), surface.getMinimumCell());
+	}
+
+	@Test
+	public void limitsFullNeighbourhoodToFewAxes() throws IOException {
+		int dimensions = GridSurface.MAX_FULL_DIMENSIONS + 1;
+		StringBuilder table = new StringBuilder();
+		for (int code = 0; code < 1 << dimensions; code++) {
+			for (int axis = 0; axis < dimensions; axis++) {
+				table.append(code >> axis & 1).append('\t');
+			}
+			table.append(code).append('\n');
+		}
+		GridSurface surface = parse(table.toString());
+		assertEquals(GridSurface.Neighbourhood.AXIS, surface.getNeighbourhood());
+		assertEquals(2 * dimensions, surface.getMaxNeighbours());
+		try {
+			surface.withNeighbourhood(GridSurface.Neighbourhood.FULL);
+			fail("full neighbourhood of " + dimensions + " axes was accepted");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void leavesGapsInAxesInaccessible() throws IOException {
+		GridSurface surface = parse("0\t0\t1.0\n"
+				+ "0.5\t0\t2.0\n"
+				+ "1.5\t0\t0.5\n");
+		// the missing bin at 1 is kept, so 0.5 and 1.5 are not neighbours
+		assertEquals(4, surface.getWidth());
+		assertEquals(1, surface.getAxisValue(0, 2), DELTA);
+		assertFalse(surface.isAccessible(surface.getCell(2, 0)));
+		assertEquals(2.0, surface.getEnergy(surface.getCell(1, 0)), DELTA);
+		assertEquals(0.5, surface.getEnergy(surface.getCell(3, 0)), DELTA);
+	}
+
+	@Test
+	public void rejectsCoordinateOffGrid() throws IOException {
+		try {
+			parse("0\t0\t1.0\n"
+					+ "0.5\t0\t2.0\n"
+					+ "1.2\t0\t0.5\n");
+			fail("coordinate off the grid was accepted");
+		} catch (SurfaceFormatException e) {
+			assertEquals(1, e.getColumn());
+		}
+	}
+
+	@Test
+	public void rejectsRowNameWhichIsNotNumeric() throws IOException {
+		try {
+			parse("\"\"\t\"0\"\t\"1\"\n"
+					+ "\"a\"\t1\t2\n");
+			fail("row name was accepted");
+		} catch (SurfaceFormatException e) {
+			assertEquals(2, e.getLine());
+			assertEquals(1, e.getColumn());
+		}
+	}
+
+	/** Writes a table to a temporary file and parses it
+	 * @param table The contents of the file
+	 * @return The GridSurface
+	 * @throws IOException
+	 */
+	private GridSurface parse(String table) throws IOException {
+		File file = folder.newFile("surface.dat");
+		try (OutputStream out = new FileOutputStream(file)) {
+			out.write(table.getBytes(StandardCharsets.US_ASCII));
+		}
+		return SurfaceParser.parse(file.getPath());
+	}
+}
@@ -0,0 +1,158 @@
+package minimumFreeEnergyPath.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import minimumFreeEnergyPath.markovModel.StateIndex;
+import minimumFreeEnergyPath.markovModel.TransitionCounts;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Tests of TrajectoryCounter against counts taken directly from the frames
+ * of each trajectory at every lag */
+public class TrajectoryCounterTest {
+
+	/** Width of the bins along x */
+	private static final double X_SCALE = 0.5;
+	/** Width of the bins along y */
+	private static final double Y_SCALE = 0.25;
+	/** Numbers of frames between the ends of the transitions counted */
+	private static final int[] LAGS = { 1, 3, 10 };
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void countsEveryLagOfEveryTrajectory() throws IOException, InterruptedException {
+		Random random = new Random(1);
+		List<String> filenames = new ArrayList<String>();
+		List<double[][]> trajectories = new ArrayList<double[][]>();
+		for (int file = 0; file < 4; file++) {
+			double[][] frames = randomTrajectory(random, 500 + 100 * file);
+			// every other file gzipped
+			filenames.add(writeTrajectory(frames, "run" + file + (file % 2 == 0 ? ".xvg" : ".xvg.gz")));
+			trajectories.add(frames);
+		}
+		TransitionCounts[] counts = new TrajectoryCounter(LAGS, X_SCALE, Y_SCALE, 1, 2).count(filenames, 3);
+		assertEquals(LAGS.length, counts.length);
+
+		for (int i = 0; i < LAGS.length; i++) {
+			Map<String, Integer> expected = new HashMap<String, Integer>();
+			int total = 0;
+			for (double[][] frames : trajectories) {
+				// no transition across the end of one trajectory and the start of the next
+				for (int t = LAGS[i]; t < frames.length; t++) {
+					String key = key(frames[t - LAGS[i]], frames[t]);
+					Integer count = expected.get(key);
+					expected.put(key, count == null ? 1 : count + 1);
+					total++;
+				}
+			}
+			assertEquals("lag " + LAGS[i], total, counts[i].getTotal(), 0);
+			StateIndex states = counts[i].getStates();
+			for (Map.Entry<String, Integer> entry : expected.entrySet()) {
+				String[] bins = entry.getKey().split(" ");
+				int from = states.get(Integer.parseInt(bins[0]), Integer.parseInt(bins[1]));
+				int to = states.get(Integer.parseInt(bins[2]), Integer.parseInt(bins[3]));
+				assertEquals("lag " + LAGS[i] + " " + entry.getKey(), entry.getValue(), counts[i].getCount(from, to), 0);
+			}
+		}
+	}
+
+	@Test
+	public void rejectsFrameWithTooFewValues() throws IOException {
+		File file = folder.newFile("short.xvg");
+		try (OutputStream out = new FileOutputStream(file)) {
+			out.write("# comment\n0 1.0 0.5\n1 1.5\n".getBytes(StandardCharsets.US_ASCII));
+		}
+		try {
+			new TrajectoryCounter(LAGS, X_SCALE, Y_SCALE, 1, 2).countFile(file.getPath());
+			fail("short frame was accepted");
+		} catch (SurfaceFormatException e) {
+			assertEquals(3, e.getLine());
+			assertEquals(3, e.getColumn());
+		}
+	}
+
+	@Test
+	public void rejectsValueBinnedBelowZero() throws IOException {
+		File file = folder.newFile("negative.xvg");
+		try (OutputStream out = new FileOutputStream(file)) {
+			out.write("0 1.0 0.5\n1 1.5 -0.2\n".getBytes(StandardCharsets.US_ASCII));
+		}
+		try {
+			new TrajectoryCounter(LAGS, X_SCALE, Y_SCALE, 1, 2).countFile(file.getPath());
+			fail("negative bin was accepted");
+		} catch (SurfaceFormatException e) {
+			assertEquals(2, e.getLine());
+			assertEquals(3, e.getColumn());
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsLagOfZero() {
+		new TrajectoryCounter(new int[] { 1, 0 }, X_SCALE, Y_SCALE, 0, 1);
+	}
+
+	/** Builds the key of a transition from the bins of its two frames
+	 * @param from The frame the transition leaves, time, x and y
+	 * @param to The frame the transition enters
+	 * @return The bins separated by spaces
+	 */
+	private static String key(double[] from, double[] to) {
+		return StateIndex.toBin(from[1], X_SCALE) + " " + StateIndex.toBin(from[2], Y_SCALE) + " "
+				+ StateIndex.toBin(to[1], X_SCALE) + " " + StateIndex.toBin(to[2], Y_SCALE);
+	}
+
+	/** Draws a random walk of two collective variables, both kept at or above 0
+	 * @param random The source of the steps
+	 * @param length The number of frames
+	 * @return The frames, each time, x and y
+	 */
+	private static double[][] randomTrajectory(Random random, int length) {
+		double[][] frames = new double[length][];
+		double x = 2;
+		double y = 1;
+		for (int t = 0; t < length; t++) {
+			// to the precision written, so the values read back are the same
+			x = Math.rint(1e6 * Math.abs(x + 0.3 * random.nextGaussian())) / 1e6;
+			y = Math.rint(1e6 * Math.abs(y + 0.15 * random.nextGaussian())) / 1e6;
+			frames[t] = new double[] { t, x, y };
+		}
+		return frames;
+	}
+
+	/** Writes a trajectory as an xvg file, headed by comment lines
+	 * @param frames The frames, each time, x and y
+	 * @param name The name of the file in the temporary folder, gzipped if it ends in .gz
+	 * @return The path of the file
+	 * @throws IOException
+	 */
+	private String writeTrajectory(double[][] frames, String name) throws IOException {
+		StringBuilder s = new StringBuilder("# written by the test\n@    title \"trajectory\"\n");
+		for (double[] frame : frames) {
+			s.append(String.format(Locale.ROOT, "%10.3f %12.6f %12.6f\n", frame[0], frame[1], frame[2]));
+		}
+		File file = folder.newFile(name);
+		try (OutputStream out = name.endsWith(".gz") ? new GZIPOutputStream(new FileOutputStream(file))
+				: new FileOutputStream(file)) {
+			out.write(s.toString().getBytes(StandardCharsets.US_ASCII));
+		}
+		return file.getPath();
+	}
+}
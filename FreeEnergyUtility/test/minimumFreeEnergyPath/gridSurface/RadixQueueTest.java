@@ -0,0 +1,58 @@
+package minimumFreeEnergyPath.gridSurface;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import org.junit.Test;
+
+/** Tests of RadixQueue against a PriorityQueue under the monotone use
+ * Dijkstra's algorithm makes of it */
+public class RadixQueueTest {
+
+	@Test
+	public void popsKeysInPriorityQueueOrder() {
+		Random random = new Random(1);
+		RadixQueue queue = new RadixQueue();
+		PriorityQueue<Double> expected = new PriorityQueue<Double>();
+		// each push is of a new cell, so a popped cell identifies its key
+		double[] keys = new double[20000];
+		for (int step = 0; step < keys.length; step++) {
+			if (!expected.isEmpty() && random.nextInt(3) == 0) {
+				int cell = queue.pop();
+				double key = expected.poll();
+				assertEquals("step " + step, key, queue.getLastKey(), 0);
+				assertEquals("step " + step, key, keys[cell], 0);
+			} else {
+				// keys never below the last popped, some of them equal to it
+				keys[step] = queue.getLastKey() + (random.nextInt(4) == 0 ? 0 : random.nextDouble() * 10);
+				queue.push(keys[step], step);
+				expected.add(keys[step]);
+			}
+			assertEquals(expected.size(), queue.size());
+		}
+	}
+
+	@Test
+	public void clearResetsLastKey() {
+		RadixQueue queue = new RadixQueue();
+		queue.push(5, 1);
+		queue.push(7, 2);
+		assertEquals(1, queue.pop());
+		assertEquals(5, queue.getLastKey(), 0);
+		queue.clear();
+		assertTrue(queue.isEmpty());
+		assertEquals(0, queue.getLastKey(), 0);
+		queue.push(1, 3);
+		assertEquals(3, queue.pop());
+		try {
+			queue.pop();
+			fail("empty queue popped");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+}
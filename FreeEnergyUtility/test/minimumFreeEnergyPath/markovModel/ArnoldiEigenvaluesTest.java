@@ -0,0 +1,164 @@
+package minimumFreeEnergyPath.markovModel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/** Tests of ArnoldiEigenvalues on matrices whose eigenvalues are known by
+ * construction */
+public class ArnoldiEigenvaluesTest {
+
+	/** Largest difference allowed in any eigenvalue */
+	private static final double DELTA = 1e-8;
+
+	@Test
+	public void findsLargestOfTriangularMatrix() {
+		Random random = new Random(1);
+		int n = 60;
+		double[] diagonal = new double[n];
+		for (int i = 0; i < n; i++) {
+			diagonal[i] = (random.nextBoolean() ? 1 : -1) * (0.05 + 0.9 * random.nextDouble());
+		}
+		// the eigenvalues of a triangular matrix are on its diagonal
+		double[][] a = randomUpperTriangular(random, n);
+		for (int i = 0; i < n; i++) {
+			a[i][i] = diagonal[i];
+		}
+		ArnoldiEigenvalues arnoldi = new ArnoldiEigenvalues(dense(a), 5, ones(n), n, ArnoldiEigenvalues.DEFAULT_TOLERANCE);
+		assertTrue(arnoldi.isConverged());
+
+		double[] moduli = new double[n];
+		for (int i = 0; i < n; i++) {
+			moduli[i] = Math.abs(diagonal[i]);
+		}
+		Arrays.sort(moduli);
+		for (int i = 0; i < 5; i++) {
+			assertEquals("eigenvalue " + i, moduli[n - 1 - i], arnoldi.getModulus(i), DELTA);
+			assertEquals("eigenvalue " + i, 0, arnoldi.getImaginary()[i], DELTA);
+		}
+	}
+
+	@Test
+	public void findsComplexPair() {
+		Random random = new Random(2);
+		int n = 40;
+		double[][] a = randomUpperTriangular(random, n);
+		for (int i = 0; i < n; i++) {
+			a[i][i] = 0.5 * random.nextDouble();
+		}
+		// a rotation block on the diagonal gives 0.6 +- 0.7i
+		a[0][0] = 0.6;
+		a[1][1] = 0.6;
+		a[0][1] = -0.7;
+		a[1][0] = 0.7;
+		ArnoldiEigenvalues arnoldi = new ArnoldiEigenvalues(dense(a), 3, ones(n), n, ArnoldiEigenvalues.DEFAULT_TOLERANCE);
+		double modulus = Math.hypot(0.6, 0.7);
+		assertEquals(modulus, arnoldi.getModulus(0), DELTA);
+		assertEquals(modulus, arnoldi.getModulus(1), DELTA);
+		assertEquals(0.6, arnoldi.getReal()[0], DELTA);
+		assertEquals(0.7, Math.abs(arnoldi.getImaginary()[0]), DELTA);
+		assertEquals(-arnoldi.getImaginary()[0], arnoldi.getImaginary()[1], DELTA);
+	}
+
+	@Test
+	public void restartsBasisSmallerThanMatrix() {
+		Random random = new Random(3);
+		int n = 400;
+		// entries scaled down as the matrix grows, so it stays far from defective
+		double[][] a = randomUpperTriangular(random, n);
+		for (int i = 0; i < n; i++) {
+			for (int j = i + 1; j < n; j++) {
+				a[i][j] /= Math.sqrt(n);
+			}
+			a[i][i] = 0.5 * random.nextDouble();
+		}
+		double[] largest = { 0.99, -0.95, 0.9, 0.8 };
+		for (int i = 0; i < largest.length; i++) {
+			a[7 * i][7 * i] = largest[i];
+		}
+		ArnoldiEigenvalues arnoldi = new ArnoldiEigenvalues(dense(a), 4, ones(n), 30, ArnoldiEigenvalues.DEFAULT_TOLERANCE);
+		assertTrue(arnoldi.isConverged());
+		for (int i = 0; i < largest.length; i++) {
+			assertEquals("eigenvalue " + i, Math.abs(largest[i]), arnoldi.getModulus(i), DELTA);
+		}
+	}
+
+	@Test
+	public void findsRepeatedEigenvalues() {
+		// two copies of the same block, closed to each other
+		Random random = new Random(4);
+		int half = 20;
+		double[][] block = randomUpperTriangular(random, half);
+		for (int i = 0; i < half; i++) {
+			block[i][i] = 0.1 + 0.8 * i / half;
+		}
+		double[][] a = new double[2 * half][2 * half];
+		for (int i = 0; i < half; i++) {
+			for (int j = 0; j < half; j++) {
+				a[i][j] = block[i][j];
+				a[half + i][half + j] = block[i][j];
+			}
+		}
+		ArnoldiEigenvalues arnoldi = new ArnoldiEigenvalues(dense(a), 4, ones(2 * half), 2 * half,
+				ArnoldiEigenvalues.DEFAULT_TOLERANCE);
+		double first = 0.1 + 0.8 * (half - 1) / half;
+		double second = 0.1 + 0.8 * (half - 2) / half;
+		assertEquals(first, arnoldi.getModulus(0), DELTA);
+		assertEquals(first, arnoldi.getModulus(1), DELTA);
+		assertEquals(second, arnoldi.getModulus(2), DELTA);
+		assertEquals(second, arnoldi.getModulus(3), DELTA);
+	}
+
+	/** Builds a matrix of random entries above the diagonal and 0 on and below it
+	 * @param random The source of the entries
+	 * @param n The size
+	 * @return The matrix
+	 */
+	static double[][] randomUpperTriangular(Random random, int n) {
+		double[][] a = new double[n][n];
+		for (int i = 0; i < n; i++) {
+			for (int j = i + 1; j < n; j++) {
+				a[i][j] = 0.2 * random.nextGaussian();
+			}
+		}
+		return a;
+	}
+
+	/** Wraps a dense matrix as a LinearOperator
+	 * @param a The matrix
+	 * @return The operator
+	 */
+	static LinearOperator dense(final double[][] a) {
+		return new LinearOperator() {
+			@Override
+			public int size() {
+				return a.length;
+			}
+
+			@Override
+			public void apply(double[] x, double[] y) {
+				for (int i = 0; i < a.length; i++) {
+					double sum = 0;
+					for (int j = 0; j < a.length; j++) {
+						sum += a[i][j] * x[j];
+					}
+					y[i] = sum;
+				}
+			}
+		};
+	}
+
+	/** Builds a vector of ones
+	 * @param n The length
+	 * @return The vector
+	 */
+	static double[] ones(int n) {
+		double[] x = new double[n];
+		Arrays.fill(x, 1);
+		return x;
+	}
+}
@@ -0,0 +1,54 @@
+package minimumFreeEnergyPath.markovModel;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/** Tests of DirichletBootstrap: its samples follow the seed alone and
+ * scatter about the point estimate */
+public class DirichletBootstrapTest {
+
+	/** Number of samples drawn */
+	private static final int SAMPLES = 400;
+
+	@Test
+	public void samplesDoNotDependOnThreads() throws InterruptedException {
+		SparseMatrix counts = SparseMatrix.fromCounts(StationaryDistributionTest.randomWalk(new Random(3), 15, 2000));
+		double[] estimate = new StationaryDistribution(counts, null, StationaryDistribution.DEFAULT_TOLERANCE,
+				StationaryDistribution.DEFAULT_MAX_ITERATIONS).getProbabilities();
+		DirichletBootstrap one = new DirichletBootstrap(counts, estimate, 50, 7, 1);
+		DirichletBootstrap three = new DirichletBootstrap(counts, estimate, 50, 7, 3);
+		assertEquals(one.getIterations(), three.getIterations());
+		assertArrayEquals(one.getMeans(), three.getMeans(), 1e-12);
+		assertArrayEquals(one.getStandardDeviations(), three.getStandardDeviations(), 1e-12);
+
+		DirichletBootstrap other = new DirichletBootstrap(counts, estimate, 50, 8, 1);
+		assertTrue(one.getStandardDeviations()[0] != other.getStandardDeviations()[0]);
+	}
+
+	@Test
+	public void meansScatterAboutEstimate() throws InterruptedException {
+		SparseMatrix counts = SparseMatrix.fromCounts(StationaryDistributionTest.randomWalk(new Random(5), 15, 20000));
+		double[] estimate = new StationaryDistribution(counts, null, StationaryDistribution.DEFAULT_TOLERANCE,
+				StationaryDistribution.DEFAULT_MAX_ITERATIONS).getProbabilities();
+		DirichletBootstrap bootstrap = new DirichletBootstrap(counts, estimate, SAMPLES, DirichletBootstrap.DEFAULT_SEED, 2);
+		assertEquals(0, bootstrap.getUnconverged());
+
+		// compared at unit length, as the samples are
+		double length = 0;
+		for (double q : estimate) {
+			length += q * q;
+		}
+		length = Math.sqrt(length);
+		double[] means = bootstrap.getMeans();
+		double[] deviations = bootstrap.getStandardDeviations();
+		for (int i = 0; i < estimate.length; i++) {
+			assertTrue("state " + i, deviations[i] > 0);
+			assertEquals("state " + i, estimate[i] / length, means[i], 5 * deviations[i] / Math.sqrt(SAMPLES) + 0.1 * deviations[i]);
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package minimumFreeEnergyPath.markovModel;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/** Tests that the entries of a DirichletSample have the moments of the
+ * Dirichlet posterior of their row, Dir(Z + 1) */
+public class DirichletSampleTest {
+
+	/** Number of samples drawn */
+	private static final int SAMPLES = 20000;
+	/** Largest relative difference allowed between a sampled and an analytic variance */
+	private static final double VARIANCE_DELTA = 0.06;
+
+	/** Rows 0 and 1 have counts, row 2 has none and the rest one each */
+	private static final SparseMatrix COUNTS = new SparseMatrix(6, new int[] {0, 2, 3, 3, 4, 5, 6},
+			new int[] {0, 2, 1, 0, 3, 5}, new double[] {3, 5, 2, 1, 1, 1});
+
+	@Test
+	public void entriesHaveDirichletMoments() {
+		int n = COUNTS.getSize();
+		// row 0 with alpha = (4, 1, 6, 1, 1, 1)
+		double total = COUNTS.getRowSum(0) + n;
+		int[] columns = {0, 1, 3};
+		double[] alphas = {4, 1, 1};
+		double[][] entries = new double[columns.length][SAMPLES];
+
+		DirichletSample sample = new DirichletSample(COUNTS);
+		double[] x = new double[n];
+		double[] y = new double[n];
+		for (int k = 0; k < SAMPLES; k++) {
+			sample.draw(SplitMix64.split(11, k));
+			for (int c = 0; c < columns.length; c++) {
+				x[columns[c]] = 1;
+				sample.apply(x, y);
+				x[columns[c]] = 0;
+				entries[c][k] = y[0];
+				// a row without counts stays 0
+				assertEquals(0, y[2], 0);
+			}
+		}
+
+		for (int c = 0; c < columns.length; c++) {
+			double mean = alphas[c] / total;
+			double variance = alphas[c] * (total - alphas[c]) / (total * total * (total + 1));
+			assertEquals("column " + columns[c], mean, mean(entries[c]), 5 * Math.sqrt(variance / SAMPLES));
+			assertEquals("column " + columns[c], variance, covariance(entries[c], entries[c]), VARIANCE_DELTA * variance);
+		}
+		// two uncounted entries are slightly anticorrelated, -1 / (total - 1), not drawn as one
+		double correlation = covariance(entries[1], entries[2])
+				/ Math.sqrt(covariance(entries[1], entries[1]) * covariance(entries[2], entries[2]));
+		assertEquals(-1 / (total - 1), correlation, 5 / Math.sqrt(SAMPLES));
+	}
+
+	@Test
+	public void rowsSumToOneAndTransposeAgrees() {
+		int n = COUNTS.getSize();
+		DirichletSample sample = new DirichletSample(COUNTS);
+		sample.draw(new SplitMix64(5));
+		double[] ones = ArnoldiEigenvaluesTest.ones(n);
+		double[] y = new double[n];
+		sample.apply(ones, y);
+		for (int i = 0; i < n; i++) {
+			assertEquals("row " + i, i == 2 ? 0 : 1, y[i], 1e-12);
+		}
+
+		SplitMix64 random = new SplitMix64(6);
+		double[] u = new double[n];
+		double[] v = new double[n];
+		for (int i = 0; i < n; i++) {
+			u[i] = random.nextGaussian();
+			v[i] = random.nextGaussian();
+		}
+		double[] tv = new double[n];
+		double[] tu = new double[n];
+		sample.apply(v, tv);
+		sample.applyTransposed(u, tu);
+		double left = 0;
+		double right = 0;
+		for (int i = 0; i < n; i++) {
+			left += u[i] * tv[i];
+			right += tu[i] * v[i];
+		}
+		assertEquals(left, right, 1e-12);
+	}
+
+	/** Finds the mean of some values - O(n)
+	 * @param values The values
+	 * @return The mean
+	 */
+	private static double mean(double[] values) {
+		double sum = 0;
+		for (double v : values) {
+			sum += v;
+		}
+		return sum / values.length;
+	}
+
+	/** Finds the sample covariance of two sequences of values - O(n)
+	 * @param a The first values
+	 * @param b The second values, as many
+	 * @return The covariance
+	 */
+	private static double covariance(double[] a, double[] b) {
+		double meanA = mean(a);
+		double meanB = mean(b);
+		double sum = 0;
+		for (int k = 0; k < a.length; k++) {
+			sum += (a[k] - meanA) * (b[k] - meanB);
+		}
+		return sum / (a.length - 1);
+	}
+}
@@ -0,0 +1,101 @@
+package minimumFreeEnergyPath.markovModel;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/** Tests of FirstPassageTimes against the closed form for two states and
+ * dense linear solves for a longer chain */
+public class FirstPassageTimesTest {
+
+	/** Largest difference allowed relative to a time */
+	private static final double RELATIVE_DELTA = 1e-8;
+
+	@Test
+	public void matchesClosedFormForTwoStates() throws InterruptedException {
+		TransitionCounts counts = new TransitionCounts();
+		counts.add(0, 0, 0, 0, 30);
+		counts.add(0, 0, 1, 0, 4);
+		counts.add(1, 0, 0, 0, 7);
+		counts.add(1, 0, 1, 0, 12);
+		List<BitSet> targets = new ArrayList<BitSet>();
+		targets.add(set(1));
+		targets.add(set(0));
+		FirstPassageTimes times = new FirstPassageTimes(SparseMatrix.fromCounts(counts), targets, 1);
+		assertEquals(0, times.getUnconverged());
+
+		// leaving takes a geometric number of steps, 1 / T_01 on average
+		double toOne = (30 + 4 + 2) / (4 + 1.0);
+		double toZero = (7 + 12 + 2) / (7 + 1.0);
+		assertArrayEquals(new double[] { toOne, 0 }, times.getTimes(0), RELATIVE_DELTA * toOne);
+		assertArrayEquals(new double[] { 0, toZero }, times.getTimes(1), RELATIVE_DELTA * toZero);
+	}
+
+	@Test
+	public void matchesDenseSolve() throws InterruptedException {
+		SparseMatrix counts = SparseMatrix.fromCounts(TransitionPathTheoryTest.randomChain(new Random(4)));
+		int n = counts.getSize();
+		List<BitSet> targets = new ArrayList<BitSet>();
+		for (int state = 0; state < n; state++) {
+			targets.add(set(state));
+		}
+		BitSet pair = set(2);
+		pair.set(n - 1);
+		targets.add(pair);
+		FirstPassageTimes sequential = new FirstPassageTimes(counts, targets, 1);
+		FirstPassageTimes parallel = new FirstPassageTimes(counts, targets, 3);
+		double[][] t = TransitionPathTheoryTest.denseTransitions(counts);
+		for (int k = 0; k < targets.size(); k++) {
+			double[] expected = denseTimes(t, targets.get(k));
+			for (int i = 0; i < n; i++) {
+				assertEquals("target " + k + " state " + i, expected[i], sequential.getTimes(k)[i],
+						RELATIVE_DELTA * expected[i]);
+				assertEquals("target " + k + " state " + i, expected[i], parallel.getTimes(k)[i],
+						RELATIVE_DELTA * expected[i]);
+			}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsEmptyTarget() throws InterruptedException {
+		List<BitSet> targets = new ArrayList<BitSet>();
+		targets.add(new BitSet());
+		new FirstPassageTimes(SparseMatrix.fromCounts(TransitionPathTheoryTest.randomChain(new Random(5))), targets, 1);
+	}
+
+	/** Solves m = 1 + T m off the target, m = 0 on it, by Gaussian elimination - O(n^3)
+	 * @param t The dense transition matrix
+	 * @param target The target set
+	 * @return The time from each state
+	 */
+	private static double[] denseTimes(double[][] t, BitSet target) {
+		int n = t.length;
+		double[][] a = new double[n][n + 1];
+		for (int i = 0; i < n; i++) {
+			a[i][i] = 1;
+			if (!target.get(i)) {
+				for (int j = 0; j < n; j++) {
+					a[i][j] -= t[i][j];
+				}
+				a[i][n] = 1;
+			}
+		}
+		return TransitionPathTheoryTest.solve(a);
+	}
+
+	/** Builds a set of a single state
+	 * @param state The state
+	 * @return The set
+	 */
+	private static BitSet set(int state) {
+		BitSet set = new BitSet();
+		set.set(state);
+		return set;
+	}
+}
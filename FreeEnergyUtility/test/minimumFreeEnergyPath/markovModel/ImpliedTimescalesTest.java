@@ -0,0 +1,152 @@
+package minimumFreeEnergyPath.markovModel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/** Tests of ImpliedTimescales against the closed form of a two state model
+ * and its bands against those of dense Dirichlet samples */
+public class ImpliedTimescalesTest {
+
+	/** Largest difference allowed relative to a timescale */
+	private static final double RELATIVE_DELTA = 1e-8;
+	/** Largest difference allowed relative to the edges and width of a band */
+	private static final double BAND_DELTA = 0.05;
+
+	@Test
+	public void matchesClosedFormForTwoStates() {
+		SparseMatrix counts = twoStates(300, 6, 9, 200);
+		// T = (Z + 1) / (rowSums(Z) + 2), whose second eigenvalue is 1 - T_01 - T_10
+		double leave = 7 / 308.0;
+		double enter = 10 / 211.0;
+		for (int lag : new int[] { 1, 5 }) {
+			ImpliedTimescales timescales = new ImpliedTimescales(counts, lag, 1, 0, DirichletBootstrap.DEFAULT_SEED);
+			double expected = -lag / Math.log(1 - leave - enter);
+			assertEquals(lag, timescales.getLag());
+			assertEquals(expected, timescales.getTimescales()[0], RELATIVE_DELTA * expected);
+		}
+	}
+
+	@Test
+	public void bandsHoldEstimate() {
+		SparseMatrix counts = twoStates(3000, 60, 90, 2000);
+		ImpliedTimescales timescales = new ImpliedTimescales(counts, 1, 1, 200, DirichletBootstrap.DEFAULT_SEED);
+		assertEquals(200, timescales.getSamples());
+		double estimate = timescales.getTimescales()[0];
+		assertTrue(timescales.getLower()[0] < estimate);
+		assertTrue(estimate < timescales.getUpper()[0]);
+		// a sample's timescale is near the estimate's, for so many counts
+		assertTrue(timescales.getUpper()[0] < 1.5 * timescales.getLower()[0]);
+	}
+
+	@Test
+	public void bandsMatchDenseSamples() {
+		// few counts over many states, so that the prior shapes the bands
+		SparseMatrix counts = SparseMatrix.fromCounts(StationaryDistributionTest.randomWalk(new Random(4), 60, 3000));
+		ImpliedTimescales timescales = new ImpliedTimescales(counts, 1, 1, 1000, DirichletBootstrap.DEFAULT_SEED);
+		double[] reference = denseSampleTimescales(counts, new Random(8), 2000);
+		double lower = quantile(reference, ImpliedTimescales.LOWER_QUANTILE);
+		double upper = quantile(reference, ImpliedTimescales.UPPER_QUANTILE);
+		assertEquals(lower, timescales.getLower()[0], BAND_DELTA * lower);
+		assertEquals(upper, timescales.getUpper()[0], BAND_DELTA * upper);
+		// a prior spread evenly over the uncounted states narrows the band by more than this
+		assertEquals(upper - lower, timescales.getUpper()[0] - timescales.getLower()[0], BAND_DELTA * (upper - lower));
+	}
+
+	@Test
+	public void sweepDoesNotDependOnThreads() throws InterruptedException {
+		SparseMatrix[] counts = new SparseMatrix[3];
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = SparseMatrix.fromCounts(StationaryDistributionTest.randomWalk(new Random(i), 30, 3000));
+		}
+		int[] lags = { 1, 2, 4 };
+		List<ImpliedTimescales> one = ImpliedTimescales.sweep(counts, lags, 3, 20, 9, 1);
+		List<ImpliedTimescales> three = ImpliedTimescales.sweep(counts, lags, 3, 20, 9, 3);
+		for (int i = 0; i < lags.length; i++) {
+			for (int k = 0; k < 3; k++) {
+				assertEquals(one.get(i).getTimescales()[k], three.get(i).getTimescales()[k], 0);
+				assertEquals(one.get(i).getLower()[k], three.get(i).getLower()[k], 0);
+				assertEquals(one.get(i).getUpper()[k], three.get(i).getUpper()[k], 0);
+			}
+		}
+	}
+
+	/** Builds the counts of a two state model
+	 * @param stay0 The count from state 0 to itself
+	 * @param leave The count from state 0 to state 1
+	 * @param enter The count from state 1 to state 0
+	 * @param stay1 The count from state 1 to itself
+	 * @return The count matrix
+	 */
+	private static SparseMatrix twoStates(double stay0, double leave, double enter, double stay1) {
+		TransitionCounts counts = new TransitionCounts();
+		counts.add(0, 0, 0, 0, stay0);
+		counts.add(0, 0, 1, 0, leave);
+		counts.add(1, 0, 0, 0, enter);
+		counts.add(1, 0, 1, 0, stay1);
+		return SparseMatrix.fromCounts(counts);
+	}
+
+	/** Draws dense transition matrices from Dir(Z + 1), each entry a sum of
+	 * c + 1 unit exponentials, and finds the slowest timescale of each at
+	 * lag 1 from all of its eigenvalues - O(samples n^3)
+	 * @param counts The count matrix, of whole counts
+	 * @param random The source of the samples
+	 * @param samples The number of samples
+	 * @return The timescale of each sample
+	 */
+	private static double[] denseSampleTimescales(SparseMatrix counts, Random random, int samples) {
+		int n = counts.getSize();
+		double[] timescales = new double[samples];
+		for (int s = 0; s < samples; s++) {
+			double[][] t = new double[n][n];
+			for (int i = 0; i < n; i++) {
+				if (counts.getRowEnd(i) == counts.getRowStart(i)) {
+					continue;
+				}
+				double[] shapes = ArnoldiEigenvaluesTest.ones(n);
+				for (int k = counts.getRowStart(i); k < counts.getRowEnd(i); k++) {
+					shapes[counts.getColumn(k)] += counts.getValue(k);
+				}
+				double total = 0;
+				for (int j = 0; j < n; j++) {
+					for (int m = 0; m < shapes[j]; m++) {
+						t[i][j] -= Math.log(1 - random.nextDouble());
+					}
+					total += t[i][j];
+				}
+				for (int j = 0; j < n; j++) {
+					t[i][j] /= total;
+				}
+			}
+			double[] start = new double[n];
+			for (int i = 0; i < n; i++) {
+				// not 1, the right eigenvector of the stationary eigenvalue
+				start[i] = random.nextGaussian();
+			}
+			ArnoldiEigenvalues eigenvalues = new ArnoldiEigenvalues(ArnoldiEigenvaluesTest.dense(t), 2, start, n,
+					ArnoldiEigenvalues.DEFAULT_TOLERANCE);
+			timescales[s] = -1 / Math.log(eigenvalues.getModulus(1));
+		}
+		return timescales;
+	}
+
+	/** Finds a quantile of some values by linear interpolation, as R's
+	 * quantile does by default - O(n log n)
+	 * @param values The values, sorted in place
+	 * @param probability The probability of the quantile
+	 * @return The quantile
+	 */
+	private static double quantile(double[] values, double probability) {
+		Arrays.sort(values);
+		double position = probability * (values.length - 1);
+		int below = (int) Math.floor(position);
+		int above = Math.min(below + 1, values.length - 1);
+		return values[below] + (position - below) * (values[above] - values[below]);
+	}
+}
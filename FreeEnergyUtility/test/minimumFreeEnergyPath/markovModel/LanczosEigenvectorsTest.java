@@ -0,0 +1,75 @@
+package minimumFreeEnergyPath.markovModel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/** Tests of LanczosEigenvectors on a symmetric matrix whose eigenpairs are
+ * known by construction */
+public class LanczosEigenvectorsTest {
+
+	/** Largest difference allowed in any eigenvalue or eigenvector */
+	private static final double DELTA = 1e-7;
+	/** Largest eigenvalues of the matrix */
+	private static final double[] LARGEST = { 0.99, 0.95, 0.9, 0.8 };
+
+	@Test
+	public void findsLargestEigenpairs() {
+		check(200, 30);
+	}
+
+	@Test
+	public void restartsBasisSmallerThanMatrix() {
+		check(200, 12);
+	}
+
+	/** Checks the largest eigenpairs of a matrix Q D Q^T, Q a Householder
+	 * reflection, whose eigenvectors are the columns of Q
+	 * @param n The size of the matrix
+	 * @param maxBasis The largest number of vectors in the basis
+	 */
+	private static void check(int n, int maxBasis) {
+		Random random = new Random(n + maxBasis);
+		double[] d = new double[n];
+		for (int i = 0; i < n; i++) {
+			d[i] = i < LARGEST.length ? LARGEST[i] : -0.5 + 1.1 * random.nextDouble();
+		}
+		double[] v = new double[n];
+		double length = 0;
+		for (int i = 0; i < n; i++) {
+			v[i] = random.nextGaussian();
+			length += v[i] * v[i];
+		}
+		double[][] q = new double[n][n];
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				q[i][j] = (i == j ? 1 : 0) - 2 * v[i] * v[j] / length;
+			}
+		}
+		double[][] a = new double[n][n];
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				for (int k = 0; k < n; k++) {
+					a[i][j] += q[i][k] * d[k] * q[j][k];
+				}
+			}
+		}
+
+		LanczosEigenvectors lanczos = new LanczosEigenvectors(ArnoldiEigenvaluesTest.dense(a), LARGEST.length,
+				ArnoldiEigenvaluesTest.ones(n), maxBasis, LanczosEigenvectors.DEFAULT_TOLERANCE);
+		assertTrue(lanczos.isConverged());
+		for (int k = 0; k < LARGEST.length; k++) {
+			assertEquals("eigenvalue " + k, LARGEST[k], lanczos.getEigenvalues()[k], DELTA);
+			// the same up to sign as column k of Q
+			double[] vector = lanczos.getEigenvectors()[k];
+			double dot = 0;
+			for (int i = 0; i < n; i++) {
+				dot += vector[i] * q[i][k];
+			}
+			assertEquals("eigenvector " + k, 1, Math.abs(dot), DELTA);
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package minimumFreeEnergyPath.markovModel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.After;
+import org.junit.Test;
+
+/** Tests that MetastableStates separates two weakly coupled blocks of states */
+public class MetastableStatesTest {
+
+	/** Largest difference allowed in a sum of probabilities */
+	private static final double DELTA = 1e-9;
+	/** Number of states in each block */
+	private static final int BLOCK = 5;
+
+	/** Pool shared by the products */
+	private final ForkJoinPool pool = new ForkJoinPool(2);
+
+	@After
+	public void tearDown() {
+		pool.shutdown();
+	}
+
+	@Test
+	public void separatesWeaklyCoupledBlocks() {
+		// a chain whose middle link is crossed rarely
+		TransitionCounts counts = new TransitionCounts();
+		for (int i = 0; i < 2 * BLOCK; i++) {
+			counts.add(i, 0, i, 0, 100);
+		}
+		for (int i = 0; i + 1 < 2 * BLOCK; i++) {
+			double link = i == BLOCK - 1 ? 1 : 50;
+			counts.add(i, 0, i + 1, 0, link);
+			counts.add(i + 1, 0, i, 0, link);
+		}
+		ReversibleEstimate estimate = new ReversibleEstimate(SparseMatrix.fromCounts(counts), pool);
+		MetastableStates macrostates = new MetastableStates(estimate.getTransitionMatrix(), estimate.getProbabilities(),
+				2, pool);
+		assertTrue(macrostates.isConverged());
+		assertEquals(1, macrostates.getEigenvalues()[0], 1e-8);
+		assertTrue(macrostates.getEigenvalues()[1] > 0.99);
+
+		int[] assignments = macrostates.getAssignments();
+		for (int i = 1; i < 2 * BLOCK; i++) {
+			if (i == BLOCK) {
+				assertNotEquals(assignments[i - 1], assignments[i]);
+			} else {
+				assertEquals("state " + i, assignments[i - 1], assignments[i]);
+			}
+		}
+		assertEquals(macrostates.getStates(assignments[0]).cardinality(), BLOCK);
+		assertTrue(macrostates.getCrispness() > 0.9);
+
+		double[] probabilities = macrostates.getProbabilities();
+		assertEquals(1, probabilities[0] + probabilities[1], DELTA);
+		double[][] coarse = macrostates.getCoarseMatrix();
+		for (int i = 0; i < 2; i++) {
+			assertEquals(1, coarse[i][0] + coarse[i][1], 1e-6);
+			assertTrue(coarse[i][i] > 0.99);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsSingleMacrostate() {
+		TransitionCounts counts = new TransitionCounts();
+		counts.add(0, 0, 1, 0, 1);
+		counts.add(1, 0, 0, 0, 1);
+		ReversibleEstimate estimate = new ReversibleEstimate(SparseMatrix.fromCounts(counts), pool);
+		new MetastableStates(estimate.getTransitionMatrix(), estimate.getProbabilities(), 1, pool);
+	}
+}
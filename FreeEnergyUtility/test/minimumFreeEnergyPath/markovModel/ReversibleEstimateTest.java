@@ -0,0 +1,115 @@
+package minimumFreeEnergyPath.markovModel;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.After;
+import org.junit.Test;
+
+/** Tests of ReversibleEstimate against the dense fixed point iteration of
+ * Bowman et al. and the detailed balance it promises */
+public class ReversibleEstimateTest {
+
+	/** Largest difference allowed in any probability or transition */
+	private static final double DELTA = 1e-9;
+
+	/** Pool shared by the sweeps */
+	private final ForkJoinPool pool = new ForkJoinPool(2);
+
+	@After
+	public void tearDown() {
+		pool.shutdown();
+	}
+
+	@Test
+	public void matchesDenseFixedPoint() {
+		SparseMatrix counts = SparseMatrix.fromCounts(StationaryDistributionTest.randomWalk(new Random(11), 20, 3000));
+		ReversibleEstimate estimate = new ReversibleEstimate(counts, pool);
+		assertTrue(estimate.isConverged());
+		assertArrayEquals(denseFixedPoint(counts), estimate.getProbabilities(), DELTA);
+	}
+
+	@Test
+	public void obeysDetailedBalance() {
+		SparseMatrix counts = SparseMatrix.fromCounts(StationaryDistributionTest.randomWalk(new Random(13), 20, 3000));
+		ReversibleEstimate estimate = new ReversibleEstimate(counts, pool);
+		double[] q = estimate.getProbabilities();
+		SparseMatrix t = estimate.getTransitionMatrix();
+		double[] carried = new double[q.length];
+		for (int i = 0; i < t.getSize(); i++) {
+			double total = 0;
+			for (int k = t.getRowStart(i); k < t.getRowEnd(i); k++) {
+				int j = t.getColumn(k);
+				total += t.getValue(k);
+				carried[j] += q[i] * t.getValue(k);
+				assertEquals(q[i] * t.getValue(k), q[j] * t.getValue(t.find(j, i)), DELTA);
+			}
+			assertEquals(1, total, DELTA);
+		}
+		// and so is stationary
+		assertArrayEquals(q, carried, DELTA);
+	}
+
+	/** Finds the reversible estimate by the dense fixed point iteration,
+	 * x_ij = (c_ij + c_ji) / (c_i / x_i + c_j / x_j), from X = C + C^T - O(n^2) per sweep
+	 * @param counts The count matrix
+	 * @return The stationary distribution, x_i / sum(X)
+	 */
+	private static double[] denseFixedPoint(SparseMatrix counts) {
+		int n = counts.getSize();
+		double[][] c = new double[n][n];
+		double[] out = new double[n];
+		for (int i = 0; i < n; i++) {
+			for (int k = counts.getRowStart(i); k < counts.getRowEnd(i); k++) {
+				c[i][counts.getColumn(k)] += counts.getValue(k);
+				out[i] += counts.getValue(k);
+			}
+		}
+		double[][] x = new double[n][n];
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < n; j++) {
+				x[i][j] = c[i][j] + c[j][i];
+			}
+		}
+		double[] q = new double[n];
+		for (int sweep = 0; sweep < 100000; sweep++) {
+			double[] rows = new double[n];
+			for (int i = 0; i < n; i++) {
+				for (int j = 0; j < n; j++) {
+					rows[i] += x[i][j];
+				}
+			}
+			double[][] next = new double[n][n];
+			for (int i = 0; i < n; i++) {
+				for (int j = 0; j < n; j++) {
+					if (x[i][j] > 0) {
+						next[i][j] = (c[i][j] + c[j][i]) / (out[i] / rows[i] + out[j] / rows[j]);
+					}
+				}
+			}
+			x = next;
+			double total = 0;
+			double[] nextQ = new double[n];
+			for (int i = 0; i < n; i++) {
+				for (int j = 0; j < n; j++) {
+					nextQ[i] += x[i][j];
+				}
+				total += nextQ[i];
+			}
+			double change = 0;
+			for (int i = 0; i < n; i++) {
+				nextQ[i] /= total;
+				change += Math.abs(nextQ[i] - q[i]);
+			}
+			q = nextQ;
+			if (change < 1e-15) {
+				break;
+			}
+		}
+		return q;
+	}
+}
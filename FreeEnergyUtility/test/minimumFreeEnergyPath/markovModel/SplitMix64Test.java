@@ -0,0 +1,39 @@
+package minimumFreeEnergyPath.markovModel;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/** Tests that the exponential variates of SplitMix64 follow the unit
+ * exponential distribution, through the layers of the ziggurat and its tail */
+public class SplitMix64Test {
+
+	/** Number of variates drawn */
+	private static final int DRAWS = 1000000;
+
+	@Test
+	public void exponentialHasUnitMomentsAndTail() {
+		double[] thresholds = {0.01, 0.1, 0.5, 1, 2, 4, 7, 7.7, 9};
+		int[] above = new int[thresholds.length];
+		double sum = 0;
+		double squares = 0;
+		SplitMix64 random = new SplitMix64(17);
+		for (int k = 0; k < DRAWS; k++) {
+			double x = random.nextExponential();
+			sum += x;
+			squares += x * x;
+			for (int t = 0; t < thresholds.length; t++) {
+				if (x > thresholds[t]) {
+					above[t]++;
+				}
+			}
+		}
+		double mean = sum / DRAWS;
+		assertEquals(1, mean, 5 / Math.sqrt(DRAWS));
+		assertEquals(1, squares / DRAWS - mean * mean, 0.01);
+		for (int t = 0; t < thresholds.length; t++) {
+			double expected = DRAWS * Math.exp(-thresholds[t]);
+			assertEquals("above " + thresholds[t], expected, above[t], 5 * Math.sqrt(expected));
+		}
+	}
+}
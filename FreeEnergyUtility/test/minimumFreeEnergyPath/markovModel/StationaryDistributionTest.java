@@ -0,0 +1,118 @@
+package minimumFreeEnergyPath.markovModel;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/** Tests of StationaryDistribution against the leading eigenvector of the
+ * dense transition matrix built as FreeEnergyUtility.r builds it */
+public class StationaryDistributionTest {
+
+	/** Largest difference allowed in the probability of any state */
+	private static final double DELTA = 1e-9;
+
+	@Test
+	public void matchesDenseEigenvector() {
+		TransitionCounts counts = randomWalk(new Random(3), 25, 2000);
+		StationaryDistribution distribution = new StationaryDistribution(counts);
+		assertTrue(distribution.isConverged());
+		assertArrayEquals(denseStationary(SparseMatrix.fromCounts(counts)), distribution.getProbabilities(), DELTA);
+	}
+
+	@Test
+	public void refinesPreviousDistribution() {
+		TransitionCounts counts = randomWalk(new Random(5), 25, 2000);
+		StationaryDistribution cold = new StationaryDistribution(counts);
+		StationaryDistribution warm = new StationaryDistribution(counts, cold.getProbabilities(),
+				StationaryDistribution.DEFAULT_TOLERANCE, StationaryDistribution.DEFAULT_MAX_ITERATIONS);
+		assertTrue(warm.getIterations() < cold.getIterations());
+		assertArrayEquals(cold.getProbabilities(), warm.getProbabilities(), DELTA);
+	}
+
+	@Test
+	public void freeEnergiesAreRelativeToMostProbableState() {
+		StationaryDistribution distribution = new StationaryDistribution(randomWalk(new Random(7), 10, 500));
+		double[] q = distribution.getProbabilities();
+		double[] energies = distribution.getFreeEnergies(0.6);
+		int most = 0;
+		for (int i = 0; i < q.length; i++) {
+			if (q[i] > q[most]) {
+				most = i;
+			}
+		}
+		assertEquals(0, energies[most], 0);
+		for (int i = 0; i < q.length; i++) {
+			assertEquals(-0.6 * Math.log(q[i] / q[most]), energies[i], DELTA);
+		}
+	}
+
+	/** Counts the transitions of a random walk, which ends in a state it
+	 * never leaves so that one row has no counts
+	 * @param random The source of the steps
+	 * @param states The number of bins walked over
+	 * @param steps The number of steps
+	 * @return The counts
+	 */
+	static TransitionCounts randomWalk(Random random, int states, int steps) {
+		TransitionCounts counts = new TransitionCounts();
+		int bin = 0;
+		for (int step = 0; step < steps; step++) {
+			int next = Math.max(0, Math.min(states - 1, bin + random.nextInt(5) - 2));
+			counts.add(bin, 0, next, 0, 1);
+			bin = next;
+		}
+		counts.add(bin, 0, states, 0, 1);
+		return counts;
+	}
+
+	/** Finds the stationary distribution by dense power iteration on
+	 * T = (Z + 1) / (rowSums(Z) + n), rows without counts 0 - O(n^2) per step
+	 * @param counts The count matrix
+	 * @return The distribution
+	 */
+	private static double[] denseStationary(SparseMatrix counts) {
+		int n = counts.getSize();
+		double[][] t = new double[n][n];
+		for (int i = 0; i < n; i++) {
+			if (counts.getRowEnd(i) == counts.getRowStart(i)) {
+				continue;
+			}
+			double total = counts.getRowSum(i) + n;
+			for (int j = 0; j < n; j++) {
+				t[i][j] = 1 / total;
+			}
+			for (int k = counts.getRowStart(i); k < counts.getRowEnd(i); k++) {
+				t[i][counts.getColumn(k)] += counts.getValue(k) / total;
+			}
+		}
+		double[] q = new double[n];
+		Arrays.fill(q, 1.0 / n);
+		for (int step = 0; step < 100000; step++) {
+			double[] next = new double[n];
+			double sum = 0;
+			for (int i = 0; i < n; i++) {
+				for (int j = 0; j < n; j++) {
+					next[j] += q[i] * t[i][j];
+				}
+			}
+			for (double v : next) {
+				sum += v;
+			}
+			double change = 0;
+			for (int j = 0; j < n; j++) {
+				next[j] /= sum;
+				change += Math.abs(next[j] - q[j]);
+			}
+			q = next;
+			if (change < 1e-15) {
+				break;
+			}
+		}
+		return q;
+	}
+}
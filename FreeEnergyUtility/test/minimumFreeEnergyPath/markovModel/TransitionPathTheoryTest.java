@@ -0,0 +1,197 @@
+package minimumFreeEnergyPath.markovModel;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.After;
+import org.junit.Test;
+
+/** Tests of TransitionPathTheory against committors and flux found by
+ * dense linear solves on the same transition matrix */
+public class TransitionPathTheoryTest {
+
+	/** Largest difference allowed in any committor or flux */
+	private static final double DELTA = 1e-8;
+	/** Number of states */
+	private static final int STATES = 12;
+
+	/** Pool shared by the products */
+	private final ForkJoinPool pool = new ForkJoinPool(2);
+
+	@After
+	public void tearDown() {
+		pool.shutdown();
+	}
+
+	@Test
+	public void matchesDenseSolve() {
+		TransitionCounts transitionCounts = randomChain(new Random(1));
+		SparseMatrix counts = SparseMatrix.fromCounts(transitionCounts);
+		StationaryDistribution distribution = new StationaryDistribution(counts, null, 1e-14,
+				StationaryDistribution.DEFAULT_MAX_ITERATIONS);
+		BitSet source = new BitSet();
+		source.set(0, 2);
+		BitSet sink = new BitSet();
+		sink.set(STATES - 2, STATES);
+		TransitionPathTheory tpt = new TransitionPathTheory(counts, distribution, source, sink, pool);
+		assertTrue(tpt.isConverged());
+
+		double[][] t = denseTransitions(counts);
+		double[] pi = distribution.getProbabilities();
+		double[][] reversed = new double[STATES][STATES];
+		for (int i = 0; i < STATES; i++) {
+			for (int j = 0; j < STATES; j++) {
+				reversed[i][j] = pi[j] * t[j][i] / pi[i];
+			}
+		}
+		double[] forward = committor(t, sink, source);
+		double[] backward = committor(reversed, source, sink);
+		assertArrayEquals(forward, tpt.getForwardCommittors(), DELTA);
+		assertArrayEquals(backward, tpt.getBackwardCommittors(), DELTA);
+
+		double flux = 0;
+		double lastInSource = 0;
+		for (int i = 0; i < STATES; i++) {
+			for (int j = 0; j < STATES; j++) {
+				double f = i == j ? 0 : pi[i] * backward[i] * t[i][j] * forward[j];
+				assertEquals(f, tpt.getReactiveFlux(i, j), DELTA);
+				if (source.get(i)) {
+					flux += f;
+				}
+			}
+			lastInSource += pi[i] * backward[i];
+		}
+		assertEquals(flux, tpt.getFlux(), DELTA);
+		assertEquals(flux / lastInSource, tpt.getRate(), DELTA * 10);
+	}
+
+	@Test
+	public void pathwaysLeadFromSourceToSink() {
+		SparseMatrix counts = SparseMatrix.fromCounts(randomChain(new Random(2)));
+		StationaryDistribution distribution = new StationaryDistribution(counts, null,
+				StationaryDistribution.DEFAULT_TOLERANCE, StationaryDistribution.DEFAULT_MAX_ITERATIONS);
+		BitSet source = new BitSet();
+		source.set(0);
+		BitSet sink = new BitSet();
+		sink.set(STATES - 1);
+		TransitionPathTheory tpt = new TransitionPathTheory(counts, distribution, source, sink, pool);
+		List<TransitionPathTheory.Pathway> pathways = tpt.getPathways(5, 0);
+		assertTrue(!pathways.isEmpty());
+		double last = Double.POSITIVE_INFINITY;
+		for (TransitionPathTheory.Pathway pathway : pathways) {
+			int[] states = pathway.getStates();
+			assertTrue(source.get(states[0]));
+			assertTrue(sink.get(states[states.length - 1]));
+			assertTrue(pathway.getFlux() > 0 && pathway.getFlux() <= last);
+			last = pathway.getFlux();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsOverlappingSets() {
+		SparseMatrix counts = SparseMatrix.fromCounts(randomChain(new Random(3)));
+		StationaryDistribution distribution = new StationaryDistribution(counts, null,
+				StationaryDistribution.DEFAULT_TOLERANCE, StationaryDistribution.DEFAULT_MAX_ITERATIONS);
+		BitSet states = new BitSet();
+		states.set(3);
+		new TransitionPathTheory(counts, distribution, states, states, pool);
+	}
+
+	/** Solves for the committor to a target, 1 on the target, 0 on the
+	 * other set, and T q = q elsewhere, by Gaussian elimination - O(n^3)
+	 * @param t The dense transition matrix
+	 * @param target The states on which the committor is 1
+	 * @param other The states on which the committor is 0
+	 * @return The committor of each state
+	 */
+	static double[] committor(double[][] t, BitSet target, BitSet other) {
+		int n = t.length;
+		double[][] a = new double[n][n + 1];
+		for (int i = 0; i < n; i++) {
+			a[i][i] = 1;
+			if (target.get(i)) {
+				a[i][n] = 1;
+			} else if (!other.get(i)) {
+				for (int j = 0; j < n; j++) {
+					a[i][j] -= t[i][j];
+				}
+			}
+		}
+		return solve(a);
+	}
+
+	/** Solves a dense system by Gaussian elimination with partial pivoting - O(n^3)
+	 * @param a The matrix, its last column the right hand side, overwritten
+	 * @return The solution
+	 */
+	static double[] solve(double[][] a) {
+		int n = a.length;
+		for (int col = 0; col < n; col++) {
+			int pivot = col;
+			for (int row = col + 1; row < n; row++) {
+				if (Math.abs(a[row][col]) > Math.abs(a[pivot][col])) {
+					pivot = row;
+				}
+			}
+			double[] swap = a[col];
+			a[col] = a[pivot];
+			a[pivot] = swap;
+			for (int row = col + 1; row < n; row++) {
+				double factor = a[row][col] / a[col][col];
+				for (int k = col; k <= n; k++) {
+					a[row][k] -= factor * a[col][k];
+				}
+			}
+		}
+		double[] x = new double[n];
+		for (int row = n - 1; row >= 0; row--) {
+			double sum = a[row][n];
+			for (int k = row + 1; k < n; k++) {
+				sum -= a[row][k] * x[k];
+			}
+			x[row] = sum / a[row][row];
+		}
+		return x;
+	}
+
+	/** Builds the dense transition matrix T = (Z + 1) / (rowSums(Z) + n) - O(n^2)
+	 * @param counts The count matrix, every row with counts
+	 * @return The matrix
+	 */
+	static double[][] denseTransitions(SparseMatrix counts) {
+		int n = counts.getSize();
+		double[][] t = new double[n][n];
+		for (int i = 0; i < n; i++) {
+			double total = counts.getRowSum(i) + n;
+			for (int j = 0; j < n; j++) {
+				t[i][j] = 1 / total;
+			}
+			for (int k = counts.getRowStart(i); k < counts.getRowEnd(i); k++) {
+				t[i][counts.getColumn(k)] += counts.getValue(k) / total;
+			}
+		}
+		return t;
+	}
+
+	/** Counts a random walk along a chain of states which steps at most two
+	 * states at a time and visits every state in both directions
+	 * @param random The source of the steps
+	 * @return The counts
+	 */
+	static TransitionCounts randomChain(Random random) {
+		TransitionCounts counts = new TransitionCounts();
+		int state = 0;
+		for (int step = 0; step < 5000; step++) {
+			int next = Math.max(0, Math.min(STATES - 1, state + random.nextInt(5) - 2));
+			counts.add(state, 0, next, 0, 1);
+			state = next;
+		}
+		return counts;
+	}
+}